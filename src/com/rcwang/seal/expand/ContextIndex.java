@@ -0,0 +1,224 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.expand;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds every occurrence of a set of strings (i.e. the left, middle and
+ * right contexts of all candidate wrappers of a document) in a single pass
+ * over the document, using an Aho-Corasick automaton. Afterwards,
+ * {@link #indexOf(String, int)} answers exactly what
+ * <code>String.indexOf(String, int)</code> would by a binary search
+ * over the occurrences, instead of rescanning the document.
+ *
+ * @author rcwang
+ */
+public class ContextIndex {
+
+  public static Logger log = Logger.getLogger(ContextIndex.class);
+
+  private static final int ROOT_TABLE_SIZE = 128;
+  private static final int INITIAL_BUFFER_SIZE = 4;
+
+  // the strings and their IDs
+  private Map<String, Integer> stringMap;
+  private int[] stringLengths;
+
+  // Aho-Corasick automaton: edges of state s are at [edgeStarts[s], edgeStarts[s+1])
+  private int[] edgeStarts;
+  private char[] edgeChars;
+  private int[] edgeStates;
+  private int[] rootTable;
+  private int[] fail;
+  // the string that ends at each state (or -1)
+  private int[] terminals;
+  // the nearest state on the failure path that ends a string (or 0)
+  private int[] dictLinks;
+
+  // start offsets of every occurrence of each string in the last text
+  private String text;
+  private int[][] occurrences;
+  private int[] numOccurrences;
+  // index of the occurrence last returned for each string
+  private int[] cursors;
+
+  public ContextIndex(Collection<String> strings) {
+    stringMap = new HashMap<String, Integer>();
+    for (String s : strings)
+      if (s.length() > 0 && !stringMap.containsKey(s))
+        stringMap.put(s, stringMap.size());
+    stringLengths = new int[stringMap.size()];
+    occurrences = new int[stringMap.size()][];
+    numOccurrences = new int[stringMap.size()];
+    cursors = new int[stringMap.size()];
+    for (Map.Entry<String, Integer> entry : stringMap.entrySet()) {
+      stringLengths[entry.getValue()] = entry.getKey().length();
+      occurrences[entry.getValue()] = new int[INITIAL_BUFFER_SIZE];
+    }
+    buildAutomaton();
+  }
+
+  /**
+   * Records the occurrences of every string in the text
+   */
+  public void index(String text) {
+    this.text = text;
+    Arrays.fill(numOccurrences, 0);
+    Arrays.fill(cursors, 0);
+
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int next;
+      while ((next = transit(state, c)) == -1 && state != 0)
+        state = fail[state];
+      state = (next == -1) ? 0 : next;
+
+      int t = (terminals[state] == -1) ? dictLinks[state] : state;
+      for (; t != 0; t = dictLinks[t]) {
+        int id = terminals[t];
+        addOccurrence(id, i - stringLengths[id] + 1);
+      }
+    }
+  }
+
+  /**
+   * Same as <code>text.indexOf(s, from)</code>, where text is the last
+   * indexed text; strings not given to the constructor are searched directly.
+   * Successive calls with increasing 'from' take amortized constant time.
+   */
+  public int indexOf(String s, int from) {
+    Integer id = stringMap.get(s);
+    if (id == null)
+      return text.indexOf(s, from);
+    int[] starts = occurrences[id];
+    int n = numOccurrences[id];
+    int j = cursors[id];
+    if (j > 0 && starts[j-1] >= from) {
+      // moving backwards
+      j = Arrays.binarySearch(starts, 0, j, from);
+    } else {
+      // gallop forward from the last occurrence returned
+      int step = 1, lo = j;
+      while (lo + step < n && starts[lo + step] < from) {
+        lo += step;
+        step *= 2;
+      }
+      j = Arrays.binarySearch(starts, lo, Math.min(lo + step + 1, n), from);
+    }
+    if (j < 0) j = -j - 1;
+    cursors[id] = j;
+    return (j < n) ? starts[j] : -1;
+  }
+
+  public int indexOf(String s) {
+    return indexOf(s, 0);
+  }
+
+  private void addOccurrence(int id, int start) {
+    int n = numOccurrences[id];
+    if (n == occurrences[id].length) {
+      int[] newStarts = new int[n * 2];
+      System.arraycopy(occurrences[id], 0, newStarts, 0, n);
+      occurrences[id] = newStarts;
+    }
+    occurrences[id][n] = start;
+    numOccurrences[id]++;
+  }
+
+  private void buildAutomaton() {
+    // build the keyword trie with linked lists of children
+    int capacity = 1;
+    for (int length : stringLengths)
+      capacity += length;
+    int[] firstChildren = new int[capacity];
+    int[] nextSiblings = new int[capacity];
+    char[] labels = new char[capacity];
+    terminals = new int[capacity];
+    Arrays.fill(firstChildren, -1);
+    Arrays.fill(terminals, -1);
+    int numStates = 1, numEdges = 0;
+
+    for (Map.Entry<String, Integer> entry : stringMap.entrySet()) {
+      String s = entry.getKey();
+      int state = 0;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        int child = firstChildren[state];
+        while (child != -1 && labels[child] != c)
+          child = nextSiblings[child];
+        if (child == -1) {
+          child = numStates++;
+          labels[child] = c;
+          nextSiblings[child] = firstChildren[state];
+          firstChildren[state] = child;
+          numEdges++;
+        }
+        state = child;
+      }
+      terminals[state] = entry.getValue();
+    }
+
+    // freeze the transitions into sorted arrays
+    edgeStarts = new int[numStates + 1];
+    edgeChars = new char[numEdges];
+    edgeStates = new int[numEdges];
+    long[] edges = new long[numStates];
+    int k = 0;
+    for (int state = 0; state < numStates; state++) {
+      edgeStarts[state] = k;
+      int n = 0;
+      for (int child = firstChildren[state]; child != -1; child = nextSiblings[child])
+        edges[n++] = ((long) labels[child] << 32) | child;
+      Arrays.sort(edges, 0, n);
+      for (int j = 0; j < n; j++, k++) {
+        edgeChars[k] = (char) (edges[j] >>> 32);
+        edgeStates[k] = (int) edges[j];
+      }
+    }
+    edgeStarts[numStates] = k;
+    rootTable = new int[ROOT_TABLE_SIZE];
+    Arrays.fill(rootTable, -1);
+    for (int j = edgeStarts[0]; j < edgeStarts[1]; j++)
+      if (edgeChars[j] < ROOT_TABLE_SIZE)
+        rootTable[edgeChars[j]] = edgeStates[j];
+
+    // compute failure and dictionary links in breadth-first order
+    fail = new int[numStates];
+    dictLinks = new int[numStates];
+    int[] queue = new int[numStates];
+    int head = 0, tail = 0;
+    for (int j = edgeStarts[0]; j < edgeStarts[1]; j++)
+      queue[tail++] = edgeStates[j];
+    while (head < tail) {
+      int state = queue[head++];
+      for (int j = edgeStarts[state]; j < edgeStarts[state+1]; j++) {
+        char c = edgeChars[j];
+        int child = edgeStates[j];
+        int f = fail[state], next;
+        while ((next = transit(f, c)) == -1 && f != 0)
+          f = fail[f];
+        fail[child] = (next == -1 || next == child) ? 0 : next;
+        dictLinks[child] = (terminals[fail[child]] != -1) ? fail[child] : dictLinks[fail[child]];
+        queue[tail++] = child;
+      }
+    }
+  }
+
+  private int transit(int state, char c) {
+    if (state == 0 && c < ROOT_TABLE_SIZE)
+      return rootTable[c];
+    int from = edgeStarts[state], to = edgeStarts[state+1];
+    if (from == to) return -1;
+    int j = Arrays.binarySearch(edgeChars, from, to, c);
+    return (j < 0) ? -1 : edgeStates[j];
+  }
+}
@@ -13,7 +13,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.TreeSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.net.URL;
 
 import org.apache.log4j.Logger;
@@ -65,6 +69,7 @@ public class OfflineSeal extends Pinniped {
     private int numPastWrappers;
     private int numPastDocs;
     private int numResults;
+    private int numExtractThreads;
     private int engine;
 
     public static void main(String args[])  {
@@ -152,6 +157,7 @@ public class OfflineSeal extends Pinniped {
         setFeature(gv.getFeature());
         setEngine(gv.getUseEngine());
         setNumResults(gv.getNumResults());
+        setNumExtractThreads(gv.getNumExtractThreads());
         setMinContextLength(gv.getMinContextLength());
         setMinSeedsBracketed(gv.getMinSeedsBracketed());
         URLBlackLister.setListFile(gv.getUrlBlackList());
@@ -261,6 +267,10 @@ public class OfflineSeal extends Pinniped {
         return wrapperFactory.getMinSeedsBracketed();
     }
 
+    public int getNumExtractThreads() {
+        return numExtractThreads;
+    }
+
     public int getNumLastWrappers() {
         return numLastWrappers;
     }
@@ -322,6 +332,13 @@ public class OfflineSeal extends Pinniped {
         wrapperFactory.setMinSeedsBracketed(minSeedsBracketed);
     }
 
+    /**
+     * @param numExtractThreads number of documents to build wrappers from in parallel
+     */
+    public void setNumExtractThreads(int numExtractThreads) {
+        this.numExtractThreads = numExtractThreads;
+    }
+
     public void setNumResults(int numResults) {
         this.numResults = numResults;
     }
@@ -395,6 +412,14 @@ public class OfflineSeal extends Pinniped {
         wrapperFactory.setLangID(extractLangID);
         wrapperFactory.setFeature(getFeature());
     
+        // build wrappers from several documents at once, each worker with its own factory
+        List<Future<Set<Wrapper>>> futures = null;
+        if (numExtractThreads > 1 && documents.size() > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(numExtractThreads);
+            futures = wrapperFactory.build(documents, executor, numExtractThreads);
+            executor.shutdown();
+        }
+
         int prevPercent = -1;
         Set<EntityLiteral> contents = new HashSet<EntityLiteral>();
     
@@ -409,12 +434,16 @@ public class OfflineSeal extends Pinniped {
             }
 
             if (document.isEmpty()) continue;
-            Set<Wrapper> wrappers = wrapperFactory.build(document);
+            Set<Wrapper> wrappers;
+            if (futures == null)
+                wrappers = wrapperFactory.build(document);
+            else wrappers = WrapperFactory.getWrappers(futures.get(i));
             if (wrappers.isEmpty()) continue;
 
             numLastWrappers += wrappers.size();
             numPastWrappers += wrappers.size();
             document.addWrappers(wrappers);
+            WrapperFactory.addOriginals(document, wrappers);
 
             for (Wrapper wrapper : wrappers) {
                 logWrapperLength += wrapper.getNumCommonTypes() * Math.log(wrapper.getContextLength());
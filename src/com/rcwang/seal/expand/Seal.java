@@ -5,10 +5,16 @@
 package com.rcwang.seal.expand;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Element;
@@ -16,6 +22,7 @@ import org.w3c.dom.Element;
 import com.rcwang.seal.expand.Wrapper.EntityLiteral;
 import com.rcwang.seal.fetch.Document;
 import com.rcwang.seal.fetch.DocumentSet;
+import com.rcwang.seal.fetch.DocumentStream;
 import com.rcwang.seal.fetch.URLBlackLister;
 import com.rcwang.seal.fetch.WebFetcher;
 import com.rcwang.seal.rank.Graph;
@@ -49,10 +56,12 @@ public class Seal extends Pinniped {
   private String fetchLangID;
   private double logWrapperLength;
   private boolean disableWalk;
+  private boolean streamDocuments;
   private int numLastWrappers;
   private int numPastWrappers;
   private int numPastDocs;
   private int numResults;
+  private int numExtractThreads;
   private int engine;
 
   public static DocumentSet fetch(EntityList seeds, String hint, String langID, 
@@ -77,6 +86,30 @@ public class Seal extends Pinniped {
     return documents;
   }
   
+  /**
+   * Same as {@link #fetch(EntityList, String, String, int, int)}, but puts each
+   * document into the stream as soon as it has been retrieved
+   */
+  public static void fetch(EntityList seeds, String hint, String langID, 
+                           int numResults, int engine, DocumentStream stream) {
+    log.info("Streaming webpages using " + seeds.size() + " queries: {" + seeds + "}");
+    if (!Helper.empty(hint))
+      log.info("\tand a hint: " + hint);
+    
+    WebFetcher webFetcher = new WebFetcher();
+    webFetcher.setLangID(langID);
+    webFetcher.setNumResults(numResults);
+    webFetcher.setUseEngine(engine);
+    webFetcher.fetchDocuments(seeds, hint, stream);
+    int numUrlsToFetch = webFetcher.getSnippets().size();
+    int numUrlsFetched = stream.getNumDocuments();
+    
+    // output the percentage of URLs fetched
+    double pctPageRetrieved = (numUrlsToFetch == 0) ? 0 : (double) numUrlsFetched / numUrlsToFetch;
+    log.info("Number of webpages retrieved: " + numUrlsFetched + " out of " + numUrlsToFetch + 
+             " (" + Helper.formatNumber(pctPageRetrieved*100, 1) + "%)");
+  }
+  
   public static void main(String args[]) {
     long startTime = System.currentTimeMillis();
 
@@ -133,9 +166,13 @@ public class Seal extends Pinniped {
     setFeature(gv.getFeature());
     setEngine(gv.getUseEngine());
     setNumResults(gv.getNumResults());
+    setNumExtractThreads(gv.getNumExtractThreads());
+    setStreamDocuments(gv.isStreamDocuments());
     setMinContextLength(gv.getMinContextLength());
     setMinSeedsBracketed(gv.getMinSeedsBracketed());
     URLBlackLister.setListFile(gv.getUrlBlackList());
+    if (gv.getWrapperLibraryDir() != null)
+      wrapperFactory.setWrapperLibrary(new WrapperLibrary(gv.getWrapperLibraryDir()));
   }
   
   public Seal(String langID) {
@@ -178,32 +215,49 @@ public class Seal extends Pinniped {
       return false;
     }
     
-    // output expansion information
-    String className = this.getClass().getSimpleName();
-    log.info(className + " is bracketing " + PairedTrie.toMinTypeStr(getMinSeedsBracketed()) + " of the " + seeds.size() + " wrapper seeds:");
-    log.info("{" + seeds + "}");
-    
+    logSeeds(seeds);
     setStartTime();
     // associate wrappers with documents
     extract(seeds, documents);
+    return finishExpansion(seeds, documents);
+  }
+  
+  /**
+   * Same as {@link #expand(EntityList, DocumentSet)}, but extracts from each
+   * document as soon as it comes out of the stream, while the rest are still
+   * being fetched; ranking starts once the stream is closed.
+   */
+  public boolean expand(EntityList seeds, DocumentStream stream) {
+    numLastEntities = 0;
+    numLastWrappers = 0;
     
-    if (numPastWrappers > 0)
-        log.info("Estimated List Quality: " + Helper.formatNumber(getListQuality(), 3));
-    else log.info("No results!");
+    if (seeds == null || seeds.isEmpty()) {
+      log.error("Error: Need at least one wrapper seed!");
+      if (stream != null) stream.close();
+      return false;
+    } else if (stream == null) {
+      log.error("Error: No webpages provided for set expansion!");
+      return false;
+    }
     
-    // load documents into the ranker
-    rank(seeds, documents);
+    logSeeds(seeds);
+    setStartTime();
+    // associate wrappers with documents as they arrive
+    DocumentSet documents = extract(seeds, stream);
+    this.lastDocs = documents;
     
-    entityList.assignScore(getFeature(), hasNoisySeeds());
-    entityList.scoreByLength(); // break any ties
-    entityList.sortByScore();
-
-    setSeeds(seeds);  // must be after rank()
-    setEndTime();
-    return true;
+    if (documents.size() == 0) {
+      log.error("Error: No webpages provided for set expansion!");
+      return false;
+    }
+    return finishExpansion(seeds, documents);
   }
   
   public boolean expand(EntityList wrapperSeeds, EntityList pageSeeds, String hint) {
+    // serialized documents can only be read or written as a whole
+    if (streamDocuments && !writeSerializedDocs && 
+        !(readSerializedDocs && getSerialFile(pageSeeds, hint).exists()))
+      return expand(wrapperSeeds, streamDocuments(pageSeeds, hint));
     return expand(wrapperSeeds, readDocuments(pageSeeds, hint));
   }
   
@@ -243,6 +297,10 @@ public class Seal extends Pinniped {
     return wrapperFactory.getMinSeedsBracketed();
   }
 
+  public int getNumExtractThreads() {
+    return numExtractThreads;
+  }
+
   public int getNumLastWrappers() {
     return numLastWrappers;
   }
@@ -267,6 +325,10 @@ public class Seal extends Pinniped {
     return disableWalk;
   }
 
+  public boolean isStreamDocuments() {
+    return streamDocuments;
+  }
+
   public void loadStopwords(File stopwordsFile) {
     wrapperFactory.loadStopwords(stopwordsFile);
   }
@@ -304,10 +366,25 @@ public class Seal extends Pinniped {
     wrapperFactory.setMinSeedsBracketed(minSeedsBracketed);
   }
 
+  /**
+   * @param numExtractThreads number of documents to build wrappers from in parallel
+   */
+  public void setNumExtractThreads(int numExtractThreads) {
+    this.numExtractThreads = numExtractThreads;
+  }
+
   public void setNumResults(int numResults) {
     this.numResults = numResults;
   }
 
+  /**
+   * @param streamDocuments true to extract from each document as soon as it is fetched 
+   * (and while the others are still being fetched) in {@link #expand(EntityList, EntityList, String)}
+   */
+  public void setStreamDocuments(boolean streamDocuments) {
+    this.streamDocuments = streamDocuments;
+  }
+
   public Element toXMLElement() {
     return toXMLElement(null);
   }
@@ -370,12 +447,37 @@ public class Seal extends Pinniped {
     }
   }
 
-  private Set<EntityLiteral> extract(EntityList seeds, DocumentSet documents) {
-    // configure wrapper factory
+  // associates the wrappers with the document
+  private void addWrappers(Document document, Set<Wrapper> wrappers, Set<EntityLiteral> contents) {
+    if (wrappers.isEmpty()) return;
+    numLastWrappers += wrappers.size();
+    numPastWrappers += wrappers.size();
+    document.addWrappers(wrappers);
+    WrapperFactory.addOriginals(document, wrappers);
+
+    for (Wrapper wrapper : wrappers) {
+      logWrapperLength += wrapper.getNumCommonTypes() * Math.log(wrapper.getContextLength());
+      contents.addAll(wrapper.getContents());
+    }
+  }
+
+  private void configureWrapperFactory(EntityList seeds) {
     wrapperFactory.setSeeds(seeds);
     wrapperFactory.setLangID(extractLangID);
     wrapperFactory.setFeature(getFeature());
+  }
+
+  private Set<EntityLiteral> extract(EntityList seeds, DocumentSet documents) {
+    configureWrapperFactory(seeds);
     
+    // build wrappers from several documents at once, each worker with its own factory
+    List<Future<Set<Wrapper>>> futures = null;
+    if (numExtractThreads > 1 && documents.size() > 1) {
+      ExecutorService executor = Executors.newFixedThreadPool(numExtractThreads);
+      futures = wrapperFactory.build(documents, executor, numExtractThreads);
+      executor.shutdown();
+    }
+
     int prevPercent = -1;
     Set<EntityLiteral> contents = new HashSet<EntityLiteral>();
     
@@ -390,21 +492,92 @@ public class Seal extends Pinniped {
       }
 
       if (document.isEmpty()) continue;
-      Set<Wrapper> wrappers = wrapperFactory.build(document);
-      if (wrappers.isEmpty()) continue;
-
-      numLastWrappers += wrappers.size();
-      numPastWrappers += wrappers.size();
-      document.addWrappers(wrappers);
+      Set<Wrapper> wrappers;
+      if (futures == null)
+        wrappers = wrapperFactory.build(document);
+      else wrappers = WrapperFactory.getWrappers(futures.get(i));
+      addWrappers(document, wrappers, contents);
+    }
+    numPastDocs += documents.size();
+    numLastEntities = contents.size();
+    return contents;
+  }
 
-      for (Wrapper wrapper : wrappers) {
-        logWrapperLength += wrapper.getNumCommonTypes() * Math.log(wrapper.getContextLength());
-        contents.addAll(wrapper.getContents());
+  /**
+   * Extracts from each document as soon as it comes out of the stream
+   * @return the documents taken from the stream
+   */
+  private DocumentSet extract(EntityList seeds, DocumentStream stream) {
+    configureWrapperFactory(seeds);
+    
+    // build wrappers from several documents at once, each worker with its own factory
+    ExecutorService executor = null;
+    BlockingQueue<WrapperFactory> workers = null;
+    if (numExtractThreads > 1) {
+      executor = Executors.newFixedThreadPool(numExtractThreads);
+      workers = wrapperFactory.newWorkers(numExtractThreads);
+    }
+    
+    DocumentSet documents = new DocumentSet();
+    List<Document> builtDocs = new ArrayList<Document>();
+    List<Future<Set<Wrapper>>> futures = new ArrayList<Future<Set<Wrapper>>>();
+    Set<EntityLiteral> contents = new HashSet<EntityLiteral>();
+    
+    try {
+      for (Document document; (document = stream.take()) != null;) {
+        // a document of the same URL is merged into the one taken before, and a
+        // near-duplicate is dropped unless it replaces a copy ranked lower
+        if (!documents.add(document)) continue;
+        log.info("Extracting from document " + documents.size() + ": " + document.getURL());
+        
+        if (document.isEmpty()) continue;
+        if (executor == null)
+          addWrappers(document, wrapperFactory.build(document), contents);
+        else {
+          builtDocs.add(document);
+          futures.add(wrapperFactory.build(document, executor, workers));
+        }
       }
+      for (int i = 0; i < futures.size(); i++)
+        addWrappers(builtDocs.get(i), WrapperFactory.getWrappers(futures.get(i)), contents);
+    } finally {
+      // stops the fetching if extraction has failed
+      stream.close();
+      if (executor != null)
+        executor.shutdown();
     }
     numPastDocs += documents.size();
     numLastEntities = contents.size();
-    return contents;
+    return documents;
+  }
+
+  // ranks the entities extracted from the documents
+  private boolean finishExpansion(EntityList seeds, DocumentSet documents) {
+    if (numPastWrappers > 0)
+        log.info("Estimated List Quality: " + Helper.formatNumber(getListQuality(), 3));
+    else log.info("No results!");
+    
+    // load documents into the ranker
+    rank(seeds, documents);
+    
+    entityList.assignScore(getFeature(), hasNoisySeeds());
+    entityList.scoreByLength(); // break any ties
+    entityList.sortByScore();
+    
+    // store the good wrappers for later expansions on the same sites
+    if (wrapperFactory.getWrapperLibrary() != null)
+      new WrapperSaver().saveToLibrary(wrapperFactory.getWrapperLibrary(), documents, entityList, seeds);
+
+    setSeeds(seeds);  // must be after rank()
+    setEndTime();
+    return true;
+  }
+
+  private void logSeeds(EntityList seeds) {
+    // output expansion information
+    String className = this.getClass().getSimpleName();
+    log.info(className + " is bracketing " + PairedTrie.toMinTypeStr(getMinSeedsBracketed()) + " of the " + seeds.size() + " wrapper seeds:");
+    log.info("{" + seeds + "}");
   }
 
   /**
@@ -454,4 +627,23 @@ public class Seal extends Pinniped {
     }
     return documents;
   }
+
+  // starts fetching documents into a stream in the background
+  private DocumentStream streamDocuments(final EntityList seeds, final String hint) {
+    if (Helper.empty(seeds)) return null;
+    
+    final DocumentStream stream = new DocumentStream();
+    Thread fetchThread = new Thread("document-stream") {
+      public void run() {
+        try {
+          fetch(seeds, hint, fetchLangID, numResults, engine, stream);
+        } finally {
+          stream.close();
+        }
+      }
+    };
+    fetchThread.setDaemon(true);
+    fetchThread.start();
+    return stream;
+  }
 }
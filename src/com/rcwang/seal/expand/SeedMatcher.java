@@ -0,0 +1,509 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.expand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds every occurrence of every (non-relational) seed in a document using
+ * a single pass over the text. Each seed is compiled into a small program
+ * that mirrors the regular expression built by {@link WrapperFactory#toEntityRE(String)}:
+ * optional characters (see {@link WrapperFactory#OPTIONAL_CHAR_STR}) match any
+ * one character or nothing, and runs of spaces or apostrophes match one or
+ * more of <code>[\s_'-]</code>. Matching is case-insensitive for US-ASCII only,
+ * just like <code>(?i)</code> without <code>UNICODE_CASE</code>.
+ *
+ * The first literal segment of every seed is inserted into an Aho-Corasick
+ * automaton; each hit of a segment proposes a few start positions, which are
+ * then verified by replaying the backtracking order of the regular expression.
+ * Hence the offsets reported for a seed are exactly those that
+ * <code>Matcher.find()</code> would have returned for its pattern.
+ *
+ * If a maximum middle length is given, each argument of a relational seed is
+ * compiled in the same way, and the occurrences of the two arguments are
+ * paired up like <code>s1((?:(?!s1|s2).)+?)s2</code> would (see
+ * {@link #pair(int, int, int, boolean)}), but in linear time and only if the
+ * middle is not longer than the maximum.
+ *
+ * Seeds that cannot be compiled (seeds without any literal character, or
+ * relational seeds if no maximum middle length is given) are left to the caller.
+ *
+ * @author rcwang
+ */
+public class SeedMatcher {
+
+  public static Logger log = Logger.getLogger(SeedMatcher.class);
+
+  // token types of a compiled seed
+  private static final byte LITERAL = 0;
+  private static final byte OPTIONAL = 1;
+  private static final byte SEPARATOR = 2;
+
+  private static final int[] NO_OUTPUT = new int[0];
+  private static final int ROOT_TABLE_SIZE = 128;
+  private static final int INITIAL_BUFFER_SIZE = 16;
+
+  // compiled programs, indexed by seed (null if not compiled)
+  private byte[][] types;
+  private char[][] chars;
+  // maximum number of characters that precede the anchor of each seed
+  private int[] maxLeads;
+
+  // Aho-Corasick automaton over the anchors
+  private char[][] edgeChars;
+  private int[][] edgeStates;
+  private int[] rootTable;
+  private int[] fail;
+  private int[][] outputs;
+  private int[] anchorLengths;
+  private int[][] anchorSeeds;
+
+  // per-seed matching state and results of the last call to match()
+  private int[] lastEnds;
+  private int[] lastTried;
+  private int[][] offsets;
+  private int[] numMatches;
+
+  // arguments of the i-th relational seed are compiled as seeds
+  // (numSeeds + i*2) and (numSeeds + i*2 + 1)
+  private int numSeeds;
+  private int maxMiddleLength;
+  private boolean[] isRelationCompiled;
+  // start, end, middle start, middle end and reversal of each relational match
+  private int[][] relations;
+
+  private static char fold(char c) {
+    return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private static boolean hasUnpairedSurrogate(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (Character.isHighSurrogate(c) && i+1 < s.length() && Character.isLowSurrogate(s.charAt(i+1)))
+        i++;
+      else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c))
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean isOptional(char c) {
+    return c == '.' || c == '-' || c == '·' || c == '・';
+  }
+
+  // same as "[\\s']" in WrapperFactory.toEntityRE()
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+           c == '\f' || c == '\r' || c == '\'';
+  }
+
+  // same as "[\\s_'-]" in WrapperFactory.toEntityRE()
+  private static boolean isSeparator(char c) {
+    return isSpace(c) || c == '_' || c == '-';
+  }
+
+  public SeedMatcher(EntityList seeds) {
+    this(seeds, 0);
+  }
+
+  /**
+   * @param maxMiddleLength maximum length of the middle context of relational
+   *        seeds; if zero, relational seeds are not compiled
+   */
+  public SeedMatcher(EntityList seeds, int maxMiddleLength) {
+    this.maxMiddleLength = maxMiddleLength;
+    numSeeds = seeds.size();
+    isRelationCompiled = new boolean[numSeeds];
+    relations = new int[numSeeds][];
+    int size = numSeeds * 3;
+    types = new byte[size][];
+    chars = new char[size][];
+    maxLeads = new int[size];
+    lastEnds = new int[size];
+    lastTried = new int[size];
+    offsets = new int[size][];
+    numMatches = new int[size];
+
+    // maps each distinct anchor to the seeds that share it
+    Map<String, List<Integer>> anchorMap = new TreeMap<String, List<Integer>>();
+    for (int i = 0; i < numSeeds; i++) {
+      Entity seed = seeds.get(i);
+      if (seed.isRelational()) {
+        if (maxMiddleLength <= 0) continue;
+        String[] names = seed.getNames();
+        int arg1 = numSeeds + i*2, arg2 = arg1 + 1;
+        String anchor1 = compile(arg1, names[0]);
+        String anchor2 = compile(arg2, names[1]);
+        if (anchor1 == null || anchor2 == null) continue;
+        addAnchor(anchorMap, anchor1, arg1);
+        addAnchor(anchorMap, anchor2, arg2);
+        isRelationCompiled[i] = true;
+        relations[i] = new int[INITIAL_BUFFER_SIZE * 5];
+      } else {
+        String anchor = compile(i, seed.getName().toString());
+        if (anchor != null)
+          addAnchor(anchorMap, anchor, i);
+      }
+    }
+    buildAutomaton(anchorMap);
+  }
+
+  /**
+   * @return the end offset (exclusive) of the j-th match of the i-th seed
+   */
+  public int getEnd(int i, int j) {
+    return isRelationCompiled[i] ? relations[i][j*5+1] : offsets[i][j*2+1];
+  }
+
+  /**
+   * @return the end offset (exclusive) of the middle of the j-th match of
+   *         the i-th (relational) seed
+   */
+  public int getMiddleEnd(int i, int j) {
+    return relations[i][j*5+3];
+  }
+
+  /**
+   * @return the start offset of the middle of the j-th match of
+   *         the i-th (relational) seed
+   */
+  public int getMiddleStart(int i, int j) {
+    return relations[i][j*5+2];
+  }
+
+  /**
+   * @return number of matches of the i-th seed found by the last {@link #match(CharSequence)}
+   */
+  public int getNumMatches(int i) {
+    return numMatches[i];
+  }
+
+  /**
+   * @return the start offset of the j-th match of the i-th seed
+   */
+  public int getStart(int i, int j) {
+    return isRelationCompiled[i] ? relations[i][j*5] : offsets[i][j*2];
+  }
+
+  /**
+   * @return true if the i-th seed is handled by this matcher
+   */
+  public boolean isCompiled(int i) {
+    return isRelationCompiled[i] || types[i] != null;
+  }
+
+  /**
+   * @return true if the j-th match of the i-th (relational) seed has its
+   *         second argument before its first
+   */
+  public boolean isReversed(int i, int j) {
+    return relations[i][j*5+4] != 0;
+  }
+
+  /**
+   * Finds all occurrences of the compiled seeds in the text. Results can be
+   * retrieved by {@link #getNumMatches(int)}, {@link #getStart(int, int)}
+   * and {@link #getEnd(int, int)}.
+   * @param text the text to be scanned
+   */
+  public void match(CharSequence text) {
+    Arrays.fill(numMatches, 0);
+    Arrays.fill(lastEnds, 0);
+    Arrays.fill(lastTried, -1);
+
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = fold(text.charAt(i));
+      int next;
+      while ((next = transit(state, c)) == -1 && state != 0)
+        state = fail[state];
+      state = (next == -1) ? 0 : next;
+
+      for (int anchor : outputs[state]) {
+        int anchorStart = i - anchorLengths[anchor] + 1;
+        for (int seedID : anchorSeeds[anchor])
+          verify(seedID, anchorStart, text);
+      }
+    }
+
+    // pair up the arguments of relational seeds
+    for (int i = 0; i < numSeeds; i++) {
+      if (!isRelationCompiled[i]) continue;
+      int arg1 = numSeeds + i*2, arg2 = arg1 + 1;
+      pair(i, arg1, arg2, false);
+      pair(i, arg2, arg1, true);
+    }
+  }
+
+  private void addAnchor(Map<String, List<Integer>> anchorMap, String anchor, int i) {
+    List<Integer> seedIDs = anchorMap.get(anchor);
+    if (seedIDs == null) {
+      seedIDs = new ArrayList<Integer>();
+      anchorMap.put(anchor, seedIDs);
+    }
+    seedIDs.add(i);
+    offsets[i] = new int[INITIAL_BUFFER_SIZE];
+  }
+
+  private void addRelation(int i, int start, int end, int middleStart, int middleEnd, boolean isReversed) {
+    int n = numMatches[i] * 5;
+    if (n + 5 > relations[i].length) {
+      int[] newRelations = new int[relations[i].length * 2];
+      System.arraycopy(relations[i], 0, newRelations, 0, n);
+      relations[i] = newRelations;
+    }
+    relations[i][n] = start;
+    relations[i][n+1] = end;
+    relations[i][n+2] = middleStart;
+    relations[i][n+3] = middleEnd;
+    relations[i][n+4] = isReversed ? 1 : 0;
+    numMatches[i]++;
+  }
+
+  private void addMatch(int i, int start, int end) {
+    int n = numMatches[i] * 2;
+    if (n + 2 > offsets[i].length) {
+      int[] newOffsets = new int[offsets[i].length * 2];
+      System.arraycopy(offsets[i], 0, newOffsets, 0, n);
+      offsets[i] = newOffsets;
+    }
+    offsets[i][n] = start;
+    offsets[i][n+1] = end;
+    numMatches[i]++;
+  }
+
+  private void buildAutomaton(Map<String, List<Integer>> anchorMap) {
+    List<Map<Character, Integer>> gotoList = new ArrayList<Map<Character, Integer>>();
+    List<List<Integer>> outputList = new ArrayList<List<Integer>>();
+    gotoList.add(new HashMap<Character, Integer>());
+    outputList.add(new ArrayList<Integer>());
+
+    anchorLengths = new int[anchorMap.size()];
+    anchorSeeds = new int[anchorMap.size()][];
+    int anchor = 0;
+
+    // build the keyword trie
+    for (Map.Entry<String, List<Integer>> entry : anchorMap.entrySet()) {
+      String s = entry.getKey();
+      int state = 0;
+      for (int i = 0; i < s.length(); i++) {
+        Integer next = gotoList.get(state).get(s.charAt(i));
+        if (next == null) {
+          next = gotoList.size();
+          gotoList.get(state).put(s.charAt(i), next);
+          gotoList.add(new HashMap<Character, Integer>());
+          outputList.add(new ArrayList<Integer>());
+        }
+        state = next;
+      }
+      outputList.get(state).add(anchor);
+      anchorLengths[anchor] = s.length();
+      anchorSeeds[anchor] = toArray(entry.getValue());
+      anchor++;
+    }
+
+    // freeze the transitions into sorted arrays
+    int numStates = gotoList.size();
+    edgeChars = new char[numStates][];
+    edgeStates = new int[numStates][];
+    for (int state = 0; state < numStates; state++) {
+      Map<Character, Integer> edges = new TreeMap<Character, Integer>(gotoList.get(state));
+      edgeChars[state] = new char[edges.size()];
+      edgeStates[state] = new int[edges.size()];
+      int j = 0;
+      for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+        edgeChars[state][j] = edge.getKey();
+        edgeStates[state][j] = edge.getValue();
+        j++;
+      }
+    }
+    rootTable = new int[ROOT_TABLE_SIZE];
+    Arrays.fill(rootTable, -1);
+    for (int j = 0; j < edgeChars[0].length; j++)
+      if (edgeChars[0][j] < ROOT_TABLE_SIZE)
+        rootTable[edgeChars[0][j]] = edgeStates[0][j];
+
+    // compute failure links in breadth-first order
+    fail = new int[numStates];
+    int[] queue = new int[numStates];
+    int head = 0, tail = 0;
+    for (int child : edgeStates[0])
+      queue[tail++] = child;
+    while (head < tail) {
+      int state = queue[head++];
+      for (int j = 0; j < edgeChars[state].length; j++) {
+        char c = edgeChars[state][j];
+        int child = edgeStates[state][j];
+        int f = fail[state], next;
+        while ((next = transit(f, c)) == -1 && f != 0)
+          f = fail[f];
+        fail[child] = (next == -1 || next == child) ? 0 : next;
+        outputList.get(child).addAll(outputList.get(fail[child]));
+        queue[tail++] = child;
+      }
+    }
+
+    outputs = new int[numStates][];
+    for (int state = 0; state < numStates; state++) {
+      List<Integer> output = outputList.get(state);
+      outputs[state] = output.isEmpty() ? NO_OUTPUT : toArray(output);
+    }
+  }
+
+  /**
+   * Compiles a seed into a list of tokens following the same rules as
+   * {@link WrapperFactory#toEntityRE(String)}
+   * @return the anchor (first literal segment) of the seed, or null if
+   *         the seed cannot be compiled
+   */
+  private String compile(int i, String s) {
+    // Pattern.quote() escapes "\E" in a way that the token rules do not cover
+    if (s.indexOf("\\E") != -1) return null;
+    // regexp never matches half of a surrogate pair, so leave broken ones to it
+    if (hasUnpairedSurrogate(s)) return null;
+
+    byte[] type = new byte[s.length()];
+    char[] chr = new char[s.length()];
+    int n = 0;
+    for (int j = 0; j < s.length(); j++) {
+      char c = s.charAt(j);
+      if (isOptional(c)) {
+        type[n++] = OPTIONAL;
+      } else if (isSpace(c)) {
+        // consecutive spaces and apostrophes collapse into one separator
+        if (n == 0 || type[n-1] != SEPARATOR)
+          type[n++] = SEPARATOR;
+      } else {
+        type[n] = LITERAL;
+        chr[n++] = fold(c);
+      }
+    }
+
+    // the anchor must be preceded by optional characters only
+    int lead = 0;
+    while (lead < n && type[lead] == OPTIONAL) lead++;
+    if (lead == n || type[lead] != LITERAL) {
+      log.debug("Seed \"" + s + "\" will be matched by regular expression");
+      return null;
+    }
+    int anchorEnd = lead;
+    while (anchorEnd < n && type[anchorEnd] == LITERAL) anchorEnd++;
+
+    types[i] = new byte[n];
+    chars[i] = new char[n];
+    System.arraycopy(type, 0, types[i], 0, n);
+    System.arraycopy(chr, 0, chars[i], 0, n);
+    // an optional character may span a surrogate pair
+    maxLeads[i] = lead * 2;
+    return new String(chr, lead, anchorEnd - lead);
+  }
+
+  /**
+   * Replays the backtracking order of the seed's regular expression
+   * @return the end offset of the match, or -1 if there is no match
+   */
+  private int matchFrom(int i, int t, CharSequence text, int pos) {
+    byte[] type = types[i];
+    char[] chr = chars[i];
+    int length = text.length();
+
+    for (; t < type.length; t++) {
+      switch (type[t]) {
+        case LITERAL:
+          if (pos >= length || fold(text.charAt(pos)) != chr[t]) return -1;
+          pos++;
+          break;
+        case OPTIONAL:
+          // greedy '.?' consumes one code point first
+          if (pos < length) {
+            int next = pos + 1;
+            if (next < length && Character.isHighSurrogate(text.charAt(pos)) &&
+                Character.isLowSurrogate(text.charAt(next)))
+              next++;
+            int end = matchFrom(i, t+1, text, next);
+            if (end != -1) return end;
+          }
+          break;
+        case SEPARATOR:
+          // greedy '+' consumes as much as possible then backs off
+          int max = pos;
+          while (max < length && isSeparator(text.charAt(max))) max++;
+          for (int p = max; p > pos; p--) {
+            int end = matchFrom(i, t+1, text, p);
+            if (end != -1) return end;
+          }
+          return -1;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Pairs each occurrence of the first argument with the next occurrence of
+   * the second, as <code>s1((?:(?!s1|s2).)+?)s2</code> would: the middle must
+   * be non-empty and no argument may start inside it. Unlike the regexp, only
+   * the first way an argument matches at a position is considered.
+   */
+  private void pair(int i, int first, int second, boolean isReversed) {
+    int n1 = numMatches[first], n2 = numMatches[second];
+    int[] offsets1 = offsets[first], offsets2 = offsets[second];
+    int from = 0;
+    for (int j1 = 0, k1 = 0, k2 = 0; j1 < n1; j1++) {
+      int start = offsets1[j1*2];
+      if (start < from) continue;
+      int middleStart = offsets1[j1*2+1];
+      // next occurrences of both arguments at or after the middle
+      while (k1 < n1 && offsets1[k1*2] < middleStart) k1++;
+      while (k2 < n2 && offsets2[k2*2] < middleStart) k2++;
+      if (k2 == n2) break;
+      int middleEnd = offsets2[k2*2];
+      if (middleEnd == middleStart) continue;
+      if (k1 < n1 && offsets1[k1*2] < middleEnd) continue;
+      if (middleEnd - middleStart > maxMiddleLength) continue;
+      addRelation(i, start, offsets2[k2*2+1], middleStart, middleEnd, isReversed);
+      from = offsets2[k2*2+1];
+    }
+  }
+
+  private int transit(int state, char c) {
+    if (state == 0 && c < ROOT_TABLE_SIZE)
+      return rootTable[c];
+    int j = Arrays.binarySearch(edgeChars[state], c);
+    return (j < 0) ? -1 : edgeStates[state][j];
+  }
+
+  /**
+   * Tries every start position from which the i-th seed could reach its
+   * anchor at anchorStart, in the same order as Matcher.find() would
+   */
+  private void verify(int i, int anchorStart, CharSequence text) {
+    int from = Math.max(anchorStart - maxLeads[i], 0);
+    from = Math.max(from, lastTried[i] + 1);
+    for (int start = Math.max(from, lastEnds[i]); start <= anchorStart; start++) {
+      if (start < lastEnds[i]) continue;
+      int end = matchFrom(i, 0, text, start);
+      if (end == -1) continue;
+      addMatch(i, start, end);
+      // arguments of relational seeds may overlap, as any start is tried by the regexp
+      if (i < numSeeds)
+        lastEnds[i] = end;
+    }
+    lastTried[i] = Math.max(lastTried[i], anchorStart);
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = list.get(i);
+    return array;
+  }
+}
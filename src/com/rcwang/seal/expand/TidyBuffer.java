@@ -0,0 +1,153 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.expand;
+
+import java.util.Locale;
+
+/**
+ * A reusable character buffer that holds the result of
+ * {@link WrapperFactory#tidy(String, boolean)} applied to a range of
+ * characters. Tidying is done in one pass using lookup tables instead of
+ * regular expressions, so that the candidate contents of a wrapper can be
+ * checked without creating any String; a String is created only by
+ * {@link #toString()}.
+ *
+ * @author rcwang
+ */
+public class TidyBuffer implements CharSequence {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  // characters of WrapperFactory.PUNCT_PATTERN: \p{Punct}, \s and the optional characters
+  private static final boolean[] PUNCT_TABLE = new boolean[128];
+  // characters replaced by a single space: [\s_] (and '-' if case-insensitive)
+  private static final boolean[] SPACE_TABLE = new boolean[128];
+
+  static {
+    String punct = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+    for (int i = 0; i < punct.length(); i++)
+      PUNCT_TABLE[punct.charAt(i)] = true;
+    String space = " \t\n\u000B\f\r";
+    for (int i = 0; i < space.length(); i++)
+      PUNCT_TABLE[space.charAt(i)] = SPACE_TABLE[space.charAt(i)] = true;
+    SPACE_TABLE['_'] = true;
+  }
+
+  private char[] chars;
+  private int length;
+
+  /**
+   * Same as <code>s.length() >= minContentLength</code> followed by
+   * the checks of {@link WrapperFactory#checkSimpleContent(String, int)}
+   */
+  public static boolean checkSimpleContent(CharSequence s, int minContentLength) {
+    int n = s.length();
+    if (n < minContentLength) return false;
+    if (n > WrapperFactory.MAX_CONTENT_LENGTH) return false;
+    if (n == 0) return true;
+
+    // same as WrapperFactory.BAD_PATTERN
+    char c = s.charAt(0);
+    if (n == 1 && ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')))
+      return false;
+    boolean isDigits = true, isPuncts = true;
+    for (int i = 0; i < n && (isDigits || isPuncts); i++) {
+      c = s.charAt(i);
+      isDigits &= (c >= '0' && c <= '9');
+      isPuncts &= isPunct(c);
+    }
+    // isPuncts is the same as WrapperFactory.PUNCT_PATTERN
+    return !isDigits && !isPuncts;
+  }
+
+  /**
+   * Same as <code>WrapperFactory.PUNCT_PATTERN.matcher(Character.toString(c)).matches()</code>
+   */
+  public static boolean isPunct(char c) {
+    if (c < 128) return PUNCT_TABLE[c];
+    return c == '·' || c == '、' || c == '。' || c == '・';
+  }
+
+  // String.toLowerCase() differs from Character.toLowerCase() for these
+  private static boolean isSpecialCase(CharSequence s, int from, int to) {
+    String language = Locale.getDefault().getLanguage();
+    if (language.equals("tr") || language.equals("az") || language.equals("lt"))
+      return true;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c == 'Σ' || c == 'İ' || Character.isHighSurrogate(c))
+        return true;
+    }
+    return false;
+  }
+
+  public TidyBuffer() {
+    chars = new char[INITIAL_CAPACITY];
+  }
+
+  public char charAt(int index) {
+    if (index >= length)
+      throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+    return chars[index];
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /**
+   * Stores <code>WrapperFactory.tidy(s.substring(from, to), isCaseSensitive)</code>
+   * into this buffer (except that the result is empty instead of null)
+   * @return this buffer
+   */
+  public TidyBuffer tidy(CharSequence s, int from, int to, boolean isCaseSensitive) {
+    boolean toLowerCase = !isCaseSensitive;
+    if (toLowerCase && isSpecialCase(s, from, to)) {
+      s = s.subSequence(from, to).toString().toLowerCase();
+      from = 0;
+      to = s.length();
+      toLowerCase = false;
+    }
+    if (chars.length < to - from)
+      chars = new char[Math.max(chars.length * 2, to - from)];
+
+    // replaces each run of spaces by one space, and strips punctuations at both ends
+    int n = 0, end = 0;
+    boolean isSpace = false;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (toLowerCase)
+        c = Character.toLowerCase(c);
+      if (c < 128 && (SPACE_TABLE[c] || (c == '-' && !isCaseSensitive))) {
+        if (isSpace) continue;
+        isSpace = true;
+        c = ' ';
+      } else isSpace = false;
+      if (n == 0 && isPunct(c)) continue;
+      chars[n++] = c;
+      if (!isPunct(c)) end = n;
+    }
+    length = end;
+
+    // "pamela s" => "pamela's"
+    for (int i = 0; i + 2 < length; i++) {
+      if (chars[i] == ' ' && chars[i+1] == 's' && chars[i+2] == ' ') {
+        chars[i] = '\'';
+        break;
+      }
+    }
+    if (length >= 2 && chars[length-2] == ' ' && chars[length-1] == 's')
+      chars[length-2] = '\'';
+    return this;
+  }
+
+  public String toString() {
+    return new String(chars, 0, length);
+  }
+}
@@ -5,7 +5,10 @@
 package com.rcwang.seal.expand;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -97,6 +100,8 @@ public class Wrapper {
   }
   private Map<EntityLiteral, Integer> contentTF;
   private Map<EntityLiteral, Double> contentWeight;
+  // names and original strings of the contents, in the order extracted
+  private List<String[]> originals;
   private EntityList seeds;
   private MiddleContext middle;
   private URL url;
@@ -124,6 +129,20 @@ public class Wrapper {
     contentTF.put(content, getContentTF(content) + 1);
   }
   
+  /**
+   * Keeps the original string of an extracted name until it is added
+   * to the {@link com.rcwang.seal.util.Originator}
+   */
+  public void addOriginal(String name, String original) {
+    if (originals == null)
+      originals = new ArrayList<String[]>();
+    originals.add(new String[] {name, original});
+  }
+  
+  public void clearOriginals() {
+    originals = null;
+  }
+  
   @Override
   public boolean equals(Object obj) {
     if (this == obj) return true;
@@ -177,6 +196,15 @@ public class Wrapper {
     return middle;
   }
   
+  /**
+   * @return pairs of name and original string, in the order extracted
+   */
+  public List<String[]> getOriginals() {
+    if (originals == null)
+      return Collections.emptyList();
+    return originals;
+  }
+  
   public int getNumCommonTypes() {
     return seeds.size();
   }
@@ -10,6 +10,12 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +25,7 @@ import com.rcwang.seal.expand.Wrapper.EntityLiteral;
 import com.rcwang.seal.expand.Wrapper.MiddleContext;
 import com.rcwang.seal.fetch.BadWordFilterer;
 import com.rcwang.seal.fetch.Document;
+import com.rcwang.seal.fetch.DocumentSet;
 import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.Helper;
 import com.rcwang.seal.util.Originator;
@@ -48,18 +55,66 @@ public class WrapperFactory {
   public static final Pattern BAD_PATTERN = Pattern.compile(BAD_PATTERN_STR);
   public static final Pattern PUNCT_PATTERN = Pattern.compile(PUNCT_CHAR_STR);
   
+  /**
+   * A document that can be read by a regexp only until a deadline,
+   * so that a pathological pattern cannot hold up the whole expansion
+   */
+  private static class TimedText implements CharSequence {
+    private static final int CHECK_INTERVAL = 4096;
+    private String text;
+    private long deadline;
+    private int numReads;
+    
+    public TimedText(String text, long deadline) {
+      this.text = text;
+      this.deadline = deadline;
+    }
+    
+    public char charAt(int index) {
+      if (++numReads == CHECK_INTERVAL) {
+        numReads = 0;
+        if (System.currentTimeMillis() > deadline)
+          throw new TimeOutException();
+      }
+      return text.charAt(index);
+    }
+    
+    public int length() {
+      return text.length();
+    }
+    
+    public CharSequence subSequence(int start, int end) {
+      return text.subSequence(start, end);
+    }
+    
+    public String toString() {
+      return text;
+    }
+  }
+  
+  private static class TimeOutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+  
   public static Logger log = Logger.getLogger(WrapperFactory.class);
   public static GlobalVar gv = GlobalVar.getGlobalVar();
   
   private List<Pattern[]> seedPatterns;
+  private SeedMatcher seedMatcher;
   private EntityList seeds;
   private Pattern contentPattern;
+  private Matcher contentMatcher;
+  private TidyBuffer contentBuf1, contentBuf2, nameBuf1, nameBuf2;
   private PairedTrie pairedTrie;
   private BadWordFilterer badWordFilterer;
+  private WrapperLibrary wrapperLibrary;
   private int minSeedsBracketed;
   private int minContextLength;
   private int minContentLength;
   private int wrapperLevel;
+  private boolean useSeedMatcher;
+  private int maxMiddleLength;
+  private int extractTimeOutInMS;
   
   public static String addApostrophe(String s) {
     int index = s.indexOf(" s ");
@@ -75,38 +130,27 @@ public class WrapperFactory {
   }
   
   public static boolean checkSimpleContent(String s, int minContentLength) {
-    if (s.length() < minContentLength) return false;
-    if (s.length() > MAX_CONTENT_LENGTH) return false;
-    if (BAD_PATTERN.matcher(s).matches()) return false;
-    if (PUNCT_PATTERN.matcher(s).matches()) return false;
-    return true;
+    // same as checking s against BAD_PATTERN and PUNCT_PATTERN
+    return TidyBuffer.checkSimpleContent(s, minContentLength);
   }
   
   public static boolean isPunct(char c) {
-    return PUNCT_PATTERN.matcher(Character.toString(c)).matches();
+    return TidyBuffer.isPunct(c);
   }
 
   public static String tidy(String s) {
     return tidy(s, false);
   }
   
+  /**
+   * Replaces runs of <code>[\s_]</code> (and '-' if not case-sensitive) by
+   * a space, strips punctuations at both ends, and adds apostrophes
+   * ("pamela_s" => "pamela's"); see {@link TidyBuffer}
+   */
   public static String tidy(String s, boolean isCaseSensitive) {
     if (s == null || s.length() == 0) return s;
-    if (isCaseSensitive)
-      s = s.replaceAll("[\\s_]+", " ");
-    else s = s.toLowerCase().replaceAll("[\\s_-]+", " ");  // [!] should be the same as the one below
-    
-    int startOffset = 0;
-    for (; startOffset < s.length(); startOffset++)
-      if (!isPunct(s.charAt(startOffset))) break;
-    
-    int endOffset = s.length();
-    for (; endOffset > startOffset; endOffset--)
-      if (!isPunct(s.charAt(endOffset-1))) break;
-    
-    s = s.substring(startOffset, endOffset);
-    s = addApostrophe(s); // "pamela_s" => "pamela's"
-    return s;
+    // [!] the spaces should be the same as the ones in toEntityRE()
+    return new TidyBuffer().tidy(s, 0, s.length(), isCaseSensitive).toString();
   }
   
   public static String toEntityRE(String s) {
@@ -168,10 +212,15 @@ public class WrapperFactory {
     setMinContextLength(gv.getMinContextLength());
     setMinSeedsBracketed(gv.getMinSeedsBracketed());
     setWrapperLevel(gv.getWrapperLevel());
+    setUseSeedMatcher(gv.isUseSeedMatcher());
+    setMaxMiddleLength(gv.getMaxMiddleLength());
+    setExtractTimeOutInMS(gv.getExtractTimeOutInMS());
     minContentLength = MIN_CONTENT_LENGTH;
+    initBuffers();
     
     seeds = new EntityList();
     pairedTrie = new PairedTrie();
+    pairedTrie.setUseSuffixArray(gv.isUseSuffixArray());
     badWordFilterer = new BadWordFilterer();
   }
   
@@ -180,6 +229,69 @@ public class WrapperFactory {
     setLangID(langID);
   }
   
+  /**
+   * Creates a copy that shares the seeds, patterns and stopwords of the input
+   * factory (read-only) but has its own trie, so that it can build wrappers
+   * in a different thread
+   */
+  public WrapperFactory(WrapperFactory factory) {
+    seeds = factory.seeds;
+    seedPatterns = factory.seedPatterns;
+    maxMiddleLength = factory.maxMiddleLength;
+    extractTimeOutInMS = factory.extractTimeOutInMS;
+    if (seedPatterns != null)
+      seedMatcher = new SeedMatcher(seeds, maxMiddleLength);
+    contentPattern = factory.contentPattern;
+    contentMatcher = contentPattern.matcher("");
+    initBuffers();
+    badWordFilterer = factory.badWordFilterer;
+    wrapperLibrary = factory.wrapperLibrary;
+    minSeedsBracketed = factory.minSeedsBracketed;
+    minContextLength = factory.minContextLength;
+    minContentLength = factory.minContentLength;
+    wrapperLevel = factory.wrapperLevel;
+    useSeedMatcher = factory.useSeedMatcher;
+    
+    pairedTrie = new PairedTrie();
+    pairedTrie.setFeature(factory.getFeature());
+    pairedTrie.setUseSuffixArray(factory.isUseSuffixArray());
+  }
+  
+  /**
+   * Adds the original strings of the contents that the wrappers extracted from
+   * the document to the {@link Originator}. Building leaves them in the wrappers,
+   * so that adding them in the order of the documents gives the same originals
+   * whether the documents were built one by one or several at once.
+   */
+  public static void addOriginals(Document document, Set<Wrapper> wrappers) {
+    for (Wrapper wrapper : wrappers) {
+      Object[] keys = new Object[] {wrapper, document.getText()};
+      for (String[] original : wrapper.getOriginals())
+        Originator.add(original[0], original[1], keys);
+      wrapper.clearOriginals();
+    }
+  }
+  
+  /**
+   * Waits for the wrappers built by {@link #build(DocumentSet, ExecutorService, int)}
+   * @return the wrappers, or an empty set if interrupted
+   */
+  public static Set<Wrapper> getWrappers(Future<Set<Wrapper>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while building wrappers!");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      log.error("Failed to build wrappers: " + e.getCause());
+    }
+    return new HashSet<Wrapper>();
+  }
+  
   public void addStopword(String stopword, boolean isUnigram) {
     badWordFilterer.add(stopword, isUnigram);
   }
@@ -196,17 +308,38 @@ public class WrapperFactory {
     Set<Wrapper> wrappers = new HashSet<Wrapper>();
     if (document == null || document.getText().trim().length() == 0)
       return wrappers;
+    
+    // apply the wrappers learned from the same site before, if any of them works;
+    // when the number of seeds to bracket is relative (most seeds or weight), it is 
+    // only known by inducing, so the stored wrappers are added to the induced ones
+    if (wrapperLibrary != null) {
+      wrappers = applyStoredWrappers(document);
+      if (!wrappers.isEmpty() && minSeedsBracketed >= PairedTrie.BRACKET_ALL_SEEDS) return wrappers;
+    }
 
     // for each seed, extract all contexts and insert them into the corresponding trie
     pairedTrie.clear();
     
+    // finds all compiled seeds in one pass
+    if (useSeedMatcher)
+      seedMatcher.match(document.getText());
+    
+    // the remaining seeds are matched by regexps within the time budget
+    long deadline = (extractTimeOutInMS > 0) ? System.currentTimeMillis() + extractTimeOutInMS : Long.MAX_VALUE;
     for (int i = 0; i < seeds.size(); i++) {
+      if (useSeedMatcher && seedMatcher.isCompiled(i)) {
+        getContext(seedMatcher, i, document.getText());
+        continue;
+      }
       try {
         // updates 'pairedTrie'
-        getContext(seedPatterns.get(i), seeds.get(i), document.getText());
+        getContext(seedPatterns.get(i), seeds.get(i), document.getText(), deadline);
       } catch (StackOverflowError soe) {
-        log.warn("A stack overflow error occurred!");
-        return wrappers;
+        // keeps the contexts of the other seeds
+        log.warn("A stack overflow error occurred while matching seed: " + seeds.get(i));
+      } catch (TimeOutException e) {
+        log.warn("Seed matching timed out after " + extractTimeOutInMS + "ms: " + document.getURL());
+        break;
       }
     }
 //    log.info(pairedTrie.toString());
@@ -214,15 +347,26 @@ public class WrapperFactory {
     // get longest common context
     Set<Wrapper> contexts = pairedTrie.getWrappers(minSeedsBracketed, minContextLength, 0);
     
+    // discard the contexts that cannot make wrappers before any extraction
+    List<Wrapper> candidates = new ArrayList<Wrapper>(contexts.size());
+    for (Wrapper context : contexts)
+      if (isCandidate(context))
+        candidates.add(context);
+    if (candidates.isEmpty()) return wrappers;
+    
+    // finds all contexts of all wrappers in one pass
+    ContextIndex index = new ContextIndex(getContextStrings(candidates));
+    index.index(document.getText());
+    
     // make wrappers based on context numTypes
     Wrapper wrapper;
-    for (Wrapper context : contexts) {
+    for (Wrapper context : candidates) {
       if (context.getNumCommonTypes() == 1) {
         // repeatedly make wrappers until one succeeds (i.e. extracts something)
-        wrapper = toUniSeedWrapper(context, document);
+        wrapper = toUniSeedWrapper(context, document, index);
       } else {
         // setting maxLength to zero means MAX_CONTENT_LENGTH
-        wrapper = toWrapper(context, document, 0);
+        wrapper = toWrapper(context, document, index, 0);
       }
       if (wrapper != null)
         wrappers.add(wrapper);
@@ -230,6 +374,48 @@ public class WrapperFactory {
     return wrappers;
   }
   
+  /**
+   * Builds wrappers for every document using numWorkers copies of this factory
+   * @param executor runs the workers
+   * @return one future per document, in the same order as the documents
+   */
+  public List<Future<Set<Wrapper>>> build(DocumentSet documents, ExecutorService executor, int numWorkers) {
+    BlockingQueue<WrapperFactory> workers = newWorkers(numWorkers);
+    List<Future<Set<Wrapper>>> futures = new ArrayList<Future<Set<Wrapper>>>();
+    for (Document document : documents)
+      futures.add(build(document, executor, workers));
+    return futures;
+  }
+  
+  /**
+   * Builds wrappers for the document using one of the workers, which are
+   * copies of this factory created by {@link #newWorkers(int)}
+   * @param executor runs the workers
+   */
+  public Future<Set<Wrapper>> build(final Document document, ExecutorService executor, 
+                                    final BlockingQueue<WrapperFactory> workers) {
+    return executor.submit(new Callable<Set<Wrapper>>() {
+      public Set<Wrapper> call() throws InterruptedException {
+        WrapperFactory worker = workers.take();
+        try {
+          return worker.build(document);
+        } finally {
+          workers.put(worker);
+        }
+      }
+    });
+  }
+  
+  /**
+   * @return numWorkers copies of this factory, for building wrappers from several documents at once
+   */
+  public BlockingQueue<WrapperFactory> newWorkers(int numWorkers) {
+    BlockingQueue<WrapperFactory> workers = new ArrayBlockingQueue<WrapperFactory>(numWorkers);
+    for (int i = 0; i < numWorkers; i++)
+      workers.add(new WrapperFactory(this));
+    return workers;
+  }
+  
   public void clear() {
     seeds.clear();
     pairedTrie.clear();
@@ -243,24 +429,62 @@ public class WrapperFactory {
   public int getMinContextLength() {
     return minContextLength;
   }
+
+  public WrapperLibrary getWrapperLibrary() {
+    return wrapperLibrary;
+  }
   
   public int getMinSeedsBracketed() {
     return minSeedsBracketed;
   }
   
+  public int getExtractTimeOutInMS() {
+    return extractTimeOutInMS;
+  }
+  
+  public int getMaxMiddleLength() {
+    return maxMiddleLength;
+  }
+  
+  public boolean isUseSeedMatcher() {
+    return useSeedMatcher;
+  }
+  
+  public boolean isUseSuffixArray() {
+    return pairedTrie.isUseSuffixArray();
+  }
+  
   public void loadStopwords(File listFile) {
     badWordFilterer.loadStopwords(listFile);
   }
   
+  /**
+   * Sets the time budget for matching the seeds of a document by regexps;
+   * the contexts found before the budget runs out are kept (0 for no limit)
+   */
+  public void setExtractTimeOutInMS(int extractTimeOutInMS) {
+    this.extractTimeOutInMS = extractTimeOutInMS;
+  }
+  
   public void setFeature(Object feature) {
     pairedTrie.setFeature(feature);
   }
   
   public void setLangID(String langID) {
     contentPattern = LangProvider.getLang(langID).getPattern();
+    contentMatcher = contentPattern.matcher("");
     log.debug("Content Pattern [" + langID + "]: " + contentPattern);
   }
 
+  /**
+   * Sets the maximum length of the middle context of relational seeds
+   * matched by {@link SeedMatcher} (0 to match them by regexps instead);
+   * takes effect on the next call to {@link #setSeeds(EntityList)}
+   */
+  public void setMaxMiddleLength(int maxMiddleLength) {
+    this.maxMiddleLength = maxMiddleLength;
+  }
+
   public void setMinContextLength(int minContextLength) {
     this.minContextLength = minContextLength;
   }
@@ -273,6 +497,7 @@ public class WrapperFactory {
     this.seeds.clear();
     this.seeds.addAll(seeds);
     seedPatterns = toSeedPatterns(this.seeds);
+    seedMatcher = new SeedMatcher(this.seeds, maxMiddleLength);
     
     // reset the minimum content length according to the seeds
     Integer minSeedLength = seeds.getMinStringLength();
@@ -280,35 +505,133 @@ public class WrapperFactory {
       minContentLength = Math.min(minSeedLength, minContentLength);
   }
   
-  private boolean checkContent(String s) {
-    if (!checkSimpleContent(s, minContentLength)) return false;
-    if (badWordFilterer.isBad(s)) return false;
-    if (!contentPattern.matcher(s).matches()) return false;
-    return true;
+  /**
+   * If set, the wrappers stored in the library for the site of a document
+   * are applied before any wrapper is induced from the document; none is
+   * induced if a stored wrapper extracts as many seeds as an induced
+   * wrapper must bracket (see {@link #setMinSeedsBracketed(int)})
+   */
+  public void setWrapperLibrary(WrapperLibrary wrapperLibrary) {
+    this.wrapperLibrary = wrapperLibrary;
+  }
+  
+  /**
+   * If true, seeds are located by {@link SeedMatcher} in one pass over the
+   * document; otherwise each seed is matched by its own regexp
+   */
+  public void setUseSeedMatcher(boolean useSeedMatcher) {
+    this.useSeedMatcher = useSeedMatcher;
+  }
+  
+  /**
+   * If true, longest common contexts are found by {@link PairedTrie}
+   * from suffix arrays instead of tries
+   */
+  public void setUseSuffixArray(boolean useSuffixArray) {
+    pairedTrie.setUseSuffixArray(useSuffixArray);
+  }
+  
+  private void addContext(String document, int start, int end, MiddleContext middleContext, Entity seed) {
+    // extract 'left' context
+    int leftStart = Math.max(start - MAX_CONTEXT_LENGTH, 0);
+    if (leftStart == start) return;
+
+    // extract 'right' context
+    int rightEnd = Math.min(end + MAX_CONTEXT_LENGTH, document.length());
+    if (rightEnd == end) return;
+    
+    // the contexts are read in place from the document
+    pairedTrie.add(document, leftStart, start, middleContext, end, rightEnd, seed);
+  }
+  
+  // number of current seeds that a stored wrapper must extract: at least minSeedsBracketed, or all of them
+  private int getMinStoredSeeds() {
+    if (minSeedsBracketed == PairedTrie.BRACKET_ALL_SEEDS)
+      return Math.max(seeds.size(), PairedTrie.MIN_TYPES);
+    return Math.max(minSeedsBracketed, PairedTrie.MIN_TYPES);
+  }
+  
+  // applies the stored wrappers of the document's site that suit the seeds
+  private Set<Wrapper> applyStoredWrappers(Document document) {
+    Set<Wrapper> wrappers = new HashSet<Wrapper>();
+    boolean isRelational = seeds.get(0).isRelational();
+    List<Wrapper> candidates = new ArrayList<Wrapper>();
+    for (Wrapper wrapper : wrapperLibrary.getWrappers(document.getURL())) {
+      if (wrapper.isRelational() != isRelational) continue;
+      wrapper.setSeeds(new HashSet<Entity>());
+      candidates.add(wrapper);
+    }
+    if (candidates.isEmpty()) return wrappers;
+    
+    ContextIndex index = new ContextIndex(getContextStrings(candidates));
+    index.index(document.getText());
+    for (Wrapper wrapper : candidates) {
+      if (wrapper.isRelational())
+        extractBinaryContents(wrapper, document.getText(), index);
+      else extractUnaryContents(wrapper, document.getText(), index);
+      wrapper.setURL(document.getURL());
+      
+      // the wrapper must extract as many of the current seeds as an induced wrapper must bracket, plus a non-seed
+      Set<Entity> seedsFound = new HashSet<Entity>();
+      int numNonSeeds = 0;
+      for (EntityLiteral content : wrapper.getContents()) {
+        boolean isSeed = false;
+        for (int i = 0; i < seedPatterns.size(); i++) {
+          for (Pattern p : seedPatterns.get(i)) {
+            if (p.matcher(content.toString()).matches()) {
+              seedsFound.add(seeds.get(i));
+              isSeed = true;
+            }
+          }
+        }
+        if (!isSeed) numNonSeeds++;
+      }
+      if (seedsFound.size() < getMinStoredSeeds() || numNonSeeds == 0) continue;
+      wrapper.setSeeds(seedsFound);
+      wrappers.add(wrapper);
+    }
+    if (!wrappers.isEmpty())
+      log.debug("Applied " + wrappers.size() + " stored wrappers to: " + document.getURL());
+    return wrappers;
+  }
+  
+  // returns the tidied content as a String if it is good, null otherwise
+  private String checkContent(TidyBuffer buf) {
+    if (!TidyBuffer.checkSimpleContent(buf, minContentLength)) return null;
+    if (!contentMatcher.reset(buf).matches()) return null;
+    String s = buf.toString();
+    if (badWordFilterer.isBad(s)) return null;
+    return s;
   }
 
-  private void extractUnaryContents(Wrapper wrapper, String document) {
-    int leftStart = document.indexOf(wrapper.getLeft());
+  private void initBuffers() {
+    contentBuf1 = new TidyBuffer();
+    contentBuf2 = new TidyBuffer();
+    nameBuf1 = new TidyBuffer();
+    nameBuf2 = new TidyBuffer();
+  }
+
+  private void extractUnaryContents(Wrapper wrapper, String document, ContextIndex index) {
+    int leftStart = index.indexOf(wrapper.getLeft());
     int rightStart = 0;
     int badContent = 0, goodContent = 0;
-    Object[] keys = new Object[] {wrapper, document};
 
     while (leftStart != -1) {
       int leftEnd = leftStart + wrapper.getLeft().length();
       if (leftEnd > rightStart) {
-        rightStart = document.indexOf(wrapper.getRight(), leftEnd + minContentLength);
+        rightStart = index.indexOf(wrapper.getRight(), leftEnd + minContentLength);
         if (rightStart == -1) break;
       }
-      int nextLeftStart = document.indexOf(wrapper.getLeft(), leftEnd);
+      int nextLeftStart = index.indexOf(wrapper.getLeft(), leftEnd);
       int nextLeftEnd = nextLeftStart + wrapper.getLeft().length();
       
       if (nextLeftStart == -1 || nextLeftEnd > rightStart) {  // added 11/10/2008
-        String content = tidy(document.substring(leftEnd, rightStart), true);
-        String name = tidy(content);
-        if (checkContent(name)) {
+        contentBuf1.tidy(document, leftEnd, rightStart, true);
+        String name = checkContent(nameBuf1.tidy(contentBuf1, 0, contentBuf1.length(), false));
+        if (name != null) {
           goodContent++;
           wrapper.addContent(new EntityLiteral(name));
-          Originator.add(name, content, keys);
+          wrapper.addOriginal(name, contentBuf1.toString());
         } else {
           badContent++;
           // to reduce processing time (added 04/14/2009)
@@ -320,46 +643,48 @@ public class WrapperFactory {
     }
   }
 
-  private void extractBinaryContents(Wrapper wrapper, String document) {
+  private void extractBinaryContents(Wrapper wrapper, String document, ContextIndex index) {
     if (!wrapper.isRelational()) return;
-    int leftStart = document.indexOf(wrapper.getLeft());
+    int leftStart = index.indexOf(wrapper.getLeft());
     int middleStart = 0, rightStart = 0;
     int badContent = 0, goodContent = 0;
-    Object[] keys = new Object[] {wrapper, document};
     
     while (leftStart != -1) {
       int leftEnd = leftStart + wrapper.getLeft().length();
       
       if (leftEnd > middleStart) {
-        middleStart = document.indexOf(wrapper.getMiddle(), leftEnd + minContentLength);
+        middleStart = index.indexOf(wrapper.getMiddle(), leftEnd + minContentLength);
         if (middleStart == -1) break;
       }
       
       int middleEnd = middleStart + wrapper.getMiddle().length();
       if (middleEnd > rightStart) {
-        rightStart = document.indexOf(wrapper.getRight(), middleEnd + minContentLength);
+        rightStart = index.indexOf(wrapper.getRight(), middleEnd + minContentLength);
         if (rightStart == -1) break;
       }
       
-      int nextLeftStart = document.indexOf(wrapper.getLeft(), leftEnd);
+      int nextLeftStart = index.indexOf(wrapper.getLeft(), leftEnd);
       int nextLeftEnd = nextLeftStart + wrapper.getLeft().length();
       
       if (nextLeftStart == -1 || nextLeftEnd > middleStart) {  // added 11/10/2008
-        String o1 = tidy(document.substring(leftEnd, middleStart), true);
-        String o2 = tidy(document.substring(middleEnd, rightStart), true);
+        TidyBuffer b1 = contentBuf1.tidy(document, leftEnd, middleStart, true);
+        TidyBuffer b2 = contentBuf2.tidy(document, middleEnd, rightStart, true);
         
         if (wrapper.isReversed()) {
           // flip o1 and o2
-          String o3 = o1; o1 = o2; o2 = o3;
+          TidyBuffer b3 = b1; b1 = b2; b2 = b3;
         }
-        String s1 = tidy(o1), s2 = tidy(o2);
+        String s1 = checkContent(nameBuf1.tidy(b1, 0, b1.length(), false));
+        String s2 = (s1 == null) ? null : checkContent(nameBuf2.tidy(b2, 0, b2.length(), false));
+        String o1 = (s2 == null) ? null : b1.toString();
+        String o2 = (s2 == null) ? null : b2.toString();
         
 //        if (checkContent(s1) && checkContent(s2) && !s1.equals(s2)) {
-        if (checkContent(s1) && checkContent(s2) && !o1.contains(o2) && !o2.contains(o1)) {
+        if (s2 != null && !o1.contains(o2) && !o2.contains(o1)) {
           goodContent++;
           wrapper.addContent(new EntityLiteral(s1, s2));
-          Originator.add(s1, o1, keys);
-          Originator.add(s2, o2, keys);
+          wrapper.addOriginal(s1, o1);
+          wrapper.addOriginal(s2, o2);
         } else {
           badContent++;
           // to reduce processing time (added 04/14/2009)
@@ -371,25 +696,49 @@ public class WrapperFactory {
     }
   }
 
-  private void getContext(Pattern[] seedPatterns, Entity seed, String document) throws StackOverflowError {
+  // discard context of only one space character, or that fails the wrapper level
+  private boolean isCandidate(Wrapper context) {
+    if (context.getLeft().equals(" ") || context.getRight().equals(" "))
+      return false;
+    if (wrapperLevel == 0 || match(context, wrapperLevel))
+      return true;
+    if (log.isDebugEnabled())
+      log.debug(Helper.repeat('-', 80) + "\nContext: " + context + "\n" + 
+                "WARN: The wrapper failed to match level: " + wrapperLevel);
+    return false;
+  }
+
+  // the strings that toWrapper() could search for, including the shortened
+  // contexts that toUniSeedWrapper() tries
+  private static List<String> getContextStrings(Collection<Wrapper> contexts) {
+    List<String> strings = new ArrayList<String>();
+    for (Wrapper context : contexts) {
+      String left = context.getLeft(), right = context.getRight();
+      strings.add(left);
+      strings.add(right);
+      if (context.isRelational())
+        strings.add(context.getMiddle());
+      if (context.getNumCommonTypes() != 1) continue;
+      for (int maxLength = UNISEED_MAX_CONTEXT_LENGTH; maxLength >= UNISEED_MIN_CONTEXT_LENGTH; maxLength /= 2) {
+        if (left.length() > maxLength)
+          strings.add(left = left.substring(left.length() - maxLength));
+        if (right.length() > maxLength)
+          strings.add(right = right.substring(0, maxLength));
+      }
+    }
+    return strings;
+  }
+
+  private void getContext(Pattern[] seedPatterns, Entity seed, String document, long deadline) throws StackOverflowError {
     boolean relationReversed = false;
+    CharSequence text = (deadline == Long.MAX_VALUE) ? document : new TimedText(document, deadline);
     
     for (Pattern p : seedPatterns) {
-      Matcher m = p.matcher(document);
+      Matcher m = p.matcher(text);
       
       // the following line consumes the most running time!
       while (m.find()) {
         
-        // extract 'left' context
-        int index = Math.max(m.start() - MAX_CONTEXT_LENGTH, 0);
-        String leftContext = document.substring(index, m.start());
-        if (leftContext.length() == 0) continue;
-
-        // extract 'right' context
-        index = Math.min(m.end() + MAX_CONTEXT_LENGTH, document.length());
-        String rightContext = document.substring(m.end(), index);
-        if (rightContext.length() == 0) continue;
-
         // extract 'middle' context
         MiddleContext middleContext = null;
         if (m.groupCount() > 0 && m.group(1) != null) {
@@ -399,31 +748,51 @@ public class WrapperFactory {
             middle = m.group(1);
           middleContext = new MiddleContext(middle, relationReversed);
         }
-        pairedTrie.add(leftContext, middleContext, rightContext, seed);
+        addContext(document, m.start(), m.end(), middleContext, seed);
       }
       relationReversed = !relationReversed;
     }
   }
 
-  private Wrapper toUniSeedWrapper(Wrapper context, Document document) {
+  // same as above, but uses the occurrences already found by the seed matcher
+  private void getContext(SeedMatcher seedMatcher, int i, String document) {
+    Entity seed = seeds.get(i);
+    for (int j = 0; j < seedMatcher.getNumMatches(i); j++) {
+      
+      // extract 'middle' context
+      MiddleContext middleContext = null;
+      if (seed.isRelational()) {
+        String group = document.substring(seedMatcher.getMiddleStart(i, j), seedMatcher.getMiddleEnd(i, j));
+        if (group.equals(" ")) continue;
+        String middle = group.trim();
+        if (middle.length() == 0)
+          middle = group;
+        middleContext = new MiddleContext(middle, seedMatcher.isReversed(i, j));
+      }
+      addContext(document, seedMatcher.getStart(i, j), seedMatcher.getEnd(i, j), middleContext, seed);
+    }
+  }
+
+  private Wrapper toUniSeedWrapper(Wrapper context, Document document, ContextIndex index) {
     for (int maxLength = UNISEED_MAX_CONTEXT_LENGTH; maxLength >= UNISEED_MIN_CONTEXT_LENGTH; maxLength /= 2) {
       // make wrappers with constrained context length
-      Wrapper wrapper = toWrapper(context, document, maxLength);
+      Wrapper wrapper = toWrapper(context, document, index, maxLength);
       if (wrapper != null) return wrapper;
     }
     return null;
   }
 
   // use the wrappers to extract content from document
-  private Wrapper toWrapper(Wrapper wrapper, Document document, int maxContextLength) {
+  private Wrapper toWrapper(Wrapper wrapper, Document document, ContextIndex index, int maxContextLength) {
     // discard context of only one space character (almost every English word is surrounded by spaces)
     String left = wrapper.getLeft(), right = wrapper.getRight();
     if (left.equals(" ") || right.equals(" "))
       return null;
     
     if (!match(wrapper, wrapperLevel)) {
-      log.debug(Helper.repeat('-', 80) + "\nContext: " + wrapper + "\n" + 
-                "WARN: The wrapper failed to match level: " + wrapperLevel);
+      if (log.isDebugEnabled())
+        log.debug(Helper.repeat('-', 80) + "\nContext: " + wrapper + "\n" + 
+                  "WARN: The wrapper failed to match level: " + wrapperLevel);
       return null;
     }
 
@@ -437,12 +806,13 @@ public class WrapperFactory {
     
     // extracts contents without using regexp => faster (added 05/03/2007)
     if (wrapper.isRelational())
-      extractBinaryContents(wrapper, document.getText());
-    else extractUnaryContents(wrapper, document.getText());
+      extractBinaryContents(wrapper, document.getText(), index);
+    else extractUnaryContents(wrapper, document.getText(), index);
     
     wrapper.setURL(document.getURL());
 //    log.debug("Seed Weights:" + wrapper.getCommonTypes().getSumWeights(getFeature()));
-    log.debug(Helper.repeat('-', 80) + "\n" + wrapper.toDetails());
+    if (log.isDebugEnabled())
+      log.debug(Helper.repeat('-', 80) + "\n" + wrapper.toDetails());
     
     // verifying the correctness of the wrapper
     int numSeeds = 0, numNonSeeds = wrapper.getContents().size();
@@ -470,7 +840,7 @@ public class WrapperFactory {
     return wrapper;
   }
   
-  private static boolean match(Wrapper wrapper, int level) {
+  static boolean match(Wrapper wrapper, int level) {
     int leftLevel = level / 10;
     int rightLevel = level - (leftLevel*10);
     
@@ -495,13 +865,45 @@ public class WrapperFactory {
    *    for right: starts with a compelete tag
    */
   private static boolean match(String s, int level, boolean isLeft) {
-    s = s.trim();
+    if (level == 0) return true;
+    // same as s.trim()
+    int start = 0, end = s.length();
+    while (start < end && s.charAt(start) <= ' ') start++;
+    while (end > start && s.charAt(end-1) <= ' ') end--;
+    if (start == end) return false;
+    
     switch (level) {
-      case 0: return true;
-      case 1: return s.contains("<") || s.contains(">");
-      case 2: return isLeft ? s.endsWith(">") : s.startsWith("<");
-      case 3: return s.matches("(?s).*<[^<>]+>.*");
-      case 4: return isLeft ? s.matches("(?s).*<[^<>]+>") : s.matches("(?s)<[^<>]+>.*");
+      case 1: // contains either '<' or '>'
+        for (int i = start; i < end; i++)
+          if (s.charAt(i) == '<' || s.charAt(i) == '>')
+            return true;
+        return false;
+      case 2:
+        return isLeft ? s.charAt(end-1) == '>' : s.charAt(start) == '<';
+      case 3: // same as s.matches("(?s).*<[^<>]+>.*")
+        for (int i = start, open = -1; i < end; i++) {
+          char c = s.charAt(i);
+          if (c == '<') open = i;
+          else if (c == '>') {
+            if (open != -1 && i > open + 1) return true;
+            open = -1;
+          }
+        }
+        return false;
+      case 4:
+        if (isLeft) {
+          // same as s.matches("(?s).*<[^<>]+>")
+          if (s.charAt(end-1) != '>') return false;
+          int i = end - 2;
+          while (i >= start && s.charAt(i) != '<' && s.charAt(i) != '>') i--;
+          return i >= start && i < end - 2 && s.charAt(i) == '<';
+        } else {
+          // same as s.matches("(?s)<[^<>]+>.*")
+          if (s.charAt(start) != '<') return false;
+          int i = start + 1;
+          while (i < end && s.charAt(i) != '<' && s.charAt(i) != '>') i++;
+          return i < end && i > start + 1 && s.charAt(i) == '>';
+        }
     }
     return false;
   }
@@ -0,0 +1,166 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.expand;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.rcwang.seal.expand.Wrapper.MiddleContext;
+import com.rcwang.seal.util.Helper;
+import com.rcwang.seal.util.StringEncoder;
+
+/**
+ * A persistent collection of wrappers, keyed by the host of the page that
+ * each wrapper was learned from. {@link WrapperFactory} applies the wrappers
+ * stored for a page (or for other pages of the same host) before inducing
+ * new ones from the page itself.
+ *
+ * Each host is stored in its own file in the library directory, one wrapper
+ * per line: <code>URL \t left \t right [\t middle \t +|-]</code>, where each
+ * field is encoded by {@link WrapperSaver#getEncoder()}.
+ *
+ * @author rcwang
+ */
+public class WrapperLibrary {
+
+  public static Logger log = Logger.getLogger(WrapperLibrary.class);
+  public static final String FILE_EXT = ".wrappers";
+  public static final int MAX_WRAPPERS_PER_HOST = 200;
+
+  private static StringEncoder encoder = WrapperSaver.getEncoder();
+
+  private File dir;
+  // host => (wrapper key => wrapper); hosts are loaded on first use
+  private Map<String, Map<String, Wrapper>> hostMap;
+  private Set<String> modifiedHosts;
+
+  // the line that stores the wrapper, without its URL
+  private static String toKey(Wrapper wrapper) {
+    StringBuffer buf = new StringBuffer();
+    buf.append(encoder.encode(wrapper.getLeft()));
+    buf.append("\t").append(encoder.encode(wrapper.getRight()));
+    if (wrapper.isRelational()) {
+      buf.append("\t").append(encoder.encode(wrapper.getMiddle()));
+      buf.append("\t").append(wrapper.isReversed() ? "-" : "+");
+    }
+    return buf.toString();
+  }
+
+  private static String toHost(URL url) {
+    return (url == null || url.getHost() == null) ? null : url.getHost().toLowerCase();
+  }
+
+  // a copy of the contexts of the wrapper, without any content
+  private static Wrapper copy(Wrapper wrapper) {
+    Wrapper copy = new Wrapper(wrapper.getLeft(), wrapper.getMiddleContext(), wrapper.getRight());
+    copy.setURL(wrapper.getURL());
+    return copy;
+  }
+
+  public WrapperLibrary(File dir) {
+    this.dir = dir;
+    hostMap = new HashMap<String, Map<String, Wrapper>>();
+    modifiedHosts = new HashSet<String>();
+  }
+
+  /**
+   * Adds the contexts of the wrapper to the library (contents are not stored)
+   * @return true if the host of the wrapper did not have the same contexts
+   */
+  public synchronized boolean add(Wrapper wrapper) {
+    String host = toHost(wrapper.getURL());
+    if (host == null) return false;
+    Map<String, Wrapper> wrappers = load(host);
+    String key = toKey(wrapper);
+    if (wrappers.containsKey(key)) return false;
+    if (wrappers.size() >= MAX_WRAPPERS_PER_HOST) {
+      log.debug("Too many wrappers for host: " + host);
+      return false;
+    }
+    wrappers.put(key, copy(wrapper));
+    modifiedHosts.add(host);
+    return true;
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  /**
+   * @return copies (without contents) of the wrappers learned from the
+   *         same URL, or if there are none, from the same host
+   */
+  public synchronized List<Wrapper> getWrappers(URL url) {
+    List<Wrapper> sameURL = new ArrayList<Wrapper>();
+    List<Wrapper> sameHost = new ArrayList<Wrapper>();
+    String host = toHost(url);
+    if (host == null) return sameHost;
+    for (Wrapper wrapper : load(host).values()) {
+      if (url.toString().equals(wrapper.getURL().toString()))
+        sameURL.add(copy(wrapper));
+      else sameHost.add(copy(wrapper));
+    }
+    return sameURL.isEmpty() ? sameHost : sameURL;
+  }
+
+  /**
+   * Writes every host that has new wrappers to the library directory
+   */
+  public synchronized void save() {
+    if (modifiedHosts.isEmpty()) return;
+    Helper.createDir(dir);
+    for (String host : modifiedHosts) {
+      StringBuffer buf = new StringBuffer();
+      for (Map.Entry<String, Wrapper> entry : hostMap.get(host).entrySet()) {
+        buf.append(encoder.encode(entry.getValue().getURL().toString()));
+        buf.append("\t").append(entry.getKey()).append("\n");
+      }
+      Helper.writeToFile(toFile(host), buf.toString());
+    }
+    log.info("Saved wrappers of " + modifiedHosts.size() + " hosts to: " + dir);
+    modifiedHosts.clear();
+  }
+
+  private Map<String, Wrapper> load(String host) {
+    Map<String, Wrapper> wrappers = hostMap.get(host);
+    if (wrappers != null) return wrappers;
+    wrappers = new LinkedHashMap<String, Wrapper>();
+    hostMap.put(host, wrappers);
+
+    File file = toFile(host);
+    if (!file.exists()) return wrappers;
+    String content = Helper.readFile(file);
+    if (content == null) return wrappers;
+    for (String line : content.split("\n")) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length != 3 && fields.length != 5) continue;
+      URL url = Helper.toURL(encoder.decode(fields[0]));
+      if (url == null) continue;
+      String left = encoder.decode(fields[1]);
+      String right = encoder.decode(fields[2]);
+      MiddleContext middle = null;
+      if (fields.length == 5)
+        middle = new MiddleContext(encoder.decode(fields[3]), fields[4].equals("-"));
+      Wrapper wrapper = new Wrapper(left, middle, right);
+      wrapper.setURL(url);
+      wrappers.put(toKey(wrapper), wrapper);
+    }
+    log.debug("Loaded " + wrappers.size() + " wrappers of host: " + host);
+    return wrappers;
+  }
+
+  private File toFile(String host) {
+    return new File(dir, host.replaceAll("[^a-z0-9.-]", "_") + FILE_EXT);
+  }
+}
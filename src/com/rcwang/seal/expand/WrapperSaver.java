@@ -83,6 +83,19 @@ public class WrapperSaver {
         }
     }
 
+    /* adds the worthy wrappers to the library, so that they can be applied to the same sites later
+     * note: EntityList should be scored before doing this, otherwise totalScore can't be computed
+     */
+    public void saveToLibrary(WrapperLibrary library, DocumentSet lastDocs, EntityList entityList, EntityList lastSeeds) {
+        for (Document document : lastDocs) {
+            for (Wrapper wrapper : document.getWrappers()) {
+                if (isWorthy(wrapper,totalScore(wrapper,entityList,lastSeeds)))
+                    library.add(wrapper);
+            }
+        }
+        library.save();
+    }
+
     public URL uniqueURLFor(Wrapper wrapper) {
         try {
             return new URL(wrapper.getURL() + "?wrapper=" + Integer.toString(wrapper.hashCode()));
@@ -13,6 +13,7 @@ import org.apache.log4j.Logger;
 
 import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.Helper;
+import com.rcwang.seal.util.SubstringIndex;
 
 public class BadWordFilterer {
 
@@ -21,6 +22,8 @@ public class BadWordFilterer {
   
   private Set<String> unigramSet;
   private Set<String> multigramSet;
+  // built from 'multigramSet' on first use after any change
+  private volatile SubstringIndex multigramIndex;
   
   public BadWordFilterer() {
     unigramSet = new HashSet<String>();
@@ -40,7 +43,8 @@ public class BadWordFilterer {
     entity = entity.toLowerCase();
     if (isUnigram)
       unigramSet.add(entity);
-    else multigramSet.add(entity);
+    else if (multigramSet.add(entity))
+      multigramIndex = null;
   }
   
   public void addMultigram(String entity) {
@@ -62,17 +66,23 @@ public class BadWordFilterer {
   public void clear() {
     unigramSet.clear();
     multigramSet.clear();
+    multigramIndex = null;
   }
   
+  /**
+   * @return true if the trimmed and lower-cased entity is a unigram stopword,
+   *         or a substring of any multigram stopword
+   */
   public boolean isBad(String entity) {
     if (entity == null) return true;
-    entity = entity.trim().toLowerCase();
-    if (unigramSet.contains(entity))
+    // same as entity.trim()
+    int from = 0, to = entity.length();
+    while (from < to && entity.charAt(from) <= ' ') from++;
+    while (to > from && entity.charAt(to-1) <= ' ') to--;
+    // no String is created if the entity is already trimmed and lower-cased
+    if (!unigramSet.isEmpty() && unigramSet.contains(entity.substring(from, to).toLowerCase()))
       return true;
-    for (String multigram : multigramSet)
-      if (multigram.contains(entity))
-        return true;
-    return false;
+    return getMultigramIndex().contains(entity, from, to, true);
   }
   
   public void loadStopwords(File listFile) {
@@ -83,4 +93,14 @@ public class BadWordFilterer {
       addUnigram(stopword);
   }
   
+  private SubstringIndex getMultigramIndex() {
+    SubstringIndex index = multigramIndex;
+    if (index != null) return index;
+    synchronized (this) {
+      if (multigramIndex == null)
+        multigramIndex = new SubstringIndex(multigramSet);
+      return multigramIndex;
+    }
+  }
+  
 }
@@ -0,0 +1,118 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.log4j.Logger;
+
+import com.rcwang.seal.util.CacheStore;
+import com.rcwang.seal.util.Helper;
+
+/**
+ * Imports a cache directory of the old layout (one file per URL in
+ * {@link WebManager#NUM_CACHE_BINS} bins) into the {@link CacheStore}
+ * of the same directory. The URL of each file is taken from its header,
+ * so files without a header are skipped. Files that are not imported
+ * here are imported by {@link WebManager} when they are first read.
+ *
+ * @author rcwang
+ */
+public class CacheImporter {
+
+  public static Logger log = Logger.getLogger(CacheImporter.class);
+
+  private CacheStore store;
+  private boolean deleteImported;
+  private int numImported = 0;
+  private int numSkipped = 0;
+
+  public static void main(String[] args) throws IOException {
+    boolean deleteImported = false;
+    File cacheDir = null;
+    for (String arg : args) {
+      if (arg.equals("-delete"))
+        deleteImported = true;
+      else cacheDir = new File(arg);
+    }
+    if (cacheDir == null || !cacheDir.isDirectory()) {
+      log.info("Usage: java " + CacheImporter.class.getName() + " [-delete] cache_dir");
+      log.info(" -delete removes each file once it has been imported");
+      return;
+    }
+    CacheStore store = CacheStore.open(cacheDir);
+    CacheImporter importer = new CacheImporter(store, deleteImported);
+    importer.importDir(cacheDir);
+    log.info("Imported " + importer.getNumImported() + " files (skipped " + importer.getNumSkipped() + ") into " + cacheDir);
+    store.close();
+  }
+
+  /**
+   * @return the URL in the header of the cached document, or null if it has no header
+   */
+  public static URL getURL(String document) {
+    final String prefix = WebManager.CACHE_HEADER.substring(0, WebManager.CACHE_HEADER.indexOf(WebManager.URL_VAR));
+    final String suffix = WebManager.CACHE_HEADER.substring(prefix.length() + WebManager.URL_VAR.length());
+    if (!document.startsWith(prefix)) return null;
+    int endIndex = document.indexOf(suffix, prefix.length());
+    if (endIndex == -1) return null;
+    try {
+      return new URL(document.substring(prefix.length(), endIndex));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  public CacheImporter(CacheStore store, boolean deleteImported) {
+    this.store = store;
+    this.deleteImported = deleteImported;
+  }
+
+  public int getNumImported() {
+    return numImported;
+  }
+
+  public int getNumSkipped() {
+    return numSkipped;
+  }
+
+  /**
+   * Imports every cached file in the bins of "cacheDir"
+   */
+  public void importDir(File cacheDir) throws IOException {
+    File[] bins = cacheDir.listFiles();
+    if (bins == null) return;
+    for (File bin : bins) {
+      if (!bin.isDirectory() || !bin.getName().matches("\\d+")) continue;
+      File[] files = bin.listFiles();
+      if (files == null) continue;
+      for (File file : files)
+        if (file.getName().endsWith(WebManager.CACHE_FILE_EXT))
+          importFile(file);
+      log.info("Imported " + numImported + " files (skipped " + numSkipped + ") after bin " + bin.getName());
+    }
+  }
+
+  /**
+   * Imports a cached file
+   * @return true if imported; false if it cannot be read or has no header
+   */
+  public boolean importFile(File file) throws IOException {
+    String document = Helper.readFile(file);
+    URL url = (document == null) ? null : getURL(document);
+    if (url == null) {
+      log.debug("Skipping " + file + " without a header");
+      numSkipped++;
+      return false;
+    }
+    store.put(url.toString(), WebManager.toCacheBytes(WebManager.removeCacheHeader(document)));
+    if (deleteImported)
+      file.delete();
+    numImported++;
+    return true;
+  }
+}
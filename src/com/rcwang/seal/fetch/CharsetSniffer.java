@@ -0,0 +1,81 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.util.regex.Matcher;
+
+/**
+ * Identifies the encoding of a webpage from its bytes before decoding it,
+ * so that the bytes are decoded only once. The bytes are searched for a
+ * byte order mark, then for a &lt;meta&gt; tag declaring the charset among
+ * the first {@link #SNIFF_SIZE} bytes (read as ASCII in place, without
+ * creating any String).
+ *
+ * @author rcwang
+ */
+public class CharsetSniffer {
+
+  // number of bytes searched for a <meta> tag declaring the charset
+  public static final int SNIFF_SIZE = 16 * 1024;
+
+  // bytes read as ISO-8859-1 characters, which agrees with ASCII
+  private static class ByteSequence implements CharSequence {
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    public ByteSequence(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public char charAt(int index) {
+      if (index < 0 || index >= length)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+      return (char) (bytes[offset + index] & 0xff);
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length || start > end)
+        throw new IndexOutOfBoundsException("Start: " + start + ", End: " + end + ", Length: " + length);
+      return new ByteSequence(bytes, offset + start, end - start);
+    }
+
+    public String toString() {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++)
+        chars[i] = charAt(i);
+      return new String(chars);
+    }
+  }
+
+  /**
+   * @return the encoding given by the byte order mark, or null if there is none
+   */
+  public static String sniffBOM(byte[] bytes, int offset, int length) {
+    if (length >= 3 && (bytes[offset] & 0xff) == 0xEF && (bytes[offset+1] & 0xff) == 0xBB && (bytes[offset+2] & 0xff) == 0xBF)
+      return "UTF-8";
+    // decoding as UTF-16 finds the byte order from the mark
+    if (length >= 2 && (bytes[offset] & 0xff) == 0xFE && (bytes[offset+1] & 0xff) == 0xFF)
+      return "UTF-16";
+    if (length >= 2 && (bytes[offset] & 0xff) == 0xFF && (bytes[offset+1] & 0xff) == 0xFE)
+      return "UTF-16";
+    return null;
+  }
+
+  /**
+   * @return the encoding (in upper case) declared by a &lt;meta&gt; tag
+   * among the first {@link #SNIFF_SIZE} bytes, or null if not found
+   */
+  public static String sniffMeta(byte[] bytes, int offset, int length) {
+    Matcher m = MultiThreadFetcher.CHARSET_PAT.matcher(new ByteSequence(bytes, offset, Math.min(length, SNIFF_SIZE)));
+    return m.find() ? m.group(1).toUpperCase() : null;
+  }
+}
@@ -83,10 +83,22 @@ public class ClueWebSearcher extends WebSearcher {
     public static ClueWebSearcher getLastRun() { return lastRun; }
 
     private boolean memoryManagement=false;
-    private long lastTimeMemoryWasOk=0;
-    /** Enable memory management (default false) (turn on for memory-impoverished machines or large batches) **/
+    /** Enable memory management (default false) (turn on for memory-impoverished machines or large batches):
+     * documents are kept in memory only up to the memory budget; the documents of any
+     * query that would exceed it are read back from the SEAL cache instead. **/
     public void setMemoryManagement(boolean s) { memoryManagement = s; }
 
+    private long memoryBudget;
+    private long memoryUsed=0;
+    /** Set the number of bytes of document text that may be kept in memory when memory management is on **/
+    public void setMemoryBudget(long bytes) { memoryBudget = bytes; }
+    /** Get the number of bytes of document text kept in memory **/
+    public long getMemoryUsed() { return memoryUsed; }
+
+    private DocumentStream documentStream;
+    /** Set a stream to put each document into as soon as it is parsed from the batch response (default: none) **/
+    public void setDocumentStream(DocumentStream stream) { documentStream = stream; }
+
     private File tmpDir;
     /** Set directory where the raw uploaded batch request file and raw 
      * downloaded batch response files should be stored. Directory is
@@ -106,6 +118,8 @@ public class ClueWebSearcher extends WebSearcher {
 
     private List<DocumentSet> documents;
     private List<Set<Snippet>> snippetsByQuery;
+    // queries whose documents exceeded the memory budget, and are read from the cache instead
+    private Set<Integer> spilledQueries;
 
     private String format=FORMAT_TREC_EVAL;
     private boolean fulltext=true;
@@ -117,8 +131,8 @@ public class ClueWebSearcher extends WebSearcher {
     private boolean encodeQueries;
     private boolean diskMode;
     /** Set whether to store fulltext document sets on disk or in memory (default:none).
-     * If memory management has been turned on, the system monitors memory usage and
-     * automatically turns on disk mode once space becomes tight. **/
+     * If memory management has been turned on, the document sets of the queries that
+     * do not fit in the memory budget are stored on disk regardless. **/
     public void setDiskMode(boolean s) { diskMode = s; }
 
     /** Default constructor (encodeQueries on) **/
@@ -141,12 +155,14 @@ public class ClueWebSearcher extends WebSearcher {
     public ClueWebSearcher(boolean encodeQueries) {
         documents = new ArrayList<DocumentSet>();//new DocumentSet();
         snippetsByQuery = new ArrayList<Set<Snippet>>();
+        spilledQueries = new HashSet<Integer>();
         this.encodeQueries = encodeQueries;
 
         GlobalVar gv = GlobalVar.getGlobalVar();
         this.setKeepQuery(gv.getClueWebKeepQueryFile());
         this.setKeepResponseFile(gv.getClueWebKeepResponseFile());
         this.setMemoryManagement(gv.getClueWebMemoryManagement());
+        this.setMemoryBudget(gv.getClueWebMemoryBudgetInMB() * 1024L * 1024L);
         String tdirname = gv.getProperties().getProperty(GlobalVar.CLUEWEB_TMP_DIR);
         if (tdirname != null) this.setTmpDir(new File(tdirname));
     }
@@ -160,7 +176,6 @@ public class ClueWebSearcher extends WebSearcher {
      */
     public void run() { 
         lastRun = this;
-        System.gc();
         String className = this.getClass().getSimpleName();
 
         Collection<String> querySet = new TreeSet<String>();
@@ -171,6 +186,10 @@ public class ClueWebSearcher extends WebSearcher {
 
         snippets.clear(); 
         snippetsByQuery.clear();
+        // documents of the previous batch would be mistaken for those of this one
+        documents.clear();
+        spilledQueries.clear();
+        memoryUsed = 0;
         //snippetsByQuery.add(snippets);
         for (int i=0;i<querySet.size();i++) this.snippetsByQuery.add(new HashSet<Snippet>());
 
@@ -416,37 +435,42 @@ public class ClueWebSearcher extends WebSearcher {
         }
         document.setSnippet(snippet);
 
-        if (!diskMode) {
-            DocumentSet d = null;
-            if (documents.size()>queryNumber) d = documents.get(queryNumber);
-            else { 
-                log.warn("query number "+queryNumber+" out of known range; adding a new one");
-                d = new DocumentSet();
-                while (queryNumber > documents.size()) documents.add(new DocumentSet());
-                documents.add(queryNumber,d);
-            }
-            log.debug("Added document to documentset "+d+" @query "+queryNumber);
-            d.add(document);
-        }
-
         //log.debug("Added document to query "+queryNumber);
 
+        // cached first, so that it can be read back if it does not fit in memory
         WebManager.writeToCache(url, document.getText(), getCacheDir());
-        if (memoryManagement) {
-            Runtime runtime = Runtime.getRuntime();
-            if (runtime.freeMemory() > 1e7) lastTimeMemoryWasOk = System.currentTimeMillis();
-            long dt =System.currentTimeMillis() - lastTimeMemoryWasOk; 
-            log.debug("Last good: "+dt+ (diskMode ? " (disk)" : ""));
-            if (!diskMode & (dt > 1000)) {
-                log.info("Memory getting tight. Caching documentsets on disk instead...");
-                cacheOut();
-                diskMode=true;
-            }
-        }
+        if (!diskMode) keep(document, queryNumber);
+        if (documentStream != null) documentStream.put(document);
     }
 
-    private void cacheOut() {
-        this.documents.clear();
+    /** Keeps a document of a query in memory, unless memory management is on and the
+     * document would exceed the memory budget; the documents of that query are then 
+     * dropped from memory and read from the cache when asked for. **/
+    private void keep(Document document, int queryNumber) {
+        if (spilledQueries.contains(queryNumber)) return;
+        DocumentSet d = null;
+        if (documents.size()>queryNumber) d = documents.get(queryNumber);
+        else { 
+            log.warn("query number "+queryNumber+" out of known range; adding a new one");
+            d = new DocumentSet();
+            while (queryNumber > documents.size()) documents.add(new DocumentSet());
+            documents.add(queryNumber,d);
+        }
+        // two bytes per char
+        long size = 2L * document.length();
+        if (memoryManagement && memoryUsed + size > memoryBudget) {
+            log.info("Memory budget of "+memoryBudget+" bytes reached; reading documents of query "+queryNumber+" from the cache instead");
+            memoryUsed -= 2L * d.getSumDocLength();
+            d.clear();
+            spilledQueries.add(queryNumber);
+            return;
+        }
+        int numDocs = d.size();
+        d.add(document);
+        // merged into a document of the same URL, or dropped as a near-duplicate
+        if (d.size() == numDocs) return;
+        memoryUsed += size;
+        log.debug("Added document to documentset "+d+" @query "+queryNumber);
     }
 
     /** Parses the batch response file from the search service into a set of 
@@ -548,10 +572,20 @@ public class ClueWebSearcher extends WebSearcher {
     }
     /** Get the documents returned by a particular query inside the batch **/
     public DocumentSet getDocuments(int queryNumber) {
-        if (diskMode) return loadFromDisk(queryNumber);
+        if (diskMode || spilledQueries.contains(queryNumber)) return loadFromDisk(queryNumber);
         return documents.get(queryNumber);
     }
 
+    /** Put all the documents returned by this request into the stream, reading them 
+     * from the cache one at a time, so that they are never all in memory at once **/
+    public void streamDocuments(DocumentStream stream) {
+        for (Snippet s : snippets) {
+            Document d = new Document(WebManager.readFromCache(s.getPageURL(), getCacheDir()),s.getPageURL());
+            d.setSnippet(s);
+            if (!stream.put(d)) return;
+        }
+    }
+
     /** (Disk mode) Retrieve from disk the set of documents returned by a particular query **/
     private DocumentSet loadFromDisk(int queryNumber) {
         return loadFromDisk(this.snippetsByQuery.get(queryNumber));
@@ -24,6 +24,10 @@ public class Document implements Comparable<Document>, Serializable {
   private String text;
   private URL url;
   private double weight = 0;
+  // number of near-duplicates of this document that have been dropped
+  private int numDuplicates = 0;
+  private transient long simHash;
+  private transient boolean hasSimHash = false;
   
   public Document(String text, URL url) {
     setText(text);
@@ -39,6 +43,15 @@ public class Document implements Comparable<Document>, Serializable {
     extractions.addAll(wrapper.getContents());
   }
   
+  /**
+   * Counts a near-duplicate of this document (and its own near-duplicates)
+   * that has been dropped in favor of this document
+   */
+  public void addDuplicate(Document document) {
+    if (document == null || document == this) return;
+    numDuplicates += document.getMultiplicity();
+  }
+  
   public void addWrappers(Set<Wrapper> wrappers) {
     for (Wrapper wrapper : wrappers)
       addWrapper(wrapper);
@@ -73,6 +86,24 @@ public class Document implements Comparable<Document>, Serializable {
     return extractions;
   }
 
+  /**
+   * @return number of copies of this document found, including itself
+   */
+  public int getMultiplicity() {
+    return numDuplicates + 1;
+  }
+
+  /**
+   * @return the fingerprint of the text by {@link SimHash}
+   */
+  public long getSimHash() {
+    if (!hasSimHash) {
+      simHash = SimHash.fingerprint(text);
+      hasSimHash = true;
+    }
+    return simHash;
+  }
+
   public Snippet getSnippet() {
     return snippet;
   }
@@ -126,6 +157,7 @@ public class Document implements Comparable<Document>, Serializable {
   
   public void setText(String text) {
     this.text = text;
+    hasSimHash = false;
   }
 
   public void setURL(URL url) {
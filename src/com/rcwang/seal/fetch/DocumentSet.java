@@ -14,30 +14,40 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
 import org.w3c.dom.Element;
 
 import com.rcwang.seal.expand.Wrapper;
 import com.rcwang.seal.expand.Wrapper.EntityLiteral;
 import com.rcwang.seal.rank.Ranker.Feature;
+import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.XMLUtil;
 
 public class DocumentSet implements Iterable<Document>, Serializable {
   
+  public static Logger log = Logger.getLogger(DocumentSet.class);
+  public static GlobalVar gv = GlobalVar.getGlobalVar();
+  
   public static final double DELTA = 1e-10;
   public static final int DEFAULT_MAX_DOCS_IN_XML = 5;
   
   private static final long serialVersionUID = 7211782411429869181L;
   private Map<Document, Document> docMap;
   private List<Document> docList;
+  // documents that are not empty, which are the only ones compared for near-duplicates
+  private List<Document> fingerprinted;
   private Set<EntityLiteral> extractions;
   private Set<Wrapper> wrappers;
   private Feature scoredByFeature;
   private int maxDocsInXML;
+  private int maxNearDuplicateDistance;
   
   public DocumentSet() {
     setMaxDocsInXML(DEFAULT_MAX_DOCS_IN_XML);
+    setMaxNearDuplicateDistance(gv.getMaxNearDuplicateDistance());
     docMap = new HashMap<Document, Document>();
     docList = new ArrayList<Document>();
+    fingerprinted = new ArrayList<Document>();
     extractions = new HashSet<EntityLiteral>();
     wrappers = new HashSet<Wrapper>();
   }
@@ -47,18 +57,51 @@ public class DocumentSet implements Iterable<Document>, Serializable {
     addAll(documents);
   }
   
-  public void add(Document document) {
-    if (document == null) return;
+  /**
+   * Adds the document, unless it is a near-duplicate of a document of
+   * another URL already in the set (see {@link #setMaxNearDuplicateDistance(int)}).
+   * Of the two, the one ranked higher by its snippet (or else of the smaller URL)
+   * is kept in the set, and counts the other as a duplicate.
+   * @return true if the document is now in the set as a new document
+   */
+  public boolean add(Document document) {
+    if (document == null) return false;
     Document doc = docMap.get(document);
-    if (doc == document) return;
-    if (doc == null) {
-      docMap.put(document, document);
-      docList.add(document);
-    } else {
+    if (doc == document) return false;
+    if (doc != null) {
       doc.merge(document);
+      wrappers.addAll(document.getWrappers());
+      extractions.addAll(document.getExtractions());
+      return false;
     }
+    Document original = getNearDuplicate(document);
+    if (original != null && !isBetter(document, original)) {
+      log.info("Found a near-duplicate document: " + document.getURL() + " of " + original.getURL());
+      original.addDuplicate(document);
+      return false;
+    }
+    if (original != null) {
+      log.info("Found a near-duplicate document: " + original.getURL() + " of " + document.getURL());
+      document.addDuplicate(original);
+      docMap.remove(original);
+      docList.set(docList.indexOf(original), document);
+      fingerprinted.set(fingerprinted.indexOf(original), document);
+      // the replaced document takes its wrappers and extractions along
+      wrappers.clear();
+      extractions.clear();
+      for (Document d : docList) {
+        wrappers.addAll(d.getWrappers());
+        extractions.addAll(d.getExtractions());
+      }
+    } else {
+      docList.add(document);
+      if (!document.isEmpty())
+        fingerprinted.add(document);
+    }
+    docMap.put(document, document);
     wrappers.addAll(document.getWrappers());
     extractions.addAll(document.getExtractions());
+    return true;
   }
   
   public void addAll(DocumentSet documents) {
@@ -82,6 +125,7 @@ public class DocumentSet implements Iterable<Document>, Serializable {
   public void clear() {
     docMap.clear();
     docList.clear();
+    fingerprinted.clear();
     extractions.clear();
     wrappers.clear();
   }
@@ -134,6 +178,10 @@ public class DocumentSet implements Iterable<Document>, Serializable {
     return maxDocsInXML;
   }
   
+  public int getMaxNearDuplicateDistance() {
+    return maxNearDuplicateDistance;
+  }
+  
   public int getNumExtractions() {
     return getExtractions().size();
   }
@@ -169,6 +217,15 @@ public class DocumentSet implements Iterable<Document>, Serializable {
     this.maxDocsInXML = numTopDocsInXML;
   }
   
+  /**
+   * @param maxNearDuplicateDistance a document is a near-duplicate of another if their
+   * fingerprints differ in at most this many bits (out of {@link SimHash#NUM_BITS}); 
+   * a negative number keeps every document
+   */
+  public void setMaxNearDuplicateDistance(int maxNearDuplicateDistance) {
+    this.maxNearDuplicateDistance = maxNearDuplicateDistance;
+  }
+  
   public int size() {
     return docList.size();
   }
@@ -216,4 +273,27 @@ public class DocumentSet implements Iterable<Document>, Serializable {
   protected Feature getScoredByFeature() {
     return scoredByFeature;
   }
+
+  // returns the first document added to the set that the document is a near-duplicate of, or null if none
+  private Document getNearDuplicate(Document document) {
+    if (maxNearDuplicateDistance < 0 || document.isEmpty()) return null;
+    long simHash = document.getSimHash();
+    for (Document doc : fingerprinted)
+      if (SimHash.distance(simHash, doc.getSimHash()) <= maxNearDuplicateDistance)
+        return doc;
+    return null;
+  }
+
+  // true if the document is ranked higher than the other by their snippets, or else has the smaller URL
+  private static boolean isBetter(Document document, Document other) {
+    int rank = getRank(document), otherRank = getRank(other);
+    if (rank != otherRank)
+      return rank < otherRank;
+    return String.valueOf(document.getURL()).compareTo(String.valueOf(other.getURL())) < 0;
+  }
+
+  private static int getRank(Document document) {
+    Snippet snippet = document.getSnippet();
+    return (snippet == null) ? Integer.MAX_VALUE : snippet.getRank();
+  }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded queue of documents handed from the thread fetching them to
+ * the thread extracting from them. The fetching thread waits whenever the
+ * queue is full, and closes the stream when it has no more documents; the
+ * extracting thread may also close it to stop the fetching thread.
+ *
+ * @author rcwang
+ */
+public class DocumentStream {
+
+  public static Logger log = Logger.getLogger(DocumentStream.class);
+
+  public static final int DEFAULT_CAPACITY = 32;
+  // how often a waiting thread checks whether the stream has been closed
+  private static final long POLL_INTERVAL_IN_MS = 100;
+
+  private BlockingQueue<Document> queue;
+  private volatile boolean isClosed = false;
+  private volatile int numDocuments = 0;
+
+  public DocumentStream() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public DocumentStream(int capacity) {
+    queue = new ArrayBlockingQueue<Document>(capacity);
+  }
+
+  /**
+   * No more documents will be put into the stream
+   */
+  public void close() {
+    isClosed = true;
+  }
+
+  /**
+   * @return number of documents that have been put into the stream
+   */
+  public int getNumDocuments() {
+    return numDocuments;
+  }
+
+  public boolean isClosed() {
+    return isClosed;
+  }
+
+  /**
+   * Waits until there is room for the document
+   * @return false if the stream has been closed (the document is dropped)
+   */
+  public boolean put(Document document) {
+    if (document == null) return true;
+    try {
+      while (!isClosed) {
+        if (queue.offer(document, POLL_INTERVAL_IN_MS, TimeUnit.MILLISECONDS)) {
+          numDocuments++;
+          return true;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while putting a document into the stream!");
+    }
+    return false;
+  }
+
+  /**
+   * Waits until a document is available
+   * @return the next document, or null if the stream has been closed and emptied
+   */
+  public Document take() {
+    try {
+      while (true) {
+        Document document = queue.poll(POLL_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+        if (document != null)
+          return document;
+        if (isClosed && queue.isEmpty())
+          return null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while taking a document from the stream!");
+    }
+    return null;
+  }
+}
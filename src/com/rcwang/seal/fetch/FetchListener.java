@@ -0,0 +1,22 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+/**
+ * Receives each webpage as soon as it has been read from the cache or
+ * downloaded, instead of waiting for the whole list of URLs.
+ *
+ * @author rcwang
+ */
+public interface FetchListener {
+
+  /**
+   * Called once for every URL whose document has been retrieved (in no
+   * particular order), from the thread that asked for the URLs
+   * @param index index of the URL in the list of URLs
+   * @param document content of the URL
+   */
+  public void fetched(int index, String document);
+}
@@ -0,0 +1,153 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.rcwang.seal.util.GlobalVar;
+
+/**
+ * Limits how often each host is hit, by a token bucket per host. The
+ * hosts and their limits are given by rules of the form
+ * <code>pattern=gapInMS</code> or <code>pattern=gapInMS:burst</code>,
+ * separated by commas: any host matching the pattern (a regular expression)
+ * may be hit "burst" times at once, then once every "gapInMS" milliseconds.
+ * The first matching rule applies; hosts matching no rule are not limited.
+ * Google is limited by {@link GlobalVar#getGoogleHitGapInMS()} unless
+ * another rule matches it.
+ * <p>
+ * Rather than blocking, {@link #acquire(URL)} tells how long to wait before
+ * fetching a URL, so that the fetchers can start the URLs of other hosts
+ * meanwhile.
+ * The buckets are shared by every thread, so concurrent expansions in the
+ * same JVM do not hit a host more often than allowed together.
+ *
+ * @author rcwang
+ */
+public class HostScheduler {
+
+  public static Logger log = Logger.getLogger(HostScheduler.class);
+  public static GlobalVar gv = GlobalVar.getGlobalVar();
+
+  // limits the hosts matching the pattern
+  private static class Rule {
+    public final Pattern pattern;
+    public final long gapInMS;
+    public final int burst;
+
+    public Rule(Pattern pattern, long gapInMS, int burst) {
+      this.pattern = pattern;
+      this.gapInMS = gapInMS;
+      this.burst = burst;
+    }
+  }
+
+  // the hits allowed on a host, holding up to "burst" tokens and gaining one every "gapInMS"
+  private static class TokenBucket {
+    private final long gapInMS;
+    private final int burst;
+    // the time when the bucket will be full again, if no more tokens are taken
+    private long fullTime = 0;
+
+    public TokenBucket(long gapInMS, int burst) {
+      this.gapInMS = gapInMS;
+      this.burst = burst;
+    }
+
+    /**
+     * Takes a token if there is one
+     * @return 0 if a token was taken; otherwise the time left until there is one
+     */
+    public synchronized long take(long now) {
+      // at least one token is left until "burst-1" gaps before the bucket is full
+      long timeLeft = fullTime - (burst - 1) * gapInMS - now;
+      if (timeLeft > 0)
+        return timeLeft;
+      fullTime = Math.max(fullTime, now) + gapInMS;
+      return 0;
+    }
+  }
+
+  private static HostScheduler scheduler = null;
+
+  private final List<Rule> rules;
+  private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+  /**
+   * @return the scheduler shared by every WebManager, limited by the rules of {@link GlobalVar#getHostHitGapsInMS()}
+   */
+  public static synchronized HostScheduler getScheduler() {
+    if (scheduler == null)
+      scheduler = new HostScheduler(gv.getHostHitGapsInMS(), gv.getGoogleHitGapInMS());
+    return scheduler;
+  }
+
+  private static List<Rule> parseRules(String rules) {
+    List<Rule> list = new ArrayList<Rule>();
+    if (rules == null) return list;
+    for (String rule : rules.split(GlobalVar.COMMA_REGEXP)) {
+      rule = rule.trim();
+      if (rule.length() == 0) continue;
+      int equal = rule.lastIndexOf('=');
+      if (equal == -1)
+        throw new IllegalArgumentException("Expecting pattern=gapInMS[:burst] but got: " + rule);
+      String limit = rule.substring(equal+1).trim();
+      int colon = limit.indexOf(':');
+      long gapInMS = Long.parseLong((colon == -1) ? limit : limit.substring(0, colon).trim());
+      int burst = (colon == -1) ? 1 : Integer.parseInt(limit.substring(colon+1).trim());
+      if (gapInMS < 0 || burst < 1)
+        throw new IllegalArgumentException("Invalid gap or burst in: " + rule);
+      list.add(new Rule(Pattern.compile(rule.substring(0, equal).trim(), Pattern.CASE_INSENSITIVE), gapInMS, burst));
+    }
+    return list;
+  }
+
+  /**
+   * @param rules comma-separated rules of the form pattern=gapInMS[:burst]
+   * @param googleHitGapInMS gap between hits to Google, unless limited by "rules"
+   */
+  public HostScheduler(String rules, long googleHitGapInMS) {
+    this.rules = parseRules(rules);
+    this.rules.add(new Rule(Pattern.compile(Pattern.quote(GoogleWebSearcher.HOST)), googleHitGapInMS, 1));
+  }
+
+  /**
+   * Takes a hit on the host of "url" if it can be hit now
+   * @return 0 if "url" can be fetched now; otherwise the
+   * number of milliseconds to wait before trying again
+   */
+  public long acquire(URL url) {
+    return acquire(url, System.currentTimeMillis());
+  }
+
+  long acquire(URL url, long now) {
+    if (url == null) return 0;
+    String host = url.getHost().toLowerCase();
+    TokenBucket bucket = buckets.get(host);
+    if (bucket == null) {
+      Rule rule = getRule(host);
+      if (rule == null) return 0;
+      TokenBucket newBucket = new TokenBucket(rule.gapInMS, rule.burst);
+      bucket = buckets.putIfAbsent(host, newBucket);
+      if (bucket == null)
+        bucket = newBucket;
+    }
+    return bucket.take(now);
+  }
+
+  private Rule getRule(String host) {
+    for (Rule rule : rules)
+      if (rule.pattern.matcher(host).matches())
+        return rule;
+    return null;
+  }
+}
@@ -0,0 +1,126 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.log4j.Logger;
+
+import com.rcwang.seal.util.GlobalVar;
+
+/**
+ * A keep-alive HTTP client shared by every download in this package. Its
+ * connections are pooled by host and reused across requests (and across
+ * calls to {@link MultiThreadFetcher}). Requests accept gzip and deflate
+ * encodings, which {@link #getContent(HttpEntity)} decodes. The pool is
+ * sized by the number of fetching threads in {@link GlobalVar} when first
+ * used, and grows with {@link #ensureCapacity(int, int)}.
+ *
+ * @author rcwang
+ */
+public class HttpConnectionPool {
+
+  public static Logger log = Logger.getLogger(HttpConnectionPool.class);
+  public static GlobalVar gv = GlobalVar.getGlobalVar();
+
+  private static DefaultHttpClient client;
+
+  public static synchronized HttpClient getClient() {
+    if (client == null) {
+      ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+      manager.setMaxTotal(Math.max(gv.getNumFetchThreads(), 1));
+      manager.setDefaultMaxPerRoute(Math.max(gv.getNumFetchThreadsPerHost(), 1));
+      HttpParams params = new BasicHttpParams();
+      HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+      HttpProtocolParams.setContentCharset(params, "ISO-8859-1");
+      HttpConnectionParams.setStaleCheckingEnabled(params, true);
+      HttpConnectionParams.setTcpNoDelay(params, true);
+      // ContentEncodingHttpClient would decode the content too, but its entities
+      // have no length and so their connections are never kept alive
+      client = new DefaultHttpClient(manager, params);
+      client.addRequestInterceptor(new RequestAcceptEncoding());
+      log.debug("Created a pool of " + manager.getMaxTotal() + " connections (" + 
+                manager.getDefaultMaxPerRoute() + " per host)");
+    }
+    return client;
+  }
+
+  /**
+   * Makes sure the pool holds at least the given number of connections,
+   * so that fetching threads never wait for each other's connections
+   */
+  public static synchronized void ensureCapacity(int maxTotal, int maxPerHost) {
+    ThreadSafeClientConnManager manager = (ThreadSafeClientConnManager) getClient().getConnectionManager();
+    if (manager.getMaxTotal() < maxTotal)
+      manager.setMaxTotal(maxTotal);
+    if (manager.getDefaultMaxPerRoute() < maxPerHost)
+      manager.setDefaultMaxPerRoute(maxPerHost);
+  }
+
+  /**
+   * @return the content of the entity, decoded if it was compressed by gzip or deflate
+   */
+  public static InputStream getContent(HttpEntity entity) throws IOException {
+    InputStream input = entity.getContent();
+    Header encoding = entity.getContentEncoding();
+    if (encoding == null) return input;
+    String value = encoding.getValue().toLowerCase();
+    if (value.contains("gzip"))
+      return new GZIPInputStream(input);
+    if (value.contains("deflate"))
+      return new InflaterInputStream(input);
+    return input;
+  }
+
+  /**
+   * Creates a GET request that times out at the socket level
+   * @param connectionTimeout timeout for connecting in milliseconds (0 for none)
+   * @param readTimeout timeout between two reads in milliseconds (0 for none)
+   */
+  public static HttpGet newGet(URL url, int connectionTimeout, int readTimeout) throws URISyntaxException {
+    HttpGet get = new HttpGet(toURI(url));
+    HttpConnectionParams.setConnectionTimeout(get.getParams(), connectionTimeout);
+    HttpConnectionParams.setSoTimeout(get.getParams(), readTimeout);
+    return get;
+  }
+
+  /**
+   * Closes all pooled connections; the next request opens a new pool
+   */
+  public static synchronized void shutdown() {
+    if (client == null) return;
+    client.getConnectionManager().shutdown();
+    client = null;
+  }
+
+  // unlike URL.toURI(), quotes the illegal characters that HttpURLConnection would accept
+  private static URI toURI(URL url) throws URISyntaxException {
+    try {
+      return url.toURI();
+    } catch (URISyntaxException e) {
+      return new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), 
+                     url.getPath(), url.getQuery(), url.getRef());
+    }
+  }
+}
@@ -7,18 +7,37 @@ package com.rcwang.seal.fetch;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.log4j.Logger;
 
 import com.rcwang.seal.util.ByteBuffer;
@@ -33,10 +52,35 @@ public class MultiThreadFetcher {
   public static final Pattern CHARSET_PAT = Pattern.compile("(?i)content=[^<>]+?charset=\"?([\\w-]+)");
   public static final List<String> ILLEGAL_PROTOCOLS = Arrays.asList( "ftp" );
   public static final int DEFAULT_TIMEOUT_IN_MS = 15 * 1000; // 15 seconds
+  // maximum number of downloads at once, overall and from the same host
+  public static final int DEFAULT_NUM_THREADS = 32;
+  public static final int DEFAULT_NUM_THREADS_PER_HOST = 4;
+  // how often to check for more URLs while the feed is open
+  public static final int FEED_POLL_INTERVAL_IN_MS = 10;
+  // HTTP request properties in the format of: key, value, key, value, etc.
+  public static final String[] HTTP_REQUEST = new String[] {
+    "Accept", "text/xml,application/xml,application/xhtml+xml,text/html;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5",
+    "Accept-Language", "zh-tw,zh-cn;q=0.8,en-us;q=0.6,en;q=0.4,ja;q=0.2",
+    "Accept-Charset", "ISO-8859-1,utf-8;q=0.7,*;q=0.7",
+    "User-Agent", "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.1) Gecko/20061010 Firefox/2.0",
+  };
   /************************************************************/
   
   public static Logger log = Logger.getLogger(MultiThreadFetcher.class);
 
+  // true to download through the shared pool of keep-alive connections
+  private static boolean useConnectionPool = true;
+
+  // JVM will exit if all threads running are daemon threads
+  private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+    private int numThreads = 0;
+    public synchronized Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "fetcher-" + (numThreads++));
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
   /**
    * Downlaods a list of URLs with auto timeout and no document size limits
    * @param urls a list of URLs
@@ -54,26 +98,57 @@ public class MultiThreadFetcher {
    * @return a list of URL contents
    */
   public static List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB) {
+    return fetch(urls, timeOutInMS, maxDocSizeInKB, DEFAULT_NUM_THREADS, DEFAULT_NUM_THREADS_PER_HOST);
+  }
+  
+  /**
+   * Downloads a list of URLs with time and document size constraints, 
+   * using a bounded number of threads
+   * @param urls a list of URLs
+   * @param timeOutInMS duration to time out in milliseconds
+   * @param maxDocSizeInKB maximum document size in kilobytes
+   * @param numThreads maximum number of URLs downloaded at once
+   * @param numThreadsPerHost maximum number of URLs downloaded at once from the same host
+   * @return a list of URL contents
+   */
+  public static List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB, 
+                                   int numThreads, int numThreadsPerHost) {
+    return fetch(urls, timeOutInMS, maxDocSizeInKB, numThreads, numThreadsPerHost, null);
+  }
+  
+  /**
+   * Same as {@link #fetch(List, int, int, int, int)}, but also gives each 
+   * document to the listener (if not null) as soon as it has been downloaded
+   */
+  public static List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB, 
+                                   int numThreads, int numThreadsPerHost, FetchListener listener) {
+    return fetch(urls, timeOutInMS, maxDocSizeInKB, numThreads, numThreadsPerHost, listener, URLFeed.of(urls.size()));
+  }
+  
+  /**
+   * Same as {@link #fetch(List, int, int, int, int, FetchListener)}, but only
+   * downloads the URLs whose indexes are added to the feed, each as soon as
+   * it is added. The timeout starts when the feed is closed.
+   */
+  public static List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB, 
+                                   int numThreads, int numThreadsPerHost, FetchListener listener, URLFeed feed) {
     if (urls.isEmpty()) return Collections.EMPTY_LIST;
-    int numRemain = urls.size();
-    boolean[] isDone = new boolean[urls.size()];  // default to false
-    WebFetchingThread[] wfts = new WebFetchingThread[urls.size()];
+    if (numThreads <= 0 || numThreadsPerHost <= 0)
+      throw new IllegalArgumentException("Number of threads must be greater than zero!");
+    String[] docs = new String[urls.size()];  // default to null
     long startTime = System.currentTimeMillis();
     
-    for (int i = 0; i < urls.size(); i++) {
-      URL url = urls.get(i);
-      if (url == null || 
-          ILLEGAL_PROTOCOLS.contains(url.getProtocol()) || 
-          URLBlackLister.isListed(url)) {
-        isDone[i] = true;
-        numRemain--;
-        continue;
-      }
-      wfts[i] = new WebFetchingThread(url, maxDocSizeInKB, timeOutInMS, timeOutInMS);
-      Thread thread = new Thread(wfts[i], Integer.toString(i));
-      thread.setDaemon(true); // JVM will exit if all threads running are daemon threads
-      thread.start(); // start running the thread
-    }
+    // URLs queued up by host, and the number of URLs downloading from each host
+    Map<WebFetchingThread, Integer> ids = new HashMap<WebFetchingThread, Integer>();
+    Map<String, LinkedList<WebFetchingThread>> hostQueues = new LinkedHashMap<String, LinkedList<WebFetchingThread>>();
+    Map<String, Integer> hostCounts = new HashMap<String, Integer>();
+    // URLs held back to not hit their hosts too often
+    Set<WebFetchingThread> held = new HashSet<WebFetchingThread>();
+    HostScheduler scheduler = HostScheduler.getScheduler();
+    ExecutorService executor = null;
+    CompletionService<WebFetchingThread> completionService = null;
+    boolean isFeedOpen = true;
+    int numRemain = 0;
     
     // initialize timeout mechanism
     int prevSecLeft = -1;
@@ -83,49 +158,139 @@ public class MultiThreadFetcher {
       isAutoTimeOut = true;
     }
 
-    String[] docs = new String[urls.size()];  // default to null
-    for (int i = 0; numRemain > 0; i = (i+1) % urls.size()) {
-      if (isDone[i]) continue;
-      if (wfts[i].success) {
-        String backupEncoding = identifyEncoding(wfts[i].contentType);
-        docs[i] = htmlEncode(i, wfts[i].buffer.getBuffer(), backupEncoding);
-      }
-      if (wfts[i].success || wfts[i].done) {
-        isDone[i] = true;
-        numRemain--;
-      }
-      
-      // calculate amount of time left
-      long timeLeft = timeOutInMS - (System.currentTimeMillis() - startTime);
-      if (isAutoTimeOut) {
-        long autoTimeLeft = getAutoTimeLeft(numRemain);
-        if (autoTimeLeft < timeLeft) {
-          // decrease timeout
-          timeOutInMS -= (timeLeft - autoTimeLeft);
-          timeLeft = autoTimeLeft;
+    try {
+      while (true) {
+        // queue up the URLs added to the feed (waits for one if nothing is downloading)
+        Integer index = !isFeedOpen ? null : (numRemain == 0) ? feed.take() : feed.poll();
+        for (; index != null; index = feed.poll()) {
+          if (index == URLFeed.CLOSED) {
+            isFeedOpen = false;
+            startTime = System.currentTimeMillis();
+            break;
+          }
+          URL url = urls.get(index);
+          if (url == null || 
+              ILLEGAL_PROTOCOLS.contains(url.getProtocol()) || 
+              URLBlackLister.isListed(url))
+            continue;
+          WebFetchingThread wft = new WebFetchingThread(url, maxDocSizeInKB, timeOutInMS, timeOutInMS);
+          ids.put(wft, index);
+          LinkedList<WebFetchingThread> queue = hostQueues.get(getHost(url));
+          if (queue == null) {
+            queue = new LinkedList<WebFetchingThread>();
+            hostQueues.put(getHost(url), queue);
+            hostCounts.put(getHost(url), 0);
+          }
+          queue.add(wft);
+          numRemain++;
         }
-      }
-      int currSecLeft = (int) Math.round(timeLeft/1000);
-      if (currSecLeft != prevSecLeft) {
-        System.out.print("[" + currSecLeft + "s left] Remaining " + numRemain + " webpages...\r");
-        prevSecLeft = currSecLeft;
-      }
-
-      if (timeLeft < 0) {
-        System.out.println();
-        log.warn("TIMED OUT! Time exceeds " + timeOutInMS / 1000.0 + " seconds.");
-        // signal all threads that they have timed out!
-        for (WebFetchingThread wft : wfts) {
-          if (wft != null)
-            wft.hasTimedOut = true;
+        if (!isFeedOpen && numRemain == 0) break;
+        
+        if (executor == null) {
+          if (useConnectionPool)
+            HttpConnectionPool.ensureCapacity(numThreads, numThreadsPerHost);
+          executor = Executors.newFixedThreadPool(isFeedOpen ? numThreads : Math.min(numThreads, numRemain), DAEMON_THREAD_FACTORY);
+          completionService = new ExecutorCompletionService<WebFetchingThread>(executor);
+        }
+        // start a few URLs of every host; the rest start as others of the same host finish,
+        // or once the scheduler allows their host to be hit again
+        long holdTime = Long.MAX_VALUE;
+        for (Map.Entry<String, LinkedList<WebFetchingThread>> entry : hostQueues.entrySet()) {
+          LinkedList<WebFetchingThread> queue = entry.getValue();
+          int count = hostCounts.get(entry.getKey());
+          for (; count < numThreadsPerHost && !queue.isEmpty(); count++) {
+            WebFetchingThread wft = queue.getFirst();
+            long waitTime = scheduler.acquire(wft.url);
+            if (waitTime > 0) {
+              if (held.add(wft))
+                log.debug("Holding " + wft.url + " to prevent being blocked by " + entry.getKey());
+              holdTime = Math.min(holdTime, waitTime);
+              break;
+            }
+            queue.removeFirst();
+            // the timeout restarts if the feed was closed while holding the URL
+            if (held.remove(wft) && !isFeedOpen)
+              startTime = System.currentTimeMillis();
+            completionService.submit(wft, wft);
+          }
+          hostCounts.put(entry.getKey(), count);
+        }
+        
+        long pollTime = Math.min(FEED_POLL_INTERVAL_IN_MS, holdTime);
+        if (!isFeedOpen) {
+          // calculate amount of time left
+          long timeLeft = timeOutInMS - (System.currentTimeMillis() - startTime);
+          if (isAutoTimeOut) {
+            long autoTimeLeft = getAutoTimeLeft(numRemain);
+            if (autoTimeLeft < timeLeft) {
+              // decrease timeout
+              timeOutInMS -= (timeLeft - autoTimeLeft);
+              timeLeft = autoTimeLeft;
+            }
+          }
+          int currSecLeft = (int) Math.round(timeLeft/1000);
+          if (currSecLeft != prevSecLeft) {
+            System.out.print("[" + currSecLeft + "s left] Remaining " + numRemain + " webpages...\r");
+            prevSecLeft = currSecLeft;
+          }
+          
+          if (timeLeft < 0) {
+            System.out.println();
+            log.warn("TIMED OUT! Time exceeds " + timeOutInMS / 1000.0 + " seconds.");
+            // signal all threads that they have timed out!
+            for (WebFetchingThread wft : ids.keySet())
+              wft.hasTimedOut = true;
+            break;
+          }
+          // wake up every second to show progress
+          pollTime = Math.min(Math.min(timeLeft, 1000) + 1, holdTime);
         }
-        break;
+        
+        // wait for the next download to finish (or for more URLs from the feed)
+        Future<WebFetchingThread> future = completionService.poll(pollTime, TimeUnit.MILLISECONDS);
+        if (future == null) continue;
+        WebFetchingThread wft = future.get();
+        numRemain--;
+        if (wft.success) {
+          int id = ids.get(wft);
+          String backupEncoding = identifyEncoding(wft.contentType);
+          docs[id] = htmlEncode(id, wft.buffer.getBuffer(), 0, wft.buffer.length(), backupEncoding);
+          if (listener != null && docs[id] != null)
+            listener.fetched(id, docs[id]);
+        }
+        String host = getHost(wft.url);
+        hostCounts.put(host, hostCounts.get(host) - 1);
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while fetching webpages!");
+    } catch (ExecutionException e) {
+      log.error("Failed to fetch webpages: " + e.getCause());
+    } finally {
+      // stops the downloads that are still waiting
+      if (executor != null)
+        executor.shutdownNow();
     }
     URLBlackLister.saveList();
     return Arrays.asList(docs);
   }
   
+  public static boolean isUseConnectionPool() {
+    return useConnectionPool;
+  }
+  
+  /**
+   * If true, webpages are downloaded through {@link HttpConnectionPool};
+   * otherwise each webpage opens its own HttpURLConnection
+   */
+  public static void setUseConnectionPool(boolean useConnectionPool) {
+    MultiThreadFetcher.useConnectionPool = useConnectionPool;
+  }
+  
+  private static String getHost(URL url) {
+    return url.getHost().toLowerCase();
+  }
+  
   private static long getAutoTimeLeft(int numActiveFetcher) {
     return (long) (Math.log10(numActiveFetcher)*5+3)*1000;
   }
@@ -165,30 +330,40 @@ public class MultiThreadFetcher {
     Helper.printMemoryUsed();
   }
   
-  private static String htmlEncode(int id, byte[] bytes, String backupEncoding) {
-    String doc = null;
+  static String htmlEncode(int id, byte[] bytes, String backupEncoding) {
+    return htmlEncode(id, bytes, 0, bytes.length, backupEncoding);
+  }
+  
+  /**
+   * Decodes "length" bytes of "bytes" from "offset" exactly once, in the
+   * encoding identified (before decoding) by the byte order mark, else by
+   * the &lt;meta&gt; tag, else by the HTTP header ("backupEncoding").
+   */
+  static String htmlEncode(int id, byte[] bytes, int offset, int length, String backupEncoding) {
+    String encoding = CharsetSniffer.sniffBOM(bytes, offset, length);
+    if (encoding != null) {
+      log.debug("[" + id + "] Encoding identified by the byte order mark as: " + encoding);
+    } else if ((encoding = CharsetSniffer.sniffMeta(bytes, offset, length)) != null) {
+      log.debug("[" + id + "] Encoding identified as: " + encoding);
+    } else if (backupEncoding != null) {
+      log.debug("[" + id + "] Encoding could not be identified! Using the backup: " + backupEncoding);
+      encoding = backupEncoding;
+    } else {
+      log.debug("[" + id + "] Encoding could not be identified! Using the default: " + DEFAULT_ENCODING);
+      encoding = DEFAULT_ENCODING;
+    }
+    String doc;
     try {
-      doc = new String(bytes, DEFAULT_ENCODING);
-      // identify encoding by looking into the <meta> tag
-      Matcher m = CHARSET_PAT.matcher(doc);
-      if (m.find()) {
-        String encoding = m.group(1).toUpperCase();
-        log.debug("[" + id + "] Encoding identified as: " + encoding);
-        if (!encoding.equals(DEFAULT_ENCODING))
-          doc = new String(bytes, encoding);
-      } else if (backupEncoding != null) {
-        log.debug("[" + id + "] Encoding could not be identified! Using the backup: " + backupEncoding);
-        doc = new String(bytes, backupEncoding);
-      } else {
-        log.debug("[" + id + "] Encoding could not be identified! Using the default: " + DEFAULT_ENCODING);
-      }
+      doc = new String(bytes, offset, length, encoding);
     } catch (UnsupportedEncodingException e) {
+      // thrown before decoding, so the bytes are still decoded only once
       log.debug("[" + id + "] " + e.toString());
+      doc = new String(bytes, offset, length, Charset.forName(DEFAULT_ENCODING));
     }
     return doc.trim();
   }
   
-  private static String identifyEncoding(String contentType) {
+  static String identifyEncoding(String contentType) {
     if (contentType == null)
       return null;
     Matcher m = CHARSET_PAT.matcher(contentType);
@@ -205,13 +380,6 @@ class WebFetchingThread implements Runnable {
   public static final int BUFFER_SIZE = 1024;
   // request method: GET, POST, etc.
   public static final String REQUEST_METHOD = "GET";
-  // HTTP request properties in the format of: key, value, key, value, etc.
-  public static final String[] HTTP_REQUEST = new String[] {
-    "Accept", "text/xml,application/xml,application/xhtml+xml,text/html;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5",
-    "Accept-Language", "zh-tw,zh-cn;q=0.8,en-us;q=0.6,en;q=0.4,ja;q=0.2",
-    "Accept-Charset", "ISO-8859-1,utf-8;q=0.7,*;q=0.7",
-    "User-Agent", "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.1) Gecko/20061010 Firefox/2.0",
-  };
   public static final List<String> HOST_LEVEL_EXCEPTIONS = Arrays.asList(
       "java.net.UnknownHostException",
       "java.net.NoRouteToHostException"
@@ -220,11 +388,11 @@ class WebFetchingThread implements Runnable {
   
   public static Logger log = Logger.getLogger(WebFetchingThread.class);
   // successfully retrieved a document
-  public boolean success = false;
+  public volatile boolean success = false;
   // thread has done running (could be either successful or unsuccessful)
-  public boolean done = false;
+  public volatile boolean done = false;
   // timeout signals by the MultiThreadFetcher
-  public boolean hasTimedOut = false;
+  public volatile boolean hasTimedOut = false;
   public String contentType;
   public ByteBuffer buffer;
   public URL url;
@@ -239,8 +407,13 @@ class WebFetchingThread implements Runnable {
     } catch (ProtocolException e) {
        e.printStackTrace();
     }
-    for (int i = 1; i < HTTP_REQUEST.length; i+=2)
-      conn.setRequestProperty(HTTP_REQUEST[i-1], HTTP_REQUEST[i]);
+    for (int i = 1; i < MultiThreadFetcher.HTTP_REQUEST.length; i+=2)
+      conn.setRequestProperty(MultiThreadFetcher.HTTP_REQUEST[i-1], MultiThreadFetcher.HTTP_REQUEST[i]);
+  }
+  
+  private static void setRequestHeader(HttpGet get) {
+    for (int i = 1; i < MultiThreadFetcher.HTTP_REQUEST.length; i+=2)
+      get.setHeader(MultiThreadFetcher.HTTP_REQUEST[i-1], MultiThreadFetcher.HTTP_REQUEST[i]);
   }
   
   public WebFetchingThread(URL url) {
@@ -261,22 +434,39 @@ class WebFetchingThread implements Runnable {
   
   public void run() {
     log.debug("[" + Thread.currentThread().getName() + "] Fetching: " + url);
-    BufferedInputStream input = null;
+    InputStream input = null;
+    HttpGet get = null;
 
     try {
-      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-      conn.setConnectTimeout(connectionTimeout);
-      conn.setReadTimeout(readTimeout);
-      setRequestHeader(conn);
-
-      // initiate connection + open an input stream
-      if (conn.getResponseCode() == 400) 
-          input = new BufferedInputStream(conn.getErrorStream());
-      else
-          input = new BufferedInputStream(conn.getInputStream());
-      contentType = conn.getContentType();
-      int contentLength = conn.getContentLength();
-      if (contentLength > -1 && maxDocSizeInKB < contentLength/1024)
+      long contentLength;
+      if (MultiThreadFetcher.isUseConnectionPool()) {
+        get = HttpConnectionPool.newGet(url, connectionTimeout, readTimeout);
+        setRequestHeader(get);
+        HttpResponse response = HttpConnectionPool.getClient().execute(get);
+        HttpEntity entity = response.getEntity();
+        // same as HttpURLConnection, which only reads the content of an error if it is 400
+        int responseCode = response.getStatusLine().getStatusCode();
+        if (responseCode > 400 || entity == null)
+          throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        input = HttpConnectionPool.getContent(entity);
+        contentType = (entity.getContentType() == null) ? null : entity.getContentType().getValue();
+        // the length of encoded content says little about its decoded size
+        contentLength = (entity.getContentEncoding() == null) ? entity.getContentLength() : -1;
+      } else {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(connectionTimeout);
+        conn.setReadTimeout(readTimeout);
+        setRequestHeader(conn);
+  
+        // initiate connection + open an input stream
+        if (conn.getResponseCode() == 400) 
+            input = new BufferedInputStream(conn.getErrorStream());
+        else
+            input = new BufferedInputStream(conn.getInputStream());
+        contentType = conn.getContentType();
+        contentLength = conn.getContentLength();
+      }
+      if (contentLength > -1 && maxDocSizeInKB > 0 && maxDocSizeInKB < contentLength/1024)
         throw new IOException("Document size (" + contentLength/1024 + "KB) is larger than " + maxDocSizeInKB + "KB");
 
       // start reading from the stream
@@ -304,6 +494,9 @@ class WebFetchingThread implements Runnable {
     } catch (Exception e) {
       // catch any other exception
     } finally {
+      // a pooled connection is reused only if its content has been read completely
+      if (get != null && !success)
+        get.abort();
       try { // close the opened stream
         if (input != null) {
           input.close();
@@ -4,319 +4,689 @@
  **************************************************************************/
 package com.rcwang.seal.fetch;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import com.rcwang.seal.util.Helper;
 
+/**
+ * Downloads webpages over non-blocking sockets, all driven by one selector
+ * per call to {@link #fetch(List, int, int, int, int)}. An instance keeps
+ * no state of a download, so it can be shared by threads fetching at the
+ * same time; what it shares is a pool of small direct buffers (a webpage
+ * takes as many as it needs) and a cache of host names resolved
+ * concurrently in the background. Responses may be chunked.
+ *
+ * @author rcwang
+ */
 public class NonBlockingFetcher {
-  private static Logger log = Logger.getLogger(NonBlockingFetcher.class); 
-  
+
+  /********************** Parameters **************************/
+  public static final String PROTOCOL = "http";
+  // size of each direct buffer, and the number of them kept for reuse
+  public static final int BUFFER_SIZE = 16 * 1024;
+  public static final int MAX_POOLED_BUFFERS = 1024;
+  // number of threads resolving host names
+  public static final int NUM_RESOLVER_THREADS = 16;
+  // resolved host names are looked up again after this long
+  public static final long DNS_CACHE_TTL_IN_MS = 10 * 60 * 1000;
+  // maximum number of redirects followed for each URL
+  public static final int MAX_REDIRECTS = 5;
+  /************************************************************/
+
+  public static Logger log = Logger.getLogger(NonBlockingFetcher.class);
+
   // this represents one web page
   private static class Work {
-    public URL url;
-    public ByteBuffer httpRequest;
-    public InetSocketAddress isa;
+    public final int id;
+    public final URL url;
+    public final String host;
+    public ByteBuffer request;
+    public Lookup lookup;
+    public SocketChannel channel;
+    // the response so far, in buffers taken from the pool
+    public List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    public int size = 0;
     public boolean success = false;
-    public final ByteBuffer buffer = ByteBuffer.allocateDirect(DOC_BUFFER_SIZE);
+    public int numRedirects = 0;
+
+    public Work(int id, URL url) {
+      this.id = id;
+      this.url = url;
+      this.host = url.getHost().toLowerCase();
+    }
   }
-  
-  // extracts charset value from <meta> tag
-  public static final Pattern CHARSET_PAT = Pattern.compile("(?i)charset=\"?([\\w-]+)");
-  public static final String DEFAULT_ENCODING = "US-ASCII";
-  public static final long DEFAULT_MIN_TIMEOUT = 5 * 1000; // milliseconds
-
-  public static final int DOC_BUFFER_SIZE = 1024 * 1024;  // allocate 1MB for each web page
-  public static final int DIRECT_BUFFER_SIZE = 1024;  // allocate 1KB for direct buffers
-  public static final int HTTP_PORT = 80;
-
-  private static ByteBuffer buffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);;
-  private static Charset charset = Charset.forName(DEFAULT_ENCODING);
-  private static Selector selector;
-  private static URL[] urls;
-  private static Work[] works;
-  private static List<String> documents;
-  private static long timeout;
-  private static long startTime;
-  private static int numUnfinished;
-  
-  public static List<String> download(List<URL> urlList) {
-    int numURLs = urlList.size();
-    numUnfinished = numURLs;
-    timeout = estimateTimeOut(numURLs);
-    urls = urlList.toArray(new URL[numURLs]);
-    works = new Work[numURLs];
-    documents = new ArrayList<String>(numURLs);
-    
-    log.info("Connecting to servers (this may take a while)... ");
-    startTime = System.currentTimeMillis();
-    resolveHostNames();
-    try {
-      selector = Selector.open();
-    } catch (IOException e) {
-      log.error("IO error: " + e);
+
+  // a host name being (or already) resolved, which wakes up the selectors waiting for it
+  private static class Lookup extends FutureTask<InetAddress> {
+    private final long createTime = System.currentTimeMillis();
+    private List<Selector> selectors = new ArrayList<Selector>();
+
+    public Lookup(final String host) {
+      super(new Callable<InetAddress>() {
+        public InetAddress call() throws UnknownHostException {
+          return InetAddress.getByName(host);
+        }
+      });
     }
-    for (Work work : works) {
-      if (work == null)
-        numUnfinished--;
-      else add(work);
+
+    public synchronized void addSelector(Selector selector) {
+      if (isDone())
+        selector.wakeup();
+      else selectors.add(selector);
+    }
+
+    // failed lookups are tried again by the next download
+    public boolean isExpired() {
+      if (System.currentTimeMillis() - createTime > DNS_CACHE_TTL_IN_MS)
+        return true;
+      if (!isDone()) return false;
+      try {
+        get();
+        return false;
+      } catch (Exception e) {
+        return true;
+      }
+    }
+
+    protected synchronized void done() {
+      for (Selector selector : selectors)
+        selector.wakeup();
+      selectors = null;
     }
-    Helper.printElapsedTime(startTime);
-    
-    log.info("Retrieving webpages... (will time out in " + timeout / 1000.0 + " seconds)");
-    startTime = System.currentTimeMillis();
-    retrieveWebPages();
-    log.info("Number of unfinished URL(s): " + numUnfinished);
-    Helper.printElapsedTime(startTime);
-    
-    log.info("Post processing each retrieved webpage...");
-    startTime = System.currentTimeMillis();
-    processDocuments();
-    Helper.printElapsedTime(startTime);
-    return documents;
   }
-  
+
+  // direct buffers returned after each download to be reused by the next
+  private static class BufferPool {
+    private final LinkedList<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+
+    public synchronized ByteBuffer acquire() {
+      ByteBuffer buffer = buffers.poll();
+      if (buffer == null)
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.clear();
+      return buffer;
+    }
+
+    public synchronized void release(List<ByteBuffer> list) {
+      for (ByteBuffer buffer : list)
+        if (buffers.size() < MAX_POOLED_BUFFERS)
+          buffers.add(buffer);
+      list.clear();
+    }
+  }
+
+  // JVM will exit if all threads running are daemon threads
+  private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+    private int numThreads = 0;
+    public synchronized Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "resolver-" + (numThreads++));
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  private final BufferPool bufferPool = new BufferPool();
+  private final ConcurrentMap<String, Lookup> dnsCache = new ConcurrentHashMap<String, Lookup>();
+  private final ThreadPoolExecutor resolver;
+
   public static void main(String args[]) throws Exception {
     List<URL> urls = new ArrayList<URL>();
     urls.add(new URL("http://www.google.com.tw"));
     urls.add(new URL("http://www.rcwang.com"));
     urls.add(new URL("http://www.msn.com.tw"));
     urls.add(new URL("http://www.ettoday.com"));
-    
-    List<String> docs = NonBlockingFetcher.download(urls);
+
+    List<String> docs = new NonBlockingFetcher().fetch(urls);
     for (String doc : docs)
-      Helper.writeToFile(new File(doc.hashCode() + ".html"), doc);
+      if (doc != null)
+        Helper.writeToFile(new File(doc.hashCode() + ".html"), doc);
   }
 
-  private static boolean add(Work work) {
-    SocketChannel channel = null;
-    try {
-      channel = SocketChannel.open();
-      channel.configureBlocking(false);
-      channel.connect(work.isa);
-      channel.register(selector, SelectionKey.OP_CONNECT, work);
-    } catch (Exception ioe) {
-      if (channel != null) {
-        try {
-          channel.close();
-        } catch (IOException ioe2) {
-          log.error("Unable to close channel: " + ioe2);
-        }
-      }
-      log.error("Channel creation or registration failed: " + ioe);
-      numUnfinished--;
-      return false;
-    }
-    return true;
+  // same as MultiThreadFetcher's automatic timeout
+  private static long estimateTimeOut(int numURLs) {
+    return (long) (Math.log10(numURLs)*5+3)*1000;
   }
 
-  private static ByteBuffer buildHTTPRequest(URL url, CharsetEncoder encoder) {
+  private static ByteBuffer buildHTTPRequest(URL url) {
     String file = url.getFile();
     if (file.length() == 0)
       file = "/";
-    
+    String host = url.getHost();
+    if (url.getPort() != -1)
+      host += ":" + url.getPort();
+
     StringBuffer request = new StringBuffer();
-    request.append("GET ").append(file).append(" HTTP/1.0\r\n");
-    request.append("Host: ").append(url.getHost()).append("\r\n");
+    request.append("GET ").append(file).append(" HTTP/1.1\r\n");
+    request.append("Host: ").append(host).append("\r\n");
     request.append("Connection: close\r\n");
-    request.append("Accept: text/xml,application/xml,application/xhtml+xml,text/html;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5\r\n");
-    request.append("Accept-Language: zh-tw,zh-cn;q=0.8,en-us;q=0.6,en;q=0.4,ja;q=0.2\r\n");
-    request.append("Accept-Charset: ISO-8859-1,utf-8;q=0.7,*;q=0.7\r\n");
-    request.append("User-Agent: Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.1) Gecko/20061010 Firefox/2.0\r\n");
+    for (int i = 1; i < MultiThreadFetcher.HTTP_REQUEST.length; i+=2)
+      request.append(MultiThreadFetcher.HTTP_REQUEST[i-1]).append(": ").append(MultiThreadFetcher.HTTP_REQUEST[i]).append("\r\n");
     request.append("\r\n");
-
     try {
-      return encoder.encode(CharBuffer.wrap(request));
-    } catch (CharacterCodingException e) {
-      log.error("Character coding error");
+      return ByteBuffer.wrap(request.toString().getBytes("US-ASCII"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Decodes the body of a chunked response that starts at 'from'
+   * @return the decoded body, or null if the response is incomplete
+   */
+  static byte[] dechunk(byte[] bytes, int from, int to) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(to - from);
+    int i = from;
+    while (true) {
+      // chunk size in hex, possibly followed by extensions
+      int lineEnd = indexOf(bytes, i, to, "\r\n");
+      if (lineEnd == -1) return null;
+      int size = 0, j = i;
+      for (; j < lineEnd; j++) {
+        int digit = Character.digit((char) bytes[j], 16);
+        if (digit == -1) break;
+        size = size * 16 + digit;
+        if (size < 0) return null;
+      }
+      if (j == i) return null;
+      // the last chunk (its trailers are ignored)
+      if (size == 0) return body.toByteArray();
+      i = lineEnd + 2;
+      if (size > to - i) return null;
+      body.write(bytes, i, size);
+      i += size + 2;
+    }
+  }
+
+  private static int indexOf(byte[] bytes, int from, int to, String s) {
+    outer: for (int i = from; i <= to - s.length(); i++) {
+      for (int j = 0; j < s.length(); j++)
+        if (bytes[i+j] != s.charAt(j))
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the location that the response redirects to (status 301, 302, 303,
+   * 307 or 308), or null if it does not redirect
+   */
+  static String getRedirect(byte[] bytes) throws UnsupportedEncodingException {
+    int headerEnd = indexOf(bytes, 0, bytes.length, "\r\n\r\n");
+    if (headerEnd == -1) return null;
+    String[] header = new String(bytes, 0, headerEnd, "ISO-8859-1").split("\r\n");
+    String[] status = header[0].split(" ");
+    if (!status[0].startsWith("HTTP/") || status.length < 2) return null;
+    if (!Arrays.asList("301", "302", "303", "307", "308").contains(status[1])) return null;
+    for (int i = 1; i < header.length; i++) {
+      int colon = header[i].indexOf(':');
+      if (colon != -1 && header[i].substring(0, colon).trim().equalsIgnoreCase("Location"))
+        return header[i].substring(colon+1).trim();
     }
     return null;
   }
-  
-  private static boolean doRead(SocketChannel channel, Work work) throws IOException {
-    buffer.clear();
-    boolean done = false;
-    int numBytesRead = channel.read(buffer);
-    if (numBytesRead == -1) {
-      work.success = true;
-      done = true;
-    } else if (numBytesRead > 0) {
-      buffer.flip();
-      int bufSizeRemaining = work.buffer.remaining();
-      // see if the bytes read can fit into the buffer
-      if (bufSizeRemaining >= numBytesRead) {
-        // buffer has enough space left
-        work.buffer.put(buffer);
-      } else if (bufSizeRemaining > 0) {
-        // buffer doesn't have enough space, will discard bytes that don't fit
-        buffer.limit(bufSizeRemaining);
-        work.buffer.put(buffer);
+
+  /**
+   * Separates the HTTP header from the body and decodes the body
+   * @return the document, or null if the response is an error, a redirect or is incomplete
+   */
+  static String toDocument(int id, byte[] bytes) throws UnsupportedEncodingException {
+    int headerEnd = indexOf(bytes, 0, bytes.length, "\r\n\r\n");
+    if (headerEnd == -1) return null;
+    String[] header = new String(bytes, 0, headerEnd, "ISO-8859-1").split("\r\n");
+    // same as MultiThreadFetcher, which only reads the content of an error if it is 400;
+    // the body of a redirect (or of 304 Not Modified) is not the webpage
+    String[] status = header[0].split(" ");
+    if (!status[0].startsWith("HTTP/") || status.length < 2) return null;
+    try {
+      int code = Integer.parseInt(status[1]);
+      if (code > 400 || (code >= 300 && code < 400)) return null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+
+    String contentType = null;
+    boolean isChunked = false;
+    int contentLength = -1;
+    for (int i = 1; i < header.length; i++) {
+      int colon = header[i].indexOf(':');
+      if (colon == -1) continue;
+      String name = header[i].substring(0, colon).trim();
+      String value = header[i].substring(colon+1).trim();
+      if (name.equalsIgnoreCase("Content-Type"))
+        contentType = value;
+      else if (name.equalsIgnoreCase("Transfer-Encoding"))
+        isChunked = value.toLowerCase().contains("chunked");
+      else if (name.equalsIgnoreCase("Content-Length")) {
+        try {
+          contentLength = Integer.parseInt(value);
+        } catch (NumberFormatException e) {}
       }
     }
-    return done;
+
+    int bodyStart = headerEnd + 4;
+    String encoding = MultiThreadFetcher.identifyEncoding(contentType);
+    if (isChunked) {
+      byte[] body = dechunk(bytes, bodyStart, bytes.length);
+      if (body == null) return null;
+      return MultiThreadFetcher.htmlEncode(id, body, encoding);
+    }
+    // the body is decoded in place, without being copied out of the response
+    int bodyLength = bytes.length - bodyStart;
+    if (contentLength > -1) {
+      if (bodyLength < contentLength) return null;
+      bodyLength = contentLength;
+    }
+    return MultiThreadFetcher.htmlEncode(id, bytes, bodyStart, bodyLength, encoding);
   }
-  
-  private static boolean doWrite(SocketChannel channel, Work work) throws IOException {
-    int rem = work.httpRequest.remaining();
-    int num = channel.write(work.httpRequest);
-    // Continue writing until everything has been written
-    return (num == rem);
+
+  public NonBlockingFetcher() {
+    resolver = new ThreadPoolExecutor(NUM_RESOLVER_THREADS, NUM_RESOLVER_THREADS,
+                                      5, TimeUnit.SECONDS,
+                                      new LinkedBlockingQueue<Runnable>(), DAEMON_THREAD_FACTORY);
+    // no threads are kept while the fetcher is idle
+    resolver.allowCoreThreadTimeOut(true);
   }
-  
-  private static long estimateTimeOut(int numURLs) {
-    return (long) Math.max(Math.sqrt(numURLs) * 1000, DEFAULT_MIN_TIMEOUT);
+
+  /**
+   * Downloads a list of URLs with auto timeout and no document size limits
+   * @param urls a list of URLs
+   * @return a list of URL contents
+   */
+  public List<String> fetch(List<URL> urls) {
+    return fetch(urls, 0, 0, MultiThreadFetcher.DEFAULT_NUM_THREADS, MultiThreadFetcher.DEFAULT_NUM_THREADS_PER_HOST);
+  }
+
+  /**
+   * Downloads a list of URLs
+   * @param urls a list of URLs
+   * @param timeOutInMS time out for downloading all URLs in milliseconds (0 for auto)
+   * @param maxDocSizeInKB maximum document size in KB (0 for unlimited)
+   * @param numConnections maximum number of URLs downloaded at once
+   * @param numConnectionsPerHost maximum number of URLs downloaded at once from the same host
+   * @return a list of URL contents
+   */
+  public List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB,
+                            int numConnections, int numConnectionsPerHost) {
+    return fetch(urls, timeOutInMS, maxDocSizeInKB, numConnections, numConnectionsPerHost, null);
+  }
+
+  /**
+   * Same as {@link #fetch(List, int, int, int, int)}, but also gives each
+   * document to the listener (if not null) as soon as it has been downloaded
+   */
+  public List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB,
+                            int numConnections, int numConnectionsPerHost, FetchListener listener) {
+    return fetch(urls, timeOutInMS, maxDocSizeInKB, numConnections, numConnectionsPerHost, listener, URLFeed.of(urls.size()));
   }
-  
-  private static void finished(SocketChannel channel, SelectionKey key, Work work) {
-    key.cancel();
+
+  /**
+   * Same as {@link #fetch(List, int, int, int, int, FetchListener)}, but only
+   * downloads the URLs whose indexes are added to the feed, each as soon as
+   * it is added. The timeout starts when the feed is closed.
+   */
+  public List<String> fetch(List<URL> urls, int timeOutInMS, int maxDocSizeInKB,
+                            int numConnections, int numConnectionsPerHost, FetchListener listener, URLFeed feed) {
+    if (urls.isEmpty()) return Collections.<String>emptyList();
+    if (numConnections <= 0 || numConnectionsPerHost <= 0)
+      throw new IllegalArgumentException("Number of connections must be greater than zero!");
+    long startTime = System.currentTimeMillis();
+
+    Download download;
     try {
-      channel.close();
-    } catch (IOException ioe) {
-      log.error("Failed to close socket: " + ioe.toString());
-    } 
-    String status = work.success ? "Success" : "Failed ";
-    log.debug("[" + (urls.length - numUnfinished + 1) + "/" + urls.length + "] " + status + ": " + work.url);
-    numUnfinished--;
+      download = new Download(urls, timeOutInMS, maxDocSizeInKB,
+                              numConnections, numConnectionsPerHost, listener, feed);
+    } catch (IOException e) {
+      log.error("IO error: " + e);
+      return Arrays.asList(new String[urls.size()]);
+    }
+    download.run();
+    URLBlackLister.saveList();
+    Helper.printElapsedTime(startTime);
+    return Arrays.asList(download.docs);
   }
 
-  private static void processDocuments() {
-    CharsetDecoder decoder = charset.newDecoder();
-    decoder.onMalformedInput(CodingErrorAction.IGNORE);
-    decoder.onUnmappableCharacter(CodingErrorAction.IGNORE);
-    
-    // perform 1 to 2-pass decoding on every document
-    for (int i = 0; i < works.length; i++) {
-      documents.add(null);
-      if (works[i] == null)
-        continue;
-      
-      URL url = works[i].url;
-      log.debug("[" + (i + 1) + "/" + urls.length + "] Processing: " + url);
-      String encoding = DEFAULT_ENCODING;
-      String doc = null;
-      ByteBuffer buffer = works[i].buffer;
-      buffer.flip();
-      
+  private Lookup resolve(String host) {
+    Lookup lookup = dnsCache.get(host);
+    if (lookup != null && lookup.isExpired()) {
+      dnsCache.remove(host, lookup);
+      lookup = null;
+    }
+    if (lookup == null) {
+      Lookup newLookup = new Lookup(host);
+      lookup = dnsCache.putIfAbsent(host, newLookup);
+      if (lookup == null) {
+        lookup = newLookup;
+        resolver.execute(lookup);
+      }
+    }
+    return lookup;
+  }
+
+  // the selector and the state of the downloads in one call to fetch()
+  private class Download {
+    public String[] docs;
+    private List<URL> urls;
+    private FetchListener listener;
+    private URLFeed feed;
+    private Selector selector;
+    private int timeOutInMS;
+    private long timeOut;
+    private long deadline = Long.MAX_VALUE;  // set when the feed is closed
+    private int maxDocSizeInKB;
+    private int numConnections;
+    private int numConnectionsPerHost;
+    // URLs waiting to start, and the number of URLs started, of each host
+    private Map<String, LinkedList<Work>> hostQueues = new LinkedHashMap<String, LinkedList<Work>>();
+    private Map<String, Integer> hostCounts = new HashMap<String, Integer>();
+    // URLs waiting for their host names to be resolved
+    private List<Work> resolving = new LinkedList<Work>();
+    // URLs held back to not hit their hosts too often, and the time until one may start
+    private Set<Work> held = new HashSet<Work>();
+    private long holdTime = Long.MAX_VALUE;
+    private HostScheduler scheduler = HostScheduler.getScheduler();
+    private int numAdded = 0;
+    private int numStarted = 0;
+    private int numUnfinished = 0;
+
+    public Download(List<URL> urls, int timeOutInMS, int maxDocSizeInKB, int numConnections,
+                    int numConnectionsPerHost, FetchListener listener, URLFeed feed) throws IOException {
+      this.docs = new String[urls.size()];  // default to null
+      this.urls = urls;
+      this.listener = listener;
+      this.feed = feed;
+      this.timeOutInMS = timeOutInMS;
+      this.maxDocSizeInKB = maxDocSizeInKB;
+      this.numConnections = numConnections;
+      this.numConnectionsPerHost = numConnectionsPerHost;
+      selector = Selector.open();
+    }
+
+    public void add(int index) {
+      URL url = urls.get(index);
+      if (url == null || URLBlackLister.isListed(url))
+        return;
+      if (!url.getProtocol().equals(PROTOCOL)) {
+        log.debug("Unsupported protocol: " + url);
+        return;
+      }
+      enqueue(new Work(index, url));
+      numAdded++;
+    }
+
+    private void enqueue(Work work) {
+      LinkedList<Work> queue = hostQueues.get(work.host);
+      if (queue == null) {
+        queue = new LinkedList<Work>();
+        hostQueues.put(work.host, queue);
+        hostCounts.put(work.host, 0);
+      }
+      queue.add(work);
+      numUnfinished++;
+    }
+
+    public void run() {
+      int prevSecLeft = -1;
+      boolean isFeedOpen = true;
       try {
-        // try to use default encoding to decode the document
-        doc = decoder.decode(buffer).toString();
-        
-        // identify encoding by looking into the <meta> tag
-        Matcher m = CHARSET_PAT.matcher(doc);
-        if (m.find()) {
-          encoding = m.group(1).toUpperCase();
-          log.debug("Encoding identified as: " + encoding);
-        } else {
-          log.debug("Encoding could not be identified! Using the default: " + DEFAULT_ENCODING);
+        while (true) {
+          // takes the URLs added to the feed (waits for one if nothing is downloading)
+          Integer index = !isFeedOpen ? null : (numUnfinished == 0) ? feed.take() : feed.poll();
+          for (; index != null; index = feed.poll()) {
+            if (index == URLFeed.CLOSED) {
+              isFeedOpen = false;
+              timeOut = (timeOutInMS > 0) ? timeOutInMS : estimateTimeOut(numAdded);
+              log.info("Retrieving webpages... (will time out in " + timeOut / 1000.0 + " seconds)");
+              deadline = System.currentTimeMillis() + timeOut;
+              break;
+            }
+            add(index);
+          }
+          startWorks();
+          if (!isFeedOpen && numUnfinished == 0) break;
+          if (isFeedOpen) {
+            selector.select(MultiThreadFetcher.FEED_POLL_INTERVAL_IN_MS);
+            connectResolved();
+            processKeys();
+            continue;
+          }
+
+          long timeLeft = deadline - System.currentTimeMillis();
+          int currSecLeft = (int) (timeLeft / 1000);
+          if (currSecLeft != prevSecLeft) {
+            System.out.print("[" + currSecLeft + "s left] Remaining " + numUnfinished + " webpages...\r");
+            prevSecLeft = currSecLeft;
+          }
+          if (timeLeft <= 0) {
+            System.out.println();
+            log.warn("TIMED OUT! Number of unfinished URL(s): " + numUnfinished);
+            break;
+          }
+          // wakes up when a host name is resolved or a held URL may start, but at least every second to show progress
+          selector.select(Math.min(Math.min(timeLeft, 1000), holdTime));
+          connectResolved();
+          processKeys();
         }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.error("Interrupted while fetching webpages!");
+      } catch (IOException e) {
+        log.error("IO error: " + e);
+      } finally {
+        for (SelectionKey key : selector.keys())
+          close((Work) key.attachment());
+        try {
+          selector.close();
+        } catch (IOException e) {}
+      }
+    }
 
-        // if the identified encoding is different from the default encoding
-        if (!encoding.equals(DEFAULT_ENCODING)) {
-          // decode again using the identified encoding 
-          CharsetDecoder d = Charset.forName(encoding).newDecoder();
-          d.onUnmappableCharacter(CodingErrorAction.IGNORE);
-          d.onMalformedInput(CodingErrorAction.IGNORE);
-          buffer.flip();
-          doc = d.decode(buffer).toString();
+    // starts as many URLs as allowed, taking turns among the hosts
+    // that the scheduler allows to be hit now
+    private void startWorks() {
+      holdTime = Long.MAX_VALUE;
+      boolean started = true;
+      while (started && numStarted < numConnections) {
+        started = false;
+        for (Map.Entry<String, LinkedList<Work>> entry : hostQueues.entrySet()) {
+          if (numStarted >= numConnections) break;
+          int count = hostCounts.get(entry.getKey());
+          if (entry.getValue().isEmpty() || count >= numConnectionsPerHost)
+            continue;
+          Work work = entry.getValue().getFirst();
+          long waitTime = scheduler.acquire(work.url);
+          if (waitTime > 0) {
+            if (held.add(work))
+              log.debug("Holding " + work.url + " to prevent being blocked by " + entry.getKey());
+            holdTime = Math.min(holdTime, waitTime);
+            continue;
+          }
+          entry.getValue().removeFirst();
+          // the timeout restarts if the feed was closed while holding the URL
+          if (held.remove(work) && deadline != Long.MAX_VALUE)
+            deadline = System.currentTimeMillis() + timeOut;
+          start(work);
+          hostCounts.put(entry.getKey(), count + 1);
+          numStarted++;
+          started = true;
         }
-      } catch (Exception e) {
-        log.error("Character coding error: " + e);
-        continue;
       }
-      documents.set(i, removeHTTPHeader(doc));
-//      doc = removeHTTPHeader(doc);
-//      doc = CacheRecoverer.recover(url, doc);
-//      documents.set(i, doc);
     }
-  }
 
-  private static void processKeys() {
-    Set<SelectionKey> keys = selector.selectedKeys();
-    for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
-      SelectionKey key = iter.next();
-      iter.remove();
-      Work work = (Work) key.attachment();
-      SocketChannel channel = (SocketChannel) key.channel();
-      try {
-        // If timed out
-        if (System.currentTimeMillis() - startTime > timeout) {
-          finished(channel, key, work);
-          continue;
+    private void start(Work work) {
+      work.request = buildHTTPRequest(work.url);
+      work.lookup = resolve(work.host);
+      work.lookup.addSelector(selector);
+      resolving.add(work);
+    }
+
+    private void connectResolved() {
+      for (Iterator<Work> iter = resolving.iterator(); iter.hasNext();) {
+        Work work = iter.next();
+        if (!work.lookup.isDone()) continue;
+        iter.remove();
+        try {
+          int port = (work.url.getPort() == -1) ? work.url.getDefaultPort() : work.url.getPort();
+          InetSocketAddress address = new InetSocketAddress(work.lookup.get(), port);
+          work.channel = SocketChannel.open();
+          work.channel.configureBlocking(false);
+          work.channel.connect(address);
+          work.channel.register(selector, SelectionKey.OP_CONNECT, work);
+        } catch (ExecutionException e) {
+          finished(work, (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.toString()));
+        } catch (InterruptedException e) {
+          finished(work, new IOException(e.toString()));
+        } catch (IOException e) {
+          finished(work, e);
         }
-        if (key.isConnectable() && channel.finishConnect()) {
-          // If the Channel is connected, setup the Channel to
-          // write the HTTP message to the remote server
-          key.interestOps(SelectionKey.OP_WRITE);
-        } else if (key.isWritable()) {
-          // If the Channel is finished writing, setup the
-          // Channel to read the HTTP response
-          if (doWrite(channel, work))
-            key.interestOps(SelectionKey.OP_READ);
-        } else if (key.isReadable()) {
-          // If the Channel is finished reading, call finished
-          // to complete the work
-          if (doRead(channel, work))
-            finished(channel, key, work);
+      }
+    }
+
+    private void processKeys() {
+      for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext();) {
+        SelectionKey key = iter.next();
+        iter.remove();
+        Work work = (Work) key.attachment();
+        try {
+          if (key.isConnectable()) {
+            // If the Channel is connected, setup the Channel to
+            // write the HTTP message to the remote server
+            if (work.channel.finishConnect())
+              key.interestOps(SelectionKey.OP_WRITE);
+          } else if (key.isWritable()) {
+            // If the Channel is finished writing, setup the
+            // Channel to read the HTTP response
+            work.channel.write(work.request);
+            if (!work.request.hasRemaining())
+              key.interestOps(SelectionKey.OP_READ);
+          } else if (key.isReadable()) {
+            if (doRead(work)) {
+              work.success = true;
+              finished(work, null);
+            }
+          }
+        } catch (IOException e) {
+          finished(work, e);
         }
-      } catch (IOException ioe) {
-        log.error("Failure during IO operation");
-        finished(channel, key, work);
       }
     }
-  }
 
-  private static String removeHTTPHeader(String s) {
-    String headerBoundary = "\r\n\r\n";
-    int boundaryOffset = s.indexOf(headerBoundary);
-    if (boundaryOffset > -1)
-      return s.substring(boundaryOffset + headerBoundary.length());
-    return s;
-  }
+    // @return true if the server has sent the whole response
+    private boolean doRead(Work work) throws IOException {
+      ByteBuffer buffer = work.buffers.isEmpty() ? null : work.buffers.get(work.buffers.size()-1);
+      if (buffer == null || !buffer.hasRemaining()) {
+        buffer = bufferPool.acquire();
+        work.buffers.add(buffer);
+      }
+      int numBytesRead = work.channel.read(buffer);
+      if (numBytesRead == -1)
+        return true;
+      work.size += numBytesRead;
+      // throw exception if document size (KB) is too large
+      if (maxDocSizeInKB > 0 && maxDocSizeInKB < work.size/1024)
+        throw new IOException("Document size (" + work.size/1024 + "KB) is larger than " + maxDocSizeInKB + "KB");
+      return false;
+    }
 
-  private static void resolveHostNames() {
-    CharsetEncoder encoder = charset.newEncoder();
-    for (int i = 0; i < urls.length; i++) {
-      // this is a blocking operation, may take a long time
-      works[i] = new Work();
-      works[i].url = urls[i];
-      works[i].httpRequest = buildHTTPRequest(urls[i], encoder);
-      works[i].isa = new InetSocketAddress(urls[i].getHost(), HTTP_PORT);
+    private void finished(Work work, IOException e) {
+      if (work.success) {
+        byte[] bytes = new byte[work.size];
+        int offset = 0;
+        for (ByteBuffer buffer : work.buffers) {
+          buffer.flip();
+          int length = buffer.remaining();
+          buffer.get(bytes, offset, length);
+          offset += length;
+        }
+        try {
+          String location = getRedirect(bytes);
+          if (location != null && redirect(work, new URL(work.url, location)))
+            return;
+          docs[work.id] = toDocument(work.id, bytes);
+        } catch (Exception ex) {
+          log.debug("[" + work.id + "] " + ex.toString());
+        }
+        if (listener != null && docs[work.id] != null)
+          listener.fetched(work.id, docs[work.id]);
+      } else if (e != null) {
+        // if any IO error occurs, block the URL
+        log.debug("[" + work.id + "] " + e.toString() + ": " + work.url);
+        URLBlackLister.addToList(work.url, e instanceof UnknownHostException);
+      }
+      log.debug("[" + work.id + "] " + (docs[work.id] != null ? "Success" : "Failed ") + ": " + work.url);
+      close(work);
+      hostCounts.put(work.host, hostCounts.get(work.host) - 1);
+      numStarted--;
+      numUnfinished--;
     }
-  }
 
-  private static void retrieveWebPages() {
-    try {
-      while (numUnfinished > 0) {
-        int num = selector.selectNow();
-        if (num > 0) processKeys();
-        if (System.currentTimeMillis() - startTime > timeout) {
-          log.error("TIMED OUT! Time exceeds " + timeout / 1000.0 + " sec.");
-          break;
+    /**
+     * Downloads the URL of the work again from the location that it redirects to
+     * @return false if the location is not followed
+     */
+    private boolean redirect(Work work, URL location) {
+      if (work.numRedirects >= MAX_REDIRECTS) {
+        log.debug("[" + work.id + "] Too many redirects: " + work.url);
+        return false;
+      }
+      if (!location.getProtocol().equals(PROTOCOL) || URLBlackLister.isListed(location)) {
+        log.debug("[" + work.id + "] Cannot follow redirect to " + location);
+        return false;
+      }
+      log.debug("[" + work.id + "] Redirected to " + location + ": " + work.url);
+      close(work);
+      hostCounts.put(work.host, hostCounts.get(work.host) - 1);
+      numStarted--;
+      numUnfinished--;
+      Work next = new Work(work.id, location);
+      next.numRedirects = work.numRedirects + 1;
+      enqueue(next);
+      return true;
+    }
+
+    private void close(Work work) {
+      if (work.channel != null) {
+        try {
+          work.channel.close();
+        } catch (IOException e) {
+          log.error("Failed to close socket: " + e.toString());
         }
+        work.channel = null;
       }
-      selector.close();
-    } catch (IOException ioe) {
-      log.error("IO Error: " + ioe.toString());
+      bufferPool.release(work.buffers);
     }
   }
 }
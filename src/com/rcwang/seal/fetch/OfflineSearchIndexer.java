@@ -29,8 +29,10 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.demo.HTMLDocument;
+import org.apache.lucene.demo.html.HTMLParser;
 import org.apache.lucene.document.*;
 
+import com.rcwang.seal.util.CacheStore;
 import com.rcwang.seal.util.GlobalVar;
 
 public class OfflineSearchIndexer {
@@ -105,6 +107,9 @@ public class OfflineSearchIndexer {
     */
 
     private static void indexDocs(IndexWriter writer, File file,boolean hasWrappers) throws Exception {
+        if (file.isDirectory() && CacheStore.exists(file)) {
+            indexStore(writer, file, hasWrappers);
+        }
         if (file.isDirectory()) {			  // if a directory
             String[] files = file.list();		  // list its files
             Arrays.sort(files);			  // sort the files
@@ -141,21 +146,57 @@ public class OfflineSearchIndexer {
             log.info("skipping "+file);
         }
     }
+
+    /* Index every document in a cache store; the url field holds the URL of
+       the document, and the store field holds the directory of the store.
+       The store is left open, since CacheStore.open shares it with the rest
+       of the process.
+    */
+    private static void indexStore(IndexWriter writer, File dir, boolean hasWrappers) throws Exception {
+        CacheStore store = CacheStore.open(dir);
+        log.info("indexing "+store.size()+" documents in cache store "+dir);
+        for (String url : store.getKeys()) {
+            byte[] bytes = store.get(url);
+            String text = (bytes == null) ? null : WebManager.fromCacheBytes(bytes);
+            if (text == null) continue;
+            numFiles++;
+            Document doc;
+            if (hasWrappers) {
+                log.debug("indexing wrapper "+url);
+                doc = wrapperDoc(new LineNumberReader(new StringReader(text)), url, false);
+            } else {
+                log.debug("indexing html document "+url);
+                HTMLParser parser = new HTMLParser(new StringReader(text));
+                doc = new Document();
+                doc.add(new Field("contents", parser.getReader()));
+                doc.add(new Field("summary", parser.getSummary(), Field.Store.YES, Field.Index.NO));
+                doc.add(new Field("title", parser.getTitle(), Field.Store.YES, Field.Index.ANALYZED));
+                doc.add(new Field("url", url, Field.Store.YES, Field.Index.NOT_ANALYZED));
+            }
+            doc.add(new Field("store", dir.getPath(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+            numIndexed++;
+        }
+    }
+
     public static Document wrapperDoc(File file) throws java.io.FileNotFoundException, java.io.IOException {
-        // parse doc in format: first line = header,
+        return wrapperDoc(new LineNumberReader(new FileReader(file)), file.getPath(), true);
+    }
+
+    private static Document wrapperDoc(LineNumberReader in, String url, boolean hasHeader) throws java.io.IOException {
+        // parse doc in format: first line = header (if any),
         // then rest of lines are: left <TAB> content <TAB> right 
         Document doc = new Document();
         StringBuffer buf = new StringBuffer();
-        LineNumberReader in = new LineNumberReader(new FileReader(file));
         // skip header
-        String line = in.readLine();
+        String line = hasHeader ? in.readLine() : null;
         while ((line = in.readLine())!=null) {
             try {
                 String[] parts = line.split("\t");
                 buf.append(parts[1] + "\n");
             } catch(ArrayIndexOutOfBoundsException e) {
                 System.out.println("error parsing wrapper file!");
-                System.out.println("file: '"+file+"'");
+                System.out.println("file: '"+url+"'");
                 System.out.println("line#: "+in.getLineNumber());
                 System.out.println("line: '"+line+"'");
                 System.out.println("#parts: "+line.split("\t").length);
@@ -164,7 +205,7 @@ public class OfflineSearchIndexer {
         }
         in.close();
         doc.add(new Field("contents",new StringReader(buf.toString())));
-        doc.add(new Field("url", file.getPath(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field("url", url, Field.Store.YES, Field.Index.NOT_ANALYZED));
         return doc;
     }
 }
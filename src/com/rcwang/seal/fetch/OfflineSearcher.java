@@ -30,6 +30,7 @@ import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.store.FSDirectory;
 
+import com.rcwang.seal.util.CacheStore;
 import com.rcwang.seal.util.Helper;
 import com.rcwang.seal.util.GlobalVar;
 
@@ -101,6 +102,15 @@ public class OfflineSearcher {
                 org.apache.lucene.document.Document doc = searcher.doc(hits[i].doc);
                 String docLoc = doc.get("url");
                 log.debug("page is at docloc: "+docLoc);
+                if (doc.get("store")!=null) {
+                    // indexed from a cache store, where docLoc is the URL of the page
+                    Document d = readFromStore(doc.get("store"), docLoc);
+                    if (d!=null) {
+                        d.setWeight(hits[i].score);
+                        documents.add(d);
+                    }
+                    continue;
+                }
                 File cacheFile;
                 URL cacheFileURL;
                 if (rootOfIndexedFiles!=null) {
@@ -129,6 +139,21 @@ public class OfflineSearcher {
         return documents;
     }
 
+    private Document readFromStore(String storeLoc, String url) throws IOException {
+        File storeDir = (rootOfIndexedFiles!=null) ? new File(rootOfIndexedFiles,storeLoc) : new File(storeLoc);
+        byte[] bytes = CacheStore.open(storeDir).get(url);
+        if (bytes==null) {
+            log.error("can't find "+url+" in cache store "+storeDir);
+            return null;
+        }
+        String text = WebManager.fromCacheBytes(bytes);
+        if (text==null) {
+            log.error("can't decompress "+url+" in cache store "+storeDir);
+            return null;
+        }
+        return new Document(text, new URL(url));
+    }
+
     public static void main(String args[])  {
         String[] seedArr;
         for (int i = 0; i < args.length; i++)
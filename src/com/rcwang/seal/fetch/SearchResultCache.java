@@ -0,0 +1,124 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.rcwang.seal.util.Cache;
+
+/**
+ * A thread-safe cache of the snippets parsed from the results of each
+ * search (as keyed by {@link WebSearcher#getResultCacheKey()}), so that a
+ * repeated search neither downloads nor parses the result pages again.
+ * Each entry expires some time after it was added. Since snippets are
+ * changed by their users (e.g. annotated), copies of them are stored and
+ * handed out.
+ *
+ * @author rcwang
+ */
+public class SearchResultCache {
+
+  // the snippets of a search, and when they expire
+  private static class Entry {
+    public final Set<Snippet> snippets;
+    public final long expireTime;
+
+    public Entry(Set<Snippet> snippets, long expireTime) {
+      this.snippets = snippets;
+      this.expireTime = expireTime;
+    }
+  }
+
+  private final Cache<String, Entry> cache = new Cache<String, Entry>();
+  private long ttlInMS;
+  private int numHits = 0;
+  private int numMisses = 0;
+
+  /**
+   * @return copies of the snippets, in the same order
+   */
+  public static Set<Snippet> copy(Set<Snippet> snippets) {
+    Set<Snippet> copies = new LinkedHashSet<Snippet>();
+    for (Snippet snippet : snippets)
+      copies.add(snippet.copy());
+    return copies;
+  }
+
+  /**
+   * @param ttlInMS time for each entry to live (0 to cache nothing)
+   * @param maxSize maximum number of entries
+   */
+  public SearchResultCache(long ttlInMS, int maxSize) {
+    this.ttlInMS = ttlInMS;
+    cache.setMaxSize(maxSize);
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+  }
+
+  /**
+   * @return copies of the snippets of "key", or null if not found or expired
+   */
+  public Set<Snippet> get(String key) {
+    return get(key, System.currentTimeMillis());
+  }
+
+  public synchronized int getNumHits() {
+    return numHits;
+  }
+
+  public synchronized int getNumMisses() {
+    return numMisses;
+  }
+
+  public synchronized long getTTLInMS() {
+    return ttlInMS;
+  }
+
+  /**
+   * Adds copies of the snippets of "key"
+   */
+  public void put(String key, Set<Snippet> snippets) {
+    put(key, snippets, System.currentTimeMillis());
+  }
+
+  public synchronized void setTTLInMS(long ttlInMS) {
+    this.ttlInMS = ttlInMS;
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  public synchronized String toString() {
+    return size() + " searches, " + numHits + " hits, " + numMisses + " misses";
+  }
+
+  Set<Snippet> get(String key, long now) {
+    Entry entry;
+    synchronized (this) {
+      entry = (key == null) ? null : cache.get(key);
+      if (entry != null && entry.expireTime <= now) {
+        cache.remove(key);
+        entry = null;
+      }
+      if (entry == null)
+        numMisses++;
+      else numHits++;
+    }
+    // the stored snippets are never changed, so they are copied without the lock
+    return (entry == null) ? null : copy(entry.snippets);
+  }
+
+  void put(String key, Set<Snippet> snippets, long now) {
+    if (key == null || snippets == null || getTTLInMS() <= 0) return;
+    Entry entry = new Entry(copy(snippets), now + getTTLInMS());
+    synchronized (this) {
+      cache.put(key, entry);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+/**
+ * Fingerprints a webpage by the SimHash of its word shingles (every
+ * {@link #SHINGLE_SIZE} consecutive words outside of HTML tags, ignoring
+ * case), so that near-duplicate pages (e.g. mirrors that differ only in
+ * their markup or in a few words) have fingerprints that differ in only a
+ * few bits.
+ *
+ * @author rcwang
+ */
+public class SimHash {
+
+  public static final int SHINGLE_SIZE = 4;
+  public static final int NUM_BITS = 64;
+
+  // 64-bit FNV-1a hash of each word
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * @return number of bits that differ between the two fingerprints
+   */
+  public static int distance(long hash1, long hash2) {
+    return Long.bitCount(hash1 ^ hash2);
+  }
+
+  /**
+   * @return the fingerprint of the text, or 0 if it has no words
+   */
+  public static long fingerprint(String text) {
+    if (text == null) return 0;
+    int[] votes = new int[NUM_BITS];
+    // hashes of the last words, in a circular buffer
+    long[] words = new long[SHINGLE_SIZE];
+    int numWords = 0;
+    boolean inTag = false;
+    long word = FNV_OFFSET;
+    int wordLength = 0;
+
+    for (int i = 0; i <= text.length(); i++) {
+      char c = (i < text.length()) ? text.charAt(i) : ' ';
+      if (inTag) {
+        inTag = (c != '>');
+        continue;
+      }
+      if (Character.isLetterOrDigit(c)) {
+        word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+        wordLength++;
+        continue;
+      }
+      if (wordLength > 0) {
+        words[numWords % SHINGLE_SIZE] = word;
+        numWords++;
+        if (numWords >= SHINGLE_SIZE)
+          vote(votes, hashShingle(words, numWords));
+        word = FNV_OFFSET;
+        wordLength = 0;
+      }
+      inTag = (c == '<');
+    }
+    // a text shorter than a shingle is a shingle by itself
+    if (numWords > 0 && numWords < SHINGLE_SIZE)
+      vote(votes, hashShingle(words, numWords));
+
+    long hash = 0;
+    for (int bit = 0; bit < NUM_BITS; bit++)
+      if (votes[bit] > 0)
+        hash |= 1L << bit;
+    return hash;
+  }
+
+  // hashes the last (up to SHINGLE_SIZE) words in order, followed by a bit mixer
+  private static long hashShingle(long[] words, int numWords) {
+    long h = 0;
+    int first = Math.max(numWords - SHINGLE_SIZE, 0);
+    for (int i = first; i < numWords; i++)
+      h = h * FNV_PRIME + words[i % SHINGLE_SIZE];
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static void vote(int[] votes, long hash) {
+    for (int bit = 0; bit < NUM_BITS; bit++)
+      votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+  }
+}
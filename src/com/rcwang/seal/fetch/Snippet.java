@@ -55,6 +55,28 @@ public class Snippet {
     excerpts.add(excerpt);
     excerpt.setSnippet(this);
   }
+  
+  /**
+   * @return a copy of this snippet, with new (unannotated) excerpts of the same texts
+   */
+  public Snippet copy() {
+    Snippet snippet = new Snippet();
+    for (Excerpt excerpt : excerpts)
+      snippet.addExcerpt(new Excerpt(excerpt.getText()));
+    if (title != null) {
+      snippet.title = new Excerpt(title.getText());
+      snippet.title.setSnippet(snippet);
+    }
+    snippet.mimeType = mimeType;
+    snippet.pageURL = pageURL;
+    snippet.cacheURL = cacheURL;
+    snippet.lastModified = lastModified;
+    snippet.rank = rank;
+    snippet.cacheSize = cacheSize;
+    snippet.hashCode = hashCode;
+    snippet.index = index;
+    return snippet;
+  }
 
   @Override
   public boolean equals(Object obj) {
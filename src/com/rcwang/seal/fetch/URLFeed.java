@@ -0,0 +1,63 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.fetch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The indexes of the URLs in a list that a fetcher should download,
+ * given while it is downloading, e.g. as each URL is found missing from
+ * the cache. The fetcher starts each URL as soon as its index is added,
+ * and returns once the feed is closed and every URL has finished.
+ *
+ * @author rcwang
+ */
+public class URLFeed {
+
+  // taken by the fetcher after the last index
+  public static final int CLOSED = -1;
+
+  private final BlockingQueue<Integer> indexes = new LinkedBlockingQueue<Integer>();
+
+  /**
+   * @return a closed feed of the indexes from 0 to size-1
+   */
+  public static URLFeed of(int size) {
+    URLFeed feed = new URLFeed();
+    for (int i = 0; i < size; i++)
+      feed.add(i);
+    feed.close();
+    return feed;
+  }
+
+  public void add(int index) {
+    if (index < 0)
+      throw new IllegalArgumentException("Index cannot be negative: " + index);
+    indexes.add(index);
+  }
+
+  /**
+   * No more indexes will be added
+   */
+  public void close() {
+    indexes.add(CLOSED);
+  }
+
+  /**
+   * @return the next index, {@link #CLOSED} if closed, or null if none has been added yet
+   */
+  public Integer poll() {
+    return indexes.poll();
+  }
+
+  /**
+   * Waits until the next index is added
+   * @return the next index, or {@link #CLOSED} if closed
+   */
+  public Integer take() throws InterruptedException {
+    return indexes.take();
+  }
+}
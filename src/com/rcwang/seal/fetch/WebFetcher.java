@@ -9,7 +9,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -18,6 +29,7 @@ import com.rcwang.seal.expand.EntityList;
 import com.rcwang.seal.util.ComboMaker;
 import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.Helper;
+import com.rcwang.seal.util.LatencyHistogram;
 
 public class WebFetcher {
     public static Logger log = Logger.getLogger(WebFetcher.class);
@@ -39,6 +51,42 @@ public class WebFetcher {
     public static final int ENGINE_GOOGLE_WEB = 2;
     public static final int ENGINE_GOOGLE_API = 1;
     public static final int ENGINE_YAHOO_API = 0;
+    public static final String[] ENGINE_NAMES = new String[] {"Yahoo API","Google API","Google Web","Clue Web","Bing API"};
+
+    // a search of one engine for one set of sub-seeds, and its duplicate (if hedged)
+    private static class Search {
+        public final int engine;
+        public final int index;
+        public final List<String[]> seeds;
+        public final String hint;
+        public Future<Set<Snippet>> future = null;
+        public Future<Set<Snippet>> hedge = null;
+        public Set<Snippet> result = null;
+        public boolean done = false;
+        // number of copies (the search and its hedge) not finished
+        public int numRunning = 0;
+
+        public Search(int engine, int index, List<String[]> seeds, String hint) {
+            this.engine = engine;
+            this.index = index;
+            this.seeds = seeds;
+            this.hint = hint;
+        }
+    }
+
+    // latencies of the searches of each engine, by its name
+    private static final Map<String, LatencyHistogram> latencies = new TreeMap<String, LatencyHistogram>();
+
+    // runs the searches of every WebFetcher
+    private static final ExecutorService searchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int numThreads = 0;
+        public synchronized Thread newThread(Runnable r) {
+            // JVM will exit if all threads running are daemon threads
+            Thread thread = new Thread(r, "searcher-" + (numThreads++));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private Set<Snippet> snippets;
     private String langID;
@@ -49,6 +97,10 @@ public class WebFetcher {
     private boolean fetchSearchEngineCache;
     private boolean removeDuplicateDocument;
     private boolean quoteSeed;
+    private int searchTimeOutInMS;
+    private int searchHedgeDelayInMS;
+    // receives the documents of ClueWeb as they are parsed, while searching
+    private DocumentStream clueWebStream;
 
     public WebFetcher() {
         snippets = new HashSet<Snippet>();
@@ -61,6 +113,29 @@ public class WebFetcher {
         setLangID(gv.getLangID());
         setNumSubSeeds(gv.getNumSubSeeds());
         setNumResults(gv.getNumResults());
+        setSearchTimeOutInMS(gv.getSearchTimeOutInMS());
+        setSearchHedgeDelayInMS(gv.getSearchHedgeDelayInMS());
+    }
+
+    /**
+     * @return the latencies of the searches of each engine so far, by its name
+     */
+    public static Map<String, LatencyHistogram> getLatencies() {
+        synchronized (latencies) {
+            return new TreeMap<String, LatencyHistogram>(latencies);
+        }
+    }
+
+    private static LatencyHistogram getLatency(int engine) {
+        String name = ENGINE_NAMES[engine];
+        synchronized (latencies) {
+            LatencyHistogram latency = latencies.get(name);
+            if (latency == null) {
+                latency = new LatencyHistogram();
+                latencies.put(name, latency);
+            }
+            return latency;
+        }
     }
 
 
@@ -105,26 +180,74 @@ public class WebFetcher {
         List<String> webpages = webManager.get(urls);
         Set<Integer> docHashSet = new HashSet<Integer>();
 
-        for (int i = 0; i < urls.size(); i++) {
-            String webpage = webpages.get(i);
-            URL url = urls.get(i);
-            if (webpage == null || url == null)
-                continue;
+        for (int i = 0; i < urls.size(); i++)
+            documents.add(toDocument(webpages.get(i), urls.get(i), snippetList.get(i), docHashSet));
+        return documents;
+    }
 
-            if (removeDuplicateDocument) {
-                int fingerPrint = webpage.toLowerCase().replaceAll("\\W+", "").hashCode();
-                if (docHashSet.contains(fingerPrint)) {
-                    log.info("Found a duplicate document: " + url);
-                    continue;
-                }
-                docHashSet.add(fingerPrint);
+    /**
+     * Same as {@link #fetchDocuments(EntityList, String)}, but puts each document 
+     * into the stream as soon as it has been read from the cache or downloaded
+     * @param seeds
+     * @param hint
+     * @param stream
+     */
+    public void fetchDocuments(EntityList seeds, String hint, DocumentStream stream) {
+        if (seeds == null || seeds.isEmpty())
+            return;
+        // ClueWeb puts its documents into the stream as it parses them from its response
+        clueWebStream = stream;
+        Set<Snippet> snippets;
+        try {
+            snippets = fetchSnippets(seeds, hint);
+        } finally {
+            clueWebStream = null;
+        }
+        fetchWebDocuments(snippets, stream);
+    }
+
+    public void fetchDocuments(Set<Snippet> snippets, DocumentStream stream) {
+        if (this.useEngine[ENGINE_CLUEWEB])
+            ClueWebSearcher.getLastRun().streamDocuments(stream);
+        fetchWebDocuments(snippets, stream);
+    }
+
+    // puts the documents of the snippets into the stream as they are read from the cache or downloaded
+    private void fetchWebDocuments(Set<Snippet> snippets, final DocumentStream stream) {
+        final List<URL> urls = new ArrayList<URL>();
+        final List<Snippet> snippetList = new ArrayList<Snippet>(snippets);
+        for (Snippet snippet : snippetList) {
+            if (fetchSearchEngineCache && snippet.getCacheURL() != null)
+                urls.add(snippet.getCacheURL());
+            else urls.add(snippet.getPageURL());
+        }
+        WebManager webManager = new WebManager();
+        webManager.setTimeOutInMS(0);  // use auto timeout
+        final Set<Integer> docHashSet = new HashSet<Integer>();
+        webManager.get(urls, new FetchListener() {
+            public void fetched(int index, String webpage) {
+                stream.put(toDocument(webpage, urls.get(index), snippetList.get(index), docHashSet));
             }
+        });
+    }
+
+    // returns null if the webpage is missing or duplicates one seen before
+    private Document toDocument(String webpage, URL url, Snippet snippet, Set<Integer> docHashSet) {
+        if (webpage == null || url == null)
+            return null;
 
-            Document document = new Document(webpage, url);
-            document.setSnippet(snippetList.get(i));
-            documents.add(document);
+        if (removeDuplicateDocument) {
+            int fingerPrint = webpage.toLowerCase().replaceAll("\\W+", "").hashCode();
+            if (docHashSet.contains(fingerPrint)) {
+                log.info("Found a duplicate document: " + url);
+                return null;
+            }
+            docHashSet.add(fingerPrint);
         }
-        return documents;
+
+        Document document = new Document(webpage, url);
+        document.setSnippet(snippet);
+        return document;
     }
 
 
@@ -137,12 +260,12 @@ public class WebFetcher {
         ComboMaker<Entity> comboMaker = new ComboMaker<Entity>();
         List<List<Entity>> subSeedsList = comboMaker.make(seeds.getEntities(), numSeeds);
 
-        List<Thread> threadList = new ArrayList<Thread>();
-        List<WebSearcher> searcherList = new ArrayList<WebSearcher>();
+        List<Search> searches = new ArrayList<Search>();
         for (int i = 0; i < subSeedsList.size(); i++)
-            fetchSnippetsInThread(new EntityList(subSeedsList.get(i)).getEntityNames(), i, hint, threadList, searcherList);
-
-        joinSnippetThreads(threadList,searcherList);
+            for (int engine = 0; engine < NUM_SEARCHERS; engine++)
+                if (useEngine[engine])
+                    searches.add(new Search(engine, i, new EntityList(subSeedsList.get(i)).getEntityNames(), hint));
+        runSearches(searches);
         return snippets;
     }
     /**
@@ -169,19 +292,6 @@ public class WebFetcher {
 //        return snippets;
     }
     
-    private void joinSnippetThreads(List<Thread> threadList, List<WebSearcher> searcherList) {
-        try {
-            // wait for the threads to finish
-            for (int i = 0; i < threadList.size(); i++) {
-                Thread searchThread = threadList.get(i);
-                if (searchThread == null) continue;
-                searchThread.join();
-                WebSearcher searcher = searcherList.get(i);
-                snippets.addAll(searcher.getSnippets());
-            }
-        } catch (InterruptedException ie) {}
-    }
-
     public String getLangID() {
         return langID;
     }
@@ -218,6 +328,14 @@ public class WebFetcher {
         return removeDuplicateDocument;
     }
 
+    public int getSearchHedgeDelayInMS() {
+        return searchHedgeDelayInMS;
+    }
+
+    public int getSearchTimeOutInMS() {
+        return searchTimeOutInMS;
+    }
+
     public void setAnnotateQuery(boolean annotateQuery) {
         this.annotateQuery = annotateQuery;
     }
@@ -246,49 +364,165 @@ public class WebFetcher {
         this.removeDuplicateDocument = removeDuplicateDocument;
     }
 
+    /**
+     * @param searchHedgeDelayInMS time after which each search not finished is sent 
+     * again, taking the results of whichever finishes first (0 to never send again)
+     */
+    public void setSearchHedgeDelayInMS(int searchHedgeDelayInMS) {
+        this.searchHedgeDelayInMS = searchHedgeDelayInMS;
+    }
+
+    /**
+     * @param searchTimeOutInMS time after which the snippets of the searches 
+     * finished are returned without the others (0 to wait for every search)
+     */
+    public void setSearchTimeOutInMS(int searchTimeOutInMS) {
+        this.searchTimeOutInMS = searchTimeOutInMS;
+    }
+
     public void setUseEngine(int engine) {
         this.useEngine = Helper.toBinaryArray(engine, NUM_SEARCHERS);
         if (log.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder("Using engines: ");
             StringBuilder sb2 = new StringBuilder("(others: ");
-            String[] engines = new String[] {"Yahoo API","Google API","Google Web","Clue Web","Bing API"};
             for (int i=0; i<this.useEngine.length; i++) {
-                if (this.useEngine[i]) sb.append(engines[i]).append(" ");
-                else sb2.append(engines[i]).append(" ");
+                if (this.useEngine[i]) sb.append(ENGINE_NAMES[i]).append(" ");
+                else sb2.append(ENGINE_NAMES[i]).append(" ");
             }
             log.debug(sb.toString()+sb2.toString()+")");
         }
     }
 
-    private void fetchSnippetsInThread(List<String[]> seeds, int index, String hint, 
-            List<Thread> threadList, 
-            List<WebSearcher> searcherList) {
-        // create searcher threads
-        for (int i = 0; i < NUM_SEARCHERS; i++) {
-            WebSearcher searcher = getSearcher(i);
-            if (searcher == null) continue;
+    // the searcher of the engine, with the queries and settings of the search
+    private WebSearcher newSearcher(Search search) {
+        WebSearcher searcher = getSearcher(search.engine);
+        if (searcher == null) return null;
 
-            // add queries into the searcher
-            for (String[] seed : seeds) {
-                for (String s : seed)
-                    searcher.addQuery(s, quoteSeed);
+        // add queries into the searcher
+        for (String[] seed : search.seeds) {
+            for (String s : seed)
+                searcher.addQuery(s, quoteSeed);
+        }
+        // configures the searcher
+        searcher.addQuery(search.hint);
+        searcher.setLangID(langID);
+        searcher.setNumResults(numResults);
+        searcher.setAnnotateQuery(annotateQuery);
+        searcher.setIndex(search.index);
+        if (searcher instanceof ClueWebSearcher)
+            ((ClueWebSearcher) searcher).setDocumentStream(clueWebStream);
+        return searcher;
+    }
+
+    /**
+     * Runs the searches at once on the shared executor, and adds the snippets 
+     * of those finished in time (in the order of the searches). After the hedge
+     * delay, each search not finished is sent again, except to ClueWeb (whose
+     * searcher may be shared); after the timeout, the others are given up.
+     */
+    private void runSearches(List<Search> searches) {
+        CompletionService<Set<Snippet>> completionService = new ExecutorCompletionService<Set<Snippet>>(searchExecutor);
+        int numRemain = 0;
+        for (Search search : searches) {
+            search.future = submit(completionService, search);
+            if (search.future != null) numRemain++;
+        }
+        long startTime = System.currentTimeMillis();
+        long deadline = (searchTimeOutInMS > 0) ? startTime + searchTimeOutInMS : Long.MAX_VALUE;
+        long hedgeTime = (searchHedgeDelayInMS > 0) ? startTime + searchHedgeDelayInMS : Long.MAX_VALUE;
+
+        try {
+            while (numRemain > 0) {
+                long wakeTime = Math.min(deadline, hedgeTime);
+                Future<Set<Snippet>> future;
+                if (wakeTime == Long.MAX_VALUE)
+                    future = completionService.take();
+                else future = completionService.poll(Math.max(wakeTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+
+                if (future != null) {
+                    Search search = getSearch(searches, future);
+                    if (search == null || search.done) continue;
+                    search.numRunning--;
+                    try {
+                        search.result = future.get();
+                    } catch (ExecutionException e) {
+                        log.error("Search failed: " + e.getCause());
+                        // the other copy may still succeed
+                        if (search.numRunning > 0) continue;
+                    }
+                    search.done = true;
+                    numRemain--;
+                    // the other copy is no longer needed
+                    cancel(search);
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= hedgeTime) {
+                    hedgeTime = Long.MAX_VALUE;
+                    for (Search search : searches) {
+                        if (search.done || search.future == null || search.engine == ENGINE_CLUEWEB) continue;
+                        log.debug("Sending the search again to " + ENGINE_NAMES[search.engine] + " for seeds " + search.index + " after " + searchHedgeDelayInMS + "ms");
+                        search.hedge = submit(completionService, search);
+                    }
+                }
+                if (now >= deadline) {
+                    for (Search search : searches) {
+                        if (search.done || search.future == null) continue;
+                        log.warn("Search of " + ENGINE_NAMES[search.engine] + " for seeds " + search.index + " timed out after " + searchTimeOutInMS + "ms");
+                        getLatency(search.engine).addTimeOut();
+                        cancel(search);
+                    }
+                    break;
+                }
             }
-            // configures the searcher
-            searcher.addQuery(hint);
-            searcher.setLangID(langID);
-            searcher.setNumResults(numResults);
-            searcher.setAnnotateQuery(annotateQuery);
-            searcher.setIndex(index);
-
-            Thread searchThread = new Thread(searcher);
-            searchThread.start();
-            threadList.add(searchThread);
-            searcherList.add(searcher);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while searching!");
         }
+
+        for (Search search : searches)
+            if (search.result != null)
+                snippets.addAll(search.result);
+        if (log.isDebugEnabled())
+            for (Map.Entry<String, LatencyHistogram> entry : getLatencies().entrySet())
+                log.debug("Latency of " + entry.getKey() + ": " + entry.getValue());
+    }
+
+    // stops waiting for the copies of the search; those running are left
+    // to finish in the background, which fills the caches for next time
+    private static void cancel(Search search) {
+        if (search.future != null)
+            search.future.cancel(false);
+        if (search.hedge != null)
+            search.hedge.cancel(false);
+    }
+
+    // the search of either copy
+    private static Search getSearch(List<Search> searches, Future<Set<Snippet>> future) {
+        for (Search search : searches)
+            if (search.future == future || search.hedge == future)
+                return search;
+        return null;
+    }
+
+    // runs a copy of the search, recording its latency
+    private Future<Set<Snippet>> submit(CompletionService<Set<Snippet>> completionService, final Search search) {
+        final WebSearcher searcher = newSearcher(search);
+        if (searcher == null) return null;
+        search.numRunning++;
+        return completionService.submit(new Callable<Set<Snippet>>() {
+            public Set<Snippet> call() {
+                long startTime = System.currentTimeMillis();
+                searcher.run();
+                getLatency(search.engine).add(System.currentTimeMillis() - startTime);
+                return searcher.getSnippets();
+            }
+        });
     }
 
     // update NUM_SEARCHERS if more engines are added
-    private WebSearcher getSearcher(int i) {
+    protected WebSearcher getSearcher(int i) {
         if (!useEngine[i]) return null;
         switch (i) {
         case ENGINE_YAHOO_API: return new YahooAPISearcher();
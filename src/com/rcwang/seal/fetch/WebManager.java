@@ -4,16 +4,37 @@
  **************************************************************************/
 package com.rcwang.seal.fetch;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Logger;
 
+import com.rcwang.seal.util.CacheStore;
 import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.Helper;
+import com.rcwang.seal.util.MemoryCache;
 
 public class WebManager {
 
@@ -24,21 +45,104 @@ public class WebManager {
   public static final String CACHE_HEADER = "<!-- Downloaded from: " + URL_VAR + " -->\n";
   public static final String CACHE_FILE_EXT = ".html";
   public static final int NUM_CACHE_BINS = 1024;
+  // a gzip stream has a header of 10 bytes and a trailer of 8 bytes
+  private static final int GZIP_MIN_LENGTH = 18;
+  // the buffer of a decompressed document is presized by at most this ratio
+  private static final int GZIP_MAX_RATIO = 16;
+  
+  // a document read from the cache or downloaded, handed to the thread that asked for it
+  private static class Fetched {
+    public final int index;
+    public final String document;
+    public final boolean isDownloaded;
+
+    public Fetched(int index, String document, boolean isDownloaded) {
+      this.index = index;
+      this.document = document;
+      this.isDownloaded = isDownloaded;
+    }
+  }
+  
+  // put after the last document
+  private static final Fetched END = new Fetched(-1, null, false);
   
-  // the unix timestamp when www.google.com was last accessed
-  private static long lastHitGoogle = 0;
   // true to enable downloading web documents; false otherwise
     private static boolean isFetchFromWeb = true;
   // true to enable reading from the cache; false otherwise
   private static boolean isReadFromCache = true;
   // true to enable writing to the cache; false otherwise
   private static boolean isWriteToCache = true;
+  // true to compress documents written to the cache; false otherwise
+  private static boolean isCompressCache = gv.isCompressCache();
+  // cached documents recently read or written, in front of the cache stores
+  private static final MemoryCache<String, String> memoryCache =
+      new MemoryCache<String, String>(gv.getMemoryCacheSizeInMB() * 1024L * 1024L);
+  // cache directories whose store cannot be opened, so they are not tried again
+  private static final Set<File> failedCacheDirs = Collections.synchronizedSet(new HashSet<File>());
+  // shared by every WebManager that downloads over non-blocking sockets
+  private static final NonBlockingFetcher nonBlockingFetcher = new NonBlockingFetcher();
+  // reads the cache for every WebManager, a few URLs at a time
+  private static final ThreadPoolExecutor cacheReader = new ThreadPoolExecutor(
+      gv.getNumCacheReadThreads(), gv.getNumCacheReadThreads(), 5, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), newDaemonThreadFactory("cache-reader"));
+  // runs the downloads of each call to get(), while the calling thread hands out the documents
+  private static final ExecutorService downloader = Executors.newCachedThreadPool(newDaemonThreadFactory("downloader"));
+  
+  static {
+    // no threads are kept while the cache is idle
+    cacheReader.allowCoreThreadTimeOut(true);
+  }
   
   private File cacheDir;
   private int numUrlFromCache = 0;
   private int numUrlFromWeb = 0;
   private int timeOutInMS;
   private int maxDocSizeInKB;
+  private int numFetchThreads;
+  private int numFetchThreadsPerHost;
+  private boolean useNonBlockingFetcher;
+  
+  /**
+   * @return the document of bytes read from the cache, which are
+   * decompressed if they are gzip (begin with its magic number and are
+   * at least as long as its header and trailer), or null if they are
+   * broken gzip
+   */
+  public static String fromCacheBytes(byte[] bytes) throws IOException {
+    int n = bytes.length;
+    if (n < GZIP_MIN_LENGTH || (bytes[0] & 0xff) != 0x1f || (bytes[1] & 0xff) != 0x8b)
+      return new String(bytes, Helper.UNICODE);
+    // the last 4 bytes of gzip hold the uncompressed size (modulo 2^32), which
+    // is only a hint: it is bounded by the best compression ratio expected
+    long size = ((bytes[n-4] & 0xff) | (bytes[n-3] & 0xff) << 8 | (bytes[n-2] & 0xff) << 16 | (bytes[n-1] & 0xff) << 24) & 0xffffffffL;
+    size = Math.min(size, Math.min((long) n * GZIP_MAX_RATIO, Integer.MAX_VALUE - 8));
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(size, n));
+    InputStream in = null;
+    try {
+      in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+      byte[] buffer = new byte[8192];
+      int length;
+      while ((length = in.read(buffer)) != -1)
+        out.write(buffer, 0, length);
+    } catch (IOException e) {
+      log.warn("Cannot decompress " + n + " bytes from the cache: " + e);
+      return null;
+    } finally {
+      if (in != null) in.close();
+    }
+    return out.toString(Helper.UNICODE);
+  }
+  
+  /**
+   * @return the cache of documents in memory, shared by every WebManager
+   */
+  public static MemoryCache<String, String> getMemoryCache() {
+    return memoryCache;
+  }
+  
+  public static boolean isCompressCache() {
+    return isCompressCache;
+  }
   
   public static boolean isFetchFromWeb() {
     return isFetchFromWeb;
@@ -58,31 +162,48 @@ public class WebManager {
    * @return cached document
    */
   public static String readFromCache(URL url, File cacheDir) {
-    if (url == null || !isReadFromCache())
+    if (url == null || cacheDir == null || !isReadFromCache())
       return null;
-    String document = null;
-    File cacheFile = loadCachedFile(url, cacheDir, false);
-    if (cacheFile != null && cacheFile.isFile()) {
-      document = Helper.readFile(cacheFile);
-      // no permission to read the document?
+    String key = toMemoryCacheKey(url, cacheDir);
+    String document = memoryCache.get(key);
+    if (document != null) {
+      log.debug("Found Cache in memory: " + url);
+      return document;
+    }
+    CacheStore store = getCacheStore(cacheDir);
+    // without a store to write, the cache and its old layout are only read
+    boolean isWritable = isWritable(store);
+    try {
+      byte[] bytes = (store == null) ? null : store.get(url.toString());
+      if (bytes != null) {
+        document = fromCacheBytes(bytes);
+        // a broken entry is a miss, and is fetched again
+        if (document == null) {
+          if (isWritable) store.remove(url.toString());
+          return null;
+        }
+      } else if (isWritable) {
+        document = importCachedFile(url, cacheDir, store);
+      } else document = readCachedFile(loadCachedFile(url, cacheDir, false), url);
       if (document == null) return null;
-      // remove empty cache file
-      if (document.length() == 0) {
-        cacheFile.delete();
-        return null;
-      }
-      // remove error Yahoo! page
-      if (document.contains("service temporarily unavailable [C:28]")) {
-        cacheFile.delete();
+      // remove empty or error Yahoo! page
+      if (document.length() == 0 || document.contains("service temporarily unavailable [C:28]")) {
+        if (isWritable) store.remove(url.toString());
         return null;
       }
-      log.debug("Found Cache: " + cacheFile);
-      // get rid of "page source" on the top of every cached document
-      document = removeCacheHeader(document);
+    } catch (IOException e) {
+      log.error("Cannot read " + url + " from cache: " + e);
+      return null;
     }
+    log.debug("Found Cache: " + url);
+    memoryCache.put(key, document);
     return document;
   }
   
+  public static void setCompressCache(boolean isCompressCache) {
+    WebManager.isCompressCache = isCompressCache;
+  }
+  
   public static void setFetchFromWeb(boolean isFetchFromWeb) {
       WebManager.isFetchFromWeb = isFetchFromWeb;
       log.info("isFetchFromWeb set to " + WebManager.isFetchFromWeb);
@@ -96,26 +217,96 @@ public class WebManager {
     WebManager.isWriteToCache = isWriteToCache;
   }
   
+  /**
+   * @return the bytes of the document to write to the cache,
+   * compressed by gzip if {@link #isCompressCache()}
+   */
+  public static byte[] toCacheBytes(String document) throws IOException {
+    byte[] bytes = document.getBytes(Helper.UNICODE);
+    if (!isCompressCache())
+      return bytes;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+    OutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(bytes);
+    gzip.close();
+    return out.toByteArray();
+  }
+  
   public static void writeToCache(URL url, String document, File cacheDir) {
-    if (document == null || url == null || !isWriteToCache())
-      return;
-    File cacheFile = loadCachedFile(url, cacheDir, true);
-    if (cacheFile == null)
+    if (document == null || url == null || cacheDir == null || !isWriteToCache())
       return;
+    CacheStore store = getCacheStore(cacheDir);
+    if (!isWritable(store)) return;
     long documentSize = Math.round(Helper.getStringSize(document) / 1024.0);
-    log.debug("To Cache: " + cacheFile + " (" + documentSize + "KB)");
-    // add a "page source" on the top of every cached document
-    document = CACHE_HEADER.replace(URL_VAR, url.toString()) + document;
-    Helper.writeToFile(cacheFile, document);
+    log.debug("To Cache: " + url + " (" + documentSize + "KB)");
+    memoryCache.put(toMemoryCacheKey(url, cacheDir), document);
+    try {
+      store.put(url.toString(), toCacheBytes(document));
+    } catch (IOException e) {
+      log.error("Cannot write " + url + " to cache: " + e);
+    }
   }
   
   /**
-   * Finds the corresponding cached file for the input "url".
+   * @return the store of cached documents in "cacheDir", or null if it cannot be opened
+   * (which is only tried once per directory)
+   */
+  public static CacheStore getCacheStore(File cacheDir) {
+    if (failedCacheDirs.contains(cacheDir))
+      return null;
+    try {
+      return CacheStore.open(cacheDir);
+    } catch (IOException e) {
+      if (failedCacheDirs.add(cacheDir))
+        log.error("Cannot open cache store " + cacheDir + ": " + e);
+      return null;
+    }
+  }
+  
+  /**
+   * Reads a cached file of the old layout (one file per URL in {@link #NUM_CACHE_BINS} bins).
+   * @return the document without its header, or null if not found or
+   * the file belongs to another URL of the same hash code
+   */
+  public static String readCachedFile(File cacheFile, URL url) {
+    if (cacheFile == null || !cacheFile.isFile())
+      return null;
+    // no permission to read the document?
+    String document = Helper.readFile(cacheFile);
+    if (document == null) return null;
+    String header = CACHE_HEADER.replace(URL_VAR, url.toString());
+    if (!document.startsWith(header) && !removeCacheHeader(document).equals(document)) {
+      log.debug("Cached file " + cacheFile + " is not from: " + url);
+      return null;
+    }
+    return removeCacheHeader(document);
+  }
+  
+  // true if documents can be written to, or removed from, the store
+  private static boolean isWritable(CacheStore store) {
+    return store != null && !store.isReadOnly() && isWriteToCache();
+  }
+  
+  /**
+   * Moves the cached file of "url" in the old layout (if any) into the store
+   * @return the cached document, or null if not found
+   */
+  private static String importCachedFile(URL url, File cacheDir, CacheStore store) throws IOException {
+    File cacheFile = loadCachedFile(url, cacheDir, false);
+    String document = readCachedFile(cacheFile, url);
+    if (document == null) return null;
+    store.put(url.toString(), toCacheBytes(document));
+    cacheFile.delete();
+    return document;
+  }
+  
+  /**
+   * Finds the corresponding cached file for the input "url" in the old layout.
    * @param url
    * @param makeDir True to create cache dir if it does not exist
    * @return cached file
    */
-  private static File loadCachedFile(URL url, File cacheDir, boolean makeDir) {
+  static File loadCachedFile(URL url, File cacheDir, boolean makeDir) {
     if (url == null || cacheDir == null)
       return null;
     int urlHash = Math.abs(url.toString().hashCode());
@@ -127,31 +318,55 @@ public class WebManager {
     return new File(newCacheDir, urlFileName);
   }
   
+  // JVM will exit if all threads running are daemon threads
+  private static ThreadFactory newDaemonThreadFactory(final String name) {
+    return new ThreadFactory() {
+      private int numThreads = 0;
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + "-" + (numThreads++));
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+  
   /**
-   * Tries to read "urls" from cache. If an URL is not found in cache, it will be inserted into "uncachedURLs". 
-   * @param urls List of URLs to retrieve from cache
-   * @param uncachedURLs List of URLs not found in cache
-   * @return corresponding cached documents of the input "urls"
+   * Reads "urls" from cache in the background, a few URLs at a time. Each document
+   * found is put into "fetchedQueue"; each URL not found is added to "uncachedFeed"
+   * and to "uncachedURLs", and the feed is closed after the last URL has been read.
+   * @return a latch that opens once every URL has been read
    */
-  private static List<String> readFromCache(List<URL> urls, List<URL> uncachedURLs, File cacheDir) {
-    if (urls == null || uncachedURLs == null)
-      return null;
-    List<String> documents = new ArrayList<String>(urls.size());
-    if (urls.size() == 0)
-      return documents;
-//    log.debug("Reading " + urls.size() + " URLs from cache...");
-    for (URL url : urls) {
-      String document = readFromCache(url, cacheDir);
-      /*final String userDirName0 = "/usr0/", userDirName1 = "/usr1/";
-      if (document == null && cacheDir.toString().contains(userDirName0)) {
-        File alterFile = new File(cacheDir.toString().replace(userDirName0, userDirName1));
-        document = readFromCache(url, alterFile);
-      }*/
-      documents.add(document);
-      if (document == null)
-        uncachedURLs.add(url);
+  private static CountDownLatch readFromCache(final List<URL> urls, final File cacheDir, final BlockingQueue<Fetched> fetchedQueue,
+                                              final URLFeed uncachedFeed, final List<URL> uncachedURLs) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicInteger numRemain = new AtomicInteger(urls.size());
+    for (int i = 0; i < urls.size(); i++) {
+      final int index = i;
+      cacheReader.execute(new Runnable() {
+        public void run() {
+          URL url = urls.get(index);
+          String document = null;
+          try {
+            document = readFromCache(url, cacheDir);
+          } finally {
+            if (document != null)
+              fetchedQueue.add(new Fetched(index, document, false));
+            else {
+              uncachedURLs.add(url);
+              uncachedFeed.add(index);
+            }
+            if (numRemain.decrementAndGet() == 0) {
+              int numUncached = uncachedURLs.size();
+              log.info("Fetching " + (urls.size()-numUncached) + " webpages from cache and up to " + numUncached + " webpages from the Internet");
+              log.debug("Memory cache: " + memoryCache);
+              uncachedFeed.close();
+              latch.countDown();
+            }
+          }
+        }
+      });
     }
-    return documents;
+    return latch;
   }
 
     // wwc: made public
@@ -165,18 +380,9 @@ public class WebManager {
     return document;
   }
 
-  private static void sleep(List<URL> uncachedURLs) {
-    if (!GoogleWebSearcher.containsGoogleURL(uncachedURLs))
-      return;
-    long elapsedTime;
-    while ((elapsedTime = System.currentTimeMillis() - lastHitGoogle) < gv.getGoogleHitGapInMS()) {
-      long sleepTime = gv.getGoogleHitGapInMS() - elapsedTime;
-      String sleepTimeStr = Helper.formatNumber(sleepTime/1000.0, 2);
-      log.info("Just hit Google, sleeping for " + sleepTimeStr + " seconds to prevent being blocked...");
-      try { Thread.sleep(sleepTime); }
-      catch (InterruptedException e) {}
-    }
-    lastHitGoogle = System.currentTimeMillis();
+  // the same URL may be cached differently in each cache directory
+  private static String toMemoryCacheKey(URL url, File cacheDir) {
+    return cacheDir.getPath() + " " + url;
   }
 
   private static void writeToCache(List<URL> urls, List<String> documents, File cacheDir) {
@@ -194,7 +400,41 @@ public class WebManager {
     setCacheDir(gv.getCacheDir());
     setTimeOutInMS(gv.getTimeOutInMS());
     setMaxDocSizeInKB(gv.getMaxDocSizeInKB());
+    setNumFetchThreads(gv.getNumFetchThreads());
+    setNumFetchThreadsPerHost(gv.getNumFetchThreadsPerHost());
+    setUseNonBlockingFetcher(gv.isUseNonBlockingFetcher());
     setFetchFromWeb(gv.getIsFetchFromWeb());
+    MultiThreadFetcher.setUseConnectionPool(gv.isUseConnectionPool());
+  }
+
+  /**
+   * Downloads the URLs added to "uncachedFeed" and puts each document into "fetchedQueue"
+   */
+  private void download(final List<URL> urls, URLFeed uncachedFeed, List<URL> uncachedURLs, 
+                        CountDownLatch cacheLatch, final BlockingQueue<Fetched> fetchedQueue) throws InterruptedException {
+    if (!isFetchFromWeb()) {
+      cacheLatch.await();
+      if (!uncachedURLs.isEmpty())
+        log.warn("Not downloading from the Web: Fetching has been disabled!");
+      return;
+    }
+    log.info("Downloading URLs from Web");
+    FetchListener recoverer = new FetchListener() {
+      public void fetched(int index, String doc) {
+        URL url = urls.get(index);
+        if (GoogleWebSearcher.isBlockedByGoogle(doc, url))
+          System.exit(1);
+        // converts search engine's cached pages back to their original format 
+        doc = CacheRecoverer.recover(url, doc);
+        if (doc != null)
+          fetchedQueue.add(new Fetched(index, doc, true));
+      }
+    };
+    if (useNonBlockingFetcher)
+      nonBlockingFetcher.fetch(urls, timeOutInMS, maxDocSizeInKB, 
+                               numFetchThreads, numFetchThreadsPerHost, recoverer, uncachedFeed);
+    else MultiThreadFetcher.fetch(urls, timeOutInMS, maxDocSizeInKB, 
+                                  numFetchThreads, numFetchThreadsPerHost, recoverer, uncachedFeed);
   }
 
   /**
@@ -204,39 +444,59 @@ public class WebManager {
    * @return retrieved documents
    */
   public List<String> get(List<URL> urls) {
+    return get(urls, null);
+  }
+
+  /**
+   * Same as {@link #get(List)}, but also gives each document to the listener
+   * (if not null) as soon as it has been read from the cache or downloaded
+   * @param urls
+   * @param listener
+   * @return retrieved documents
+   */
+  public List<String> get(final List<URL> urls, FetchListener listener) {
     if (urls == null) return null;
-    List<URL> uncachedURLs = new ArrayList<URL>();
-    List<String> documents = readFromCache(urls, uncachedURLs, cacheDir);
-    numUrlFromCache = urls.size()-uncachedURLs.size();
-    numUrlFromWeb = uncachedURLs.size();
-    log.info("Fetching " + numUrlFromCache + " webpages from cache and up to " + numUrlFromWeb + " webpages from the Internet");
+    String[] documents = new String[urls.size()];
+    if (urls.isEmpty()) return Arrays.asList(documents);
     
-    List<String> uncachedDocs;
-    if (!isFetchFromWeb()) {
-      log.warn("Not downloading from the Web: Fetching has been disabled!");
-      uncachedDocs = Arrays.asList(new String[uncachedURLs.size()]);
-    } else {
-      log.info("Downloading URLs from Web");
-      sleep(uncachedURLs);  // prevent blocking by Google
-      uncachedDocs = MultiThreadFetcher.fetch(uncachedURLs, timeOutInMS, maxDocSizeInKB);
-    }
+    // reads the cache and downloads the URLs not found at the same time
+    final BlockingQueue<Fetched> fetchedQueue = new LinkedBlockingQueue<Fetched>();
+    final URLFeed uncachedFeed = new URLFeed();
+    final List<URL> uncachedURLs = Collections.synchronizedList(new ArrayList<URL>());
+    final CountDownLatch cacheLatch = readFromCache(urls, cacheDir, fetchedQueue, uncachedFeed, uncachedURLs);
+    downloader.execute(new Runnable() {
+      public void run() {
+        try {
+          download(urls, uncachedFeed, uncachedURLs, cacheLatch, fetchedQueue);
+        } catch (InterruptedException e) {
+          log.error("Interrupted while downloading webpages!");
+        } finally {
+          fetchedQueue.add(END);
+        }
+      }
+    });
     
-    // converts search engine's cached pages back to their original format 
-    for (int i = 0; i < uncachedDocs.size(); i++) {
-      URL url = uncachedURLs.get(i);
-      String doc = uncachedDocs.get(i);
-      if (GoogleWebSearcher.isBlockedByGoogle(doc, url))
-        System.exit(1);
-      doc = CacheRecoverer.recover(url, doc);
-      uncachedDocs.set(i, doc);
+    // hands out each document as soon as it has been read from the cache or downloaded
+    List<URL> downloadedURLs = new ArrayList<URL>();
+    List<String> downloadedDocs = new ArrayList<String>();
+    try {
+      for (Fetched fetched = fetchedQueue.take(); fetched != END; fetched = fetchedQueue.take()) {
+        documents[fetched.index] = fetched.document;
+        if (fetched.isDownloaded) {
+          downloadedURLs.add(urls.get(fetched.index));
+          downloadedDocs.add(fetched.document);
+        }
+        if (listener != null)
+          listener.fetched(fetched.index, fetched.document);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while fetching webpages!");
     }
-
-    writeToCache(uncachedURLs, uncachedDocs, cacheDir);
-    int j = 0;
-    for (int i = 0; i < documents.size(); i++)
-      if (documents.get(i) == null)
-        documents.set(i, uncachedDocs.get(j++));
-    return documents;
+    numUrlFromWeb = uncachedURLs.size();
+    numUrlFromCache = urls.size()-numUrlFromWeb;
+    writeToCache(downloadedURLs, downloadedDocs, cacheDir);
+    return Arrays.asList(documents);
   }
 
   /**
@@ -260,6 +520,14 @@ public class WebManager {
     return maxDocSizeInKB;
   }
 
+  public int getNumFetchThreads() {
+    return numFetchThreads;
+  }
+
+  public int getNumFetchThreadsPerHost() {
+    return numFetchThreadsPerHost;
+  }
+
   public int getNumUrlFromCache() {
     return numUrlFromCache;
   }
@@ -272,6 +540,10 @@ public class WebManager {
     return timeOutInMS;
   }
 
+  public boolean isUseNonBlockingFetcher() {
+    return useNonBlockingFetcher;
+  }
+
   public void setCacheDir(File cacheDir) {
     this.cacheDir = cacheDir;
   }
@@ -280,7 +552,29 @@ public class WebManager {
     this.maxDocSizeInKB = maxDocSizeInKB;
   }
 
+  /**
+   * @param numFetchThreads maximum number of webpages downloaded at once
+   */
+  public void setNumFetchThreads(int numFetchThreads) {
+    this.numFetchThreads = numFetchThreads;
+  }
+
+  /**
+   * @param numFetchThreadsPerHost maximum number of webpages downloaded at once from the same host
+   */
+  public void setNumFetchThreadsPerHost(int numFetchThreadsPerHost) {
+    this.numFetchThreadsPerHost = numFetchThreadsPerHost;
+  }
+
   public void setTimeOutInMS(int timeOutInMS) {
     this.timeOutInMS = timeOutInMS;
   }
+
+  /**
+   * @param useNonBlockingFetcher true to download through {@link NonBlockingFetcher}; 
+   * false to download through {@link MultiThreadFetcher}
+   */
+  public void setUseNonBlockingFetcher(boolean useNonBlockingFetcher) {
+    this.useNonBlockingFetcher = useNonBlockingFetcher;
+  }
 }
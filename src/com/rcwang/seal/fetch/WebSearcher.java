@@ -27,6 +27,10 @@ public abstract class WebSearcher implements Runnable {
     public static final int DEFAULT_MAX_RESULTS_PER_PAGE = 100;
     public static final boolean DEFAULT_ANNOTATE_QUERY = false;
 
+    // snippets of recent searches, shared by every searcher
+    private static final SearchResultCache resultCache =
+        new SearchResultCache(gv.getSearchCacheTTLInMin() * 60 * 1000L, gv.getSearchCacheSize());
+
     private List<String> resultPages;
     private List<String> queries;
     private File cacheDir;
@@ -72,6 +76,13 @@ public abstract class WebSearcher implements Runnable {
         queries.add(query);
     }
 
+    /**
+     * @return the cache of snippets of recent searches, shared by every searcher
+     */
+    public static SearchResultCache getResultCache() {
+        return resultCache;
+    }
+
     public File getCacheDir() {
         return cacheDir;
     }
@@ -111,6 +122,26 @@ public abstract class WebSearcher implements Runnable {
         return numResults;
     }
 
+    /**
+     * Returns the key of the snippets of the current search in the result cache,
+     * made of the engine, the queries (in lower case, with spaces collapsed),
+     * the number of results and the language. Unlike the search URLs, the key 
+     * has no API key or page offset, and does not depend on parameter order.
+     * Subclasses with other settings that change the results should add them.
+     * @return key of the current search, or null if there are no queries
+     */
+    public String getResultCacheKey() {
+        if (queries.isEmpty()) return null;
+        StringBuffer buf = new StringBuffer(getClass().getName());
+        buf.append("\t");
+        for (int i = 0; i < queries.size(); i++) {
+            if (i > 0) buf.append(" ");
+            buf.append(queries.get(i).trim().replaceAll("\\s+", " ").toLowerCase());
+        }
+        buf.append("\t").append(numResults).append("\t").append(langCode);
+        return buf.toString();
+    }
+
     public List<String> getResultPages() {
         return resultPages;
     }
@@ -178,13 +209,23 @@ public abstract class WebSearcher implements Runnable {
         log.debug("Querying " + className + " for " + Helper.toReadableString(queries) + "...");
 
         resultPages.clear();
-        resultPages.addAll(generateResultPages());
         snippets.clear();
-
-        for (String resultPage : resultPages)
-            if (resultPage != null)
-                // updates snippets
-                buildSnippets(resultPage);
+        String key = getResultCacheKey();
+        Set<Snippet> cachedSnippets = resultCache.get(key);
+        if (cachedSnippets != null) {
+            // the result pages are neither downloaded nor parsed again
+            log.debug("Found " + cachedSnippets.size() + " snippets in the result cache for " + Helper.toReadableString(queries));
+            snippets.addAll(cachedSnippets);
+        } else {
+            resultPages.addAll(generateResultPages());
+            for (String resultPage : resultPages)
+                if (resultPage != null)
+                    // updates snippets
+                    buildSnippets(resultPage);
+            // results are incomplete if any page could not be retrieved
+            if (!resultPages.isEmpty() && !resultPages.contains(null))
+                resultCache.put(key, snippets);
+        }
 
         // assign index of query string to each snippet
         for (Snippet snippet : snippets)
@@ -33,7 +33,7 @@ public class DocFreqRanker extends Ranker {
 //          entityDist.add(content, 1);
           Entity entity = entities.add(content);
           if (entity == null) continue;
-          entity.addWeight(getRankerID(), 1);
+          entity.addWeight(getRankerID(), getMultiplicity(document));
         }
       }
     }
@@ -13,8 +13,10 @@ import org.apache.log4j.Logger;
 import com.rcwang.seal.expand.Entity;
 import com.rcwang.seal.expand.EntityList;
 import com.rcwang.seal.expand.Wrapper.EntityLiteral;
+import com.rcwang.seal.fetch.Document;
 import com.rcwang.seal.fetch.DocumentSet;
 import com.rcwang.seal.util.Distribution;
+import com.rcwang.seal.util.GlobalVar;
 import com.rcwang.seal.util.StringFactory;
 
 public abstract class Ranker {
@@ -71,6 +73,14 @@ public abstract class Ranker {
     return ranker;
   }
   
+  /**
+   * @return number of times to count the document: its multiplicity if
+   * {@link GlobalVar#isWeightByMultiplicity()}, otherwise 1
+   */
+  protected static int getMultiplicity(Document document) {
+    return GlobalVar.getGlobalVar().isWeightByMultiplicity() ? document.getMultiplicity() : 1;
+  }
+  
   protected static int getHashCode(Object o1, Object o2, Object o3) {
     final int prime = 31;
     int result = 1;
@@ -36,7 +36,7 @@ public class WrapperFreqRanker extends Ranker {
 //            entityDist.add(content, 1);
             Entity entity = entities.add(content);
             if (entity == null) continue;
-            entity.addWeight(getRankerID(), 1);
+            entity.addWeight(getRankerID(), getMultiplicity(document));
           }
         }
       }
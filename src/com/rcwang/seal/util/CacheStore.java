@@ -0,0 +1,623 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A log-structured key-value store for cached documents, which keeps many
+ * documents in a few large files instead of one file per document.
+ * Records are appended to segment files, and found through a hash table
+ * on disk that is memory-mapped and keyed by the full 64-bit hash of each
+ * key. Every record also holds its key, which is compared on lookup, so
+ * keys of the same hash never return each other's values.
+ * <p>
+ * Records replaced or removed become garbage, which {@link #compact()}
+ * reclaims (also done when opening a store that is mostly garbage).
+ * Records appended after the hash table was last updated (e.g. before a
+ * crash) are indexed again when the store is opened; deleting the index
+ * file rebuilds it from the segments.
+ * <p>
+ * A store has a single writer: opening it takes an exclusive lock on its
+ * {@link #LOCK_FILENAME} file. If another process (or another CacheStore
+ * of this process) holds the lock, or the directory cannot be written, the
+ * store is opened read-only: it can be read but not changed, and records
+ * that the writer adds afterwards may not be found. Within a process, use
+ * {@link #open(File)}, which shares one store per directory among threads.
+ *
+ * @author rcwang
+ */
+public class CacheStore {
+
+  public static Logger log = Logger.getLogger(CacheStore.class);
+
+  public static final String INDEX_FILENAME = "index.dat";
+  // locked while the store is open; the index itself is replaced when it is resized
+  public static final String LOCK_FILENAME = "index.lock";
+  public static final String SEGMENT_FILE_EXT = ".seg";
+  // a new segment is started when the current one reaches this size
+  public static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+  // initial number of slots in the hash table (must be a power of 2)
+  public static final int INITIAL_CAPACITY = 1 << 16;
+  // compacts on opening if more than this fraction of stored bytes are garbage
+  public static final double MAX_GARBAGE_RATIO = 0.5;
+
+  private static final int INDEX_MAGIC = 0x53434958;   // "SCIX"
+  private static final int RECORD_MAGIC = 0x53435231;  // "SCR1"
+  private static final double MAX_LOAD_FACTOR = 0.7;
+  // a record: magic, key length, value length (-1 if removed), key, value
+  private static final int RECORD_HEADER_SIZE = 12;
+  // a slot: hash of the key (or EMPTY or DELETED), position of the record
+  private static final int SLOT_SIZE = 16;
+  private static final long EMPTY = 0;
+  private static final long DELETED = -1;
+  // a position is the segment number followed by 40 bits of offset
+  private static final int OFFSET_BITS = 40;
+
+  // layout of the header of the index file
+  private static final int HEADER_SIZE = 64;
+  private static final int CAPACITY_POS = 4;
+  private static final int SIZE_POS = 8;
+  private static final int NUM_DELETED_POS = 12;
+  private static final int GARBAGE_POS = 16;
+  private static final int INDEXED_SEGMENT_POS = 24;
+  private static final int INDEXED_OFFSET_POS = 32;
+
+  // stores opened by open(), one per directory
+  private static final Map<File, CacheStore> stores = new HashMap<File, CacheStore>();
+
+  // a record read from a segment
+  private static class Record {
+    public String key;
+    public byte[] value;  // null if the key has been removed
+    public int size;      // number of bytes in the segment
+  }
+
+  private final File dir;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private TreeMap<Integer, FileChannel> segments = new TreeMap<Integer, FileChannel>();
+  private int activeSegment = 0;
+  private RandomAccessFile lockFile;
+  private FileLock fileLock;  // null if read-only
+  private RandomAccessFile indexFile;
+  private MappedByteBuffer index;
+  private int capacity;
+
+  /**
+   * @return the store in the directory (created if it does not exist),
+   * shared by every caller of the same directory
+   */
+  public static synchronized CacheStore open(File dir) throws IOException {
+    File canonicalDir = dir.getCanonicalFile();
+    CacheStore store = stores.get(canonicalDir);
+    if (store == null) {
+      store = new CacheStore(canonicalDir);
+      stores.put(canonicalDir, store);
+    }
+    return store;
+  }
+
+  /**
+   * @return true if the directory holds a store
+   */
+  public static boolean exists(File dir) {
+    return new File(dir, INDEX_FILENAME).isFile();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 || !(args[0].equals("compact") || args[0].equals("stats"))) {
+      log.info("Usage: java " + CacheStore.class.getName() + " compact|stats store_dir");
+      return;
+    }
+    CacheStore store = open(new File(args[1]));
+    if (args[0].equals("compact"))
+      store.compact();
+    log.info(store.size() + " entries, " + store.getGarbageBytes() + " of " + store.getStoredBytes() + " bytes are garbage");
+    store.close();
+  }
+
+  private static long toPosition(int segment, long offset) {
+    return ((long) segment << OFFSET_BITS) | offset;
+  }
+
+  private static int toSegment(long position) {
+    return (int) (position >>> OFFSET_BITS);
+  }
+
+  private static long toOffset(long position) {
+    return position & ((1L << OFFSET_BITS) - 1);
+  }
+
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, offset + buffer.position());
+      if (n == -1) return false;
+    }
+    buffer.flip();
+    return true;
+  }
+
+  CacheStore(File dir) throws IOException {
+    this.dir = dir;
+    Helper.createDir(dir);
+    File indexPath = new File(dir, INDEX_FILENAME);
+    if (!lock()) {
+      // the writer keeps the index up to date, so there is nothing to rebuild or recover
+      if (!indexPath.exists())
+        throw new IOException("Cache store " + dir + " cannot be written and has no index to read");
+      mapIndex(indexPath);
+      if (index.getInt(0) != INDEX_MAGIC) {
+        indexFile.close();
+        throw new IOException("Cache store " + dir + " cannot be written and has a broken index");
+      }
+      log.info("Opened cache store " + dir + " read-only, since another writer has it open or it cannot be written");
+    }
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_FILE_EXT)) continue;
+        try {
+          int segment = Integer.parseInt(name.substring(0, name.length() - SEGMENT_FILE_EXT.length()));
+          segments.put(segment, new RandomAccessFile(file, isReadOnly() ? "r" : "rw").getChannel());
+        } catch (NumberFormatException e) {
+          log.warn("Ignoring unknown file in cache store: " + file);
+        }
+      }
+    }
+    if (!segments.isEmpty())
+      activeSegment = segments.lastKey();
+    if (isReadOnly()) return;
+
+    if (indexPath.exists()) {
+      mapIndex(indexPath);
+      if (index.getInt(0) != INDEX_MAGIC) {
+        log.warn("Rebuilding the broken index of cache store: " + dir);
+        indexFile.close();
+        indexPath.delete();
+      }
+    }
+    if (!indexPath.exists())
+      mapIndex(createIndex(indexPath, INITIAL_CAPACITY));
+    recover();
+
+    if (getGarbageBytes() > getStoredBytes() * MAX_GARBAGE_RATIO)
+      compact();
+  }
+
+  /**
+   * Closes the files of the store; it has to be opened again to be used
+   */
+  public void close() throws IOException {
+    synchronized (CacheStore.class) {
+      if (stores.get(dir) == this)
+        stores.remove(dir);
+    }
+    lock.writeLock().lock();
+    try {
+      if (!isReadOnly())
+        index.force();
+      indexFile.close();
+      for (FileChannel channel : segments.values())
+        channel.close();
+      segments.clear();
+      if (!isReadOnly()) {
+        fileLock.release();
+        lockFile.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Copies the live records into new segments, then deletes the old segments
+   */
+  public void compact() throws IOException {
+    checkWritable();
+    lock.writeLock().lock();
+    try {
+      long garbage = getGarbageBytes();
+      int size = size();
+      int newCapacity = INITIAL_CAPACITY;
+      while (size >= newCapacity * MAX_LOAD_FACTOR / 2)
+        newCapacity *= 2;
+      File file = new File(dir, INDEX_FILENAME + ".tmp");
+      RandomAccessFile raf = createIndex(file, newCapacity);
+      MappedByteBuffer newIndex = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+
+      // copy the records in their order in the hash table
+      List<Integer> oldSegments = new ArrayList<Integer>(segments.keySet());
+      openSegment(++activeSegment);
+      for (int i = 0; i < capacity; i++) {
+        long hash = index.getLong(HEADER_SIZE + i * SLOT_SIZE);
+        if (hash == EMPTY || hash == DELETED) continue;
+        long position = index.getLong(HEADER_SIZE + i * SLOT_SIZE + 8);
+        FileChannel channel = segments.get(toSegment(position));
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(channel, header, toOffset(position));
+        header.getInt();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + header.getInt() + Math.max(header.getInt(), 0));
+        readFully(channel, record, toOffset(position));
+        insert(newIndex, newCapacity, hash, append(record));
+      }
+      newIndex.putInt(SIZE_POS, size);
+      newIndex.putInt(INDEXED_SEGMENT_POS, activeSegment);
+      newIndex.putLong(INDEXED_OFFSET_POS, segments.get(activeSegment).size());
+      segments.get(activeSegment).force(false);
+
+      // switch to the new index before deleting the old segments
+      switchIndex(file, raf, newIndex);
+      for (int segment : oldSegments) {
+        segments.remove(segment).close();
+        getSegmentFile(segment).delete();
+      }
+      log.info("Compacted cache store " + dir + ": reclaimed " + garbage + " bytes");
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the value of the key, or null if not found
+   */
+  public byte[] get(String key) throws IOException {
+    long hash = hash(key);
+    lock.readLock().lock();
+    try {
+      for (int i = (int) hash & (capacity-1);; i = (i+1) & (capacity-1)) {
+        long slotHash = index.getLong(HEADER_SIZE + i * SLOT_SIZE);
+        if (slotHash == EMPTY) return null;
+        if (slotHash != hash) continue;
+        Record record = readRecord(index.getLong(HEADER_SIZE + i * SLOT_SIZE + 8), true);
+        if (record != null && record.key.equals(key))
+          return record.value;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of bytes taken by records that were replaced or removed
+   */
+  public long getGarbageBytes() {
+    return index.getLong(GARBAGE_POS);
+  }
+
+  /**
+   * @return every key in the store
+   */
+  public List<String> getKeys() throws IOException {
+    List<String> keys = new ArrayList<String>();
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < capacity; i++) {
+        long hash = index.getLong(HEADER_SIZE + i * SLOT_SIZE);
+        if (hash == EMPTY || hash == DELETED) continue;
+        Record record = readRecord(index.getLong(HEADER_SIZE + i * SLOT_SIZE + 8), false);
+        if (record != null)
+          keys.add(record.key);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return keys;
+  }
+
+  /**
+   * @return true if the store can only be read, since another writer has it
+   * open or its directory cannot be written
+   */
+  public boolean isReadOnly() {
+    return fileLock == null;
+  }
+
+  /**
+   * @return number of bytes in all segments
+   */
+  public long getStoredBytes() {
+    long bytes = 0;
+    for (File file : getSegmentFiles())
+      bytes += file.length();
+    return bytes;
+  }
+
+  public void put(String key, byte[] value) throws IOException {
+    if (value == null)
+      throw new IllegalArgumentException("Value cannot be null!");
+    write(key, value);
+  }
+
+  public void remove(String key) throws IOException {
+    write(key, null);
+  }
+
+  /**
+   * @return number of keys in the store
+   */
+  public int size() {
+    return index.getInt(SIZE_POS);
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the key followed by a bit mixer,
+   * since the lowest bits choose the slot
+   */
+  long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (h == EMPTY || h == DELETED) ? 1 : h;
+  }
+
+  // appends the record to the active segment (a new one if it is full) and returns its position
+  private long append(ByteBuffer record) throws IOException {
+    FileChannel channel = segments.get(activeSegment);
+    if (channel == null || (channel.size() > 0 && channel.size() + record.limit() > MAX_SEGMENT_SIZE))
+      channel = openSegment(++activeSegment);
+    long offset = channel.size();
+    record.rewind();
+    while (record.hasRemaining())
+      channel.write(record, offset + record.position());
+    return toPosition(activeSegment, offset);
+  }
+
+  private void checkWritable() throws IOException {
+    if (isReadOnly())
+      throw new IOException("Cache store " + dir + " is open read-only");
+  }
+
+  private RandomAccessFile createIndex(File file, int capacity) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    raf.writeInt(INDEX_MAGIC);
+    raf.writeInt(capacity);
+    return raf;
+  }
+
+  // takes the lock of the only writer of the store; false if another writer
+  // has it or the directory cannot be written
+  private boolean lock() {
+    try {
+      lockFile = new RandomAccessFile(new File(dir, LOCK_FILENAME), "rw");
+    } catch (IOException e) {
+      return false;
+    }
+    try {
+      fileLock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      fileLock = null;
+    } catch (IOException e) {
+      fileLock = null;
+    }
+    if (fileLock != null) return true;
+    try {
+      lockFile.close();
+    } catch (IOException e) {
+      log.warn("Cannot close " + new File(dir, LOCK_FILENAME) + ": " + e);
+    }
+    return false;
+  }
+
+  private void mapIndex(RandomAccessFile raf) throws IOException {
+    indexFile = raf;
+    FileChannel.MapMode mode = isReadOnly() ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+    index = raf.getChannel().map(mode, 0, raf.length());
+    capacity = index.getInt(CAPACITY_POS);
+  }
+
+  private void mapIndex(File file) throws IOException {
+    mapIndex(new RandomAccessFile(file, isReadOnly() ? "r" : "rw"));
+  }
+
+  // finds the slot of the key, or -1 if not found
+  private int findSlot(String key, long hash) throws IOException {
+    for (int i = (int) hash & (capacity-1);; i = (i+1) & (capacity-1)) {
+      long slotHash = index.getLong(HEADER_SIZE + i * SLOT_SIZE);
+      if (slotHash == EMPTY) return -1;
+      if (slotHash != hash) continue;
+      Record record = readRecord(index.getLong(HEADER_SIZE + i * SLOT_SIZE + 8), false);
+      if (record != null && record.key.equals(key))
+        return i;
+    }
+  }
+
+  private File getSegmentFile(int segment) {
+    return new File(dir, String.format("%08d", segment) + SEGMENT_FILE_EXT);
+  }
+
+  private List<File> getSegmentFiles() {
+    List<File> files = new ArrayList<File>();
+    lock.readLock().lock();
+    try {
+      for (int segment : segments.keySet())
+        files.add(getSegmentFile(segment));
+    } finally {
+      lock.readLock().unlock();
+    }
+    return files;
+  }
+
+  // adds a new key into the hash table, reusing a deleted slot if possible
+  private static int insert(ByteBuffer index, int capacity, long hash, long position) {
+    int i = (int) hash & (capacity-1);
+    while (index.getLong(HEADER_SIZE + i * SLOT_SIZE) != EMPTY &&
+           index.getLong(HEADER_SIZE + i * SLOT_SIZE) != DELETED)
+      i = (i+1) & (capacity-1);
+    index.putLong(HEADER_SIZE + i * SLOT_SIZE, hash);
+    index.putLong(HEADER_SIZE + i * SLOT_SIZE + 8, position);
+    return i;
+  }
+
+  // updates the hash table with the record at the position
+  private void indexRecord(Record record, long position) throws IOException {
+    long hash = hash(record.key);
+    int slot = findSlot(record.key, hash);
+    if (slot >= 0) {
+      // the old record becomes garbage
+      Record old = readRecord(index.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8), false);
+      index.putLong(GARBAGE_POS, getGarbageBytes() + (old == null ? 0 : old.size));
+      if (record.value == null) {
+        index.putLong(HEADER_SIZE + slot * SLOT_SIZE, DELETED);
+        index.putInt(SIZE_POS, size() - 1);
+        index.putInt(NUM_DELETED_POS, index.getInt(NUM_DELETED_POS) + 1);
+      } else index.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, position);
+    } else if (record.value != null) {
+      slot = insert(index, capacity, hash, position);
+      index.putInt(SIZE_POS, size() + 1);
+    }
+    // a record of a removed key is garbage right away
+    if (record.value == null)
+      index.putLong(GARBAGE_POS, getGarbageBytes() + record.size);
+    index.putInt(INDEXED_SEGMENT_POS, toSegment(position));
+    index.putLong(INDEXED_OFFSET_POS, toOffset(position) + record.size);
+
+    if (size() + index.getInt(NUM_DELETED_POS) > capacity * MAX_LOAD_FACTOR)
+      resize(capacity * 2);
+  }
+
+  private FileChannel openSegment(int segment) throws IOException {
+    FileChannel channel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+    segments.put(segment, channel);
+    return channel;
+  }
+
+  // reads the record at the position, or returns null if it is broken
+  private Record readRecord(long position, boolean readValue) throws IOException {
+    FileChannel channel = segments.get(toSegment(position));
+    if (channel == null) return null;
+    long offset = toOffset(position);
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    if (!readFully(channel, header, offset)) return null;
+    int keyLength = header.getInt(4);
+    int valueLength = header.getInt(8);
+    if (header.getInt(0) != RECORD_MAGIC || keyLength < 0 || valueLength < -1 ||
+        offset + RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0) > channel.size())
+      return null;
+
+    Record record = new Record();
+    record.size = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    int length = keyLength + ((readValue && valueLength > 0) ? valueLength : 0);
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    if (!readFully(channel, buffer, offset + RECORD_HEADER_SIZE)) return null;
+    record.key = new String(buffer.array(), 0, keyLength, "UTF-8");
+    if (valueLength >= 0) {
+      record.value = new byte[readValue ? valueLength : 0];
+      System.arraycopy(buffer.array(), keyLength, record.value, 0, record.value.length);
+    }
+    return record;
+  }
+
+  // indexes the records appended after the index was last updated
+  private void recover() throws IOException {
+    int indexedSegment = index.getInt(INDEXED_SEGMENT_POS);
+    long indexedOffset = index.getLong(INDEXED_OFFSET_POS);
+    int numRecovered = 0;
+    for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+      int segment = entry.getKey();
+      if (segment < indexedSegment) continue;
+      long offset = (segment == indexedSegment) ? indexedOffset : 0;
+      long end = entry.getValue().size();
+      while (offset < end) {
+        long position = toPosition(segment, offset);
+        Record record = readRecord(position, false);
+        if (record == null) {
+          log.warn("Truncating a broken record at " + offset + " of " + getSegmentFile(segment));
+          entry.getValue().truncate(offset);
+          break;
+        }
+        indexRecord(record, position);
+        offset += record.size;
+        numRecovered++;
+      }
+    }
+    if (numRecovered > 0)
+      log.info("Indexed " + numRecovered + " records of cache store: " + dir);
+  }
+
+  // moves the keys into a new hash table of the given capacity
+  private void resize(int newCapacity) throws IOException {
+    File file = new File(dir, INDEX_FILENAME + ".tmp");
+    RandomAccessFile raf = createIndex(file, newCapacity);
+    MappedByteBuffer newIndex = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    for (int i = 0; i < capacity; i++) {
+      long hash = index.getLong(HEADER_SIZE + i * SLOT_SIZE);
+      if (hash != EMPTY && hash != DELETED)
+        insert(newIndex, newCapacity, hash, index.getLong(HEADER_SIZE + i * SLOT_SIZE + 8));
+    }
+    newIndex.putInt(SIZE_POS, size());
+    newIndex.putLong(GARBAGE_POS, getGarbageBytes());
+    newIndex.putInt(INDEXED_SEGMENT_POS, index.getInt(INDEXED_SEGMENT_POS));
+    newIndex.putLong(INDEXED_OFFSET_POS, index.getLong(INDEXED_OFFSET_POS));
+    switchIndex(file, raf, newIndex);
+  }
+
+  // replaces the index file by the new one
+  private void switchIndex(File file, RandomAccessFile raf, MappedByteBuffer newIndex) throws IOException {
+    newIndex.force();
+    indexFile.close();
+    File oldFile = new File(dir, INDEX_FILENAME);
+    if (!file.renameTo(oldFile)) {
+      oldFile.delete();
+      if (!file.renameTo(oldFile))
+        throw new IOException("Cannot rename " + file + " to " + oldFile);
+    }
+    indexFile = raf;
+    index = newIndex;
+    capacity = newIndex.getInt(CAPACITY_POS);
+  }
+
+  // appends a record of the key and value (null to remove the key)
+  private void write(String key, byte[] value) throws IOException {
+    checkWritable();
+    byte[] keyBytes = key.getBytes("UTF-8");
+    int valueLength = (value == null) ? 0 : value.length;
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length + valueLength);
+    buffer.putInt(RECORD_MAGIC);
+    buffer.putInt(keyBytes.length);
+    buffer.putInt((value == null) ? -1 : value.length);
+    buffer.put(keyBytes);
+    if (value != null)
+      buffer.put(value);
+
+    Record record = new Record();
+    record.key = key;
+    record.value = value;
+    record.size = buffer.limit();
+    lock.writeLock().lock();
+    try {
+      // removing a missing key writes nothing
+      if (value == null && findSlot(key, hash(key)) < 0) return;
+      indexRecord(record, append(buffer));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
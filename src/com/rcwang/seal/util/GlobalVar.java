@@ -36,6 +36,11 @@ public class GlobalVar {
   private static String yahooAPIKey;
   private static String yahooBossKey;
   private static long googleHitGapInMS;
+  private static int searchCacheTTLInMin;
+  private static int searchCacheSize;
+  private static int searchTimeOutInMS;
+  private static int searchHedgeDelayInMS;
+  private static String hostHitGapsInMS;
   private static File resultDir;
   private static int minSeedsBracketed;
   private static String bingAPIKey;
@@ -45,6 +50,14 @@ public class GlobalVar {
   // Fetching parameters
   private static int numResults;
   private static int numSubSeeds;
+  private static int numExtractThreads;
+  private static int numFetchThreads;
+  private static int numFetchThreadsPerHost;
+  private static boolean useConnectionPool;
+  private static boolean useNonBlockingFetcher;
+  private static boolean streamDocuments;
+  private static int maxNearDuplicateDistance;
+  private static boolean weightByMultiplicity;
   
   // OfflineSeal and WrapperSavingAsia parameters
     private static boolean isFetchFromWeb; //wwc - keeps WebManager from getting stuff from web
@@ -53,13 +66,21 @@ public class GlobalVar {
     private static File localRoot; //wwc - set if files are indexed relative to some root directory
     private static File savedWrapperDir; //wwc - stores wrappers generated by OfflineSeal or WrapperSavingAsia
     private static int wrapperSaving; //wwc - policy on wrapper saving, 2 means save to savedWrapperDir
+  private static File wrapperLibraryDir;
 
   // Optimization parameters
   private static int wrapperLevel;
+  private static boolean useSeedMatcher;
+  private static boolean useSuffixArray;
+  private static int maxMiddleLength;
+  private static int extractTimeOutInMS;
   private static int minContextLength;
   private static int maxDocSizeInKB;
   private static int timeOutInMS;
   private static File cacheDir;
+  private static boolean compressCache;
+  private static int memoryCacheSizeInMB;
+  private static int numCacheReadThreads;
   private static File urlBlackList;
   private static File stopwordsList;
   
@@ -96,6 +117,7 @@ public class GlobalVar {
   private static boolean cluewebKeepResponseFile;
   private static boolean cluewebKeepQueryFile;
   private static boolean cluewebMemoryManagement;
+  private static int cluewebMemoryBudgetInMB;
   private static boolean multiquery;
   /**
    * Looks for a GlobalVar in the following order:
@@ -196,6 +218,14 @@ public class GlobalVar {
     
     // expansion parameters
     wrapperLevel = Integer.parseInt(getProperty("wrapperLevel", "0"));
+    // find all seeds in one pass instead of one regexp per seed
+    useSeedMatcher = Boolean.parseBoolean(getProperty("useSeedMatcher", "true"));
+    // find longest common contexts from suffix arrays instead of tries
+    useSuffixArray = Boolean.parseBoolean(getProperty("useSuffixArray", "false"));
+    // pair up the arguments of relational seeds found by the seed matcher (0 to use regexps)
+    maxMiddleLength = Integer.parseInt(getProperty("maxMiddleLength", "256"));
+    // time budget for matching the seeds of a document (0 for no limit)
+    extractTimeOutInMS = Integer.parseInt(getProperty("extractTimeOutInMS", "10000"));
     minSeedsBracketed = Integer.parseInt(getProperty("minSeedsBracketed", "0"));
     minContextLength = Integer.parseInt(getProperty("minContextLength", "1"));
     maxDocSizeInKB = Integer.parseInt(getProperty("maxDocSizeInKB", "512"));
@@ -208,6 +238,20 @@ public class GlobalVar {
     googleCustomAPIKey = getProperty("googleCustomAPIKey","");
     numResults = Integer.parseInt(getProperty("numResults", "100"));
     numSubSeeds = Integer.parseInt(getProperty("numSubSeeds", "0"));
+    numExtractThreads = Integer.parseInt(getProperty("numExtractThreads", "1"));
+    // extract from each webpage as soon as it is fetched
+    streamDocuments = Boolean.parseBoolean(getProperty("streamDocuments", "false"));
+    // drop documents whose fingerprints differ from an earlier one's in at most x bits (-1 to keep all)
+    maxNearDuplicateDistance = Integer.parseInt(getProperty("maxNearDuplicateDistance", "3"));
+    // count each document as many times as it was found (with its near-duplicates) when ranking
+    weightByMultiplicity = Boolean.parseBoolean(getProperty("weightByMultiplicity", "false"));
+    // maximum number of webpages downloaded at once, overall and from the same host
+    numFetchThreads = Integer.parseInt(getProperty("numFetchThreads", "32"));
+    numFetchThreadsPerHost = Integer.parseInt(getProperty("numFetchThreadsPerHost", "4"));
+    // download through a shared pool of keep-alive connections
+    useConnectionPool = Boolean.parseBoolean(getProperty("useConnectionPool", "true"));
+    // download over non-blocking sockets instead of one thread per webpage
+    useNonBlockingFetcher = Boolean.parseBoolean(getProperty("useNonBlockingFetcher", "false"));
     timeOutInMS = Integer.parseInt(getProperty("timeOutInMS", "10000")); // 10 sec.
     isFetchFromWeb = Boolean.parseBoolean(getProperty("isFetchFromWeb", "true")); // wwc
     hasNoisySeeds = Boolean.parseBoolean(getProperty("hasNoisySeeds", "false"));
@@ -218,11 +262,19 @@ public class GlobalVar {
             "com.rcwang.seal.expand.Seal");
     useEngine = Integer.parseInt(getProperty("useEngine", "6"));
     cacheDir = toFile(getProperty("cacheDir", "cache"));
+    // compress documents written to the cache by gzip
+    compressCache = Boolean.parseBoolean(getProperty("compressCache", "false"));
+    // maximum size of the cached documents kept in memory (0 to disable)
+    memoryCacheSizeInMB = Integer.parseInt(getProperty("memoryCacheSizeInMB", "64"));
+    // maximum number of cached documents read at once
+    numCacheReadThreads = Integer.parseInt(getProperty("numCacheReadThreads", "8"));
     localDir = toFile(getProperty("localDir", "local"));
     indexDir = toFile(getProperty("indexDir", "index")); // wwc
     localRoot = toFile(getProperty("localRoot", null)); // wwc
     savedWrapperDir = toFile(getProperty("savedWrapperDir", "wrapper")); // wwc
     wrapperSaving = Integer.parseInt(getProperty("wrapperSaving", "0")); // wwc
+    // reuse wrappers learned from the same sites in earlier expansions (none if not set)
+    wrapperLibraryDir = toFile(getProperty("wrapperLibraryDir", null));
     resultDir = toFile(getProperty("resultDir", null));
     feature = Feature.valueOf(getProperty("feature", "WLW"));
     policy = SeedingPolicy.valueOf(getProperty("policy", "ISS_UNSUPERVISED"));
@@ -230,6 +282,15 @@ public class GlobalVar {
     numPossibleSeeds = Integer.parseInt(getProperty("numPossibleSeeds", "0"));
     // every hit to Google must be at least x milliseconds in between
     googleHitGapInMS = Long.parseLong(getProperty("googleHitGapInMS", "5000"));
+    // hits to hosts matching each pattern must be x milliseconds apart, after a burst of y hits (pattern=x[:y], ...)
+    hostHitGapsInMS = getProperty("hostHitGapsInMS", "");
+    // snippets of each search are reused for x minutes (0 to disable), for up to y searches
+    searchCacheTTLInMin = Integer.parseInt(getProperty("searchCacheTTLInMin", "1440"));
+    searchCacheSize = Integer.parseInt(getProperty("searchCacheSize", "1000"));
+    // return the snippets of the engines that have answered after x milliseconds (0 to wait for all)
+    searchTimeOutInMS = Integer.parseInt(getProperty("searchTimeOutInMS", "0"));
+    // send a search again if it has not finished after x milliseconds (0 to never send again)
+    searchHedgeDelayInMS = Integer.parseInt(getProperty("searchHedgeDelayInMS", "0"));
     expFeatures = toFeatures(getProperty("expFeatures", null));
     expDatasets = toStrings(getProperty("expDatasets", null));
     urlBlackList = toFile(getProperty("urlBlackList", null));
@@ -260,6 +321,8 @@ public class GlobalVar {
     cluewebKeepQueryFile    = Boolean.parseBoolean(getProperty("cluewebKeepQueryFile","false"));
     cluewebKeepResponseFile = Boolean.parseBoolean(getProperty("cluewebKeepResponseFile","false"));
     cluewebMemoryManagement = Boolean.parseBoolean(getProperty("cluewebMemoryManagement","true"));
+    // with memory management, documents of a batch beyond x megabytes are read from the cache instead of kept in memory
+    cluewebMemoryBudgetInMB = Integer.parseInt(getProperty("cluewebMemoryBudgetInMB","256"));
     multiquery = Boolean.parseBoolean(getProperty("multiquery","false"));
   }
   
@@ -268,6 +331,15 @@ public class GlobalVar {
   public File getCacheDir() { return cacheDir; }
   public void setCacheDir(File cacheDir) { GlobalVar.cacheDir = cacheDir; }
   
+  public boolean isCompressCache() { return compressCache; }
+  public void setCompressCache(boolean compressCache) { GlobalVar.compressCache = compressCache; }
+  
+  public int getMemoryCacheSizeInMB() { return memoryCacheSizeInMB; }
+  public void setMemoryCacheSizeInMB(int memoryCacheSizeInMB) { GlobalVar.memoryCacheSizeInMB = memoryCacheSizeInMB; }
+  
+  public int getNumCacheReadThreads() { return numCacheReadThreads; }
+  public void setNumCacheReadThreads(int numCacheReadThreads) { GlobalVar.numCacheReadThreads = numCacheReadThreads; }
+  
   public File getIndexDir() { return indexDir; } //wwc
   public void setIndexDir(File indexDir) { GlobalVar.indexDir = indexDir; } //wwc
 
@@ -283,6 +355,9 @@ public class GlobalVar {
   public int getWrapperSaving() { return wrapperSaving; } //wwc
   public void setWrapperSaving(int wrapperSaving) { GlobalVar.wrapperSaving = wrapperSaving; } //wwc
 
+  public File getWrapperLibraryDir() { return wrapperLibraryDir; }
+  public void setWrapperLibraryDir(File wrapperLibraryDir) { GlobalVar.wrapperLibraryDir = wrapperLibraryDir; }
+
   public File getDataDir() { return dataDir; }
   public void setDataDir(File dataDir) { GlobalVar.dataDir = dataDir; }
   
@@ -294,6 +369,12 @@ public class GlobalVar {
   
   public int getMaxDocSizeInKB() { return maxDocSizeInKB; }
   public void setMaxDocSizeInKB(int maxDocSizeInKB) { GlobalVar.maxDocSizeInKB = maxDocSizeInKB; }
+
+  public int getMaxMiddleLength() { return maxMiddleLength; }
+  public void setMaxMiddleLength(int maxMiddleLength) { GlobalVar.maxMiddleLength = maxMiddleLength; }
+
+  public int getExtractTimeOutInMS() { return extractTimeOutInMS; }
+  public void setExtractTimeOutInMS(int extractTimeOutInMS) { GlobalVar.extractTimeOutInMS = extractTimeOutInMS; }
   
   public int getMinContextLength() { return minContextLength; }
   public void setMinContextLength(int minContextLength) { GlobalVar.minContextLength = minContextLength; }
@@ -310,6 +391,30 @@ public class GlobalVar {
   public int getNumSubSeeds() { return numSubSeeds; }
   public void setNumSubSeeds(int numSubSeeds) { GlobalVar.numSubSeeds = numSubSeeds; }
   
+  public int getNumExtractThreads() { return numExtractThreads; }
+  public void setNumExtractThreads(int numExtractThreads) { GlobalVar.numExtractThreads = numExtractThreads; }
+
+  public boolean isStreamDocuments() { return streamDocuments; }
+  public void setStreamDocuments(boolean streamDocuments) { GlobalVar.streamDocuments = streamDocuments; }
+
+  public int getMaxNearDuplicateDistance() { return maxNearDuplicateDistance; }
+  public void setMaxNearDuplicateDistance(int maxNearDuplicateDistance) { GlobalVar.maxNearDuplicateDistance = maxNearDuplicateDistance; }
+
+  public boolean isWeightByMultiplicity() { return weightByMultiplicity; }
+  public void setWeightByMultiplicity(boolean weightByMultiplicity) { GlobalVar.weightByMultiplicity = weightByMultiplicity; }
+
+  public int getNumFetchThreads() { return numFetchThreads; }
+  public void setNumFetchThreads(int numFetchThreads) { GlobalVar.numFetchThreads = numFetchThreads; }
+
+  public int getNumFetchThreadsPerHost() { return numFetchThreadsPerHost; }
+  public void setNumFetchThreadsPerHost(int numFetchThreadsPerHost) { GlobalVar.numFetchThreadsPerHost = numFetchThreadsPerHost; }
+
+  public boolean isUseConnectionPool() { return useConnectionPool; }
+  public void setUseConnectionPool(boolean useConnectionPool) { GlobalVar.useConnectionPool = useConnectionPool; }
+
+  public boolean isUseNonBlockingFetcher() { return useNonBlockingFetcher; }
+  public void setUseNonBlockingFetcher(boolean useNonBlockingFetcher) { GlobalVar.useNonBlockingFetcher = useNonBlockingFetcher; }
+  
   public int getNumTrials() { return numTrials; }
   public void setNumTrials(int numTrials) { GlobalVar.numTrials = numTrials; }
 
@@ -355,6 +460,21 @@ public class GlobalVar {
   public long getGoogleHitGapInMS() { return googleHitGapInMS; }
   public void setGoogleHitGapInMS(long googleHitGap) { GlobalVar.googleHitGapInMS = googleHitGap; }
 
+  public String getHostHitGapsInMS() { return hostHitGapsInMS; }
+  public void setHostHitGapsInMS(String hostHitGapsInMS) { GlobalVar.hostHitGapsInMS = hostHitGapsInMS; }
+
+  public int getSearchCacheTTLInMin() { return searchCacheTTLInMin; }
+  public void setSearchCacheTTLInMin(int searchCacheTTLInMin) { GlobalVar.searchCacheTTLInMin = searchCacheTTLInMin; }
+
+  public int getSearchCacheSize() { return searchCacheSize; }
+  public void setSearchCacheSize(int searchCacheSize) { GlobalVar.searchCacheSize = searchCacheSize; }
+
+  public int getSearchTimeOutInMS() { return searchTimeOutInMS; }
+  public void setSearchTimeOutInMS(int searchTimeOutInMS) { GlobalVar.searchTimeOutInMS = searchTimeOutInMS; }
+
+  public int getSearchHedgeDelayInMS() { return searchHedgeDelayInMS; }
+  public void setSearchHedgeDelayInMS(int searchHedgeDelayInMS) { GlobalVar.searchHedgeDelayInMS = searchHedgeDelayInMS; }
+
   public int getTopSystem() { return topSystem; }
   public void setTopSystem(int topSystem) { GlobalVar.topSystem = topSystem; }
 
@@ -385,6 +505,11 @@ public class GlobalVar {
   public int getWrapperLevel() { return wrapperLevel; }
   public void setWrapperLevel(int wrapperLevel) { GlobalVar.wrapperLevel = wrapperLevel; }
 
+  public boolean isUseSeedMatcher() { return useSeedMatcher; }
+  public void setUseSeedMatcher(boolean useSeedMatcher) { GlobalVar.useSeedMatcher = useSeedMatcher; }
+  public boolean isUseSuffixArray() { return useSuffixArray; }
+  public void setUseSuffixArray(boolean useSuffixArray) { GlobalVar.useSuffixArray = useSuffixArray; }
+
   public String getYahooBossKey() { return yahooBossKey; }
   public void setYahooBossKey(String yahooBossKey) { GlobalVar.yahooBossKey = yahooBossKey; }
 
@@ -399,6 +524,9 @@ public class GlobalVar {
   
   public boolean getClueWebMemoryManagement() { return cluewebMemoryManagement; }
   public void setClueWebMemoryManagement(boolean b) { cluewebMemoryManagement = b; }
+
+  public int getClueWebMemoryBudgetInMB() { return cluewebMemoryBudgetInMB; }
+  public void setClueWebMemoryBudgetInMB(int mb) { cluewebMemoryBudgetInMB = mb; }
   
   public boolean getClueWebKeepResponseFile() { return cluewebKeepResponseFile; }
   public void setClueWebKeepResponseFile(boolean b) { cluewebKeepResponseFile = b; }
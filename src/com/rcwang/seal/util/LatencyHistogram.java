@@ -0,0 +1,82 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.util;
+
+/**
+ * A thread-safe histogram of latencies in milliseconds, counted in buckets
+ * of powers of two, so that percentiles are estimated within a factor of
+ * two. Also counts the operations that timed out (which have no latency).
+ *
+ * @author rcwang
+ */
+public class LatencyHistogram {
+
+  // bucket i counts latencies below 2^i ms, except the last bucket counts the rest
+  public static final int NUM_BUCKETS = 24;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+  private long numLatencies = 0;
+  private long numTimeOuts = 0;
+  private long totalInMS = 0;
+  private long maxInMS = 0;
+
+  private static int toBucket(long latencyInMS) {
+    int bucket = 0;
+    while (bucket < NUM_BUCKETS-1 && latencyInMS >= (1L << bucket))
+      bucket++;
+    return bucket;
+  }
+
+  public synchronized void add(long latencyInMS) {
+    latencyInMS = Math.max(latencyInMS, 0);
+    counts[toBucket(latencyInMS)]++;
+    numLatencies++;
+    totalInMS += latencyInMS;
+    maxInMS = Math.max(maxInMS, latencyInMS);
+  }
+
+  public synchronized void addTimeOut() {
+    numTimeOuts++;
+  }
+
+  public synchronized long getMaxInMS() {
+    return maxInMS;
+  }
+
+  public synchronized double getMeanInMS() {
+    return (numLatencies == 0) ? 0 : (double) totalInMS / numLatencies;
+  }
+
+  public synchronized long getNumLatencies() {
+    return numLatencies;
+  }
+
+  public synchronized long getNumTimeOuts() {
+    return numTimeOuts;
+  }
+
+  /**
+   * @param percent between 0 and 100
+   * @return an upper bound (within a factor of two) of the latency below
+   * which "percent" of the latencies fall, or 0 if there are none
+   */
+  public synchronized long getPercentileInMS(double percent) {
+    if (numLatencies == 0) return 0;
+    long rank = (long) Math.ceil(numLatencies * percent / 100.0);
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS-1; i++) {
+      count += counts[i];
+      if (count >= rank)
+        return Math.min(1L << i, maxInMS);
+    }
+    return maxInMS;
+  }
+
+  public synchronized String toString() {
+    return numLatencies + " done (mean " + Math.round(getMeanInMS()) + "ms, " +
+           "50% <= " + getPercentileInMS(50) + "ms, 90% <= " + getPercentileInMS(90) + "ms, " +
+           "99% <= " + getPercentileInMS(99) + "ms, max " + maxInMS + "ms), " + numTimeOuts + " timed out";
+  }
+}
@@ -0,0 +1,133 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe least-recently-used cache bounded by the total size of
+ * its entries in bytes (as estimated by {@link #sizeOf(Object, Object)}),
+ * rather than by the number of entries as {@link Cache}. Also counts
+ * hits, misses and evictions.
+ *
+ * @author rcwang
+ */
+public class MemoryCache<K, V> {
+
+  // estimated bytes taken by an entry besides its key and value
+  public static final int ENTRY_OVERHEAD = 64;
+
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+  private long maxBytes;
+  private long bytes = 0;
+  private long numHits = 0;
+  private long numMisses = 0;
+  private long numEvictions = 0;
+
+  /**
+   * @param maxBytes maximum total size of the entries (0 to cache nothing)
+   */
+  public MemoryCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public synchronized void clear() {
+    map.clear();
+    bytes = 0;
+  }
+
+  /**
+   * @return the value of the key (which becomes the most recently used), or null if not found
+   */
+  public synchronized V get(K key) {
+    V value = map.get(key);
+    if (value == null)
+      numMisses++;
+    else numHits++;
+    return value;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getNumEvictions() {
+    return numEvictions;
+  }
+
+  public synchronized long getNumHits() {
+    return numHits;
+  }
+
+  public synchronized long getNumMisses() {
+    return numMisses;
+  }
+
+  /**
+   * Adds the entry, then evicts the least recently used entries until
+   * the total size is within the limit. An entry larger than the limit
+   * is not added.
+   */
+  public synchronized void put(K key, V value) {
+    remove(key);
+    long size = sizeOf(key, value);
+    if (size > maxBytes) return;
+    map.put(key, value);
+    bytes += size;
+    evict();
+  }
+
+  public synchronized V remove(K key) {
+    V value = map.remove(key);
+    if (value != null)
+      bytes -= sizeOf(key, value);
+    return value;
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public synchronized String toString() {
+    return size() + " entries (" + (bytes >> 10) + " of " + (maxBytes >> 10) + "KB), " +
+           numHits + " hits, " + numMisses + " misses, " + numEvictions + " evictions";
+  }
+
+  /**
+   * @return estimated number of bytes taken by the entry
+   */
+  protected long sizeOf(K key, V value) {
+    return ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value);
+  }
+
+  private static long sizeOf(Object o) {
+    if (o instanceof CharSequence)
+      return 2L * ((CharSequence) o).length();
+    if (o instanceof byte[])
+      return ((byte[]) o).length;
+    return 0;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<K, V> entry = iterator.next();
+      bytes -= sizeOf(entry.getKey(), entry.getValue());
+      iterator.remove();
+      numEvictions++;
+    }
+  }
+}
@@ -65,7 +65,7 @@ public class Originator {
     add(canonical, original, new Object[] {key});
   }
   
-  public static void add(String canonical, String original, Object[] keys) {
+  public static synchronized void add(String canonical, String original, Object[] keys) {
     if (canonical == null || original == null) return;
     
     SID cID = StringFactory.toID(canonical);
@@ -78,11 +78,11 @@ public class Originator {
     d.add(oID, keys);
   }
   
-  public static void clear() {
+  public static synchronized void clear() {
     map.clear();
   }
   
-  public static String getOriginal(String canonical) {
+  public static synchronized String getOriginal(String canonical) {
     if (canonical == null) return null;
     DistKeys d = map.get(StringFactory.toID(canonical));
     if (d == null) return canonical;
@@ -93,7 +93,7 @@ public class Originator {
     return getOriginals(canonical, Integer.MAX_VALUE);
   }
   
-  public static String getOriginals(String canonical, int numTop) {
+  public static synchronized String getOriginals(String canonical, int numTop) {
     if (canonical == null) return null;
     DistKeys d = map.get(StringFactory.toID(canonical));
     if (d == null) return canonical;
@@ -108,14 +108,14 @@ public class Originator {
     }
   }
   
-  public static int getNumStrings() {
+  public static synchronized int getNumStrings() {
     int num = 0;
     for (DistKeys dk : map.values())
       num += dk.getDist().size();
     return num;
   }
   
-  public static int size() {
+  public static synchronized int size() {
     return map.size();
   }  
 }
@@ -5,6 +5,7 @@
 package com.rcwang.seal.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,7 +20,6 @@ import com.rcwang.seal.expand.Entity;
 import com.rcwang.seal.expand.Wrapper;
 import com.rcwang.seal.expand.Wrapper.MiddleContext;
 import com.rcwang.seal.util.Trie.TextNode;
-import com.rcwang.seal.util.Trie.TrieNode;
 
 public class PairedTrie {
   
@@ -33,14 +33,17 @@ public class PairedTrie {
   public static final double MIN_WEIGHT = 0;  // minimum weight
   
   private Trie leftTrie, rightTrie;
+  private SuffixArray leftArray, rightArray;
   private StringBuffer reverseBuf;
   private List<Entity> entities;
   private List<MiddleContext> mcList;
   private Set<Entity> entitySet;
   private Map<MiddleContext, Set<Entity>> middleEntityMap;
   private MiddleContext middleContext;
+  private int[] commonIDs;
   private Object feature;
   private double maxWeightRatio;
+  private boolean useSuffixArray;
   
   public static void main(String args[]) {
     PairedTrie pTrie = new PairedTrie();
@@ -69,11 +72,16 @@ public class PairedTrie {
     leftTrie.setPairedTrie(this);
     rightTrie = new Trie();
     rightTrie.setPairedTrie(this);
+    leftArray = new SuffixArray(true);
+    leftArray.setPairedTrie(this);
+    rightArray = new SuffixArray(false);
+    rightArray.setPairedTrie(this);
     reverseBuf = new StringBuffer();
     entities = new ArrayList<Entity>();
     mcList = new ArrayList<MiddleContext>();
     entitySet = new HashSet<Entity>();
     middleEntityMap = new HashMap<MiddleContext, Set<Entity>>();
+    commonIDs = new int[16];
     setMaxWeightRatio(DEFAULT_MAX_WEIGHT_RATIO);
   }
   
@@ -84,14 +92,38 @@ public class PairedTrie {
   }
   
   public void add(String left, String right, Entity entity) {
-    leftTrie.add(reverse(left), entities.size());
-    rightTrie.add(right, entities.size());
+    add(left, 0, left.length(), right, 0, right.length(), entity);
+  }
+  
+  /**
+   * Adds the contexts text[leftStart..leftEnd) and text[rightStart..rightEnd)
+   * of an occurrence of the entity without copying them; the left context
+   * is read backwards in place
+   */
+  public void add(CharSequence text, int leftStart, int leftEnd, MiddleContext middle,
+                  int rightStart, int rightEnd, Entity entity) {
+    add(text, leftStart, leftEnd, text, rightStart, rightEnd, entity);
+    if (middle != null)
+      mcList.add(middle);
+  }
+  
+  private void add(CharSequence left, int leftStart, int leftEnd,
+                   CharSequence right, int rightStart, int rightEnd, Entity entity) {
+    if (useSuffixArray) {
+      leftArray.add(left, leftStart, leftEnd);
+      rightArray.add(right, rightStart, rightEnd);
+    } else {
+      leftTrie.add(left, leftStart, leftEnd, true, entities.size());
+      rightTrie.add(right, rightStart, rightEnd, false, entities.size());
+    }
     entities.add(entity);
   }
   
   public void clear() {
     leftTrie.clear();
     rightTrie.clear();
+    leftArray.clear();
+    rightArray.clear();
     reverseBuf.setLength(0);
     entities.clear();
     mcList.clear();
@@ -153,12 +185,19 @@ public class PairedTrie {
 //    log.debug(this);
     
     // get longest contexts of the left and right tries
-    getWrappers(leftTrie, rightTrie, true, minType, minLength, minWeight, wrappers);
-    getWrappers(rightTrie, leftTrie, false, minType, minLength, minWeight, wrappers);
+    if (useSuffixArray) {
+      getWrappers(leftArray, rightArray, true, minType, minLength, minWeight, wrappers);
+      getWrappers(rightArray, leftArray, false, minType, minLength, minWeight, wrappers);
+    } else {
+      getWrappers(leftTrie, rightTrie, true, minType, minLength, minWeight, wrappers);
+      getWrappers(rightTrie, leftTrie, false, minType, minLength, minWeight, wrappers);
+    }
     return wrappers;
   }
   
   public boolean isEmpty() {
+    if (useSuffixArray)
+      return leftArray.isEmpty() || rightArray.isEmpty();
     return leftTrie.isEmpty() || rightTrie.isEmpty();
   }
   
@@ -166,6 +205,10 @@ public class PairedTrie {
     return !mcList.isEmpty();
   }
   
+  public boolean isUseSuffixArray() {
+    return useSuffixArray;
+  }
+  
   /**
    * Features is only used for minNumType of -2
    * @param feature
@@ -178,6 +221,14 @@ public class PairedTrie {
     this.maxWeightRatio = maxWeightRatio;
   }
   
+  /**
+   * If true, longest common contexts are found from suffix arrays of the
+   * contexts instead of tries; must be set before adding any context
+   */
+  public void setUseSuffixArray(boolean useSuffixArray) {
+    this.useSuffixArray = useSuffixArray;
+  }
+  
   @Override
   public String toString() {
     StringBuffer buf = new StringBuffer();
@@ -198,13 +249,16 @@ public class PairedTrie {
   }
   
   private double getMax(boolean isMaxWeight, int minType, int minLength) {
+    if (useSuffixArray)
+      return getMaxBySuffixArray(isMaxWeight, minType, minLength);
     double max = -1;
-    for (TrieNode lNode : leftTrie.getTopNodes(minLength)) {
-      if (lNode.ids.size() < MIN_TYPES) continue;
+    int[] rNodes = rightTrie.getTopNodes(minLength);
+    for (int lNode : leftTrie.getTopNodes(minLength)) {
+      if (leftTrie.size(lNode) < MIN_TYPES) continue;
       
-      for (TrieNode rNode : rightTrie.getTopNodes(minLength)) {
-        if (rNode.ids.size() < MIN_TYPES) continue;
-        Set<Entity> entities = getCommons(lNode.ids, rNode.ids);
+      for (int rNode : rNodes) {
+        if (rightTrie.size(rNode) < MIN_TYPES) continue;
+        Set<Entity> entities = getCommons(leftTrie, lNode, rNode);
         if (entities.size() < minType) continue;
         double w = isMaxWeight ? sumWeight(entities) : entities.size();
         max = Math.max(w, max);
@@ -213,6 +267,37 @@ public class PairedTrie {
     return max;
   }
   
+  /**
+   * Each ID belongs to at most one top node of each array, so the IDs shared
+   * by a pair of top nodes are found by grouping the IDs by their top nodes
+   */
+  private double getMaxBySuffixArray(boolean isMaxWeight, int minType, int minLength) {
+    int[] lNodes = leftArray.getTopNodes(minLength);
+    int[] rNodes = rightArray.getTopNodes(minLength);
+    // there are at most (2 * numIDs + 1) nodes in each array
+    long numIDs = lNodes.length, numNodes = numIDs * 2 + 1;
+    int n = 0;
+    long[] keys = new long[lNodes.length];
+    for (int id = 0; id < numIDs; id++) {
+      if (lNodes[id] == SuffixArray.NONE || rNodes[id] == SuffixArray.NONE) continue;
+      keys[n++] = (lNodes[id] * numNodes + rNodes[id]) * numIDs + id;
+    }
+    Arrays.sort(keys, 0, n);
+    
+    double max = -1;
+    int[] ids = new int[n];
+    for (int i = 0, j; i < n; i = j) {
+      long pair = keys[i] / numIDs;
+      for (j = i; j < n && keys[j] / numIDs == pair; j++)
+        ids[j-i] = (int) (keys[j] % numIDs);
+      Set<Entity> entities = getCommons(ids, j-i);
+      if (entities.size() < minType) continue;
+      double w = isMaxWeight ? sumWeight(entities) : entities.size();
+      max = Math.max(w, max);
+    }
+    return max;
+  }
+  
   private double getMaxType(int minType, int minLength) {
     return getMax(false, minType, minLength);
   }
@@ -225,17 +310,16 @@ public class PairedTrie {
                            int minType, int minLength, double minWeight, Set<Wrapper> wrappers) {
     
     // get top nodes in trie2 that have at least minLength
-    List<TrieNode> topNodes = trie2.getTopNodes(minLength);
+    int[] topNodes = trie2.getTopNodes(minLength);
     
     // find deepest nodes in trie1 that matches the top nodes in trie2
     List<TextNode> textNodes1 = trie1.getDeepestNodes(minType, minLength, minWeight, topNodes);
     
     // a list that will only contain one trie node
-    List<TrieNode> aList = new ArrayList<TrieNode>();
+    int[] aList = new int[1];
     
     for (TextNode textNode1 : textNodes1) {
-      aList.clear();
-      aList.add(textNode1.node);
+      aList[0] = textNode1.node;
       
       // find deepest nodes in trie2 that matches the deepest node in trie1
       List<TextNode> textNodes2 = trie2.getDeepestNodes(minType, minLength, minWeight, aList);
@@ -247,7 +331,34 @@ public class PairedTrie {
         String right = trie1AtLeft ? textNode2.text : textNode1.text;
         
         // if is relational, middleContext will be set by the following
-        Set<Entity> commons = getCommons(textNode1.node.ids, textNode2.node.ids);
+        Set<Entity> commons = getCommons(trie1, textNode1.node, textNode2.node);
+        Wrapper wrapper = new Wrapper(reverse(left), middleContext, right);
+        if (wrappers.add(wrapper))
+          wrapper.setSeeds(commons);
+      }
+    }
+  }
+
+  private void getWrappers(SuffixArray array1, SuffixArray array2, boolean array1AtLeft,
+                           int minType, int minLength, double minWeight, Set<Wrapper> wrappers) {
+    
+    // get the top node in array2 of every ID
+    int[] topNodes = array2.getTopNodes(minLength);
+    
+    // find deepest nodes in array1 that matches the top nodes in array2
+    List<TextNode> textNodes1 = array1.getDeepestNodes(minType, minLength, minWeight, topNodes);
+    
+    for (TextNode textNode1 : textNodes1) {
+      
+      // find deepest nodes in array2 that matches the deepest node in array1
+      List<TextNode> textNodes2 = array2.getDeepestNodes(minType, minLength, minWeight, textNode1.node);
+      
+      for (TextNode textNode2 : textNodes2) {
+        String left = array1AtLeft ? textNode1.text : textNode2.text;
+        String right = array1AtLeft ? textNode2.text : textNode1.text;
+        
+        // if is relational, middleContext will be set by the following
+        Set<Entity> commons = getCommons(array1, textNode1.node, textNode2.node);
         Wrapper wrapper = new Wrapper(reverse(left), middleContext, right);
         if (wrappers.add(wrapper))
           wrapper.setSeeds(commons);
@@ -260,23 +371,38 @@ public class PairedTrie {
     return reverseBuf.append(s).reverse().toString();
   }
   
-  // intersects ids1 and ids2
-  protected Set<Entity> getCommons(Collection<Integer> ids1, Collection<Integer> ids2) {
+  // intersects the ids of node1 in array1 and node2 in the other array
+  protected Set<Entity> getCommons(SuffixArray array1, int node1, int node2) {
+    if (commonIDs.length < entities.size())
+      commonIDs = new int[Math.max(commonIDs.length * 2, entities.size())];
+    int numIDs = array1.getCommonIDs(node1, getOtherArray(array1), node2, commonIDs);
+    return getCommons(commonIDs, numIDs);
+  }
+  
+  // intersects the ids of node1 in trie1 and node2 in the other trie
+  protected Set<Entity> getCommons(Trie trie1, int node1, int node2) {
+    if (commonIDs.length < entities.size())
+      commonIDs = new int[Math.max(commonIDs.length * 2, entities.size())];
+    int numIDs = trie1.getCommonIDs(node1, getOtherTrie(trie1), node2, commonIDs);
+    return getCommons(commonIDs, numIDs);
+  }
+  
+  // finds the seeds of the ids (in ascending order)
+  protected Set<Entity> getCommons(int[] ids, int numIDs) {
     middleContext = null;
     
     if (!isRelational()) {
       entitySet.clear();
-      for (int id : ids1)
-        if (ids2.contains(id))
-          entitySet.add(entities.get(id));
+      for (int i = 0; i < numIDs; i++)
+        entitySet.add(entities.get(ids[i]));
       return entitySet;
     }
     
     middleEntityMap.clear();
     int maxCount = 0;
     
-    for (int id : ids1) {
-      if (!ids2.contains(id)) continue;
+    for (int i = 0; i < numIDs; i++) {
+      int id = ids[i];
       MiddleContext mc = mcList.get(id);
       Set<Entity> entitySet = middleEntityMap.get(mc);
       if (entitySet == null) {
@@ -294,6 +420,14 @@ public class PairedTrie {
     return commons;
   }
 
+  protected SuffixArray getOtherArray(SuffixArray array) {
+    return array == leftArray ? rightArray : leftArray;
+  }
+
+  protected Trie getOtherTrie(Trie trie) {
+    return trie == leftTrie ? rightTrie : leftTrie;
+  }
+
   protected double sumWeight(Collection<Entity> entities) {
     double w = 0;
     for (Entity entity : entities)
@@ -138,17 +138,18 @@ public class StringFactory {
   }*/
   
   public static final boolean DISABLE_CACHE = false; // reduces memory for small runs
+  // the caches are shared by wrapper factories running in parallel, hence synchronized
   private static Map<String, String> strMap = new Cache<String, String>();
   private static Map<SID, SID> sidMap = new Cache<SID, SID>();
   private static StringBuffer buf = new StringBuffer();
   private static String delimiter = " ";  // space
   
-  public static void clear() {
+  public static synchronized void clear() {
     strMap.clear();
     sidMap.clear();
   }
   
-  public static SID get(SID sid) {
+  public static synchronized SID get(SID sid) {
     if (DISABLE_CACHE) return sid;
     SID sid2 = sidMap.get(sid);
     if (sid2 == null) {
@@ -157,7 +158,7 @@ public class StringFactory {
     } else return sid2;
   }
   
-  public static String get(String s) {
+  public static synchronized String get(String s) {
     if (DISABLE_CACHE) return s;
     String s2 = strMap.get(s);
     if (s2 == null) {
@@ -269,7 +270,7 @@ public class StringFactory {
    * @param id
    * @return a new String
    */
-  public static String toName(String ... id) {
+  public static synchronized String toName(String ... id) {
     if (id == null) return null;
     buf.setLength(0);
     for (Object o : id) {
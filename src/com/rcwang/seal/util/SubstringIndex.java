@@ -0,0 +1,235 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Answers whether a string is a substring of any string in a fixed set,
+ * in time proportional to the length of the query string. The set is
+ * compiled into a generalized suffix automaton, whose states recognize
+ * exactly the substrings of the set; a query simply walks its transitions.
+ * The index is immutable once built, so it can be shared by many threads.
+ *
+ * @author rcwang
+ */
+public class SubstringIndex {
+
+  private static final int NONE = -1;
+  private static final int ROOT_TABLE_SIZE = 128;
+
+  // states of the automaton; the root is state 0
+  private int numStates;
+
+  // lengths, suffix links and edges (as linked lists) of each state, only during construction
+  private int[] lengths;
+  private int[] links;
+  private int[] firstEdges;
+  private int[] edgeNexts;
+  private char[] edgeChars;
+  private int[] edgeTargets;
+  private int numEdges;
+
+  // frozen transitions: edges of state s are at [edgeStarts[s], edgeStarts[s+1])
+  private int[] edgeStarts;
+  private char[] sortedChars;
+  private int[] sortedTargets;
+  private int[] rootTable;
+  private boolean isEmpty;
+
+  // String.toLowerCase() differs from Character.toLowerCase() for these
+  private static boolean isSpecialCase(CharSequence s, int from, int to) {
+    String language = Locale.getDefault().getLanguage();
+    if (language.equals("tr") || language.equals("az") || language.equals("lt"))
+      return true;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c == 'Σ' || c == 'İ' || Character.isHighSurrogate(c))
+        return true;
+    }
+    return false;
+  }
+
+  public SubstringIndex(Collection<String> strings) {
+    isEmpty = strings.isEmpty();
+    int capacity = 1;
+    for (String s : strings)
+      capacity += s.length();
+    // a suffix automaton has at most 2n states and 3n edges
+    lengths = new int[capacity * 2];
+    links = new int[capacity * 2];
+    firstEdges = new int[capacity * 2];
+    edgeNexts = new int[capacity * 3];
+    edgeChars = new char[capacity * 3];
+    edgeTargets = new int[capacity * 3];
+    newState(0);
+    links[0] = NONE;
+
+    for (String s : strings) {
+      int last = 0;
+      for (int i = 0; i < s.length(); i++)
+        last = extend(last, s.charAt(i));
+    }
+    freeze();
+  }
+
+  /**
+   * Same as checking whether any string of the set contains
+   * <code>s.substring(from, to)</code> (lower-cased by String.toLowerCase()
+   * if toLowerCase is true), but without creating any String in most cases
+   */
+  public boolean contains(CharSequence s, int from, int to, boolean toLowerCase) {
+    if (isEmpty) return false;
+    if (toLowerCase && isSpecialCase(s, from, to)) {
+      s = s.subSequence(from, to).toString().toLowerCase();
+      from = 0;
+      to = s.length();
+      toLowerCase = false;
+    }
+    int state = 0;
+    for (int i = from; i < to && state != NONE; i++) {
+      char c = s.charAt(i);
+      if (toLowerCase)
+        c = Character.toLowerCase(c);
+      state = transit(state, c);
+    }
+    return state != NONE;
+  }
+
+  public boolean contains(CharSequence s) {
+    return contains(s, 0, s.length(), false);
+  }
+
+  /**
+   * @return number of states in the automaton
+   */
+  public int size() {
+    return numStates;
+  }
+
+  private void addEdge(int state, char c, int target) {
+    if (numEdges == edgeChars.length) {
+      edgeNexts = Arrays.copyOf(edgeNexts, numEdges * 2);
+      edgeChars = Arrays.copyOf(edgeChars, numEdges * 2);
+      edgeTargets = Arrays.copyOf(edgeTargets, numEdges * 2);
+    }
+    edgeChars[numEdges] = c;
+    edgeTargets[numEdges] = target;
+    edgeNexts[numEdges] = firstEdges[state];
+    firstEdges[state] = numEdges++;
+  }
+
+  // copies state q into a new state of the given length, which becomes the suffix link of q
+  private int cloneState(int q, int length) {
+    int clone = newState(length);
+    links[clone] = links[q];
+    for (int e = firstEdges[q]; e != NONE; e = edgeNexts[e])
+      addEdge(clone, edgeChars[e], edgeTargets[e]);
+    links[q] = clone;
+    return clone;
+  }
+
+  // appends c to the string that ends at state 'last', and returns the new last state
+  private int extend(int last, char c) {
+    int q = getEdge(last, c);
+    if (q != NONE) {
+      // the string is already a substring of an earlier string
+      if (lengths[last] + 1 == lengths[q]) return q;
+      int clone = cloneState(q, lengths[last] + 1);
+      for (int p = last; p != NONE && getEdge(p, c) == q; p = links[p])
+        setEdge(p, c, clone);
+      return clone;
+    }
+    int state = newState(lengths[last] + 1);
+    int p = last;
+    for (; p != NONE && getEdge(p, c) == NONE; p = links[p])
+      addEdge(p, c, state);
+    if (p == NONE) {
+      links[state] = 0;
+    } else {
+      q = getEdge(p, c);
+      if (lengths[p] + 1 == lengths[q]) {
+        links[state] = q;
+      } else {
+        int clone = cloneState(q, lengths[p] + 1);
+        for (; p != NONE && getEdge(p, c) == q; p = links[p])
+          setEdge(p, c, clone);
+        links[state] = clone;
+      }
+    }
+    return state;
+  }
+
+  // freezes the transitions into sorted arrays and drops the linked lists
+  private void freeze() {
+    edgeStarts = new int[numStates + 1];
+    sortedChars = new char[numEdges];
+    sortedTargets = new int[numEdges];
+    long[] edges = new long[ROOT_TABLE_SIZE];
+    int k = 0;
+    for (int state = 0; state < numStates; state++) {
+      edgeStarts[state] = k;
+      int n = 0;
+      for (int e = firstEdges[state]; e != NONE; e = edgeNexts[e]) {
+        if (n == edges.length)
+          edges = Arrays.copyOf(edges, n * 2);
+        edges[n++] = ((long) edgeChars[e] << 32) | edgeTargets[e];
+      }
+      Arrays.sort(edges, 0, n);
+      for (int j = 0; j < n; j++, k++) {
+        sortedChars[k] = (char) (edges[j] >>> 32);
+        sortedTargets[k] = (int) edges[j];
+      }
+    }
+    edgeStarts[numStates] = k;
+    rootTable = new int[ROOT_TABLE_SIZE];
+    Arrays.fill(rootTable, NONE);
+    for (int j = edgeStarts[0]; j < edgeStarts[1]; j++)
+      if (sortedChars[j] < ROOT_TABLE_SIZE)
+        rootTable[sortedChars[j]] = sortedTargets[j];
+
+    lengths = links = null;
+    firstEdges = edgeNexts = edgeTargets = null;
+    edgeChars = null;
+  }
+
+  private int getEdge(int state, char c) {
+    for (int e = firstEdges[state]; e != NONE; e = edgeNexts[e])
+      if (edgeChars[e] == c)
+        return edgeTargets[e];
+    return NONE;
+  }
+
+  private int newState(int length) {
+    if (numStates == lengths.length) {
+      lengths = Arrays.copyOf(lengths, numStates * 2);
+      links = Arrays.copyOf(links, numStates * 2);
+      firstEdges = Arrays.copyOf(firstEdges, numStates * 2);
+    }
+    lengths[numStates] = length;
+    firstEdges[numStates] = NONE;
+    return numStates++;
+  }
+
+  private void setEdge(int state, char c, int target) {
+    for (int e = firstEdges[state]; e != NONE; e = edgeNexts[e]) {
+      if (edgeChars[e] == c) {
+        edgeTargets[e] = target;
+        return;
+      }
+    }
+  }
+
+  private int transit(int state, char c) {
+    if (state == 0 && c < ROOT_TABLE_SIZE)
+      return rootTable[c];
+    int from = edgeStarts[state], to = edgeStarts[state+1];
+    if (from == to) return NONE;
+    int j = Arrays.binarySearch(sortedChars, from, to, c);
+    return (j < 0) ? NONE : sortedTargets[j];
+  }
+}
@@ -0,0 +1,393 @@
+/**************************************************************************
+ * Developed by Language Technologies Institute, Carnegie Mellon University
+ * Written by Richard Wang (rcwang#cs,cmu,edu)
+ **************************************************************************/
+package com.rcwang.seal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.rcwang.seal.expand.Entity;
+import com.rcwang.seal.util.Trie.TextNode;
+
+/**
+ * An alternative to {@link Trie} for finding longest common contexts.
+ * The contexts of all seed occurrences are suffixes of the document (or of
+ * the reversed document for left contexts) that start at the seed boundaries;
+ * they are sorted into a sparse suffix array, and the LCP intervals of that
+ * array form the same tree as the nodes of a {@link Trie}.
+ *
+ * Each node is an interval [start, end) of ranks, so its IDs are simply
+ * the sorted contexts in that interval. Nodes are referred to by index;
+ * the root node is always 0. Context IDs are given in the order of insertion.
+ */
+public class SuffixArray {
+
+  public static Logger log = Logger.getLogger(SuffixArray.class);
+  public static final int ROOT = 0;
+  public static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 256;
+
+  // the contexts, each a substring of some text
+  private CharSequence[] texts;
+  private int[] textStarts;
+  private int[] textLengths;
+  private int numContexts;
+  // reads the contexts backwards (for left contexts)
+  private boolean isReversed;
+
+  // context IDs sorted by their contexts, and the rank of each ID
+  private int[] suffixes;
+  private int[] ranks;
+  // longest common prefix of each sorted context and the one before it
+  private int[] lcps;
+  private int[] buffer;
+
+  // LCP interval tree: IDs of node i are suffixes[starts[i]..ends[i])
+  private int[] starts;
+  private int[] ends;
+  private int[] lengths;
+  private int[] firstChildren;
+  private int[] lastChildren;
+  private int[] nextSiblings;
+  private int[] stack;
+  private int numNodes;
+  private boolean isIndexed;
+
+  private PairedTrie pairedTrie;
+
+  public SuffixArray(boolean isReversed) {
+    this.isReversed = isReversed;
+    texts = new CharSequence[INITIAL_CAPACITY];
+    textStarts = new int[INITIAL_CAPACITY];
+    textLengths = new int[INITIAL_CAPACITY];
+    suffixes = new int[INITIAL_CAPACITY];
+    ranks = new int[INITIAL_CAPACITY];
+    lcps = new int[INITIAL_CAPACITY];
+    buffer = new int[INITIAL_CAPACITY];
+    starts = new int[INITIAL_CAPACITY * 2];
+    ends = new int[INITIAL_CAPACITY * 2];
+    lengths = new int[INITIAL_CAPACITY * 2];
+    firstChildren = new int[INITIAL_CAPACITY * 2];
+    lastChildren = new int[INITIAL_CAPACITY * 2];
+    nextSiblings = new int[INITIAL_CAPACITY * 2];
+    stack = new int[INITIAL_CAPACITY * 2];
+    clear();
+  }
+
+  /**
+   * Adds the context s[from..to) with the next ID (starting from 0)
+   */
+  public void add(CharSequence s, int from, int to) {
+    if (s == null)
+      throw new IllegalArgumentException("Input string cannot be null!");
+    if (numContexts == texts.length) {
+      CharSequence[] newTexts = new CharSequence[texts.length * 2];
+      System.arraycopy(texts, 0, newTexts, 0, numContexts);
+      texts = newTexts;
+      textStarts = grow(textStarts, numContexts);
+      textLengths = grow(textLengths, numContexts);
+    }
+    texts[numContexts] = s;
+    textStarts[numContexts] = from;
+    textLengths[numContexts] = to - from;
+    numContexts++;
+    isIndexed = false;
+  }
+
+  public void clear() {
+    Arrays.fill(texts, 0, numContexts, null);
+    numContexts = 0;
+    numNodes = 0;
+    isIndexed = false;
+  }
+
+  /**
+   * Finds the IDs shared by a node of this array and a node of another array
+   * (which must have been given the same IDs)
+   * @param ids receives the common IDs in ascending order
+   * @return number of common IDs
+   */
+  public int getCommonIDs(int node, SuffixArray array, int node2, int[] ids) {
+    index();
+    array.index();
+    if (array.size(node2) < size(node))
+      return array.getCommonIDs(node2, this, node, ids);
+    int n = 0;
+    for (int k = starts[node]; k < ends[node]; k++)
+      if (array.contains(node2, suffixes[k]))
+        ids[n++] = suffixes[k];
+    Arrays.sort(ids, 0, n);
+    return n;
+  }
+
+  /**
+   * Finds the deepest nodes whose IDs share at least minType seeds
+   * with the IDs of some top node of the other array
+   * @param topNodes the top node of the other array for every ID (or NONE)
+   */
+  public List<TextNode> getDeepestNodes(int minType, int minLength, double minWeight, int[] topNodes) {
+    index();
+    List<TextNode> nodes = new ArrayList<TextNode>();
+    getDeepestNodes(ROOT, minType, minLength, minWeight, topNodes, NONE, nodes);
+    return nodes;
+  }
+
+  /**
+   * Finds the deepest nodes whose IDs share at least minType seeds
+   * with the IDs of the node matchNode of the other array
+   */
+  public List<TextNode> getDeepestNodes(int minType, int minLength, double minWeight, int matchNode) {
+    index();
+    List<TextNode> nodes = new ArrayList<TextNode>();
+    getDeepestNodes(ROOT, minType, minLength, minWeight, null, matchNode, nodes);
+    return nodes;
+  }
+
+  /**
+   * @return the length of context starting from the root node
+   */
+  public int getLength(int node) {
+    return lengths[node];
+  }
+
+  public int getNumContexts() {
+    return numContexts;
+  }
+
+  public PairedTrie getPairedTrie() {
+    return pairedTrie;
+  }
+
+  /**
+   * Returns the text represented by a node (including its ancestors)
+   */
+  public String getText(int node) {
+    int id = suffixes[starts[node]];
+    StringBuffer buf = new StringBuffer(lengths[node]);
+    for (int i = 0; i < lengths[node]; i++)
+      buf.append(charAt(id, i));
+    return buf.toString();
+  }
+
+  /**
+   * Returns for every ID the top node (whose length is at least minLength)
+   * that it belongs to, or NONE if it does not belong to any
+   */
+  public int[] getTopNodes(int minLength) {
+    index();
+    int[] topNodes = new int[numContexts];
+    Arrays.fill(topNodes, NONE);
+    getTopNodes(ROOT, minLength, topNodes);
+    return topNodes;
+  }
+
+  public boolean isEmpty() {
+    index();
+    return firstChildren[ROOT] == NONE;
+  }
+
+  public void setPairedTrie(PairedTrie pairedTrie) {
+    this.pairedTrie = pairedTrie;
+  }
+
+  /**
+   * @return number of IDs that pass through the node
+   */
+  public int size(int node) {
+    index();
+    return ends[node] - starts[node];
+  }
+
+  private void appendChild(int node, int child) {
+    if (firstChildren[node] == NONE)
+      firstChildren[node] = child;
+    else nextSiblings[lastChildren[node]] = child;
+    lastChildren[node] = child;
+  }
+
+  private char charAt(int id, int i) {
+    if (isReversed)
+      return texts[id].charAt(textStarts[id] + textLengths[id] - 1 - i);
+    return texts[id].charAt(textStarts[id] + i);
+  }
+
+  // compares two contexts, or returns their common prefix length if lcp is true
+  private int compare(int id1, int id2, boolean lcp) {
+    int n = Math.min(textLengths[id1], textLengths[id2]);
+    for (int i = 0; i < n; i++) {
+      char c1 = charAt(id1, i), c2 = charAt(id2, i);
+      if (c1 != c2) return lcp ? i : c1 - c2;
+    }
+    return lcp ? n : textLengths[id1] - textLengths[id2];
+  }
+
+  private boolean contains(int node, int id) {
+    int rank = ranks[id];
+    return rank >= starts[node] && rank < ends[node];
+  }
+
+  private void getDeepestNodes(int node, int minType, int minLength, double minWeight,
+                               int[] topNodes, int matchNode, List<TextNode> nodes) {
+    boolean passedAtLeastOnce = false;
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+      if (topNodes != null) {
+        if (!matches(child, minType, minWeight, topNodes)) continue;
+      } else if (!matches(child, minType, minWeight, matchNode)) continue;
+      getDeepestNodes(child, minType, minLength, minWeight, topNodes, matchNode, nodes);
+      passedAtLeastOnce = true;
+    }
+    if (!passedAtLeastOnce && lengths[node] >= minLength && !isOnlySpace(node))
+      nodes.add(new TextNode(getText(node), node));
+  }
+
+  private void getTopNodes(int node, int minLength, int[] topNodes) {
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+      if (lengths[child] >= minLength && !isOnlySpace(child)) {
+        for (int k = starts[child]; k < ends[child]; k++)
+          topNodes[suffixes[k]] = child;
+      } else getTopNodes(child, minLength, topNodes);
+    }
+  }
+
+  private static int[] grow(int[] array, int size) {
+    int[] newArray = new int[Math.max(array.length * 2, size)];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
+  }
+
+  /**
+   * Sorts the contexts and builds the tree of LCP intervals
+   */
+  private void index() {
+    if (isIndexed) return;
+    if (suffixes.length < numContexts) {
+      suffixes = new int[texts.length];
+      ranks = new int[texts.length];
+      lcps = new int[texts.length];
+      buffer = new int[texts.length];
+    }
+    for (int i = 0; i < numContexts; i++)
+      suffixes[i] = i;
+    sort(0, numContexts);
+    for (int r = 0; r < numContexts; r++) {
+      ranks[suffixes[r]] = r;
+      lcps[r] = (r == 0) ? 0 : compare(suffixes[r-1], suffixes[r], true);
+    }
+
+    // at most one leaf and one branching node per context
+    int capacity = numContexts * 2 + 1;
+    if (starts.length < capacity) {
+      starts = new int[capacity];
+      ends = new int[capacity];
+      lengths = new int[capacity];
+      firstChildren = new int[capacity];
+      lastChildren = new int[capacity];
+      nextSiblings = new int[capacity];
+      stack = new int[capacity];
+    }
+    numNodes = 0;
+    int top = 0;
+    stack[top] = newNode(0, 0);
+
+    // keeps the right-most path of the tree in 'stack'
+    for (int r = 0; r < numContexts; r++) {
+      int lcp = lcps[r], popped = NONE;
+      while (lengths[stack[top]] > lcp) {
+        popped = stack[top--];
+        ends[popped] = r;
+      }
+      if (lengths[stack[top]] < lcp) {
+        // moves the popped node under a new node at 'lcp', which takes its place
+        int node = newNode(starts[popped], lengths[popped]);
+        ends[node] = ends[popped];
+        firstChildren[node] = firstChildren[popped];
+        lastChildren[node] = lastChildren[popped];
+        lengths[popped] = lcp;
+        firstChildren[popped] = lastChildren[popped] = node;
+        stack[++top] = popped;
+      }
+      int length = textLengths[suffixes[r]];
+      if (length > lcp) {
+        int leaf = newNode(r, length);
+        appendChild(stack[top], leaf);
+        stack[++top] = leaf;
+      }
+    }
+    while (top >= 0)
+      ends[stack[top--]] = numContexts;
+    isIndexed = true;
+  }
+
+  private boolean isOnlySpace(int node) {
+    return lengths[node] == 1 && charAt(suffixes[starts[node]], 0) == ' ';
+  }
+
+  // matches against the top nodes of the other array
+  private boolean matches(int node, int minType, double minWeight, int[] topNodes) {
+    if (size(node) < PairedTrie.MIN_TYPES)
+      return false;
+    SuffixArray array = pairedTrie.getOtherArray(this);
+    int n = 0;
+    for (int k = starts[node]; k < ends[node]; k++) {
+      int id = suffixes[k];
+      int topNode = topNodes[id];
+      if (topNode == NONE || array.size(topNode) < PairedTrie.MIN_TYPES) continue;
+      buffer[n++] = id;
+    }
+    // groups the IDs by their top nodes
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = ((long) topNodes[buffer[i]] << 32) | buffer[i];
+    Arrays.sort(keys);
+    for (int i = 0, j; i < n; i = j) {
+      long topNode = keys[i] >>> 32;
+      for (j = i; j < n && (keys[j] >>> 32) == topNode; j++)
+        buffer[j-i] = (int) keys[j];
+      Set<Entity> entities = pairedTrie.getCommons(buffer, j-i);
+      if (entities == null || entities.size() < minType) continue;
+      if (pairedTrie.sumWeight(entities) < minWeight) continue;
+      return true;
+    }
+    return false;
+  }
+
+  // matches against a node of the other array
+  private boolean matches(int node, int minType, double minWeight, int matchNode) {
+    if (size(node) < PairedTrie.MIN_TYPES ||
+        pairedTrie.getOtherArray(this).size(matchNode) < PairedTrie.MIN_TYPES)
+      return false;
+    Set<Entity> entities = pairedTrie.getCommons(this, node, matchNode);
+    if (entities == null || entities.size() < minType) return false;
+    return pairedTrie.sumWeight(entities) >= minWeight;
+  }
+
+  private int newNode(int start, int length) {
+    starts[numNodes] = start;
+    ends[numNodes] = start;
+    lengths[numNodes] = length;
+    firstChildren[numNodes] = NONE;
+    lastChildren[numNodes] = NONE;
+    nextSiblings[numNodes] = NONE;
+    return numNodes++;
+  }
+
+  // stable merge sort of suffixes[from..to)
+  private void sort(int from, int to) {
+    if (to - from < 2) return;
+    int mid = (from + to) >>> 1;
+    sort(from, mid);
+    sort(mid, to);
+    if (compare(suffixes[mid-1], suffixes[mid], false) <= 0) return;
+    System.arraycopy(suffixes, from, buffer, from, to - from);
+    for (int i = from, j = mid, k = from; k < to; k++) {
+      if (j >= to || (i < mid && compare(buffer[i], buffer[j], false) <= 0))
+        suffixes[k] = buffer[i++];
+      else suffixes[k] = buffer[j++];
+    }
+  }
+}
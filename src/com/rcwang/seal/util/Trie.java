@@ -5,359 +5,449 @@
 package com.rcwang.seal.util;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
 import com.rcwang.seal.expand.Entity;
 
-public class Trie implements Iterable<Trie.TrieNode> {
-  
+/**
+ * A compact (radix) trie whose nodes are stored in primitive arrays.
+ * A node is referred to by its index; the root node is always 0.
+ *
+ * The label of every node is an (offset, length) pair into a character
+ * arena, so splitting a node never copies any text. Since every inserted
+ * String ends at exactly one node, the IDs of a node are those ending in
+ * its subtree; after a depth-first numbering they occupy a contiguous range
+ * of one array, which makes counting and membership tests constant-time.
+ *
+ * All arrays are reused by {@link #clear()}.
+ */
+public class Trie {
+
   // a pair of text (String) and trie node
   public static class TextNode {
     public String text;
-    public TrieNode node;
-    
-    public TextNode(String text, TrieNode node) {
+    public int node;
+
+    public TextNode(String text, int node) {
       this.text = text;
       this.node = node;
     }
   }
-  
-  public static class TrieNode {
-    // the text represented by this node
-    public String text;
-    // the chars split out from this node
-    public String letters;
-    // the nodes that the chars split to
-    public List<TrieNode> children;
-    // the IDs of contextual pairs
-    public Set<Integer> ids;
-    // the length of context starting from the root node
-    public int length = 0;
-    // number of types passes through this node
-    // can only be set using finalize()
-//   public int numTypes = 0;
-    
-    public TrieNode(String substr) {
-      this.text = substr;
-      letters = "";
-      children = new LinkedList<TrieNode>();
-      ids = new TreeSet<Integer>();
-    }
-    
-    public TrieNode(String substr, int id) {
-      this(substr);
-      ids.add(id);
-    }
-    
-    @Override
-    public String toString() {
-      StringBuffer buf = new StringBuffer();
-      buf.append(text.replaceAll("\\s", " ")).append(" [");
-      for (int i : ids)
-        buf.append(i).append(",");
-      buf.setLength(buf.length()-1);
-      buf.append("] (").append(length).append(")");
-      return buf.toString();
-    }
-  }
-  
+
   public static Logger log = Logger.getLogger(Trie.class);
-  /*public static final int MIN_TYPES = 2;  // minimum number of seeds
-  public static final int MIN_LENGTH = 1; // minimum context (left or right) length
-  public static final double MIN_WEIGHT = 0;  // minimum weight
-*/
+  public static final int ROOT = 0;
+  public static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 256;
+
+  // the text represented by each node (offset and length in 'chars')
+  private int[] textStarts;
+  private int[] textLengths;
+  // the length of context starting from the root node
+  private int[] lengths;
+  // children of each node as a linked list (in insertion order)
+  private int[] firstChildren;
+  private int[] lastChildren;
+  private int[] nextSiblings;
+  // IDs ending at each node as a linked list
+  private int[] firstEnds;
+  private int[] nextEnds;
+  private int[] endIDs;
+  private int numNodes;
+  private int numEnds;
+
+  // character arena for node labels
+  private char[] chars;
+  private int numChars;
+
+  // depth-first numbering: IDs of node i are idOrder[idStarts[i]..idEnds[i])
+  private int[] idStarts;
+  private int[] idEnds;
+  private int[] idOrder;
+  // position of each ID in 'idOrder'
+  private int[] idPositions;
+  private int lastID;
+  private boolean isIndexed;
+
   private StringBuffer buf;
-  private TrieNode root;
   private PairedTrie pairedTrie;
-  
+
   public static void main(String args[]) {
     long startTime = System.currentTimeMillis();
     Trie t = new Trie();
-//    t.add("abcdefghijklmnopqrstuvwxyz.rich");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richard");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richrd");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richar");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richad");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richa+rd");
-//    t.add("abcdefghijklmnopqrstuvwxyz.richa*d");
-    
+
     t.add("rich", 0);
-    t.add("abc", 0);
-    t.add("123", 0);
-
-    t.add("richard", 1);
-    t.add("abcdefg", 1);
-    t.add("1234567", 1);
-
-    t.add("abcdefg", 2);
-    t.add("richwang", 2);
-    t.add("123579", 2);
-    
-    t.add("zsfasdf", 3);
-    
-    /*List<TextNode> textNodes = t.getCommonString(-1, 3);
-    for (TextNode textNode : textNodes)
-      log.info(textNode.text);*/
-    
+    t.add("abc", 1);
+    t.add("123", 2);
+
+    t.add("richard", 3);
+    t.add("abcdefg", 4);
+    t.add("1234567", 5);
+
+    t.add("abcdefg", 6);
+    t.add("richwang", 7);
+    t.add("123579", 8);
+
+    t.add("zsfasdf", 9);
+
     log.info(t);
-    
+
     Helper.printMemoryUsed();
     Helper.printElapsedTime(startTime);
   }
 
-  private static void append(TrieNode node, String substr, int id) {
-    TrieNode newNode = new TrieNode(substr, id);
-    newNode.length = node.length + substr.length();
-    node.children.add(newNode);
-    node.letters += newNode.text.charAt(0);
-  }
-  
-  // get the left-most index of where s1 and s2's characters differ
-  private static int getDiffPosition(String s1, String s2) {
-    int i, length = Math.min(s1.length(), s2.length());
-    for (i = 0; i < length; i++)
-      if (s1.charAt(i) != s2.charAt(i))
-        return i;
-    return i;
-  }
-  
-  // inserts a String s into node with an assigned id
-  private static void insert(TrieNode node, String s, int id) {
-    int pos = getDiffPosition(node.text, s);
-    
-    if (pos == node.text.length()) {
-      node.ids.add(id);
-      if (pos == s.length()) return;
-      int index = node.letters.indexOf(s.charAt(pos));
-      if (index == -1) {
-        // node doesn't have the child, so create one
-        append(node, s.substring(pos), id);
-      } else {
-        // node has the child, so follow it
-        insert(node.children.get(index), s.substring(pos), id);
-      }
-    } else { // must split this node
-      // copy stuff over from this node to splitNode
-      TrieNode splitNode = new TrieNode(node.text.substring(pos));
-      splitNode.ids.addAll(node.ids);
-      splitNode.children.addAll(node.children);
-      splitNode.letters = node.letters;
-      splitNode.length = node.length;
-
-      // reset this node
-      node.letters = Character.toString(node.text.charAt(pos));
-      node.children.clear();
-      node.children.add(splitNode);
-      node.length -= node.text.length()-pos;
-      node.text = node.text.substring(0, pos);
-      node.ids.add(id);
-
-      if (pos < s.length())
-        append(node, s.substring(pos), id);
-    }
-  }
-  
   public Trie() {
-    root = new TrieNode("");
+    textStarts = new int[INITIAL_CAPACITY];
+    textLengths = new int[INITIAL_CAPACITY];
+    lengths = new int[INITIAL_CAPACITY];
+    firstChildren = new int[INITIAL_CAPACITY];
+    lastChildren = new int[INITIAL_CAPACITY];
+    nextSiblings = new int[INITIAL_CAPACITY];
+    firstEnds = new int[INITIAL_CAPACITY];
+    idStarts = new int[INITIAL_CAPACITY];
+    idEnds = new int[INITIAL_CAPACITY];
+    nextEnds = new int[INITIAL_CAPACITY];
+    endIDs = new int[INITIAL_CAPACITY];
+    idOrder = new int[INITIAL_CAPACITY];
+    idPositions = new int[INITIAL_CAPACITY];
+    chars = new char[INITIAL_CAPACITY * 16];
     buf = new StringBuffer();
+    clear();
   }
-  
+
   /**
-   * Inserts a String s into this trie with a type
+   * Inserts a String s into this trie with an ID
    * @param s a String
-   * @param type some type
+   * @param id must be greater than any previously inserted ID
    */
-  public void add(String s, int id) {
+  public void add(CharSequence s, int id) {
     if (s == null)
       throw new IllegalArgumentException("Input string cannot be null!");
-    insert(root, s, id);
+    add(s, 0, s.length(), false, id);
   }
-  
+
   /**
-   * Aassign each node the number of types it belongs to
+   * Inserts the characters s[from..to) into this trie with an ID,
+   * or the characters s[to-1] down to s[from] if isReversed is true
+   * @param id must be greater than any previously inserted ID
    */
-  /*public void assignNumTypes() {
-    assignNumTypes(root);
-  }*/
-  
+  public void add(CharSequence s, int from, int to, boolean isReversed, int id) {
+    if (id <= lastID)
+      throw new IllegalArgumentException("IDs must be inserted in increasing order!");
+    lastID = id;
+    isIndexed = false;
+
+    int node = ROOT, i = 0, n = to - from;
+    while (true) {
+      // get the left-most index of where the node and s differ
+      int start = textStarts[node], length = textLengths[node], pos = 0;
+      while (pos < length && i+pos < n &&
+             chars[start+pos] == charAt(s, from, to, isReversed, i+pos))
+        pos++;
+
+      if (pos < length) {
+        // must split this node
+        split(node, pos);
+        if (i+pos < n)
+          append(node, s, from, to, isReversed, i+pos, id);
+        else addEnd(node, id);
+        return;
+      }
+      i += pos;
+      if (i == n) {
+        addEnd(node, id);
+        return;
+      }
+      int child = getChild(node, charAt(s, from, to, isReversed, i));
+      if (child == NONE) {
+        // node doesn't have the child, so create one
+        append(node, s, from, to, isReversed, i, id);
+        return;
+      }
+      // node has the child, so follow it
+      node = child;
+    }
+  }
+
   public void clear() {
-    root = new TrieNode("");
+    numNodes = 0;
+    numEnds = 0;
+    numChars = 0;
+    lastID = -1;
+    isIndexed = false;
+    newNode(0, 0, 0);
     buf.setLength(0);
   }
-  
-  /**
-   * Get longest common Strings that belong to at least minType types
-   * @param minType minimum number of types the returned Strings should belong to
-   * @return a list of TextNode objects
-   */
-  /*public List<TextNode> getCommonString(int minType, int minLength, double minWeight) {
-    return getCommonString(minType, minLength, minWeight, null);
-  }*/
-  
+
   /**
-   * Similar to {@link #getCommonString(int, int, double)}, except constrained by ids
-   * @param minType minimum number of types the returned Strings should belong to
-   * @param ids constrains the number of types that each node belongs to
-   * @return a list of TextNode objects
+   * Finds the IDs shared by a node of this trie and a node of another trie
+   * (which must have been given the same IDs)
+   * @param ids receives the common IDs in ascending order
+   * @return number of common IDs
    */
-  /*public List<TextNode> getCommonString(int minType, int minLength, double minWeight, Set<Integer> ids) {
-    buf.setLength(0);
-    minType = Math.max(minType, MIN_TYPES);
-    minLength = Math.max(minLength, MIN_LENGTH);
-    minWeight = Math.max(minWeight, MIN_WEIGHT);
-    List<TextNode> textNodes = new ArrayList<TextNode>();
-    getCommonString(root, minType, minLength, minWeight, ids, textNodes);
-    return textNodes;
-  }*/
-
-  public List<TextNode> getDeepestNodes(int minType, int minLength, double minWeight, 
-                                        Collection<TrieNode> matchNodes) {
+  public int getCommonIDs(int node, Trie trie, int node2, int[] ids) {
+    index();
+    trie.index();
+    if (trie.size(node2) < size(node))
+      return trie.getCommonIDs(node2, this, node, ids);
+    int n = 0;
+    for (int k = idStarts[node]; k < idEnds[node]; k++)
+      if (trie.contains(node2, idOrder[k]))
+        ids[n++] = idOrder[k];
+    Arrays.sort(ids, 0, n);
+    return n;
+  }
+
+  public List<TextNode> getDeepestNodes(int minType, int minLength, double minWeight, int[] matchNodes) {
+    index();
     buf.setLength(0);
     List<TextNode> nodes = new ArrayList<TextNode>();
-    
-    /*log.debug("Given top nodes:");
-    for (TrieNode node : topNodes)
-      log.debug(node);*/
-    
-    getDeepestNodes(root, minType, minLength, minWeight, matchNodes, nodes);
+    getDeepestNodes(ROOT, minType, minLength, minWeight, matchNodes, nodes);
     return nodes;
   }
-  
+
   /**
-   * Returns a list of trie nodes for all nodes in this trie
-   * @return
+   * @return the length of context starting from the root node
    */
-  public List<TrieNode> getNodes() {
-    List<TrieNode> nodes = new ArrayList<TrieNode>();
-    getNodes(root, nodes);
-    return nodes;
+  public int getLength(int node) {
+    return lengths[node];
+  }
+
+  public int getNumNodes() {
+    return numNodes;
   }
-  
+
   public PairedTrie getPairedTrie() {
     return pairedTrie;
   }
-  
-  public TrieNode getRoot() {
-    return root;
-  }
-  
-  /*private void assignNumTypes(TrieNode node) {
-    node.numTypes = numTypes(node.ids);
-    for (TrieNode child : node.children)
-      assignNumTypes(child);
-  }*/
-  
+
+  public int getRoot() {
+    return ROOT;
+  }
+
+  /**
+   * Returns the text represented by a node (not including its ancestors)
+   */
+  public String getText(int node) {
+    return new String(chars, textStarts[node], textLengths[node]);
+  }
+
   /**
    * Returns the top nodes whose length is at least minLength
    * @param minLength
    * @return
    */
-  public List<TrieNode> getTopNodes(int minLength) {
-    List<TrieNode> nodes = new ArrayList<TrieNode>();
-    getTopNodes(root, minLength, nodes);
-    return nodes;
+  public int[] getTopNodes(int minLength) {
+    index();
+    int[] nodes = new int[numNodes];
+    int n = getTopNodes(ROOT, minLength, nodes, 0);
+    int[] topNodes = new int[n];
+    System.arraycopy(nodes, 0, topNodes, 0, n);
+    return topNodes;
   }
-  
+
   public boolean isEmpty() {
-    return root.letters.length() == 0;
+    return firstChildren[ROOT] == NONE;
   }
-  
-  public Iterator<TrieNode> iterator() {
-    return getNodes().iterator();
-  }
-  
+
   public void setPairedTrie(PairedTrie pairedTrie) {
     this.pairedTrie = pairedTrie;
   }
-  
+
+  /**
+   * @return number of IDs that pass through the node
+   */
+  public int size(int node) {
+    index();
+    return idEnds[node] - idStarts[node];
+  }
+
   public String toString() {
-//    assignNumTypes();
+    index();
     buf.setLength(0);
-    print(root, 0);
+    print(ROOT, 0);
     return buf.toString();
   }
 
-  private void getDeepestNodes(TrieNode node, int minType, int minLength, double minWeight, 
-                               Collection<TrieNode> matchNodes, Collection<TextNode> nodes) {
+  private void addEnd(int node, int id) {
+    if (numEnds == endIDs.length) {
+      endIDs = grow(endIDs);
+      nextEnds = grow(nextEnds);
+    }
+    endIDs[numEnds] = id;
+    nextEnds[numEnds] = firstEnds[node];
+    firstEnds[node] = numEnds++;
+  }
+
+  private void append(int node, CharSequence s, int from, int to, boolean isReversed, int i, int id) {
+    int n = to - from - i;
+    if (numChars + n > chars.length) {
+      char[] newChars = new char[Math.max(chars.length * 2, numChars + n)];
+      System.arraycopy(chars, 0, newChars, 0, numChars);
+      chars = newChars;
+    }
+    for (int j = 0; j < n; j++)
+      chars[numChars+j] = charAt(s, from, to, isReversed, i+j);
+    int newNode = newNode(numChars, n, lengths[node] + n);
+    numChars += n;
+    appendChild(node, newNode);
+    addEnd(newNode, id);
+  }
+
+  private void appendChild(int node, int child) {
+    if (firstChildren[node] == NONE)
+      firstChildren[node] = child;
+    else nextSiblings[lastChildren[node]] = child;
+    lastChildren[node] = child;
+  }
+
+  private static char charAt(CharSequence s, int from, int to, boolean isReversed, int i) {
+    return isReversed ? s.charAt(to-1-i) : s.charAt(from+i);
+  }
+
+  private boolean contains(int node, int id) {
+    if (id >= idPositions.length) return false;
+    int pos = idPositions[id];
+    return pos >= idStarts[node] && pos < idEnds[node];
+  }
+
+  private void getDeepestNodes(int node, int minType, int minLength, double minWeight,
+                               int[] matchNodes, List<TextNode> nodes) {
     boolean passedAtLeastOnce = false;
-    for (TrieNode child : node.children) {
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
       if (!matches(child, minType, minWeight, matchNodes)) continue;
-      buf.append(child.text);
+      buf.append(chars, textStarts[child], textLengths[child]);
       getDeepestNodes(child, minType, minLength, minWeight, matchNodes, nodes);
-      buf.setLength(buf.length()-child.text.length());
+      buf.setLength(buf.length()-textLengths[child]);
       passedAtLeastOnce = true;
     }
-    if (!passedAtLeastOnce && node.length >= minLength && !isOnlySpace(node))
+    if (!passedAtLeastOnce && lengths[node] >= minLength && !isOnlySpace(node))
       nodes.add(new TextNode(buf.toString(), node));
   }
-  
-  private void getNodes(TrieNode node, List<TrieNode> nodes) {
-    for (TrieNode child : node.children) {
-      nodes.add(node);
-      getNodes(child, nodes);
-    }
+
+  private int getChild(int node, char c) {
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child])
+      if (chars[textStarts[child]] == c)
+        return child;
+    return NONE;
   }
-  
-  private void getTopNodes(TrieNode node, int minLength, List<TrieNode> nodes) {
-    for (TrieNode child : node.children) {
-      if (child.length >= minLength && !isOnlySpace(child))
-        nodes.add(child);
-      else getTopNodes(child, minLength, nodes);
+
+  private int getTopNodes(int node, int minLength, int[] nodes, int n) {
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+      if (lengths[child] >= minLength && !isOnlySpace(child))
+        nodes[n++] = child;
+      else n = getTopNodes(child, minLength, nodes, n);
     }
+    return n;
   }
-  
-  private static boolean isOnlySpace(TrieNode node) {
-    return node.length == 1 && node.text.equals(" ");
+
+  private static int[] grow(int[] array) {
+    int[] newArray = new int[array.length * 2];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
   }
-  
-  /*private void getCommonString(TrieNode node, int minType, int minLength, double minWeight,
-                               Set<Integer> ids, List<TextNode> textNodes) {
-    boolean passedAtLeastOnce = false;
-    for (TrieNode child : node.children) {
-      Set<Entity> entities = pairedTrie.getCommonTypes(child.ids, ids);
-      if (entities.size() < minType) continue;
-      if (pairedTrie.sumWeight(entities) < minWeight) continue;
-      buf.append(child.text);
-      getCommonString(child, minType, minLength, minWeight, ids, textNodes);
-      buf.setLength(buf.length()-child.text.length());
-      passedAtLeastOnce = true;
+
+  /**
+   * Assigns each node the range of IDs in its subtree (depth-first order)
+   */
+  private void index() {
+    if (isIndexed) return;
+    if (idStarts.length < textStarts.length) {
+      idStarts = new int[textStarts.length];
+      idEnds = new int[textStarts.length];
+    }
+    if (idOrder.length < numEnds)
+      idOrder = new int[endIDs.length];
+    if (idPositions.length <= lastID)
+      idPositions = new int[Math.max(idPositions.length * 2, lastID + 1)];
+    index(ROOT, 0);
+    isIndexed = true;
+  }
+
+  private int index(int node, int n) {
+    idStarts[node] = n;
+    for (int end = firstEnds[node]; end != NONE; end = nextEnds[end]) {
+      idPositions[endIDs[end]] = n;
+      idOrder[n++] = endIDs[end];
     }
-    if (!passedAtLeastOnce && buf.length() >= minLength)
-      textNodes.add(new TextNode(buf.toString(), node));
-  }*/
-
-  private boolean matches(TrieNode node, int minType, double minWeight, 
-                          Collection<TrieNode> matchNodes) {
-    if (node == null || matchNodes == null || 
-        node.ids.size() < PairedTrie.MIN_TYPES)
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child])
+      n = index(child, n);
+    idEnds[node] = n;
+    return n;
+  }
+
+  private boolean isOnlySpace(int node) {
+    return lengths[node] == 1 && chars[textStarts[node]] == ' ';
+  }
+
+  private boolean matches(int node, int minType, double minWeight, int[] matchNodes) {
+    if (matchNodes == null || size(node) < PairedTrie.MIN_TYPES)
       return false;
-    for (TrieNode matchNode : matchNodes) {
-      if (matchNode.ids.size() < PairedTrie.MIN_TYPES) continue;
-      Set<Entity> entities = pairedTrie.getCommons(node.ids, matchNode.ids);
-//      log.debug("Matching " + node + " to " + matchNode + " (Entity size: " + entities.size() + ")");
+    for (int matchNode : matchNodes) {
+      if (pairedTrie.getOtherTrie(this).size(matchNode) < PairedTrie.MIN_TYPES) continue;
+      Set<Entity> entities = pairedTrie.getCommons(this, node, matchNode);
       if (entities == null || entities.size() < minType) continue;
       if (pairedTrie.sumWeight(entities) < minWeight) continue;
-//      log.debug("Matched!");
       return true;
     }
     return false;
   }
 
-  private void print(TrieNode node, int count) {
+  private int newNode(int textStart, int textLength, int length) {
+    if (numNodes == textStarts.length) {
+      textStarts = grow(textStarts);
+      textLengths = grow(textLengths);
+      lengths = grow(lengths);
+      firstChildren = grow(firstChildren);
+      lastChildren = grow(lastChildren);
+      nextSiblings = grow(nextSiblings);
+      firstEnds = grow(firstEnds);
+    }
+    textStarts[numNodes] = textStart;
+    textLengths[numNodes] = textLength;
+    lengths[numNodes] = length;
+    firstChildren[numNodes] = NONE;
+    lastChildren[numNodes] = NONE;
+    nextSiblings[numNodes] = NONE;
+    firstEnds[numNodes] = NONE;
+    return numNodes++;
+  }
+
+  private void print(int node, int count) {
     for (int i = 0; i < count; i++)
       buf.append("|");
-    buf.append(node).append("\n");
-    for (TrieNode child : node.children) {
-//      if (child.ids.size() >= PairedTrie.MIN_TYPES)
-        print(child, count + node.text.length());
-    }
+    buf.append(getText(node).replaceAll("\\s", " ")).append(" [");
+    int[] ids = new int[size(node)];
+    System.arraycopy(idOrder, idStarts[node], ids, 0, ids.length);
+    Arrays.sort(ids);
+    for (int id : ids)
+      buf.append(id).append(",");
+    buf.setLength(buf.length()-1);
+    buf.append("] (").append(lengths[node]).append(")\n");
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child])
+      print(child, count + textLengths[node]);
   }
-}
 
+  /**
+   * Splits a node at pos: the node keeps the first pos characters and
+   * a new child takes over the rest, including the node's children
+   */
+  private void split(int node, int pos) {
+    int rest = textLengths[node] - pos;
+    int splitNode = newNode(textStarts[node] + pos, rest, lengths[node]);
+    firstChildren[splitNode] = firstChildren[node];
+    lastChildren[splitNode] = lastChildren[node];
+    firstEnds[splitNode] = firstEnds[node];
+
+    // reset this node
+    textLengths[node] = pos;
+    lengths[node] -= rest;
+    firstChildren[node] = NONE;
+    lastChildren[node] = NONE;
+    firstEnds[node] = NONE;
+    appendChild(node, splitNode);
+  }
+}
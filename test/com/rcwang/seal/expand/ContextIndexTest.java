@@ -0,0 +1,35 @@
+package com.rcwang.seal.expand;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ContextIndexTest {
+
+    private static final String TEXT =
+        "<li><a href=\"/a\">ford</a></li>\n<li><a href=\"/b\">honda</a></li>\n" +
+        "<li><a href=\"/c\">kia</a></li>\n<p>aaaa</p>";
+
+    @Test
+    public void testSameAsIndexOf() {
+        List<String> strings = Arrays.asList("<li><a href=\"", "\">", "</a></li>", "li>", "aa", "\n");
+        ContextIndex index = new ContextIndex(strings);
+        index.index(TEXT);
+        for (String s : strings) {
+            for (int from = -1; from <= TEXT.length() + 1; from++)
+                assertEquals("Offsets differ for " + s + " from " + from, TEXT.indexOf(s, from), index.indexOf(s, from));
+            // going backwards after reaching the end
+            assertEquals(TEXT.indexOf(s), index.indexOf(s));
+        }
+    }
+
+    @Test
+    public void testUnknownString() {
+        ContextIndex index = new ContextIndex(Arrays.asList("ford"));
+        index.index(TEXT);
+        assertEquals(TEXT.indexOf("kia", 3), index.indexOf("kia", 3));
+        assertEquals(-1, index.indexOf("toyota"));
+    }
+}
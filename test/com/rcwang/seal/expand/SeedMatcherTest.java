@@ -0,0 +1,101 @@
+package com.rcwang.seal.expand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SeedMatcherTest {
+
+    private static final String TEXT =
+        "<li>U.S.A</li><li>u s a</li><li>Pamela's Pies</li><li>pamela_s  pies</li>" +
+        "<li>USA</li><li>Rock-n-Roll</li><li>rock n roll</li><li>rocknroll</li>";
+
+    @Test
+    public void testSameAsRegExp() {
+        EntityList seeds = new EntityList();
+        seeds.add("u.s.a");
+        seeds.add("pamela's pies");
+        seeds.add("rock-n-roll");
+        seeds.add("li");
+        SeedMatcher matcher = new SeedMatcher(seeds);
+        matcher.match(TEXT);
+
+        for (int i = 0; i < seeds.size(); i++) {
+            assertTrue("Seed should be compiled: " + seeds.get(i).getName(), matcher.isCompiled(i));
+            String re = "(?is:" + WrapperFactory.toEntityRE(seeds.get(i).getName().toString()) + ")";
+            Matcher m = Pattern.compile(re).matcher(TEXT);
+            List<Integer> expected = new ArrayList<Integer>();
+            while (m.find()) {
+                expected.add(m.start());
+                expected.add(m.end());
+            }
+            List<Integer> actual = new ArrayList<Integer>();
+            for (int j = 0; j < matcher.getNumMatches(i); j++) {
+                actual.add(matcher.getStart(i, j));
+                actual.add(matcher.getEnd(i, j));
+            }
+            assertFalse("Seed should occur: " + seeds.get(i).getName(), actual.isEmpty());
+            assertEquals("Offsets differ for " + seeds.get(i).getName(), expected, actual);
+        }
+    }
+
+    @Test
+    public void testRelationalNotCompiled() {
+        EntityList seeds = new EntityList();
+        seeds.add(new Entity("pittsburgh", "pennsylvania"));
+        SeedMatcher matcher = new SeedMatcher(seeds);
+        matcher.match(TEXT);
+        assertFalse("Relational seeds are left to regexp", matcher.isCompiled(0));
+    }
+
+    @Test
+    public void testRelationalSameAsRegExp() {
+        String text = "<tr><td>Pittsburgh</td><td>PA</td></tr><tr><td>pa</td><td>pittsburgh</td></tr>" +
+            "<tr><td>Pittsburgh pittsburgh</td><td>Pa</td></tr><tr><td>pittsburghpa</td></tr>";
+        EntityList seeds = new EntityList();
+        seeds.add(new Entity("pittsburgh", "pa"));
+        SeedMatcher matcher = new SeedMatcher(seeds, 256);
+        matcher.match(text);
+        assertTrue("Relational seed should be compiled", matcher.isCompiled(0));
+
+        String s1 = WrapperFactory.toEntityRE("pittsburgh");
+        String s2 = WrapperFactory.toEntityRE("pa");
+        String middle = "(?:(?!" + s1 + "|" + s2 + ").)+?";
+        String[] res = {"(?is:" + s1 + "(" + middle + ")" + s2 + ")", "(?is:" + s2 + "(" + middle + ")" + s1 + ")"};
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int k = 0; k < res.length; k++) {
+            Matcher m = Pattern.compile(res[k]).matcher(text);
+            while (m.find()) {
+                expected.add(m.start());
+                expected.add(m.end());
+                expected.add(m.start(1));
+                expected.add(m.end(1));
+                expected.add(k);
+            }
+        }
+        List<Integer> actual = new ArrayList<Integer>();
+        for (int j = 0; j < matcher.getNumMatches(0); j++) {
+            actual.add(matcher.getStart(0, j));
+            actual.add(matcher.getEnd(0, j));
+            actual.add(matcher.getMiddleStart(0, j));
+            actual.add(matcher.getMiddleEnd(0, j));
+            actual.add(matcher.isReversed(0, j) ? 1 : 0);
+        }
+        assertFalse("Relational seed should occur", actual.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testMaxMiddleLength() {
+        EntityList seeds = new EntityList();
+        seeds.add(new Entity("pittsburgh", "pa"));
+        SeedMatcher matcher = new SeedMatcher(seeds, 4);
+        matcher.match("pittsburgh, PA and pittsburgh is in pa");
+        assertEquals(1, matcher.getNumMatches(0));
+        assertEquals(12, matcher.getMiddleEnd(0, 0));
+    }
+}
@@ -0,0 +1,70 @@
+package com.rcwang.seal.expand;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TidyBufferTest {
+
+    private static final String ALPHABET =
+        "aAsSzZ09 \t\n\u000B\f\r \u0085_-'.,;!?<>/&·・、。ΣσİÄäÉ𝐀\uDC00";
+
+    // the regular expression based implementation that TidyBuffer replaces
+    private static String tidy(String s, boolean isCaseSensitive) {
+        if (s == null || s.length() == 0) return s;
+        if (isCaseSensitive)
+            s = s.replaceAll("[\\s_]+", " ");
+        else s = s.toLowerCase().replaceAll("[\\s_-]+", " ");
+        int startOffset = 0;
+        for (; startOffset < s.length(); startOffset++)
+            if (!isPunct(s.charAt(startOffset))) break;
+        int endOffset = s.length();
+        for (; endOffset > startOffset; endOffset--)
+            if (!isPunct(s.charAt(endOffset-1))) break;
+        return WrapperFactory.addApostrophe(s.substring(startOffset, endOffset));
+    }
+
+    private static boolean isPunct(char c) {
+        return WrapperFactory.PUNCT_PATTERN.matcher(Character.toString(c)).matches();
+    }
+
+    private static boolean checkSimpleContent(String s, int minContentLength) {
+        if (s.length() < minContentLength) return false;
+        if (s.length() > WrapperFactory.MAX_CONTENT_LENGTH) return false;
+        if (WrapperFactory.BAD_PATTERN.matcher(s).matches()) return false;
+        if (WrapperFactory.PUNCT_PATTERN.matcher(s).matches()) return false;
+        return true;
+    }
+
+    @Test
+    public void testSameAsRegExp() {
+        Random random = new Random(0);
+        TidyBuffer buf = new TidyBuffer();
+        for (int trial = 0; trial < 20000; trial++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(trial % 10 == 0 ? 80 : 12);
+            for (int i = 0; i < length; i++)
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            String s = sb.toString();
+            for (int k = 0; k < 2; k++) {
+                boolean isCaseSensitive = (k == 0);
+                String expected = tidy(s, isCaseSensitive);
+                assertEquals("tidy(\"" + s + "\", " + isCaseSensitive + ")", expected, WrapperFactory.tidy(s, isCaseSensitive));
+                String padded = "<b>" + s + "</b>";
+                assertEquals(expected, buf.tidy(padded, 3, padded.length() - 4, isCaseSensitive).toString());
+                assertEquals(checkSimpleContent(expected, k), TidyBuffer.checkSimpleContent(buf, k));
+            }
+        }
+    }
+
+    @Test
+    public void testPunct() {
+        for (char c = 0; c < 0x3100; c++)
+            assertEquals("isPunct('" + c + "')", isPunct(c), TidyBuffer.isPunct(c));
+        assertFalse(TidyBuffer.checkSimpleContent("a", 1));
+        assertFalse(TidyBuffer.checkSimpleContent("123", 1));
+        assertFalse(TidyBuffer.checkSimpleContent("-.", 1));
+        assertTrue(TidyBuffer.checkSimpleContent("pamela's pies", 2));
+    }
+}
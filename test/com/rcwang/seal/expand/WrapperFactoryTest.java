@@ -0,0 +1,194 @@
+package com.rcwang.seal.expand;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rcwang.seal.fetch.Document;
+import com.rcwang.seal.fetch.DocumentSet;
+import com.rcwang.seal.util.Originator;
+
+public class WrapperFactoryTest {
+
+    private static final String[] NAMES = {"mazda", "subaru", "kia"};
+
+    private static final int[] WRAPPER_LEVELS = {0, 11, 22, 33, 34, 44};
+
+    // only passes level 3 by its tag, which the shortened contexts of one seed lose
+    private static final String LONG_LEFT = "<p>The best selling cars of the year: ";
+
+    // left, middle (null if unary) and right contexts, and whether each of
+    // WRAPPER_LEVELS accepts them ('T') or not ('F')
+    private static final String[][] LEVEL_CONTEXTS = {
+        {"<li>", null, "</li>", "TTTTTT"},
+        {" \n<li> ", null, " </li>\n", "TTTTTT"},
+        {"a<b>", null, "</b>a", "TTTTTT"},
+        {"<a href=\"x\">", null, "</a>", "TTTTTT"},
+        {"<br/>", null, " <br/>", "TTTTTT"},
+        {"<b> x", null, "x </b>", "TTFTFF"},
+        {"<b>x", null, "x<i>y", "TTFTFF"},
+        {"<b>x", null, "</b>", "TTFTTF"},
+        {">", null, "<", "TTTFFF"},
+        {"x>", null, "<y", "TTTFFF"},
+        {"<>", null, "<>", "TTTFFF"},
+        {"a<b", null, "b>a", "TTFFFF"},
+        {"x", null, "y", "TFFFFF"},
+        {"  ", null, "\n", "TFFFFF"},
+        {"<tr><td>", " </td><td> ", "</td></tr>", "TTTTTT"},
+        {"<li>", "<b>", "</li>", "TTTTTT"},
+        {"<td>", "</b>: <b>", "</td>", "TTTTTT"},
+        {"<td>", "</b>:", "</td>", "TTFTTF"},
+        {"<li>", " (", ")</li>", "TFFFFF"},
+        {LONG_LEFT, null, "</p>", "TTFTTF"},
+        {LONG_LEFT.substring(LONG_LEFT.length() - 32), null, "</p>", "TFFFFF"},
+        {LONG_LEFT.substring(LONG_LEFT.length() - 16), null, "</p>", "TFFFFF"},
+    };
+
+    private static final String CARS = "<html><head><title>Cars</title></head><body>\n" +
+        "<ul>\n<li>Toyota (Japan)</li>\n<li>Honda (Japan)</li>\n<li>Ford (USA)</li>\n" +
+        "<li>Nissan (Japan)</li>\n<li>BMW (Germany)</li>\n</ul>\n" +
+        "<table>\n<tr><td>Japan</td><td>Toyota</td></tr>\n<tr><td>USA</td><td>Ford</td></tr>\n" +
+        "<tr><td>Germany</td><td>BMW</td></tr>\n<tr><td>Korea</td><td>Kia</td></tr>\n</table>\n" +
+        "<p>Best sellers: <b>Toyota</b>, <b>Kia</b> and <b>Mazda</b>. " +
+        "Most reliable: <b>Toyota</b>, <b>Subaru</b>.</p>\n</body></html>";
+
+    private static WrapperFactory newFactory() {
+        EntityList seeds = new EntityList();
+        seeds.add("Toyota");
+        seeds.add("Honda");
+        seeds.add("Nissan");
+        WrapperFactory factory = new WrapperFactory();
+        factory.setSeeds(seeds);
+        return factory;
+    }
+
+    // lists of the seeds and other names, each name written in a random case,
+    // under a paragraph of words that differ from document to document
+    private static DocumentSet newDocuments(int numDocs) throws Exception {
+        Random random = new Random(0);
+        DocumentSet documents = new DocumentSet();
+        for (int i = 0; i < numDocs; i++) {
+            StringBuilder buf = new StringBuilder("<html><p>");
+            for (int j = 0; j < 20; j++)
+                buf.append("word").append(i).append('x').append(j).append(' ');
+            buf.append("</p><ul>\n<li>Toyota</li>\n<li>Honda</li>\n<li>Nissan</li>\n");
+            for (String name : NAMES) {
+                buf.append("<li>");
+                for (char c : name.toCharArray())
+                    buf.append(random.nextBoolean() ? Character.toUpperCase(c) : c);
+                buf.append("</li>\n");
+            }
+            buf.append("</ul></html>");
+            documents.add(new Document(buf.toString(), new URL("http://www.example.com/" + i + ".html")));
+        }
+        return documents;
+    }
+
+    // wrappers with their contents, in a comparable form
+    private static List<String> build(EntityList seeds, boolean useSuffixArray) throws Exception {
+        WrapperFactory factory = new WrapperFactory();
+        factory.setSeeds(seeds);
+        factory.setUseSuffixArray(useSuffixArray);
+        List<String> strings = new ArrayList<String>();
+        for (Wrapper wrapper : factory.build(new Document(CARS, new URL("http://www.example.com/cars.html")))) {
+            List<String> contents = new ArrayList<String>();
+            for (Wrapper.EntityLiteral content : wrapper.getContents())
+                contents.add(content.toString());
+            Collections.sort(contents);
+            strings.add(wrapper + " " + contents);
+        }
+        Collections.sort(strings);
+        return strings;
+    }
+
+    private static List<String> getOriginals() {
+        List<String> originals = new ArrayList<String>();
+        for (String name : NAMES)
+            originals.add(Originator.getOriginals(name));
+        return originals;
+    }
+
+    @Test
+    public void testAddOriginals() throws Exception {
+        Originator.clear();
+        Document document = new Document("<html><ul>\n<li>Toyota</li>\n<li>Honda</li>\n<li>Nissan</li>\n" +
+            "<li>MAZDA</li>\n<li>Kia</li>\n</ul></html>", new URL("http://www.example.com/cars.html"));
+        Set<Wrapper> wrappers = newFactory().build(document);
+        assertFalse(wrappers.isEmpty());
+        // building leaves the originals in the wrappers
+        assertEquals(0, Originator.size());
+
+        WrapperFactory.addOriginals(document, wrappers);
+        assertEquals("MAZDA", Originator.getOriginal("mazda"));
+        for (Wrapper wrapper : wrappers)
+            assertTrue(wrapper.getOriginals().isEmpty());
+        Originator.clear();
+    }
+
+    @Test
+    public void testParallelSameAsSerial() throws Exception {
+        DocumentSet documents = newDocuments(40);
+        assertEquals(40, documents.size());
+        WrapperFactory factory = newFactory();
+        Originator.clear();
+        for (Document document : documents)
+            WrapperFactory.addOriginals(document, factory.build(document));
+        List<String> serial = getOriginals();
+
+        documents = newDocuments(40);
+        Originator.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Set<Wrapper>>> futures = factory.build(documents, executor, 4);
+        executor.shutdown();
+        for (int i = 0; i < documents.size(); i++)
+            WrapperFactory.addOriginals(documents.get(i), WrapperFactory.getWrappers(futures.get(i)));
+        assertEquals(serial, getOriginals());
+        Originator.clear();
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        EntityList unary = new EntityList();
+        unary.add("Toyota");
+        unary.add("Honda");
+        unary.add("Ford");
+        EntityList single = new EntityList();
+        single.add("Toyota");
+        EntityList relational = new EntityList();
+        relational.add(new Entity("Toyota", "Japan"));
+        relational.add(new Entity("Ford", "USA"));
+
+        for (boolean useSuffixArray : new boolean[] {false, true}) {
+            String engine = useSuffixArray ? "suffix array" : "trie";
+            assertEquals(engine, Arrays.asList("{> <li>[...] (} [bmw, ford, honda, nissan, toyota]"),
+                         build(unary, useSuffixArray));
+            // a context of one seed brackets fewer than PairedTrie.MIN_TYPES seeds
+            assertEquals(engine, Collections.<String>emptyList(), build(single, useSuffixArray));
+            assertEquals(engine, Arrays.asList(
+                "{> <li>[.1.]([.2.])</li> <li>} [ford::usa, honda::japan, nissan::japan, toyota::japan]",
+                "{> <tr><td>[.2.]</td><td>[.1.]</td></tr> <tr><td>} [bmw::germany, ford::usa, toyota::japan]"),
+                build(relational, useSuffixArray));
+        }
+    }
+
+    @Test
+    public void testMatch() {
+        for (String[] context : LEVEL_CONTEXTS) {
+            Wrapper wrapper = (context[1] == null) ? new Wrapper(context[0], context[2]) :
+                new Wrapper(context[0], new Wrapper.MiddleContext(context[1], false), context[2]);
+            for (int i = 0; i < WRAPPER_LEVELS.length; i++)
+                assertEquals(wrapper + " at level " + WRAPPER_LEVELS[i], context[3].charAt(i) == 'T',
+                             WrapperFactory.match(wrapper, WRAPPER_LEVELS[i]));
+        }
+    }
+}
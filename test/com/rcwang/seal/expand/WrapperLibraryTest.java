@@ -0,0 +1,96 @@
+package com.rcwang.seal.expand;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rcwang.seal.expand.Wrapper.EntityLiteral;
+import com.rcwang.seal.expand.Wrapper.MiddleContext;
+import com.rcwang.seal.fetch.Document;
+import com.rcwang.seal.util.Helper;
+import com.rcwang.seal.util.PairedTrie;
+
+public class WrapperLibraryTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "wrapperLibraryTest" + Helper.getUniqueID());
+        try {
+            WrapperLibrary library = new WrapperLibrary(dir);
+            Wrapper unary = new Wrapper("<li>\t", "</li>\n");
+            unary.setURL(new URL("http://www.example.com/cars.html"));
+            Wrapper binary = new Wrapper("<tr><td>", new MiddleContext("%</td><td>", true), "</td>");
+            binary.setURL(new URL("http://www.example.com/cities.html"));
+            assertTrue(library.add(unary));
+            assertTrue(library.add(binary));
+            assertFalse("Same contexts of the same host", library.add(unary));
+            library.save();
+
+            library = new WrapperLibrary(dir);
+            List<Wrapper> wrappers = library.getWrappers(new URL("http://www.example.com/cars.html"));
+            assertEquals("Only the wrappers of the same URL", 1, wrappers.size());
+            assertEquals(unary, wrappers.get(0));
+
+            wrappers = library.getWrappers(new URL("http://WWW.example.com/trucks.html"));
+            assertEquals("All wrappers of the same host", 2, wrappers.size());
+            Wrapper loaded = wrappers.get(1);
+            assertEquals(binary.getMiddleContext(), loaded.getMiddleContext());
+            assertEquals(binary.getLeft(), loaded.getLeft());
+            assertEquals(binary.getRight(), loaded.getRight());
+
+            assertTrue(library.getWrappers(new URL("http://www.example.org/cars.html")).isEmpty());
+        } finally {
+            Helper.recursivelyRemove(dir);
+        }
+    }
+
+    private static boolean extracts(Set<Wrapper> wrappers, String content) {
+        for (Wrapper wrapper : wrappers)
+            for (EntityLiteral literal : wrapper.getContents())
+                if (literal.toString().equalsIgnoreCase(content))
+                    return true;
+        return false;
+    }
+
+    @Test
+    public void testStaleWrapper() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "wrapperLibraryTest" + Helper.getUniqueID());
+        try {
+            // a stored wrapper that only extracts one of the seeds
+            WrapperLibrary library = new WrapperLibrary(dir);
+            Wrapper stale = new Wrapper("<b>", "</b>");
+            stale.setURL(new URL("http://www.example.com/old.html"));
+            library.add(stale);
+
+            EntityList seeds = new EntityList();
+            seeds.add("Toyota");
+            seeds.add("Honda");
+            seeds.add("Nissan");
+            WrapperFactory factory = new WrapperFactory();
+            factory.setMinSeedsBracketed(PairedTrie.BRACKET_ALL_SEEDS);
+            factory.setSeeds(seeds);
+            factory.setWrapperLibrary(library);
+            Document document = new Document("<html><b>Toyota</b> <b>Subaru</b>\n<ul>\n<li>Toyota</li>\n" +
+                "<li>Honda</li>\n<li>Nissan</li>\n<li>Mazda</li>\n<li>Kia</li>\n</ul></html>", new URL("http://www.example.com/new.html"));
+
+            // the stale wrapper does not prevent inducing a better one
+            Set<Wrapper> wrappers = factory.build(document);
+            assertTrue(extracts(wrappers, "Mazda"));
+            assertFalse(extracts(wrappers, "Subaru"));
+
+            // a stored wrapper that extracts every seed is applied without induction
+            Wrapper list = new Wrapper("<li>", "</li>");
+            list.setURL(new URL("http://www.example.com/old.html"));
+            library.add(list);
+            wrappers = factory.build(document);
+            assertEquals(1, wrappers.size());
+            assertTrue(extracts(wrappers, "Mazda"));
+        } finally {
+            Helper.recursivelyRemove(dir);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.rcwang.seal.fetch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CharsetSnifferTest {
+
+    private static byte[] bytes(String s, String encoding) throws Exception {
+        return s.getBytes(encoding);
+    }
+
+    @Test
+    public void testSniffBOM() throws Exception {
+        byte[] b = bytes("\uFEFF<html></html>", "UTF-8");
+        assertEquals("UTF-8", CharsetSniffer.sniffBOM(b, 0, b.length));
+        b = bytes("\uFEFF<html></html>", "UTF-16BE");
+        assertEquals("UTF-16", CharsetSniffer.sniffBOM(b, 0, b.length));
+        b = bytes("\uFEFF<html></html>", "UTF-16LE");
+        assertEquals("UTF-16", CharsetSniffer.sniffBOM(b, 0, b.length));
+        b = bytes("<html></html>", "UTF-8");
+        assertNull(CharsetSniffer.sniffBOM(b, 0, b.length));
+        assertNull(CharsetSniffer.sniffBOM(b, 0, 0));
+    }
+
+    @Test
+    public void testSniffMeta() throws Exception {
+        byte[] b = bytes("HTTP/1.1 200 OK\r\n\r\n<meta content=\"text/html; charset=Shift_JIS\">\u65E5\u672C", "Shift_JIS");
+        assertEquals("SHIFT_JIS", CharsetSniffer.sniffMeta(b, 19, b.length - 19));
+        // not searched beyond the length
+        assertNull(CharsetSniffer.sniffMeta(b, 19, 20));
+        // nor beyond the first bytes of the page
+        StringBuilder page = new StringBuilder("<html>");
+        while (page.length() < CharsetSniffer.SNIFF_SIZE)
+            page.append("<p>padding</p>");
+        page.append("<meta content=\"text/html; charset=big5\">");
+        b = bytes(page.toString(), "UTF-8");
+        assertNull(CharsetSniffer.sniffMeta(b, 0, b.length));
+    }
+
+    @Test
+    public void testHtmlEncode() throws Exception {
+        String page = "<html><meta content=\"text/html; charset=EUC-JP\">\u65E5\u672C</html>";
+        byte[] b = bytes(" " + page + "\n", "EUC-JP");
+        byte[] padded = new byte[b.length + 10];
+        System.arraycopy(b, 0, padded, 5, b.length);
+        assertEquals(page, MultiThreadFetcher.htmlEncode(0, padded, 5, b.length, "UTF-8"));
+        b = bytes("\uFEFF" + page, "UTF-16LE");
+        assertEquals(page, MultiThreadFetcher.htmlEncode(0, b, 0, b.length, null));
+        // falls back to UTF-8 when the encoding is not supported
+        b = bytes("\u00E9", "UTF-8");
+        assertEquals("\u00E9", MultiThreadFetcher.htmlEncode(0, b, 0, b.length, "NO-SUCH-ENCODING"));
+    }
+}
@@ -425,4 +425,70 @@ public class ClueWebSearcherTest {
 
         return searcher;
     }
+
+    private static final String[] PAGES = {
+        "<html><title>Makers</title><ul><li>Toyota</li><li>Honda</li><li>Nissan</li><li>Mazda</li></ul></html>",
+        "<html><title>Teams</title><ul><li>Steelers</li><li>Seahawks</li><li>Bears</li><li>Packers</li></ul></html>",
+        "<html><title>Cities</title><ul><li>Pittsburgh</li><li>Seattle</li><li>Chicago</li><li>Boston</li></ul></html>",
+    };
+
+    // a batch response in trec_eval format with full text: 2 documents for query 0, 1 for query 1
+    private static File writeResponse() throws IOException {
+        File file = File.createTempFile("clueweb-resp_", ".txt");
+        StringBuilder sb = new StringBuilder("header 1\nheader 2\nheader 3\nheader 4\n");
+        for (int i = 0; i < PAGES.length; i++) {
+            int query = (i < 2) ? 0 : 1;
+            sb.append(query).append(" Q0 clueweb09-en0000-00-0000").append(i).append(" ").append(i+1).append(" -2.5 indri\n");
+            sb.append("WARC/0.18\nWARC-Type: response\nWARC-Target-URI: http://example.com/page").append(i).append("\n");
+            sb.append("Content-Length: 200\n\nHTTP/1.1 200 OK\nContent-Type: text/html\n");
+            sb.append("Content-Length: ").append(PAGES[i].length()).append("\n\n");
+            sb.append(PAGES[i]).append("\n");
+        }
+        Helper.writeToFile(file, sb.toString());
+        return file;
+    }
+
+    private static ClueWebSearcher newOfflineSearcher() throws IOException {
+        File cacheDir = File.createTempFile("clueweb-cache_", "");
+        cacheDir.delete();
+        cacheDir.mkdir();
+        ClueWebSearcher s = new ClueWebSearcher();
+        s.setCacheDir(cacheDir);
+        s.setMemoryManagement(true);
+        return s;
+    }
+
+    @Test
+    public void testMemoryBudget() throws IOException {
+        ClueWebSearcher s = newOfflineSearcher();
+        s.setMemoryBudget(1024 * 1024);
+        s.buildSnippets(writeResponse());
+        assertEquals(2, s.getDocuments(0).size());
+        assertEquals(1, s.getDocuments(1).size());
+        assertEquals(2 * (PAGES[0].length() + PAGES[1].length() + PAGES[2].length() + 3), s.getMemoryUsed());
+
+        // only the first document fits, so query 0 is read back from the cache
+        s = newOfflineSearcher();
+        s.setMemoryBudget(2 * (PAGES[0].length() + 1));
+        s.buildSnippets(writeResponse());
+        assertTrue(s.getMemoryUsed() <= 2 * (PAGES[0].length() + 1));
+        DocumentSet documents = s.getDocuments(0);
+        assertEquals(2, documents.size());
+        for (Document document : documents)
+            assertTrue(document.getText().contains("</ul>"));
+        assertEquals(1, s.getDocuments(1).size());
+    }
+
+    @Test
+    public void testDocumentStream() throws IOException {
+        ClueWebSearcher s = newOfflineSearcher();
+        s.setMemoryBudget(0);
+        DocumentStream stream = new DocumentStream(PAGES.length);
+        s.setDocumentStream(stream);
+        s.buildSnippets(writeResponse());
+        stream.close();
+        for (int i = 0; i < PAGES.length; i++)
+            assertEquals("http://example.com/page" + i, stream.take().getURL().toString());
+        assertNull(stream.take());
+    }
 }
@@ -0,0 +1,101 @@
+package com.rcwang.seal.fetch;
+
+import java.net.URL;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DocumentSetTest {
+
+    private static final String LIST =
+        "<ul><li>Toyota</li><li>Honda</li><li>Nissan</li><li>Mazda</li><li>Subaru</li>" +
+        "<li>Ford</li><li>Chevrolet</li><li>Dodge</li><li>Chrysler</li><li>Buick</li>" +
+        "<li>Volkswagen</li><li>Audi</li><li>Porsche</li><li>Mercedes Benz</li><li>Volvo</li></ul>";
+
+    private static final String OTHER_LIST =
+        "<ul><li>Boston</li><li>Chicago</li><li>Denver</li><li>Seattle</li><li>Atlanta</li>" +
+        "<li>Houston</li><li>Phoenix</li><li>Dallas</li><li>Miami</li><li>Portland</li>" +
+        "<li>Austin</li><li>Detroit</li><li>Memphis</li><li>Nashville</li><li>Pittsburgh</li></ul>";
+
+    private static Document newDocument(String url, String text) throws Exception {
+        return new Document(text, new URL(url));
+    }
+
+    @Test
+    public void testSimHash() {
+        String page = "<html><body><h1>Car makers</h1>" + LIST + "</body></html>";
+        String mirror = "<HTML><BODY class=\"mirror\"><H2>car MAKERS</H2>" + LIST + "</BODY></HTML>";
+        assertEquals(0, SimHash.distance(SimHash.fingerprint(page), SimHash.fingerprint(mirror)));
+        long other = SimHash.fingerprint("<html><body><h1>Cities</h1>" + OTHER_LIST + "</body></html>");
+        assertTrue(SimHash.distance(SimHash.fingerprint(page), other) > 3);
+        assertEquals(0, SimHash.fingerprint("<html></html>"));
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        DocumentSet documents = new DocumentSet();
+        documents.setMaxNearDuplicateDistance(3);
+        Document original = newDocument("http://cars.com/makers", "<html><title>Car makers</title>" + LIST + "</html>");
+        documents.add(original);
+        // a mirror with different markup, and a copy with a word of its own
+        documents.add(newDocument("http://mirror.com/makers", "<html><body bgcolor=white><b>Car makers</b>" + LIST + "</body></html>"));
+        documents.add(newDocument("http://copy.com/makers", "<html><title>Car makers</title>" + LIST + "<p>Copied</p></html>"));
+        documents.add(newDocument("http://cities.com/", "<html><title>Cities</title>" + OTHER_LIST + "</html>"));
+        // the same URL is merged, not counted as a duplicate
+        documents.add(newDocument("http://cars.com/makers", "<html><title>Car makers</title>" + LIST + "</html>"));
+
+        assertEquals(2, documents.size());
+        assertTrue(original == documents.get(0));
+        assertEquals(3, original.getMultiplicity());
+        assertEquals(1, documents.get(1).getMultiplicity());
+    }
+
+    private static Document newDocument(String url, String text, int rank) throws Exception {
+        Document document = newDocument(url, text);
+        Snippet snippet = new Snippet();
+        snippet.setRank(rank);
+        document.setSnippet(snippet);
+        return document;
+    }
+
+    @Test
+    public void testRepresentative() throws Exception {
+        String page = "<html><title>Car makers</title>" + LIST + "</html>";
+        // the copy ranked highest is kept whatever the order the copies arrive in
+        for (int i = 0; i < 3; i++) {
+            Document[] copies = {newDocument("http://mirror.com/makers", page, 3),
+                                 newDocument("http://cars.com/makers", page, 1),
+                                 newDocument("http://copy.com/makers", page, 2)};
+            DocumentSet documents = new DocumentSet();
+            documents.setMaxNearDuplicateDistance(3);
+            // empty documents are kept, but are not near-duplicates of each other
+            assertTrue(documents.add(newDocument("http://empty.com/", " ")));
+            for (int j = 0; j < copies.length; j++)
+                documents.add(copies[(i + j) % copies.length]);
+            assertTrue(documents.add(newDocument("http://blank.com/", "")));
+            assertEquals(3, documents.size());
+            assertEquals("http://cars.com/makers", documents.get(1).getURL().toString());
+            assertEquals(3, documents.get(1).getMultiplicity());
+        }
+
+        // of equal ranks, the one of the smaller URL
+        DocumentSet documents = new DocumentSet();
+        documents.setMaxNearDuplicateDistance(3);
+        assertTrue(documents.add(newDocument("http://mirror.com/makers", page)));
+        assertTrue(documents.add(newDocument("http://cars.com/makers", page)));
+        assertFalse(documents.add(newDocument("http://copy.com/makers", page)));
+        assertEquals(1, documents.size());
+        assertEquals("http://cars.com/makers", documents.get(0).getURL().toString());
+        assertEquals(3, documents.get(0).getMultiplicity());
+    }
+
+    @Test
+    public void testKeepAll() throws Exception {
+        DocumentSet documents = new DocumentSet();
+        documents.setMaxNearDuplicateDistance(-1);
+        documents.add(newDocument("http://cars.com/makers", LIST));
+        documents.add(newDocument("http://mirror.com/makers", LIST));
+        assertEquals(2, documents.size());
+        assertEquals(1, documents.get(0).getMultiplicity());
+    }
+}
@@ -0,0 +1,47 @@
+package com.rcwang.seal.fetch;
+
+import java.net.URL;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DocumentStreamTest {
+
+    private static Document newDocument(int i) throws Exception {
+        return new Document("<html>" + i + "</html>", new URL("http://example.com/" + i));
+    }
+
+    @Test
+    public void testTakeInOrder() throws Exception {
+        final DocumentStream stream = new DocumentStream(2);
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 10; i++)
+                        assertTrue(stream.put(newDocument(i)));
+                } catch (Exception e) {
+                    fail(e.toString());
+                } finally {
+                    stream.close();
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < 10; i++)
+            assertEquals(newDocument(i).getURL(), stream.take().getURL());
+        assertNull(stream.take());
+        producer.join();
+        assertEquals(10, stream.getNumDocuments());
+    }
+
+    @Test
+    public void testCloseWhileFull() throws Exception {
+        DocumentStream stream = new DocumentStream(1);
+        assertTrue(stream.put(newDocument(0)));
+        stream.close();
+        // a closed stream drops new documents instead of waiting for room
+        assertFalse(stream.put(newDocument(1)));
+        assertEquals(newDocument(0).getURL(), stream.take().getURL());
+        assertNull(stream.take());
+    }
+}
@@ -0,0 +1,62 @@
+package com.rcwang.seal.fetch;
+
+import java.net.URL;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HostSchedulerTest {
+
+    @Test
+    public void testGap() throws Exception {
+        HostScheduler scheduler = new HostScheduler("(.+\\.)?example\\.com=1000", 5000);
+        URL a = new URL("http://www.example.com/a");
+        URL b = new URL("http://example.com/b");
+        assertEquals(0, scheduler.acquire(a, 10000));
+        assertEquals(400, scheduler.acquire(a, 10600));
+        // each host has its own bucket
+        assertEquals(0, scheduler.acquire(b, 10600));
+        assertEquals(0, scheduler.acquire(a, 11000));
+        assertEquals(1000, scheduler.acquire(a, 11000));
+        // hosts matching no rule are not limited
+        URL other = new URL("http://other.org/");
+        for (int i = 0; i < 10; i++)
+            assertEquals(0, scheduler.acquire(other, 10000));
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        HostScheduler scheduler = new HostScheduler("www\\.example\\.com=100:3, .*=1", 5000);
+        URL url = new URL("http://www.example.com/");
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, scheduler.acquire(url, 1000));
+        assertEquals(100, scheduler.acquire(url, 1000));
+        assertEquals(0, scheduler.acquire(url, 1100));
+        assertEquals(100, scheduler.acquire(url, 1100));
+        // the bucket refills up to the burst
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, scheduler.acquire(url, 5000));
+        assertTrue(scheduler.acquire(url, 5000) > 0);
+    }
+
+    @Test
+    public void testGoogle() throws Exception {
+        URL url = new URL("http://" + GoogleWebSearcher.HOST + "/search?q=a");
+        HostScheduler scheduler = new HostScheduler("", 5000);
+        assertEquals(0, scheduler.acquire(url, 0));
+        assertEquals(5000, scheduler.acquire(url, 0));
+        // unless limited by another rule
+        scheduler = new HostScheduler(".*\\.google\\.com=0", 5000);
+        assertEquals(0, scheduler.acquire(url, 0));
+        assertEquals(0, scheduler.acquire(url, 0));
+    }
+
+    @Test
+    public void testInvalidRule() {
+        try {
+            new HostScheduler("www.example.com", 5000);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.rcwang.seal.fetch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.*;
+
+public class MultiThreadFetcherTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private int port;
+    private boolean useConnectionPool;
+    // client ports of the requests, one per connection
+    private Set<Integer> ports = Collections.synchronizedSet(new HashSet<Integer>());
+    private List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+    // requests being answered, and the most answered at once, by host
+    private Map<String, Integer> running = new HashMap<String, Integer>();
+    private Map<String, Integer> maxRunning = new HashMap<String, Integer>();
+
+    private static byte[] encode(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private synchronized void begin(String host) {
+        Integer count = running.get(host);
+        count = (count == null) ? 1 : count + 1;
+        running.put(host, count);
+        Integer max = maxRunning.get(host);
+        if (max == null || count > max)
+            maxRunning.put(host, count);
+    }
+
+    private synchronized void end(String host) {
+        running.put(host, running.get(host) - 1);
+    }
+
+    private URL toURL(String host, String path) throws Exception {
+        return new URL("http://" + host + ":" + port + path);
+    }
+
+    // answers /gzip and /deflate in those encodings, /big and /chunked with 4KB
+    // (of known and unknown length), and anything else with its path; after the
+    // milliseconds given by "?ms=", or after 10 seconds if the path starts with /slow
+    @Before
+    public void setUp() throws Exception {
+        useConnectionPool = MultiThreadFetcher.isUseConnectionPool();
+        MultiThreadFetcher.setUseConnectionPool(true);
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String host = exchange.getRequestHeaders().getFirst("Host");
+                String path = exchange.getRequestURI().getPath();
+                String query = exchange.getRequestURI().getQuery();
+                paths.add(path);
+                ports.add(exchange.getRemoteAddress().getPort());
+                acceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                begin(host);
+                try {
+                    if (path.startsWith("/slow"))
+                        Thread.sleep(10000);
+                    else if (query != null && query.startsWith("ms="))
+                        Thread.sleep(Integer.parseInt(query.substring(3)));
+                    byte[] body = ("<html>" + path + "</html>").getBytes("US-ASCII");
+                    if (path.equals("/big") || path.equals("/chunked")) {
+                        body = new byte[4096];
+                        Arrays.fill(body, (byte) 'x');
+                    } else if (path.equals("/gzip") || path.equals("/deflate")) {
+                        body = encode(body, path.substring(1));
+                        exchange.getResponseHeaders().set("Content-Encoding", path.substring(1));
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "text/html");
+                    exchange.sendResponseHeaders(200, path.equals("/chunked") ? 0 : body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException e) {
+                    // the server is stopping
+                } finally {
+                    end(host);
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+        MultiThreadFetcher.setUseConnectionPool(useConnectionPool);
+    }
+
+    @Test
+    public void testThreadsPerHost() throws Exception {
+        for (boolean useConnectionPool : new boolean[] {false, true}) {
+            MultiThreadFetcher.setUseConnectionPool(useConnectionPool);
+            maxRunning.clear();
+            List<URL> urls = new ArrayList<URL>();
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < 6; i++) {
+                for (String host : new String[] {"127.0.0.1", "localhost"}) {
+                    urls.add(toURL(host, "/" + host + "/" + i + "?ms=200"));
+                    expected.add("<html>/" + host + "/" + i + "</html>");
+                }
+            }
+            assertEquals(expected, MultiThreadFetcher.fetch(urls, 5000, 0, 8, 2));
+            assertEquals(Integer.valueOf(2), maxRunning.get("127.0.0.1:" + port));
+            assertEquals(Integer.valueOf(2), maxRunning.get("localhost:" + port));
+        }
+    }
+
+    @Test
+    public void testTimeOut() throws Exception {
+        for (boolean useConnectionPool : new boolean[] {false, true}) {
+            MultiThreadFetcher.setUseConnectionPool(useConnectionPool);
+            // under other URLs each time, since the timed out ones are black listed
+            String suffix = useConnectionPool ? "/pooled" : "/direct";
+            List<URL> urls = Arrays.asList(toURL("127.0.0.1", "/slow" + suffix), toURL("127.0.0.1", "/fast" + suffix));
+            long startTime = System.currentTimeMillis();
+            List<String> docs = MultiThreadFetcher.fetch(urls, 1000, 0, 2, 2);
+            long time = System.currentTimeMillis() - startTime;
+            assertNull(docs.get(0));
+            assertEquals("<html>/fast" + suffix + "</html>", docs.get(1));
+            assertTrue("Returned after " + time + " ms", time < 3000);
+        }
+    }
+
+    @Test
+    public void testSkipped() throws Exception {
+        URL listed = toURL("127.0.0.1", "/listed");
+        URLBlackLister.addToList(listed);
+        List<URL> urls = Arrays.asList(null, new URL("ftp://127.0.0.1:" + port + "/ftp"), listed,
+                                       toURL("127.0.0.1", "/good"));
+        List<String> docs = MultiThreadFetcher.fetch(urls, 5000, 0, 4, 4);
+        assertEquals(Arrays.asList(null, null, null, "<html>/good</html>"), docs);
+        assertEquals(Arrays.asList("/good"), paths);
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        // the first URLs take the longest
+        List<URL> urls = new ArrayList<URL>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            urls.add(toURL("127.0.0.1", "/" + i + "?ms=" + (400 - i * 100)));
+            expected.add("<html>/" + i + "</html>");
+        }
+        assertEquals(expected, MultiThreadFetcher.fetch(urls, 5000, 0, 5, 5));
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        List<URL> urls = Arrays.asList(toURL("127.0.0.1", "/a"), toURL("127.0.0.1", "/b"), toURL("127.0.0.1", "/c"));
+        List<String> docs = MultiThreadFetcher.fetch(urls, 5000, 0, 1, 1);
+        assertEquals(Arrays.asList("<html>/a</html>", "<html>/b</html>", "<html>/c</html>"), docs);
+        // the connection is also kept across calls
+        docs = MultiThreadFetcher.fetch(Arrays.asList(toURL("127.0.0.1", "/d")), 5000, 0, 1, 1);
+        assertEquals("<html>/d</html>", docs.get(0));
+        assertEquals("Connections used: " + ports, 1, ports.size());
+    }
+
+    @Test
+    public void testContentEncoding() throws Exception {
+        List<URL> urls = Arrays.asList(toURL("127.0.0.1", "/gzip"), toURL("127.0.0.1", "/deflate"));
+        List<String> docs = MultiThreadFetcher.fetch(urls, 5000, 0, 2, 2);
+        assertEquals("<html>/gzip</html>", docs.get(0));
+        assertEquals("<html>/deflate</html>", docs.get(1));
+        for (String acceptEncoding : acceptEncodings) {
+            assertTrue(acceptEncoding.contains("gzip"));
+            assertTrue(acceptEncoding.contains("deflate"));
+        }
+    }
+
+    @Test
+    public void testMaxDocSize() throws Exception {
+        List<URL> urls = Arrays.asList(toURL("127.0.0.1", "/big"), toURL("127.0.0.1", "/chunked"), toURL("127.0.0.1", "/small"));
+        List<String> docs = MultiThreadFetcher.fetch(urls, 5000, 1, 2, 2);
+        assertNull("Larger than its content length allows", docs.get(0));
+        assertNull("Larger than its content allows", docs.get(1));
+        assertEquals("<html>/small</html>", docs.get(2));
+
+        // fits in a larger limit (under another URL, since the failed ones are black listed)
+        docs = MultiThreadFetcher.fetch(Arrays.asList(toURL("127.0.0.1", "/chunked?max=8")), 5000, 8, 1, 1);
+        assertEquals(4096, docs.get(0).length());
+    }
+}
@@ -0,0 +1,123 @@
+package com.rcwang.seal.fetch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.*;
+
+public class NonBlockingFetcherTest {
+
+    private static byte[] bytes(String s) throws Exception {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    @Test
+    public void testDechunk() throws Exception {
+        byte[] response = bytes("xx5\r\nhello\r\nB;name=value\r\n, world!...\r\n0\r\nTrailer: x\r\n\r\n");
+        assertEquals("hello, world!...", new String(NonBlockingFetcher.dechunk(response, 2, response.length), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testDechunkIncomplete() throws Exception {
+        byte[] response = bytes("5\r\nhello\r\n6\r\n, wor");
+        assertNull(NonBlockingFetcher.dechunk(response, 0, response.length));
+        response = bytes("5\r\nhello\r\n");
+        assertNull(NonBlockingFetcher.dechunk(response, 0, response.length));
+    }
+
+    @Test
+    public void testToDocument() throws Exception {
+        String html = "<html><body>café</body></html>";
+        byte[] body = html.getBytes("UTF-8");
+        byte[] header = bytes("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n" +
+                              "Content-Length: " + body.length + "\r\n\r\n");
+        byte[] response = new byte[header.length + body.length];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(body, 0, response, header.length, body.length);
+        assertEquals(html, NonBlockingFetcher.toDocument(0, response));
+
+        // shorter than its Content-Length
+        byte[] truncated = new byte[response.length - 1];
+        System.arraycopy(response, 0, truncated, 0, truncated.length);
+        assertNull(NonBlockingFetcher.toDocument(0, truncated));
+    }
+
+    @Test
+    public void testToDocumentChunked() throws Exception {
+        byte[] response = bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                                "6\r\n<html>\r\n7\r\n</html>\r\n0\r\n\r\n");
+        assertEquals("<html></html>", NonBlockingFetcher.toDocument(0, response));
+    }
+
+    @Test
+    public void testToDocumentError() throws Exception {
+        assertNull(NonBlockingFetcher.toDocument(0, bytes("HTTP/1.1 404 Not Found\r\n\r\n<html></html>")));
+        assertEquals("<html></html>", NonBlockingFetcher.toDocument(0, bytes("HTTP/1.0 400 Bad Request\r\n\r\n<html></html>")));
+        assertNull(NonBlockingFetcher.toDocument(0, bytes("<html></html>")));
+    }
+
+    @Test
+    public void testToDocumentRedirect() throws Exception {
+        byte[] response = bytes("HTTP/1.1 302 Found\r\nLocation: /new\r\n\r\n<html>Moved</html>");
+        assertNull(NonBlockingFetcher.toDocument(0, response));
+        assertEquals("/new", NonBlockingFetcher.getRedirect(response));
+        response = bytes("HTTP/1.1 304 Not Modified\r\n\r\n");
+        assertNull(NonBlockingFetcher.toDocument(0, response));
+        assertNull(NonBlockingFetcher.getRedirect(response));
+    }
+
+    // answers /loop with a redirect to itself, /old with a redirect to /new, /stale with 304, and anything else with its path
+    private static HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                byte[] body = ("<html>" + path + "</html>").getBytes("US-ASCII");
+                int status = 200;
+                if (path.equals("/loop") || path.equals("/old")) {
+                    exchange.getResponseHeaders().set("Location", path.equals("/old") ? "/new" : "/loop");
+                    status = 302;
+                } else if (path.equals("/stale"))
+                    status = 304;
+                if (status == 304) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else {
+                    exchange.sendResponseHeaders(status, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void testFetchRedirect() throws Exception {
+        HttpServer server = startServer();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            List<URL> urls = Arrays.asList(new URL(base + "/old"), new URL(base + "/loop"),
+                                           new URL(base + "/stale"), new URL(base + "/page"));
+            List<String> docs = new NonBlockingFetcher().fetch(urls, 5000, 0, 4, 4);
+            assertEquals("<html>/new</html>", docs.get(0));
+            assertNull(docs.get(1));
+            assertNull(docs.get(2));
+            assertEquals("<html>/page</html>", docs.get(3));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.rcwang.seal.fetch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchResultCacheTest {
+
+    // searches without downloading, counting the result pages generated and parsed
+    private static class StubSearcher extends WebSearcher {
+        int numGenerated = 0;
+        int numBuilt = 0;
+        boolean fail = false;
+
+        public List<String> generateResultPages() {
+            numGenerated++;
+            List<String> pages = new ArrayList<String>();
+            pages.add(fail ? null : "http://a.com/ http://b.com/");
+            return pages;
+        }
+
+        protected void buildSnippets(String resultPage) {
+            numBuilt++;
+            for (String url : resultPage.split(" ")) {
+                Snippet snippet = new Snippet();
+                snippet.setPageURL(url);
+                snippet.setTitle("title of " + url);
+                snippet.setSummary("summary of " + url);
+                snippet.setRank(snippets.size() + 1);
+                snippets.add(snippet);
+            }
+        }
+
+        protected String getSearchURL(int numResultsForThisPage, int pageNum, String query) {
+            return "http://search.com/?q=" + query + "&start=" + pageNum + "&key=secret";
+        }
+    }
+
+    private static Set<Snippet> snippets(String... urls) {
+        Set<Snippet> snippets = new LinkedHashSet<Snippet>();
+        for (String url : urls) {
+            Snippet snippet = new Snippet();
+            snippet.setPageURL(url);
+            snippet.setTitle("title");
+            snippets.add(snippet);
+        }
+        return snippets;
+    }
+
+    @Test
+    public void testPutGet() {
+        SearchResultCache cache = new SearchResultCache(1000, 10);
+        Set<Snippet> snippets = snippets("http://a.com/", "http://b.com/");
+        cache.put("key", snippets, 0);
+        Set<Snippet> cached = cache.get("key", 500);
+        assertEquals(snippets, cached);
+        Iterator<Snippet> iter = cached.iterator();
+        assertEquals("http://a.com/", iter.next().getPageURL().toString());
+        // copies are handed out, so changing them does not change the cache
+        Snippet snippet = cached.iterator().next();
+        assertTrue(snippets.iterator().next() != snippet);
+        snippet.getTitle().annotateSource("title");
+        snippet.setIndex(5);
+        assertEquals(0, cache.get("key", 500).iterator().next().getIndex());
+        assertNull(cache.get("other", 500));
+        // expired
+        assertNull(cache.get("key", 1000));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        SearchResultCache cache = new SearchResultCache(0, 10);
+        cache.put("key", snippets("http://a.com/"), 0);
+        assertNull(cache.get("key", 0));
+    }
+
+    @Test
+    public void testResultCacheKey() {
+        StubSearcher a = new StubSearcher();
+        StubSearcher b = new StubSearcher();
+        a.addQuery("Barack  Obama", true);
+        b.addQuery("\"barack obama\"");
+        assertEquals(a.getResultCacheKey(), b.getResultCacheKey());
+        b.setNumResults(a.getNumResults() + 1);
+        assertFalse(a.getResultCacheKey().equals(b.getResultCacheKey()));
+        assertNull(new StubSearcher().getResultCacheKey());
+    }
+
+    @Test
+    public void testRun() {
+        StubSearcher a = new StubSearcher();
+        a.addQuery("search result cache test");
+        a.run();
+        assertEquals(2, a.getSnippets().size());
+
+        // a repeated search is neither downloaded nor parsed again
+        StubSearcher b = new StubSearcher();
+        b.addQuery("Search  Result Cache TEST");
+        b.setIndex(3);
+        b.run();
+        assertEquals(0, b.numGenerated);
+        assertEquals(0, b.numBuilt);
+        assertEquals(a.getSnippets(), b.getSnippets());
+        assertEquals(3, b.getSnippets().iterator().next().getIndex());
+        assertEquals(0, a.getSnippets().iterator().next().getIndex());
+
+        // incomplete results are not cached
+        StubSearcher c = new StubSearcher();
+        c.addQuery("search result cache failure");
+        c.fail = true;
+        c.run();
+        c.fail = false;
+        c.run();
+        assertEquals(2, c.numGenerated);
+    }
+}
@@ -0,0 +1,37 @@
+package com.rcwang.seal.fetch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class URLFeedTest {
+
+    @Test
+    public void testOf() throws Exception {
+        URLFeed feed = URLFeed.of(3);
+        for (int i = 0; i < 3; i++)
+            assertEquals(Integer.valueOf(i), feed.take());
+        assertEquals(Integer.valueOf(URLFeed.CLOSED), feed.poll());
+        assertNull(feed.poll());
+    }
+
+    @Test
+    public void testAddWhileTaking() throws Exception {
+        final URLFeed feed = new URLFeed();
+        assertNull(feed.poll());
+        Thread thread = new Thread() {
+            public void run() {
+                feed.add(5);
+                feed.close();
+            }
+        };
+        thread.start();
+        assertEquals(Integer.valueOf(5), feed.take());
+        assertEquals(Integer.valueOf(URLFeed.CLOSED), feed.take());
+        thread.join();
+        try {
+            feed.add(-1);
+            fail("Added a negative index");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
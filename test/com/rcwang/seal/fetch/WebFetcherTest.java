@@ -0,0 +1,109 @@
+package com.rcwang.seal.fetch;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WebFetcherTest {
+
+    // answers with one snippet from its host after a delay
+    private static class SlowSearcher extends WebSearcher {
+        private final String host;
+        private final long delayInMS;
+
+        public SlowSearcher(String host, long delayInMS) {
+            this.host = host;
+            this.delayInMS = delayInMS;
+        }
+
+        public void run() {
+            try {
+                Thread.sleep(delayInMS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Snippet snippet = new Snippet();
+            snippet.setPageURL("http://" + host + "/" + getIndex());
+            snippet.setTitle(host);
+            snippets.add(snippet);
+        }
+
+        protected void buildSnippets(String resultPage) {}
+
+        protected String getSearchURL(int numResultsForThisPage, int pageNum, String query) {
+            return null;
+        }
+    }
+
+    // Yahoo answers at once; Bing answers slowly the first time it is asked, then at once
+    private static class StubFetcher extends WebFetcher {
+        final AtomicInteger numBingSearches = new AtomicInteger();
+
+        public StubFetcher() {
+            setUseEngine((1 << ENGINE_YAHOO_API) | (1 << ENGINE_BING_API));
+            setNumSubSeeds(0);
+        }
+
+        protected WebSearcher getSearcher(int i) {
+            if (i == ENGINE_YAHOO_API)
+                return new SlowSearcher("yahoo.com", 0);
+            if (i == ENGINE_BING_API)
+                return new SlowSearcher("bing.com", (numBingSearches.getAndIncrement() == 0) ? 2000 : 0);
+            return null;
+        }
+    }
+
+    private static boolean contains(Set<Snippet> snippets, String host) {
+        for (Snippet snippet : snippets)
+            if (snippet.getPageURL().getHost().equals(host))
+                return true;
+        return false;
+    }
+
+    @Test
+    public void testWaitForAll() {
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.setSearchTimeOutInMS(0);
+        fetcher.setSearchHedgeDelayInMS(0);
+        Set<Snippet> snippets = fetcher.fetchSnippets(Arrays.asList("a", "b"), null);
+        assertEquals(2, snippets.size());
+        assertEquals(1, fetcher.numBingSearches.get());
+    }
+
+    @Test
+    public void testTimeOut() {
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.setSearchTimeOutInMS(300);
+        fetcher.setSearchHedgeDelayInMS(0);
+        long numTimeOuts = getNumTimeOuts("Bing API");
+        long startTime = System.currentTimeMillis();
+        Set<Snippet> snippets = fetcher.fetchSnippets(Arrays.asList("a", "b"), null);
+        assertTrue(System.currentTimeMillis() - startTime < 1500);
+        // partial results from the engine that finished in time
+        assertEquals(1, snippets.size());
+        assertTrue(contains(snippets, "yahoo.com"));
+        assertEquals(numTimeOuts + 1, getNumTimeOuts("Bing API"));
+        assertTrue(WebFetcher.getLatencies().get("Yahoo API").getNumLatencies() > 0);
+    }
+
+    @Test
+    public void testHedge() {
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.setSearchTimeOutInMS(0);
+        fetcher.setSearchHedgeDelayInMS(100);
+        long startTime = System.currentTimeMillis();
+        Set<Snippet> snippets = fetcher.fetchSnippets(Arrays.asList("a", "b"), null);
+        // the hedged search answers long before the first one
+        assertTrue(System.currentTimeMillis() - startTime < 1500);
+        assertEquals(2, snippets.size());
+        assertTrue(contains(snippets, "bing.com"));
+        assertEquals(2, fetcher.numBingSearches.get());
+    }
+
+    private static long getNumTimeOuts(String engine) {
+        return WebFetcher.getLatencies().containsKey(engine) ? WebFetcher.getLatencies().get(engine).getNumTimeOuts() : 0;
+    }
+}
@@ -0,0 +1,188 @@
+package com.rcwang.seal.fetch;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rcwang.seal.util.CacheStore;
+import com.rcwang.seal.util.Helper;
+
+public class WebManagerTest {
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File f : files)
+                delete(f);
+        file.delete();
+    }
+
+    @Test
+    public void testCacheBytes() throws Exception {
+        String document = "<html><body>café 中文</body></html>\n";
+        boolean isCompressCache = WebManager.isCompressCache();
+        try {
+            WebManager.setCompressCache(false);
+            byte[] raw = WebManager.toCacheBytes(document);
+            assertArrayEquals(document.getBytes("UTF-8"), raw);
+            assertEquals(document, WebManager.fromCacheBytes(raw));
+
+            WebManager.setCompressCache(true);
+            byte[] compressed = WebManager.toCacheBytes(document);
+            assertEquals(0x1f, compressed[0] & 0xff);
+            assertEquals(0x8b, compressed[1] & 0xff);
+            assertEquals(document, WebManager.fromCacheBytes(compressed));
+            // uncompressed entries can still be read
+            assertEquals(document, WebManager.fromCacheBytes(raw));
+            assertEquals("", WebManager.fromCacheBytes(new byte[0]));
+
+            // too short to be gzip
+            byte[] magic = {(byte) 0x1f, (byte) 0x8b, 'a'};
+            assertEquals(new String(magic, "UTF-8"), WebManager.fromCacheBytes(magic));
+            // broken gzip is not decoded
+            byte[] truncated = new byte[compressed.length - 6];
+            System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+            assertNull(WebManager.fromCacheBytes(truncated));
+            // a forged uncompressed size neither presizes a huge buffer nor decodes
+            byte[] huge = compressed.clone();
+            for (int i = 1; i <= 4; i++)
+                huge[huge.length - i] = (byte) 0xff;
+            assertNull(WebManager.fromCacheBytes(huge));
+        } finally {
+            WebManager.setCompressCache(isCompressCache);
+        }
+    }
+
+    @Test
+    public void testReadWriteCache() throws Exception {
+        File dir = File.createTempFile("webmanager", "");
+        dir.delete();
+        boolean isCompressCache = WebManager.isCompressCache();
+        try {
+            URL url1 = new URL("http://www.example.com/1.html");
+            URL url2 = new URL("http://www.example.com/2.html");
+            WebManager.setCompressCache(false);
+            WebManager.writeToCache(url1, "<html>one</html>", dir);
+            WebManager.setCompressCache(true);
+            WebManager.writeToCache(url2, "<html>two</html>", dir);
+            assertEquals("<html>one</html>", WebManager.readFromCache(url1, dir));
+            assertEquals("<html>two</html>", WebManager.readFromCache(url2, dir));
+            assertNull(WebManager.readFromCache(new URL("http://www.example.com/3.html"), dir));
+
+            // a broken entry is a miss, and is removed
+            URL url4 = new URL("http://www.example.com/4.html");
+            byte[] broken = WebManager.toCacheBytes("<html>four</html>");
+            broken[broken.length / 2] ^= 0x55;
+            CacheStore.open(dir).put(url4.toString(), broken);
+            assertNull(WebManager.readFromCache(url4, dir));
+            assertNull(CacheStore.open(dir).get(url4.toString()));
+            CacheStore.open(dir).close();
+        } finally {
+            WebManager.setCompressCache(isCompressCache);
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testReadOnlyCache() throws Exception {
+        File dir = File.createTempFile("webmanager", "");
+        dir.delete();
+        boolean isWriteToCache = WebManager.isWriteToCache();
+        boolean isCompressCache = WebManager.isCompressCache();
+        try {
+            // a document of the old layout, and a broken one in the store
+            URL url1 = new URL("http://www.example.com/1.html");
+            File cacheFile = WebManager.loadCachedFile(url1, dir, true);
+            Helper.writeToFile(cacheFile, WebManager.CACHE_HEADER.replace(WebManager.URL_VAR, url1.toString()) + "<html>one</html>\n");
+            URL url2 = new URL("http://www.example.com/2.html");
+            WebManager.setCompressCache(true);
+            byte[] broken = WebManager.toCacheBytes("<html>two</html>");
+            broken[broken.length / 2] ^= 0x55;
+            CacheStore.open(dir).put(url2.toString(), broken);
+
+            // both are read but left as they are
+            WebManager.setWriteToCache(false);
+            assertEquals("<html>one</html>\n", WebManager.readFromCache(url1, dir));
+            assertTrue(cacheFile.isFile());
+            assertNull(CacheStore.open(dir).get(url1.toString()));
+            assertNull(WebManager.readFromCache(url2, dir));
+            assertNotNull(CacheStore.open(dir).get(url2.toString()));
+
+            // and are moved or removed once the cache can be written
+            WebManager.getMemoryCache().clear();
+            WebManager.setWriteToCache(true);
+            assertEquals("<html>one</html>\n", WebManager.readFromCache(url1, dir));
+            assertFalse(cacheFile.exists());
+            assertNotNull(CacheStore.open(dir).get(url1.toString()));
+            assertNull(WebManager.readFromCache(url2, dir));
+            assertNull(CacheStore.open(dir).get(url2.toString()));
+            CacheStore.open(dir).close();
+        } finally {
+            WebManager.setWriteToCache(isWriteToCache);
+            WebManager.setCompressCache(isCompressCache);
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testGetFromCache() throws Exception {
+        File dir = File.createTempFile("webmanager", "");
+        dir.delete();
+        boolean isFetchFromWeb = WebManager.isFetchFromWeb();
+        try {
+            final List<URL> urls = Arrays.asList(new URL("http://www.example.com/a.html"),
+                                                 new URL("http://www.example.com/missing.html"),
+                                                 new URL("http://www.example.com/c.html"));
+            WebManager.writeToCache(urls.get(0), "<html>a</html>", dir);
+            WebManager.writeToCache(urls.get(2), "<html>c</html>", dir);
+            // keep the documents in the store only
+            WebManager.getMemoryCache().clear();
+
+            final WebManager manager = new WebManager();
+            manager.setCacheDir(dir);
+            WebManager.setFetchFromWeb(false);
+            final List<String> expected = Arrays.asList("<html>a</html>", null, "<html>c</html>");
+            final Thread caller = Thread.currentThread();
+            final List<Integer> indexes = Collections.synchronizedList(new ArrayList<Integer>());
+            List<String> docs = manager.get(urls, new FetchListener() {
+                public void fetched(int index, String document) {
+                    assertTrue("Called from another thread", Thread.currentThread() == caller);
+                    assertEquals(expected.get(index), document);
+                    indexes.add(index);
+                }
+            });
+            assertEquals(expected, docs);
+            Collections.sort(indexes);
+            assertEquals(Arrays.asList(0, 2), indexes);
+            assertEquals(2, manager.getNumUrlFromCache());
+            assertEquals(1, manager.getNumUrlFromWeb());
+
+            // the download starts with every URL cached, and returns once they are all read
+            WebManager.setFetchFromWeb(true);
+            manager.setUseNonBlockingFetcher(false);
+            final List<URL> cachedURLs = Arrays.asList(urls.get(2), urls.get(0));
+            final List<List<String>> result = new ArrayList<List<String>>();
+            Thread thread = new Thread() {
+                public void run() {
+                    result.add(manager.get(cachedURLs));
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+            thread.join(10000);
+            assertFalse("The feed of uncached URLs was not closed", thread.isAlive());
+            assertEquals(Arrays.asList("<html>c</html>", "<html>a</html>"), result.get(0));
+            assertEquals(0, manager.getNumUrlFromWeb());
+            CacheStore.open(dir).close();
+        } finally {
+            WebManager.setFetchFromWeb(isFetchFromWeb);
+            delete(dir);
+        }
+    }
+}
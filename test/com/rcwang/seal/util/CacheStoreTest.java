@@ -0,0 +1,181 @@
+package com.rcwang.seal.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CacheStoreTest {
+
+    private File dir;
+
+    private static byte[] bytes(String s) throws Exception {
+        return s.getBytes("UTF-8");
+    }
+
+    private static String string(byte[] b) throws Exception {
+        return (b == null) ? null : new String(b, "UTF-8");
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File f : files)
+                delete(f);
+        file.delete();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("cachestore", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        CacheStore store = new CacheStore(dir);
+        assertNull(store.get("http://a.com/"));
+        store.put("http://a.com/", bytes("<html>a</html>"));
+        store.put("http://b.com/", bytes(""));
+        assertEquals("<html>a</html>", string(store.get("http://a.com/")));
+        assertEquals("", string(store.get("http://b.com/")));
+        assertEquals(2, store.size());
+
+        store.put("http://a.com/", bytes("<html>new</html>"));
+        assertEquals("<html>new</html>", string(store.get("http://a.com/")));
+        assertEquals(2, store.size());
+        assertTrue(store.getGarbageBytes() > 0);
+
+        store.remove("http://a.com/");
+        store.remove("http://c.com/");
+        assertNull(store.get("http://a.com/"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testSameHash() throws Exception {
+        // every key has the same hash, so lookups must compare the keys
+        CacheStore store = new CacheStore(dir) {
+            long hash(String key) {
+                return 42;
+            }
+        };
+        for (int i = 0; i < 100; i++)
+            store.put("http://" + i + ".com/", bytes("page " + i));
+        store.remove("http://50.com/");
+        for (int i = 0; i < 100; i++)
+            assertEquals((i == 50) ? null : "page " + i, string(store.get("http://" + i + ".com/")));
+        assertNull(store.get("http://100.com/"));
+        store.close();
+    }
+
+    @Test
+    public void testGrowAndReopen() throws Exception {
+        CacheStore store = new CacheStore(dir);
+        int n = CacheStore.INITIAL_CAPACITY;
+        for (int i = 0; i < n; i++)
+            store.put("k" + i, bytes("v" + i));
+        store.close();
+
+        store = new CacheStore(dir);
+        assertEquals(n, store.size());
+        assertEquals(n, store.getKeys().size());
+        for (int i = 0; i < n; i += 97)
+            assertEquals("v" + i, string(store.get("k" + i)));
+        store.close();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        CacheStore store = new CacheStore(dir);
+        store.put("a", bytes("1"));
+        store.put("b", bytes("2"));
+        store.remove("a");
+        store.close();
+
+        // rebuilds a lost index from the segments
+        assertTrue(new File(dir, CacheStore.INDEX_FILENAME).delete());
+        store = new CacheStore(dir);
+        assertNull(store.get("a"));
+        assertEquals("2", string(store.get("b")));
+        assertEquals(1, store.size());
+        store.put("c", bytes("3"));
+        store.close();
+
+        // drops a record cut short by a crash
+        File segment = null;
+        for (File file : dir.listFiles())
+            if (file.getName().endsWith(CacheStore.SEGMENT_FILE_EXT))
+                segment = file;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long length = raf.length();
+        raf.seek(length);
+        raf.write(new byte[] {0x53, 0x43, 0x52, 0x31, 0, 0, 0, 9});
+        raf.close();
+        assertTrue(new File(dir, CacheStore.INDEX_FILENAME).delete());
+        store = new CacheStore(dir);
+        assertEquals("2", string(store.get("b")));
+        assertEquals("3", string(store.get("c")));
+        assertEquals(length, segment.length());
+        store.close();
+    }
+
+    @Test
+    public void testSingleWriter() throws Exception {
+        CacheStore store = new CacheStore(dir);
+        store.put("a", bytes("1"));
+        assertFalse(store.isReadOnly());
+        // a second store of the directory can only read it
+        CacheStore reader = new CacheStore(dir);
+        assertTrue(reader.isReadOnly());
+        assertEquals("1", string(reader.get("a")));
+        try {
+            reader.put("b", bytes("2"));
+            fail("Wrote to a read-only store");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("read-only"));
+        }
+        reader.close();
+        assertEquals("1", string(store.get("a")));
+        assertNull(store.get("b"));
+        store.close();
+
+        // the lock is released by closing
+        store = new CacheStore(dir);
+        assertFalse(store.isReadOnly());
+        assertEquals("1", string(store.get("a")));
+        store.close();
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        CacheStore store = new CacheStore(dir);
+        for (int i = 0; i < 10; i++)
+            store.put("key", bytes("value " + i));
+        store.put("other", bytes("other"));
+        long bytes = store.getStoredBytes();
+        store.compact();
+        assertEquals(0, store.getGarbageBytes());
+        assertTrue(store.getStoredBytes() < bytes);
+        assertEquals("value 9", string(store.get("key")));
+        assertEquals("other", string(store.get("other")));
+        store.put("new", bytes("new"));
+        store.close();
+
+        store = new CacheStore(dir);
+        assertEquals(3, store.size());
+        assertEquals("value 9", string(store.get("key")));
+        assertEquals("new", string(store.get("new")));
+        store.close();
+    }
+}
@@ -0,0 +1,26 @@
+package com.rcwang.seal.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileInMS(50));
+        for (int i = 1; i <= 100; i++)
+            histogram.add(i * 10);
+        histogram.addTimeOut();
+        assertEquals(100, histogram.getNumLatencies());
+        assertEquals(1, histogram.getNumTimeOuts());
+        assertEquals(1000, histogram.getMaxInMS());
+        assertEquals(505.0, histogram.getMeanInMS(), 1e-9);
+        // within a factor of two above the actual percentiles
+        long p50 = histogram.getPercentileInMS(50);
+        assertTrue(p50 > 500 && p50 <= 1000);
+        long p10 = histogram.getPercentileInMS(10);
+        assertTrue(p10 > 100 && p10 <= 200);
+        assertEquals(1000, histogram.getPercentileInMS(100));
+    }
+}
@@ -0,0 +1,56 @@
+package com.rcwang.seal.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MemoryCacheTest {
+
+    // every entry of a one-character key and a 10-character value takes 86 bytes
+    private static final long ENTRY_SIZE = MemoryCache.ENTRY_OVERHEAD + 2 + 20;
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        MemoryCache<String, String> cache = new MemoryCache<String, String>(3 * ENTRY_SIZE);
+        cache.put("a", "0123456789");
+        cache.put("b", "0123456789");
+        cache.put("c", "0123456789");
+        assertEquals(3 * ENTRY_SIZE, cache.getBytes());
+        assertNotNull(cache.get("a"));
+        cache.put("d", "0123456789");
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getNumEvictions());
+        assertEquals(4, cache.getNumHits());
+        assertEquals(1, cache.getNumMisses());
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        MemoryCache<String, String> cache = new MemoryCache<String, String>(3 * ENTRY_SIZE);
+        cache.put("a", "0123456789");
+        cache.put("b", "0123456789");
+        // takes the room of two entries
+        cache.put("c", "01234567890123456789012345678901234567890123456789012345678901234567890123");
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+        // larger than the cache
+        cache.put("c", new String(new char[1000]));
+        assertNull(cache.get("c"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        MemoryCache<String, String> cache = new MemoryCache<String, String>(1000);
+        cache.put("a", "0123456789");
+        cache.put("a", "01234");
+        assertEquals("01234", cache.get("a"));
+        assertEquals(MemoryCache.ENTRY_OVERHEAD + 2 + 10, cache.getBytes());
+        assertEquals("01234", cache.remove("a"));
+        assertEquals(0, cache.getBytes());
+        assertEquals(0, cache.getNumEvictions());
+    }
+}
@@ -0,0 +1,247 @@
+package com.rcwang.seal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rcwang.seal.expand.Entity;
+import com.rcwang.seal.expand.Wrapper;
+import com.rcwang.seal.expand.Wrapper.MiddleContext;
+
+public class PairedTrieTest {
+
+    private static final String FEATURE = "weight";
+    private static final int[] MIN_TYPES = {PairedTrie.BRACKET_MOST_WEIGHT, PairedTrie.BRACKET_MOST_SEEDS,
+                                            PairedTrie.BRACKET_ALL_SEEDS, 2, 3};
+    private static final double[] MIN_WEIGHTS = {0, 1.5, 4};
+
+    private static final String[] LEFTS = {"<li>", "<b>", "</li><li>", "a<b>"};
+    private static final String[] RIGHTS = {"</li>", "</b>", "</li><li>", "</b>a"};
+
+    // contexts mostly share a few prefixes, so that there are common contexts to find
+    private static String randomContext(Random random, String[] contexts, boolean isLeft) {
+        StringBuilder buf = new StringBuilder();
+        for (int j = random.nextInt(3); j > 0; j--)
+            buf.append("<ab/>".charAt(random.nextInt(5)));
+        if (random.nextInt(5) == 0) return buf.toString();
+        String context = contexts[random.nextInt(contexts.length)];
+        return isLeft ? buf + context : context + buf;
+    }
+
+
+    // left context, right context, seed and its weight
+    private static final String[][] UNARY = {
+        {"<ul>\n<li>", "</li>\n<li>", "toyota", "3"},
+        {"</li>\n<li>", "</li>\n<li>", "honda", "1"},
+        {"</li>\n<li>", "</li>\n</ul>", "nissan", "2"},
+        {"<p><b>", "</b> cars", "toyota", "3"},
+        {"and <b>", "</b> and", "honda", "1"},
+        {" <b>", "</b>,", "ford", "0.5"},
+        {"<td>", "</td>", "ford", "0.5"},
+        {"<td>", "</td>", "nissan", "2"},
+        {"<tr><td>", "</td></tr>", "honda", "1"},
+    };
+
+    // left context, middle context, whether it is reversed, right context, seed and its weight
+    private static final String[][] RELATIONAL = {
+        {"<tr><td>", "</td><td>", "false", "</td></tr>", "toyota::japan", "3"},
+        {"</tr><tr><td>", "</td><td>", "false", "</td></tr>", "ford::usa", "1"},
+        {"<tr><td>", "</td><td>", "false", "</td></tr>\n</table>", "bmw::germany", "2"},
+        {"<li>", " (", "false", ")</li>", "honda::japan", "1"},
+        {"<li>", " (", "false", ")</li>", "kia::korea", "0.5"},
+        {"</li><li>", ": ", "true", "</li>", "ford::usa", "1"},
+        {"<li>", ": ", "true", "</li>", "fiat::italy", "2"},
+    };
+
+    // minType, minLength, minWeight and the wrappers expected with their seeds
+    private static final String[][] UNARY_WRAPPERS = {
+        {"-2", "1", "0", "{>[...]</} [ford, honda, nissan, toyota]"},
+        {"-2", "3", "0", "{> <li>[...]</li> <} [honda, nissan, toyota]"},
+        {"-1", "1", "0", "{>[...]</} [ford, honda, nissan, toyota]"},
+        {"-1", "3", "0", "{<b>[...]</b>} [ford, honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <} [honda, nissan, toyota]"},
+        {"0", "1", "0", "{>[...]</} [ford, honda, nissan, toyota]"},
+        {"0", "3", "0"},
+        {"2", "1", "0", "{ <b>[...]</b>} [ford, honda]", "{</li> <li>[...]</li> <} [honda, nissan]", "{<b>[...]</b> } [honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <li>} [honda, toyota]"},
+        {"2", "1", "3.5", "{<b>[...]</b> } [honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <li>} [honda, toyota]"},
+        {"2", "3", "0", "{ <b>[...]</b>} [ford, honda]", "{</li> <li>[...]</li> <} [honda, nissan]", "{<b>[...]</b> } [honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <li>} [honda, toyota]"},
+        {"2", "3", "3.5", "{<b>[...]</b> } [honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <li>} [honda, toyota]"},
+        {"3", "1", "0", "{<b>[...]</b>} [ford, honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <} [honda, nissan, toyota]"},
+        {"3", "3", "0", "{<b>[...]</b>} [ford, honda, toyota]", "{<td>[...]</td>} [ford, honda, nissan]", "{> <li>[...]</li> <} [honda, nissan, toyota]"}
+    };
+
+    private static final String[][] RELATIONAL_WRAPPERS = {
+        {"-2", "1", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"-2", "3", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"-1", "1", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"-1", "3", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"0", "1", "0"},
+        {"0", "3", "0"},
+        {"2", "1", "0", "{<li>[.1.] ([.2.])</li>} [honda::japan, kia::korea]", "{<li>[.2.]: [.1.]</li>} [fiat::italy, ford::usa]", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"2", "1", "3.5", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"2", "3", "0", "{<li>[.1.] ([.2.])</li>} [honda::japan, kia::korea]", "{<li>[.2.]: [.1.]</li>} [fiat::italy, ford::usa]", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"2", "3", "3.5", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"3", "1", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"},
+        {"3", "3", "0", "{<tr><td>[.1.]</td><td>[.2.]</td></tr>} [bmw::germany, ford::usa, toyota::japan]"}
+    };
+
+    private static final String LEFT_TRIE =
+        " [0,1,2,3,4,5,6,7,8] (0)\n" +
+        "> [0,1,2,3,4,5,6,7,8] (1)\n" +
+        "|il< > [0,1,2] (6)\n" +
+        "||||||lu< [0] (9)\n" +
+        "||||||il/< [1,2] (10)\n" +
+        "|b< [3,4,5] (3)\n" +
+        "|||>p< [3] (6)\n" +
+        "|||  [4,5] (4)\n" +
+        "||||dna [4] (7)\n" +
+        "|dt< [6,7,8] (4)\n" +
+        "||||>rt< [8] (8)\n";
+
+    private static Entity toEntity(List<Entity> entities, String name, String weight) {
+        for (Entity entity : entities)
+            if (entity.getName().toString().equals(name))
+                return entity;
+        String[] names = name.split("::");
+        Entity entity = (names.length == 2) ? new Entity(names[0], names[1]) : new Entity(name);
+        entity.addWeight(FEATURE, Double.parseDouble(weight));
+        entities.add(entity);
+        return entity;
+    }
+
+    private static PairedTrie newUnaryTrie(boolean useSuffixArray) {
+        PairedTrie trie = new PairedTrie();
+        trie.setUseSuffixArray(useSuffixArray);
+        trie.setFeature(FEATURE);
+        List<Entity> entities = new ArrayList<Entity>();
+        for (String[] occurrence : UNARY)
+            trie.add(occurrence[0], occurrence[1], toEntity(entities, occurrence[2], occurrence[3]));
+        return trie;
+    }
+
+    private static PairedTrie newRelationalTrie(boolean useSuffixArray) {
+        PairedTrie trie = new PairedTrie();
+        trie.setUseSuffixArray(useSuffixArray);
+        trie.setFeature(FEATURE);
+        List<Entity> entities = new ArrayList<Entity>();
+        for (String[] occurrence : RELATIONAL) {
+            MiddleContext middle = new MiddleContext(occurrence[1], Boolean.parseBoolean(occurrence[2]));
+            trie.add(occurrence[0], middle, occurrence[3], toEntity(entities, occurrence[4], occurrence[5]));
+        }
+        return trie;
+    }
+
+    // wrappers with their seeds, in a comparable form
+    private static List<String> toStrings(Iterable<Wrapper> wrappers) {
+        List<String> strings = new ArrayList<String>();
+        for (Wrapper wrapper : wrappers) {
+            List<String> seeds = new ArrayList<String>();
+            for (Entity seed : wrapper.getSeeds())
+                seeds.add(seed.getName().toString());
+            Collections.sort(seeds);
+            strings.add(wrapper + " " + seeds);
+        }
+        Collections.sort(strings);
+        return strings;
+    }
+
+    private static void assertSameWrappers(Random random, boolean isRelational) {
+        for (int trial = 0; trial < 300; trial++) {
+            PairedTrie trie = new PairedTrie();
+            PairedTrie array = new PairedTrie();
+            array.setUseSuffixArray(true);
+            trie.setFeature(FEATURE);
+            array.setFeature(FEATURE);
+
+            List<Entity> seeds = new ArrayList<Entity>();
+            for (int i = 2 + random.nextInt(4); i > 0; i--) {
+                Entity seed = new Entity("seed" + i);
+                seed.addWeight(FEATURE, random.nextInt(4));
+                seeds.add(seed);
+            }
+            StringBuilder occurrences = new StringBuilder();
+            for (int i = random.nextInt(12); i > 0; i--) {
+                String left = randomContext(random, LEFTS, true);
+                String text = left + randomContext(random, RIGHTS, false);
+                int leftEnd = left.length();
+                Entity seed = seeds.get(random.nextInt(seeds.size()));
+                MiddleContext middle = null;
+                if (isRelational)
+                    middle = new MiddleContext(random.nextBoolean() ? "/" : "<b>", random.nextBoolean());
+                // the left context of an occurrence is read backwards from its end
+                trie.add(text, 0, leftEnd, middle, leftEnd, text.length(), seed);
+                array.add(text, 0, leftEnd, middle, leftEnd, text.length(), seed);
+                occurrences.append(text.substring(0, leftEnd)).append("[").append(seed.getName())
+                           .append(middle == null ? "" : " " + middle).append("]")
+                           .append(text.substring(leftEnd)).append(" ");
+            }
+            for (int minType : MIN_TYPES) {
+                for (int minLength = 1; minLength <= 3; minLength++) {
+                    for (double minWeight : MIN_WEIGHTS) {
+                        String message = "minType " + minType + ", minLength " + minLength +
+                                         ", minWeight " + minWeight + " for " + occurrences;
+                        assertEquals(message, toStrings(trie.getWrappers(minType, minLength, minWeight)),
+                                     toStrings(array.getWrappers(minType, minLength, minWeight)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertWrappers(PairedTrie trie, String[][] expectations) {
+        for (String[] expected : expectations) {
+            int minType = Integer.parseInt(expected[0]);
+            int minLength = Integer.parseInt(expected[1]);
+            double minWeight = Double.parseDouble(expected[2]);
+            String message = "minType " + minType + ", minLength " + minLength + ", minWeight " + minWeight;
+            assertEquals(message, Arrays.asList(expected).subList(3, expected.length),
+                         toStrings(trie.getWrappers(minType, minLength, minWeight)));
+        }
+    }
+
+    @Test
+    public void testUnaryWrappers() {
+        assertWrappers(newUnaryTrie(false), UNARY_WRAPPERS);
+        assertWrappers(newUnaryTrie(true), UNARY_WRAPPERS);
+    }
+
+    @Test
+    public void testRelationalWrappers() {
+        assertWrappers(newRelationalTrie(false), RELATIONAL_WRAPPERS);
+        assertWrappers(newRelationalTrie(true), RELATIONAL_WRAPPERS);
+    }
+
+    @Test
+    public void testLeftTrie() {
+        assertEquals(LEFT_TRIE, newUnaryTrie(false).getLeftTrie().toString());
+    }
+
+    @Test
+    public void testUnarySameAsTrie() {
+        assertSameWrappers(new Random(0), false);
+    }
+
+    @Test
+    public void testRelationalSameAsTrie() {
+        assertSameWrappers(new Random(1), true);
+    }
+
+    @Test
+    public void testGetWrappers() {
+        PairedTrie trie = new PairedTrie();
+        trie.setUseSuffixArray(true);
+        String[] names = {"Toyota", "Honda", "Nissan"};
+        for (String name : names)
+            trie.add("<ul><li>", "</li><li>", new Entity(name));
+        trie.add("<b>", "</b>", new Entity("Honda"));
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("{<ul><li>[...]</li><li>} [Honda, Nissan, Toyota]");
+        assertEquals(expected, toStrings(trie.getWrappers(PairedTrie.BRACKET_ALL_SEEDS, 1, 0)));
+        assertTrue(trie.getWrappers(4, 1, 0).isEmpty());
+    }
+}
@@ -0,0 +1,52 @@
+package com.rcwang.seal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SubstringIndexTest {
+
+    private static boolean containedBy(List<String> strings, String s) {
+        for (String string : strings)
+            if (string.contains(s))
+                return true;
+        return false;
+    }
+
+    @Test
+    public void testSameAsContains() {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 200; trial++) {
+            List<String> strings = new ArrayList<String>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                StringBuilder buf = new StringBuilder();
+                for (int j = random.nextInt(12); j > 0; j--)
+                    buf.append("abc d".charAt(random.nextInt(5)));
+                strings.add(buf.toString());
+            }
+            SubstringIndex index = new SubstringIndex(strings);
+            for (int k = 0; k < 200; k++) {
+                StringBuilder buf = new StringBuilder();
+                for (int j = random.nextInt(6); j > 0; j--)
+                    buf.append("abc dA".charAt(random.nextInt(6)));
+                String s = buf.toString();
+                assertEquals("Differs for " + s + " in " + strings, containedBy(strings, s), index.contains(s));
+                assertEquals("Differs for " + s + " in " + strings, containedBy(strings, s.toLowerCase()),
+                             index.contains(s, 0, s.length(), true));
+            }
+        }
+    }
+
+    @Test
+    public void testRange() {
+        SubstringIndex index = new SubstringIndex(Arrays.asList("new york city", "los angeles"));
+        assertTrue(index.contains("  York ", 2, 6, true));
+        assertFalse(index.contains("  York ", 2, 6, false));
+        assertFalse(index.contains("york los"));
+        assertFalse(new SubstringIndex(new ArrayList<String>()).contains(""));
+    }
+}